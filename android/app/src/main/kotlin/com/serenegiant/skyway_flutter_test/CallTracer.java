@@ -0,0 +1,270 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.os.Process;
+
+import org.json.JSONObject;
+
+import java.util.Collection;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 通話開始までの各フェーズ(接続, ローカル映像の取得, 発呼/入室, 描画開始)の
+ * 所要時間を記録するための固定サイズのリングバッファ
+ * 時刻はSystem.nanoTime(単調増加する時計)で記録する
+ * 記録中は配列を書き換えるだけなのでメモリを割り当てない
+ * Chrome trace event形式のJSON(chrome://tracingやPerfettoで表示できる)で書き出せる
+ * どのスレッドから呼び出してもよい
+ */
+class CallTracer {
+
+	/**
+	 * デフォルトで保持するスパンの数, 古いものから上書きする
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+	/**
+	 * 同時に計測できる(終了していない)スパンの数, 超えたときは一番古いものを破棄する
+	 */
+	private static final int MAX_OPEN = 32;
+
+	public static final String CATEGORY_PEER = "peer";
+	public static final String CATEGORY_MEDIA = "media";
+	public static final String CATEGORY_P2P = "p2p";
+	public static final String CATEGORY_MESH = "mesh";
+	public static final String CATEGORY_SFU = "sfu";
+
+	@NonNull
+	private final Object mSync = new Object();
+	/**
+	 * 書き出したときのスレッドid(ピア毎に区別するため)
+	 */
+	private final int mTid;
+	/**
+	 * 書き出したときのスレッド名
+	 */
+	@NonNull
+	private final String mName;
+	// 終了したスパン(リングバッファ)
+	@NonNull
+	private final String[] mNames;
+	@NonNull
+	private final String[] mCategories;
+	@NonNull
+	private final String[] mDetails;
+	@NonNull
+	private final long[] mStartNs;
+	@NonNull
+	private final long[] mEndNs;
+	private int mHead;
+	private int mCount;
+	// 計測中のスパン
+	@NonNull
+	private final String[] mOpenNames = new String[MAX_OPEN];
+	@NonNull
+	private final String[] mOpenCategories = new String[MAX_OPEN];
+	@NonNull
+	private final String[] mOpenDetails = new String[MAX_OPEN];
+	@NonNull
+	private final long[] mOpenStartNs = new long[MAX_OPEN];
+
+	/**
+	 * コンストラクタ
+	 * @param tid 書き出したときのスレッドid
+	 * @param name 書き出したときのスレッド名
+	 * @param capacity 保持するスパンの数
+	 */
+	public CallTracer(final int tid, @NonNull final String name, final int capacity) {
+		mTid = tid;
+		mName = name;
+		final int n = Math.max(1, capacity);
+		mNames = new String[n];
+		mCategories = new String[n];
+		mDetails = new String[n];
+		mStartNs = new long[n];
+		mEndNs = new long[n];
+	}
+
+	/**
+	 * スパンの計測を開始する
+	 * 同じ名前と詳細のスパンを計測中なら開始時刻を更新する
+	 * @param name フェーズ名
+	 * @param category 接続方法(CATEGORY_XXX)
+	 * @param detail リモートピアIDやルーム名等
+	 */
+	public void begin(@NonNull final String name, @NonNull final String category,
+		@Nullable final String detail) {
+
+		final long now = System.nanoTime();
+		synchronized (mSync) {
+			int slot = findOpenLocked(name, detail);
+			if (slot < 0) {
+				// 空きがなければ一番古いものを上書きする
+				slot = 0;
+				for (int i = 0; i < MAX_OPEN; i++) {
+					if (mOpenNames[i] == null) {
+						slot = i;
+						break;
+					} else if (mOpenStartNs[i] < mOpenStartNs[slot]) {
+						slot = i;
+					}
+				}
+			}
+			mOpenNames[slot] = name;
+			mOpenCategories[slot] = category;
+			mOpenDetails[slot] = detail;
+			mOpenStartNs[slot] = now;
+		}
+	}
+
+	/**
+	 * beginで開始したスパンの計測を終了する
+	 * @param name
+	 * @param detail
+	 * @return 計測中のスパンが無ければfalse
+	 */
+	public boolean end(@NonNull final String name, @Nullable final String detail) {
+		final long now = System.nanoTime();
+		synchronized (mSync) {
+			final int slot = findOpenLocked(name, detail);
+			if (slot >= 0) {
+				addLocked(name, mOpenCategories[slot], detail, mOpenStartNs[slot], now);
+				mOpenNames[slot] = mOpenCategories[slot] = mOpenDetails[slot] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 開始/終了時刻が分かっているスパンを記録する
+	 * @param name
+	 * @param category
+	 * @param detail
+	 * @param startNs System.nanoTimeの値
+	 * @param endNs System.nanoTimeの値
+	 */
+	public void record(@NonNull final String name, @NonNull final String category,
+		@Nullable final String detail, final long startNs, final long endNs) {
+
+		synchronized (mSync) {
+			addLocked(name, category, detail, startNs, endNs);
+		}
+	}
+
+	/**
+	 * 記録したスパンと計測中のスパンを全て破棄する
+	 */
+	public void clear() {
+		synchronized (mSync) {
+			clearSpansLocked();
+			for (int i = 0; i < MAX_OPEN; i++) {
+				mOpenNames[i] = mOpenCategories[i] = mOpenDetails[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Chrome trace event形式のJSONへ変換する
+	 * @param tracers
+	 * @param clear trueなら書き出した後に終了したスパンを破棄する(計測中のスパンはそのまま)
+	 * @return
+	 */
+	@NonNull
+	public static String toChromeTrace(@NonNull final Collection<CallTracer> tracers,
+		final boolean clear) {
+
+		final StringBuilder sb = new StringBuilder("{\"traceEvents\":[");
+		final int pid = Process.myPid();
+		boolean first = true;
+		for (final CallTracer tracer: tracers) {
+			tracer.appendTo(sb, pid, first, clear);
+			first = false;
+		}
+		sb.append("],\"displayTimeUnit\":\"ms\"}");
+		return sb.toString();
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param name
+	 * @param detail
+	 * @return 見つからなければ-1
+	 */
+	private int findOpenLocked(@NonNull final String name, @Nullable final String detail) {
+		for (int i = 0; i < MAX_OPEN; i++) {
+			if (name.equals(mOpenNames[i])
+				&& ((detail != null) ? detail.equals(mOpenDetails[i]) : mOpenDetails[i] == null)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * mSyncをロックした状態で呼び出すこと
+	 */
+	private void addLocked(@NonNull final String name, @NonNull final String category,
+		@Nullable final String detail, final long startNs, final long endNs) {
+
+		mNames[mHead] = name;
+		mCategories[mHead] = category;
+		mDetails[mHead] = detail;
+		mStartNs[mHead] = startNs;
+		mEndNs[mHead] = endNs;
+		mHead = (mHead + 1) % mNames.length;
+		if (mCount < mNames.length) {
+			mCount++;
+		}
+	}
+
+	/**
+	 * 終了したスパンを破棄する
+	 * mSyncをロックした状態で呼び出すこと
+	 */
+	private void clearSpansLocked() {
+		for (int i = 0; i < mNames.length; i++) {
+			mNames[i] = mCategories[i] = mDetails[i] = null;
+		}
+		mHead = mCount = 0;
+	}
+
+	/**
+	 * 記録したスパンを古い順にtrace event(完了イベント, ph=X)として追加する
+	 * @param sb
+	 * @param pid
+	 * @param first 最初のイベントならtrue(区切りのカンマを付けない)
+	 * @param clear
+	 */
+	private void appendTo(@NonNull final StringBuilder sb, final int pid,
+		final boolean first, final boolean clear) {
+
+		synchronized (mSync) {
+			// スレッド名のメタデータイベント
+			if (!first) {
+				sb.append(',');
+			}
+			sb.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(pid)
+				.append(",\"tid\":").append(mTid)
+				.append(",\"args\":{\"name\":").append(JSONObject.quote(mName)).append("}}");
+			final int n = mNames.length;
+			for (int i = 0; i < mCount; i++) {
+				final int ix = (mHead - mCount + i + n) % n;
+				sb.append(",{\"name\":").append(JSONObject.quote(mNames[ix]))
+					.append(",\"cat\":").append(JSONObject.quote(mCategories[ix]))
+					.append(",\"ph\":\"X\",\"pid\":").append(pid)
+					.append(",\"tid\":").append(mTid)
+					.append(",\"ts\":").append(mStartNs[ix] / 1000)
+					.append(",\"dur\":").append(Math.max(0, mEndNs[ix] - mStartNs[ix]) / 1000);
+				if (mDetails[ix] != null) {
+					sb.append(",\"args\":{\"target\":").append(JSONObject.quote(mDetails[ix])).append('}');
+				}
+				sb.append('}');
+			}
+			if (clear) {
+				clearSpansLocked();
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.content.Context
+import android.util.Log
+import android.view.ViewGroup
+import io.skyway.Peer.Browser.Canvas
+import java.util.ArrayDeque
+
+/**
+ * SkywayのCanvasを再利用するためのプール
+ * Canvasを生成するたびにSurface/EGLの初期化が走るのを避けるために
+ * FlutterSkywayCanvasが破棄されたときにCanvasをプールへ戻して次のビューで再利用する
+ * 前回表示したときのサイズを保持しておき、要求サイズと同じものを優先して返す
+ */
+class CanvasPool(private val maxPoolSize: Int = DEFAULT_MAX_POOL_SIZE) {
+
+	private class Entry(val canvas: Canvas, val width: Int, val height: Int)
+
+	private val mPool = ArrayDeque<Entry>(maxPoolSize)
+	/**
+	 * プールから再利用できた回数
+	 */
+	var hits = 0L
+		private set
+	/**
+	 * プールが空で新たに生成した回数
+	 */
+	var misses = 0L
+		private set
+
+	/**
+	 * Canvasを取得する, プールに無ければ新しく生成する
+	 * メインスレッドから呼び出すこと
+	 * @param context
+	 * @param width 表示予定の幅(不明なら0)
+	 * @param height 表示予定の高さ(不明なら0)
+	 */
+	fun acquire(context: Context, width: Int, height: Int): Canvas {
+		val entry = take(width, height)
+		return if (entry != null) {
+			hits++
+			if (DEBUG) Log.v(TAG, "acquire:hit,${entry.width}x${entry.height},hits=$hits")
+			// プールへ戻した後にまだ前の親ビューに追加されたままかもしれないので取り除いておく
+			(entry.canvas.parent as? ViewGroup)?.removeView(entry.canvas)
+			reset(entry.canvas)
+			entry.canvas
+		} else {
+			misses++
+			if (DEBUG) Log.v(TAG, "acquire:miss,misses=$misses")
+			Canvas(context).also { reset(it) }
+		}
+	}
+
+	/**
+	 * 使い終わったCanvasをプールへ戻す
+	 * 映像の描画先からは取り除いた状態で呼び出すこと
+	 * プールがいっぱいのときは破棄する
+	 * @param canvas
+	 */
+	fun recycle(canvas: Canvas) {
+		if (mPool.size < maxPoolSize) {
+			mPool.addLast(Entry(canvas, canvas.width, canvas.height))
+		}
+		if (DEBUG) Log.v(TAG, "recycle:pooled=${mPool.size}")
+	}
+
+	/**
+	 * プールしているCanvasを全て破棄する
+	 */
+	fun clear() {
+		mPool.clear()
+	}
+
+	/**
+	 * プールの統計情報を取得する
+	 */
+	fun stats(): Map<String, Any> {
+		return mapOf(
+			"hits" to hits,
+			"misses" to misses,
+			"pooled" to mPool.size,
+			"maxPoolSize" to maxPoolSize)
+	}
+
+	/**
+	 * 要求サイズと同じサイズのものを優先してプールから取り出す
+	 */
+	private fun take(width: Int, height: Int): Entry? {
+		if ((width > 0) && (height > 0)) {
+			val it = mPool.iterator()
+			while (it.hasNext()) {
+				val entry = it.next()
+				if ((entry.width == width) && (entry.height == height)) {
+					it.remove()
+					return entry
+				}
+			}
+		}
+		return mPool.pollFirst()
+	}
+
+	/**
+	 * 再利用時のためにデフォルトの状態へ戻す
+	 */
+	private fun reset(canvas: Canvas) {
+		canvas.mirror = false
+		// FIXME 表示されているかの確認ようにとりあえず適当に背景色を付けておく
+		canvas.setBackgroundColor(DEFAULT_BACKGROUND_COLOR)
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = CanvasPool::class.java.simpleName
+		private const val DEFAULT_MAX_POOL_SIZE = 8
+		private const val DEFAULT_BACKGROUND_COLOR = 0x3fff0000
+	}
+}
@@ -0,0 +1,108 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.graphics.PixelFormat
+import android.graphics.Rect
+import android.view.Surface
+import android.view.SurfaceHolder
+import io.skyway.Peer.Browser.Canvas
+
+/**
+ * SkywayのCanvasの描画先をビュー階層外のSurfaceへ切り替えるためのSurfaceHolder
+ * SDKには映像フレームを直接受け取る仕組みが無いので、Canvas(映像描画用のSurfaceView)が
+ * 自分のSurfaceHolderから受け取るSurfaceHolder.Callbackへ代わりにこのクラスを渡して
+ * 指定したSurfaceへ描画させる
+ * Canvasの描画処理が使うのはgetSurface/getSurfaceFrame程度なのでそれ以外は何もしない
+ * attach/resize/detachはメインスレッド上で呼び出すこと
+ *
+ * XXX これはSDKの公開APIではなく実装に依存している
+ * SkyWay Android SDK 2.0.3(build.gradleのskyway_version)のCanvasは
+ * WebRTCのSurfaceViewRendererと同様にSurfaceHolder.Callbackを実装していて
+ * surfaceCreatedで渡されたSurfaceHolder#getSurfaceへ描画するので、それを前提にしている
+ * SDKを更新したときはテクスチャへ描画できることを確認すること
+ * Callbackを実装していなければisSupportedがfalseになり、Callbackを実装していても
+ * surfaceCreatedでgetSurfaceを呼ばなければ(描画先として使わなければ)attachがfalseを返すので
+ * 呼び出し元はPlatformViewでの描画へ戻すこと
+ * @param canvas 描画に使うCanvas, ビュー階層へは追加しないこと
+ */
+class CanvasSurfaceHolder(canvas: Canvas) : SurfaceHolder {
+	/**
+	 * Canvasの描画処理, SDKのバージョンによってSurfaceHolder.Callbackを実装していなければnull
+	 */
+	private val callback = canvas as? SurfaceHolder.Callback
+	@Volatile
+	private var surface: Surface? = null
+	@Volatile
+	private var width = 0
+	@Volatile
+	private var height = 0
+	/**
+	 * attach中にCanvasがgetSurfaceを呼んだかどうか
+	 */
+	@Volatile
+	private var surfaceRequested = false
+
+	/**
+	 * Canvasの描画先を切り替えることができるかどうか
+	 */
+	val isSupported: Boolean
+		get() = callback != null
+
+	/**
+	 * Canvasの描画先を指定したSurfaceへ切り替える
+	 * @param surface
+	 * @param width
+	 * @param height
+	 * @return Canvasが指定したSurfaceを描画先として取得したかどうか
+	 *         falseのときも描画先を取り除くためにdetachを呼ぶこと
+	 */
+	fun attach(surface: Surface, width: Int, height: Int): Boolean {
+		this.surface = surface
+		this.width = width
+		this.height = height
+		surfaceRequested = false
+		callback?.surfaceCreated(this)
+		callback?.surfaceChanged(this, PixelFormat.RGBA_8888, width, height)
+		return surfaceRequested
+	}
+
+	/**
+	 * 描画先のサイズが変わったことをCanvasへ通知する
+	 * @param width
+	 * @param height
+	 */
+	fun resize(width: Int, height: Int) {
+		if ((surface != null) && ((width != this.width) || (height != this.height))) {
+			this.width = width
+			this.height = height
+			callback?.surfaceChanged(this, PixelFormat.RGBA_8888, width, height)
+		}
+	}
+
+	/**
+	 * Canvasの描画先を取り除く, Surfaceを破棄する前に呼び出すこと
+	 */
+	fun detach() {
+		if (surface != null) {
+			callback?.surfaceDestroyed(this)
+			surface = null
+		}
+	}
+
+	override fun addCallback(callback: SurfaceHolder.Callback?) {}
+	override fun removeCallback(callback: SurfaceHolder.Callback?) {}
+	override fun isCreating(): Boolean = false
+	@Suppress("OverridingDeprecatedMember")
+	override fun setType(type: Int) {}
+	override fun setFixedSize(width: Int, height: Int) {}
+	override fun setSizeFromLayout() {}
+	override fun setFormat(format: Int) {}
+	override fun setKeepScreenOn(screenOn: Boolean) {}
+	override fun lockCanvas(): android.graphics.Canvas? = null
+	override fun lockCanvas(dirty: Rect?): android.graphics.Canvas? = null
+	override fun unlockCanvasAndPost(canvas: android.graphics.Canvas?) {}
+	override fun getSurfaceFrame(): Rect = Rect(0, 0, width, height)
+	override fun getSurface(): Surface? {
+		surfaceRequested = true
+		return surface
+	}
+}
@@ -0,0 +1,112 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.util.Log
+import io.flutter.view.TextureRegistry
+import io.skyway.Peer.Browser.Canvas
+
+/**
+ * SkywayのCanvasの描画先をFlutterのTextureRegistryへ登録したSurfaceTextureへ切り替えるためのクラス
+ * CanvasSurfaceHolderでCanvasの描画先をTextureFrameForwarderのSurfaceへ切り替えて
+ * limiterに従って間引いてからSurfaceTextureへ転送する
+ * Canvas自体はビュー階層へ追加しないのでPlatformViewの合成が不要になり
+ * Dart側ではTextureウイジェットで表示する
+ * Canvasの描画先の切り替えはSDKの実装に依存しているので(CanvasSurfaceHolder参照)
+ * 切り替えられなかったときはisSupportedがfalseになる
+ * メインスレッド上で生成/破棄すること
+ * @param canvas 描画に使うCanvas, ビュー階層へは追加しないこと
+ * @param entry
+ * @param width 描画サイズ(0以下ならDEFAULT_WIDTH)
+ * @param height 描画サイズ(0以下ならDEFAULT_HEIGHT)
+ * @param limiter 描画間隔の制限と描画/間引いたフレームの計数
+ */
+class CanvasTextureBridge(
+	canvas: Canvas,
+	private val entry: TextureRegistry.SurfaceTextureEntry,
+	width: Int, height: Int,
+	limiter: FrameRateLimiter) : FlutterSkywayCanvas.RenderTarget {
+
+	private var width = if (width > 0) width else DEFAULT_WIDTH
+	private var height = if (height > 0) height else DEFAULT_HEIGHT
+	private val holder = CanvasSurfaceHolder(canvas)
+	/**
+	 * Canvasの描画先, Canvasがテクスチャへの描画に対応していないかEGLの初期化に失敗したときはnull
+	 */
+	private var forwarder = if (holder.isSupported) {
+		try {
+			TextureFrameForwarder(entry.surfaceTexture(), this.width, this.height, limiter)
+		} catch (e: IllegalStateException) {
+			Log.w(TAG, e)
+			null
+		}
+	} else {
+		null
+	}
+	private var released = false
+
+	/**
+	 * Flutterのテクスチャid(Textureウイジェットへ渡す)
+	 */
+	val textureId: Long
+		get() = entry.id()
+
+	/**
+	 * Canvasの描画先をSurfaceTextureへ切り替えることができたかどうか
+	 */
+	override val isSupported: Boolean
+		get() = forwarder != null
+
+	init {
+		if (DEBUG) Log.v(TAG, "ctor:textureId=${entry.id()},${this.width}x${this.height}")
+		val forwarder = forwarder
+		if (forwarder == null) {
+			Log.w(TAG, "Canvas does not implement SurfaceHolder.Callback, texture rendering is not available")
+		} else if (!holder.attach(forwarder.inputSurface, this.width, this.height)) {
+			Log.w(TAG, "Canvas did not use the surface, texture rendering is not available")
+			holder.detach()
+			forwarder.release()
+			this.forwarder = null
+		}
+	}
+
+	/**
+	 * 描画サイズを変更する
+	 * 最大解像度を制限したときにCanvasで縮小して描画させるために使う
+	 * @param width 0以下ならDEFAULT_WIDTH
+	 * @param height 0以下ならDEFAULT_HEIGHT
+	 */
+	override fun resize(width: Int, height: Int) {
+		val w = if (width > 0) width else DEFAULT_WIDTH
+		val h = if (height > 0) height else DEFAULT_HEIGHT
+		val forwarder = forwarder
+		if (released || (forwarder == null) || ((w == this.width) && (h == this.height))) {
+			return
+		}
+		if (DEBUG) Log.v(TAG, "resize:textureId=${entry.id()},${w}x${h}")
+		this.width = w
+		this.height = h
+		forwarder.resize(w, h)
+		holder.resize(w, h)
+	}
+
+	/**
+	 * Canvasの描画先を元に戻してSurfaceTextureを破棄する
+	 * Canvasは再利用できる(プールへ戻せる)状態になる
+	 */
+	override fun release() {
+		if (released) {
+			return
+		}
+		if (DEBUG) Log.v(TAG, "release:textureId=${entry.id()}")
+		released = true
+		holder.detach()
+		forwarder?.release()
+		entry.release()
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = CanvasTextureBridge::class.java.simpleName
+		const val DEFAULT_WIDTH = 640
+		const val DEFAULT_HEIGHT = 480
+	}
+}
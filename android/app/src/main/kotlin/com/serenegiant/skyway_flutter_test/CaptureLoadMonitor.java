@@ -0,0 +1,188 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 適応モードでローカル映像の取得設定を切り替えるかどうかを判定するためのヘルパークラス
+ * SDKからエンコーダーの負荷を取得できないのでプロセスのCPU使用率(エンコード負荷の近似値)と
+ * 端末の温度状態, ルームの人数から判定する
+ * 切り替えが頻繁に起こらないように負荷による切り替えは同じ判定が続いたときだけ行う
+ *
+ * スレッドセーフではないのでSDKのワーカースレッド上からのみ呼び出すこと
+ */
+class CaptureLoadMonitor {
+	private static final boolean DEBUG = false;	// set false on production
+	private static final String TAG = CaptureLoadMonitor.class.getSimpleName();
+
+	/**
+	 * これ以上のCPU使用率(1コアあたり)が続けば1段階下げる
+	 */
+	private static final float HIGH_LOAD = 0.75f;
+	/**
+	 * これ以下のCPU使用率(1コアあたり)が続けば1段階上げる
+	 */
+	private static final float LOW_LOAD = 0.4f;
+	/**
+	 * 負荷による切り替えに必要な連続判定回数
+	 */
+	private static final int REQUIRED_SAMPLES = 2;
+
+	public static final String REASON_LOAD = "load";
+	public static final String REASON_THERMAL = "thermal";
+	public static final String REASON_ROOM_SIZE = "roomSize";
+
+	@Nullable
+	private final PowerManager mPowerManager;
+	private final int mNumCores;
+	private long mPrevCpuMs = -1;
+	private long mPrevRealtimeMs;
+	private int mHighCount;
+	private int mLowCount;
+	private float mLastLoad;
+	@Nullable
+	private String mLastReason;
+
+	/**
+	 * コンストラクタ
+	 * @param context
+	 */
+	public CaptureLoadMonitor(@NonNull final Context context) {
+		mPowerManager = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
+		mNumCores = Math.max(1, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * 計測結果を破棄する
+	 * 適応モードを開始するときに呼び出す
+	 */
+	public void reset() {
+		mPrevCpuMs = -1;
+		mHighCount = mLowCount = 0;
+		mLastLoad = 0;
+		mLastReason = null;
+	}
+
+	/**
+	 * 直前のevaluateの呼び出しから計測したCPU使用率(1コアあたり)
+	 * @return
+	 */
+	public float getLastLoad() {
+		return mLastLoad;
+	}
+
+	/**
+	 * 直前のevaluateでプロファイルを切り替えた理由
+	 * @return 切り替えなかった場合はnull
+	 */
+	@Nullable
+	public String getLastReason() {
+		return mLastReason;
+	}
+
+	/**
+	 * 負荷等を計測して次に使うプロファイルを決める
+	 * @param current 現在のプロファイル
+	 * @param ceiling アプリが指定したプロファイル(これより重いプロファイルにはしない)
+	 * @param roomSize 受信しているリモート映像の数
+	 * @return 切り替えない場合はcurrentをそのまま返す
+	 */
+	@NonNull
+	public CaptureProfile evaluate(@NonNull final CaptureProfile current,
+		@NonNull final CaptureProfile ceiling, final int roomSize) {
+
+		mLastReason = null;
+		final float load = sampleLoad();
+		final int thermal = getThermalStatus();
+		if (load >= HIGH_LOAD || thermal >= PowerManager.THERMAL_STATUS_MODERATE) {
+			mHighCount++;
+			mLowCount = 0;
+		} else if (load <= LOW_LOAD && thermal < PowerManager.THERMAL_STATUS_LIGHT) {
+			mLowCount++;
+			mHighCount = 0;
+		} else {
+			mHighCount = mLowCount = 0;
+		}
+		if (DEBUG) Log.v(TAG, "evaluate:load=" + load + ",thermal=" + thermal + ",roomSize=" + roomSize);
+
+		final int maxLevel = Math.min(ceiling.level, maxLevelForRoomSize(roomSize));
+		CaptureProfile result = current;
+		if (current.level > maxLevel) {
+			result = CaptureProfile.PRESETS[maxLevel].withCamera(current.camera);
+			mLastReason = REASON_ROOM_SIZE;
+		} else if (thermal >= PowerManager.THERMAL_STATUS_SEVERE) {
+			// 温度が高すぎるときは連続判定を待たずに下げる
+			result = current.lower();
+			mLastReason = REASON_THERMAL;
+		} else if (mHighCount >= REQUIRED_SAMPLES) {
+			result = current.lower();
+			mLastReason = thermal >= PowerManager.THERMAL_STATUS_MODERATE ? REASON_THERMAL : REASON_LOAD;
+		} else if ((mLowCount >= REQUIRED_SAMPLES) && (current.level < maxLevel)) {
+			result = current.higher();
+			mLastReason = REASON_LOAD;
+		}
+		if (result != current) {
+			mHighCount = mLowCount = 0;
+		} else {
+			mLastReason = null;
+		}
+		return result;
+	}
+
+	/**
+	 * 受信しているリモート映像の数に応じた上限のプロファイル
+	 * 人数が多いときはデコード/描画の負荷が高いのでローカル映像を軽くする
+	 * @param roomSize
+	 * @return CaptureProfile.PRESETSのインデックス
+	 */
+	public static int maxLevelForRoomSize(final int roomSize) {
+		if (roomSize <= 1) {
+			return CaptureProfile.PRESENTER.level;
+		} else if (roomSize <= 3) {
+			return CaptureProfile.HIGH.level;
+		} else if (roomSize <= 6) {
+			return CaptureProfile.STANDARD.level;
+		} else if (roomSize <= 12) {
+			return CaptureProfile.MEDIUM.level;
+		} else {
+			return CaptureProfile.LOW.level;
+		}
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * 前回呼び出し時からのプロセスのCPU使用率(1コアあたり)を計測する
+	 * @return 初回は0
+	 */
+	private float sampleLoad() {
+		final long cpuMs = Process.getElapsedCpuTime();
+		final long realtimeMs = SystemClock.elapsedRealtime();
+		float load = 0;
+		if ((mPrevCpuMs >= 0) && (realtimeMs > mPrevRealtimeMs)) {
+			load = (cpuMs - mPrevCpuMs) / (float)((realtimeMs - mPrevRealtimeMs) * mNumCores);
+		}
+		mPrevCpuMs = cpuMs;
+		mPrevRealtimeMs = realtimeMs;
+		mLastLoad = load;
+		return load;
+	}
+
+	/**
+	 * 端末の温度状態を取得する
+	 * @return API29未満ならTHERMAL_STATUS_NONE
+	 */
+	private int getThermalStatus() {
+		if ((mPowerManager != null)
+			&& (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)) {
+			return mPowerManager.getCurrentThermalStatus();
+		}
+		return PowerManager.THERMAL_STATUS_NONE;
+	}
+}
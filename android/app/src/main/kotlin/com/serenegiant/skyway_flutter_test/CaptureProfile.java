@@ -0,0 +1,147 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.skyway.Peer.Browser.MediaConstraints;
+
+import static io.skyway.Peer.Browser.MediaConstraints.CameraPositionEnum.FRONT;
+
+/**
+ * ローカル映像の取得設定(解像度, フレームレート, カメラ)のプリセット
+ * PRESETSは負荷の軽い順に並べているので適応モードでは隣のプリセットへ切り替える
+ * (カメラは切り替え前のものを引き継ぐ)
+ */
+class CaptureProfile {
+
+	public static final CaptureProfile LOW
+		= new CaptureProfile("low", 0, 480, 270, 15, FRONT);
+	public static final CaptureProfile MEDIUM
+		= new CaptureProfile("medium", 1, 640, 360, 24, FRONT);
+	public static final CaptureProfile STANDARD
+		= new CaptureProfile("standard", 2, 960, 540, 30, FRONT);
+	public static final CaptureProfile HIGH
+		= new CaptureProfile("high", 3, 1280, 720, 30, FRONT);
+	/**
+	 * 発表者モード用, 文字等が読めるように解像度を優先してフレームレートを下げる
+	 */
+	public static final CaptureProfile PRESENTER
+		= new CaptureProfile("presenter", 4, 1920, 1080, 15, FRONT);
+
+	/**
+	 * 負荷の軽い順に並べたプリセット
+	 */
+	public static final CaptureProfile[] PRESETS = {
+		LOW, MEDIUM, STANDARD, HIGH, PRESENTER,
+	};
+
+	/**
+	 * 以前の固定値(960x540)と同じプリセットをデフォルトにする
+	 */
+	public static final CaptureProfile DEFAULT = STANDARD;
+
+	/**
+	 * 名前からプリセットを取得する
+	 * @param name
+	 * @return 見つからなければnull
+	 */
+	@Nullable
+	public static CaptureProfile find(@Nullable final String name) {
+		for (final CaptureProfile profile: PRESETS) {
+			if (profile.name.equals(name)) {
+				return profile;
+			}
+		}
+		return null;
+	}
+
+	@NonNull
+	public final String name;
+	/**
+	 * PRESETS内のインデックス
+	 */
+	public final int level;
+	public final int width;
+	public final int height;
+	public final int fps;
+	@NonNull
+	public final MediaConstraints.CameraPositionEnum camera;
+
+	private CaptureProfile(@NonNull final String name, final int level,
+		final int width, final int height, final int fps,
+		@NonNull final MediaConstraints.CameraPositionEnum camera) {
+
+		this.name = name;
+		this.level = level;
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+		this.camera = camera;
+	}
+
+	/**
+	 * カメラだけを変更したプロファイルを取得する
+	 * @param camera
+	 * @return
+	 */
+	@NonNull
+	public CaptureProfile withCamera(@NonNull final MediaConstraints.CameraPositionEnum camera) {
+		return camera == this.camera
+			? this : new CaptureProfile(name, level, width, height, fps, camera);
+	}
+
+	/**
+	 * 1段階軽いプリセットを取得する
+	 * @return 一番軽いプリセットならthis
+	 */
+	@NonNull
+	public CaptureProfile lower() {
+		return level > 0 ? PRESETS[level - 1].withCamera(camera) : this;
+	}
+
+	/**
+	 * 1段階重いプリセットを取得する
+	 * @return 一番重いプリセットならthis
+	 */
+	@NonNull
+	public CaptureProfile higher() {
+		return level < PRESETS.length - 1 ? PRESETS[level + 1].withCamera(camera) : this;
+	}
+
+	/**
+	 * getUserMedia用のMediaConstraintsを生成する
+	 * @return
+	 */
+	@NonNull
+	public MediaConstraints toConstraints() {
+		final MediaConstraints constraints = new MediaConstraints();
+		constraints.maxWidth = width;
+		constraints.maxHeight = height;
+		constraints.maxFrameRate = fps;
+		constraints.cameraPosition = camera;
+		return constraints;
+	}
+
+	/**
+	 * Dart側へ送るためにMapへ変換する
+	 * @return
+	 */
+	@NonNull
+	public Map<String, Object> toMap() {
+		final Map<String, Object> result = new HashMap<>();
+		result.put("profile", name);
+		result.put("width", width);
+		result.put("height", height);
+		result.put("fps", fps);
+		result.put("camera", camera.name());
+		return result;
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		return "CaptureProfile{" + name + "," + width + "x" + height + "@" + fps + "," + camera + "}";
+	}
+}
@@ -16,12 +16,21 @@ internal object Const {
 	 */
 	const val PEER_EVENT_CHANNEL_NAME = "com.serenegiant.flutter.skyway/event"
 
+	/**
+	 * 各ピア接続毎にFlutterSkywayPeerでバイナリ形式のイベントを送信するチャネルのベース名(実際には_$peerIdでポストフィックス)
+	 */
+	const val PEER_BINARY_CHANNEL_NAME = "com.serenegiant.flutter.skyway/binary"
+
 	/**
 	 * FlutterSkywayCanvasクラスの登録名
 	 * "_${id}"をポストフィックスとして付加したものをsetter/getter用メソッドチャネル名として使用する
 	 */
 	const val SKYWAY_CANVAS_VIEW = "com.serenegiant.flutter.skyway/SkywayCanvas"
 
+	/**
+	 * バイナリ形式のイベントでは序数を使うのでDart側と同じ順番を維持すること
+	 * (新しいイベントは最後に追加する)
+	 */
 	enum class SkywayEvent {
 		/**
 		 * ピア接続した
@@ -67,5 +76,33 @@ internal object Const {
 		 * なにかのエラーが発生した
 		 */
 		OnError,
+		/**
+		 * リモート映像が描画先スロットへ割り当てられた(昇格した)
+		 */
+		OnPromote,
+		/**
+		 * リモート映像が描画先スロットから外された(降格した)
+		 */
+		OnDemote,
+		/**
+		 * ローカル映像の取得設定が変更された
+		 */
+		OnCaptureProfileChanged,
+		/**
+		 * バックグラウンド更新でピア一覧が変化した
+		 */
+		OnPeersChanged,
+		/**
+		 * ルームの切り替えが完了した
+		 */
+		OnRoomSwitched,
+		/**
+		 * 計測値の定期送信
+		 */
+		OnMetrics,
+		/**
+		 * 切り替え先のルームが切り替え完了前に閉じられたのでルームの切り替えを中止した
+		 */
+		OnRoomSwitchFailed,
 	}
 }
\ No newline at end of file
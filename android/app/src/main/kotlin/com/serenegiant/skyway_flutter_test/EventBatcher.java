@@ -0,0 +1,314 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Dart側へ送信するイベントを溜め込んで、フレーム毎または指定した間隔毎に
+ * 1つのリストとしてまとめて送信するためのヘルパークラス
+ * 同じバッチ内で打ち消し合うイベント(OnAddRemoteStream→OnRemoveRemoteStream等)は
+ * 両方とも破棄する, 破棄したイベントのルームの状態のバージョンとハンドルを破棄したリモートピアidは
+ * 後続のイベントへ引き継ぐ(RoomStateModel#carryVersion, RoomStateModel#carryReleasedPeerIds)
+ */
+class EventBatcher {
+	private static final boolean DEBUG = false;	// set false on production
+	private static final String TAG = EventBatcher.class.getSimpleName();
+
+	/**
+	 * バッチ送信しない
+	 */
+	public static final int BATCH_DISABLED = -1;
+	/**
+	 * 描画フレーム毎(Choreographer)にバッチ送信する
+	 */
+	public static final int BATCH_PER_FRAME = 0;
+
+	/**
+	 * まとめたイベントを送信するためのコールバックインターフェース
+	 * メインスレッド上で呼び出される
+	 */
+	public interface Sink {
+		public void onFlush(@NonNull final List<Map<String, Object>> events);
+	}
+
+	@NonNull
+	private final Object mSync = new Object();
+	@NonNull
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+	@NonNull
+	private final Sink mSink;
+	/**
+	 * 送信待ちのイベント, 打ち消されたイベントはnullになる
+	 */
+	@NonNull
+	private final List<Map<String, Object>> mPending = new ArrayList<>();
+	/**
+	 * 打ち消し対象となるイベントのmPending内の位置
+	 * キーは"イベント名:remotePeerId:room"(同じピアでもルームが違えば打ち消さない)
+	 */
+	@NonNull
+	private final Map<String, Integer> mCancelable = new HashMap<>();
+	/**
+	 * 打ち消したイベントのバージョンのうち後続のイベントへまだ引き継いでいないものの最小値, 無ければ-1
+	 */
+	private long mCarriedVersion = -1;
+	/**
+	 * 打ち消したイベントに付いていたハンドルを破棄したリモートピアidのうち
+	 * 後続のイベントへまだ引き継いでいないもの, 無ければnull
+	 */
+	@Nullable
+	private List<String> mCarriedReleased;
+	private int mIntervalMs = BATCH_DISABLED;
+	private boolean mScheduled;
+
+	/**
+	 * コンストラクタ
+	 * @param sink
+	 */
+	public EventBatcher(@NonNull final Sink sink) {
+		mSink = sink;
+	}
+
+	/**
+	 * バッチ送信の間隔を設定する
+	 * @param intervalMs BATCH_DISABLED(負数)ならバッチ送信しない,
+	 * 					BATCH_PER_FRAME(0)なら描画フレーム毎, 正数ならミリ秒単位の送信間隔
+	 */
+	public void setInterval(final int intervalMs) {
+		final boolean needFlush;
+		synchronized (mSync) {
+			mIntervalMs = intervalMs < 0 ? BATCH_DISABLED : intervalMs;
+			needFlush = (mIntervalMs == BATCH_DISABLED) && !mPending.isEmpty();
+		}
+		if (needFlush) {
+			// バッチ送信を無効にしたときは溜まっているイベントを直ぐに送る
+			mHandler.post(mFlushTask);
+		}
+	}
+
+	/**
+	 * バッチ送信が有効かどうか
+	 * @return
+	 */
+	public boolean isEnabled() {
+		synchronized (mSync) {
+			return mIntervalMs != BATCH_DISABLED;
+		}
+	}
+
+	/**
+	 * イベントを送信待ちに追加する
+	 * @param message
+	 */
+	public void offer(@NonNull final Map<String, Object> message) {
+		synchronized (mSync) {
+			if (!cancel(message)) {
+				final String key = cancelableKey(message);
+				if (key != null) {
+					mCancelable.put(key, mPending.size());
+				}
+				if ((mCarriedVersion >= 0) && RoomStateModel.carryVersion(message, mCarriedVersion)) {
+					mCarriedVersion = -1;
+				}
+				if (mCarriedReleased != null) {
+					RoomStateModel.carryReleasedPeerIds(message, mCarriedReleased);
+					mCarriedReleased = null;
+				}
+				mPending.add(message);
+			}
+			if (!mScheduled) {
+				mScheduled = true;
+				if (mIntervalMs > 0) {
+					mHandler.postDelayed(mFlushTask, mIntervalMs);
+				} else {
+					// Choreographerはメインスレッドから呼び出さないといけない
+					mHandler.post(mScheduleFrameTask);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 送信待ちのイベントを直ぐに送信する
+	 * メインスレッドから呼び出すこと
+	 */
+	public void flush() {
+		final List<Map<String, Object>> events;
+		synchronized (mSync) {
+			mScheduled = false;
+			if (mPending.isEmpty()) {
+				return;
+			}
+			events = new ArrayList<>(mPending.size());
+			for (final Map<String, Object> message: mPending) {
+				if (message != null) {
+					events.add(message);
+				}
+			}
+			mPending.clear();
+			mCancelable.clear();
+		}
+		if (!events.isEmpty()) {
+			mSink.onFlush(events);
+		}
+	}
+
+	/**
+	 * 送信待ちのイベントを破棄して送信予約を解除する
+	 * 以降はバッチ送信無効になる
+	 */
+	public void release() {
+		synchronized (mSync) {
+			mIntervalMs = BATCH_DISABLED;
+			mHandler.removeCallbacks(mFlushTask);
+			mHandler.removeCallbacks(mScheduleFrameTask);
+			mPending.clear();
+			mCancelable.clear();
+			mCarriedVersion = -1;
+			mCarriedReleased = null;
+			mScheduled = false;
+		}
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * 同じバッチ内に打ち消し合うイベントがあれば両方破棄する
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param message
+	 * @return 打ち消した場合true
+	 */
+	private boolean cancel(@NonNull final Map<String, Object> message) {
+		final String counterpart = counterpartOf(message.get("event"));
+		final Object remotePeerId = message.get("remotePeerId");
+		if ((counterpart != null) && (remotePeerId != null)) {
+			final Integer ix = mCancelable.remove(
+				counterpart + ":" + remotePeerId + ":" + message.get("room"));
+			if (ix != null) {
+				if (DEBUG) Log.v(TAG, "cancel:" + message);
+				final Map<String, Object> canceled = mPending.set(ix, null);
+				// 打ち消したイベントのバージョンはその後ろの送信待ちのイベントへ,
+				// 打ち消す側のイベントのバージョンは次に追加されるイベントへ引き継ぐ
+				carryLocked(RoomStateModel.versionFromOf(canceled), ix + 1);
+				carryLocked(RoomStateModel.versionFromOf(message), mPending.size());
+				carryReleasedLocked(RoomStateModel.releasedPeerIdsOf(canceled), ix + 1);
+				carryReleasedLocked(RoomStateModel.releasedPeerIdsOf(message), mPending.size());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 送信しなかったイベントのバージョンを指定した位置以降で最初にバージョンが付いているイベントへ引き継ぐ
+	 * 見つからなければ次に追加されるイベントへ引き継ぐ
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param version 送信しなかったイベントのバージョン(範囲の先頭), 負なら何もしない
+	 * @param start
+	 */
+	private void carryLocked(final long version, final int start) {
+		if (version < 0) {
+			return;
+		}
+		final int n = mPending.size();
+		for (int i = start; i < n; i++) {
+			final Map<String, Object> next = mPending.get(i);
+			if ((next != null) && RoomStateModel.carryVersion(next, version)) {
+				return;
+			}
+		}
+		mCarriedVersion = mCarriedVersion >= 0 ? Math.min(mCarriedVersion, version) : version;
+	}
+
+	/**
+	 * 送信しなかったイベントに付いていたハンドルを破棄したリモートピアidを
+	 * 指定した位置以降で最初のイベントへ引き継ぐ, 見つからなければ次に追加されるイベントへ引き継ぐ
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param remotePeerIds nullなら何もしない
+	 * @param start
+	 */
+	private void carryReleasedLocked(@Nullable final List<String> remotePeerIds, final int start) {
+		if (remotePeerIds == null) {
+			return;
+		}
+		final int n = mPending.size();
+		for (int i = start; i < n; i++) {
+			final Map<String, Object> next = mPending.get(i);
+			if (next != null) {
+				RoomStateModel.carryReleasedPeerIds(next, remotePeerIds);
+				return;
+			}
+		}
+		if (mCarriedReleased == null) {
+			mCarriedReleased = new ArrayList<>();
+		}
+		for (final String id: remotePeerIds) {
+			if (!mCarriedReleased.contains(id)) {
+				mCarriedReleased.add(id);
+			}
+		}
+	}
+
+	/**
+	 * 後から打ち消される可能性があるイベントのキーを取得する
+	 * @param message
+	 * @return 打ち消されることがないイベントならnull
+	 */
+	@Nullable
+	private static String cancelableKey(@NonNull final Map<String, Object> message) {
+		final Object event = message.get("event");
+		final Object remotePeerId = message.get("remotePeerId");
+		if ((remotePeerId != null)
+			&& (Const.SkywayEvent.OnAddRemoteStream.name().equals(event)
+				|| Const.SkywayEvent.OnJoin.name().equals(event))) {
+			return event + ":" + remotePeerId + ":" + message.get("room");
+		}
+		return null;
+	}
+
+	/**
+	 * 指定したイベントで打ち消されるイベント名を取得する
+	 * @param event
+	 * @return
+	 */
+	@Nullable
+	private static String counterpartOf(@Nullable final Object event) {
+		if (Const.SkywayEvent.OnRemoveRemoteStream.name().equals(event)) {
+			return Const.SkywayEvent.OnAddRemoteStream.name();
+		} else if (Const.SkywayEvent.OnLeave.name().equals(event)) {
+			return Const.SkywayEvent.OnJoin.name();
+		}
+		return null;
+	}
+
+	private final Runnable mFlushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable mScheduleFrameTask = new Runnable() {
+		@Override
+		public void run() {
+			Choreographer.getInstance().postFrameCallback(mFrameCallback);
+		}
+	};
+
+	private final Choreographer.FrameCallback mFrameCallback
+		= new Choreographer.FrameCallback() {
+		@Override
+		public void doFrame(final long frameTimeNanos) {
+			flush();
+		}
+	};
+}
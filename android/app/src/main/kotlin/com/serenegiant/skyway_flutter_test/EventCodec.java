@@ -0,0 +1,273 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Dart側へ送信するイベントをバイナリ形式へ変換するためのヘルパークラス
+ * Map + StandardMessageCodecの代わりにBasicMessageChannel + BinaryCodecで送信する
+ *
+ * フォーマット(リトルエンディアン)
+ * 	ヘッダー:	u8 バージョン, i32 ピアハンドル, u32 イベント数
+ * 	イベント:	u8 イベント(Const.SkywayEventの序数), u32 フィールド数, フィールド×フィールド数
+ * 	フィールド:	u8 キーid(KEY_CUSTOMならキー文字列が続く), u8 値の型, 値
+ * 	文字列:	u32 バイト数, UTF-8
+ * 	文字列のリスト:	u32 要素数, 文字列×要素数
+ * "event"と"peerId"はヘッダー/イベントの序数で表すのでフィールドには含めない
+ * バッファはBinaryMessengerが非同期に読み込むことがあるので
+ * Dart側から応答が返ってきたとき(BasicMessageChannel.Reply)にrecycleでプールへ戻して再利用する
+ */
+class EventCodec {
+	public static final int VERSION = 2;
+
+	private static final int TYPE_STRING = 0;
+	private static final int TYPE_LONG = 1;
+	private static final int TYPE_DOUBLE = 2;
+	private static final int TYPE_STRING_LIST = 3;
+
+	private static final int KEY_CUSTOM = 0xff;
+	/**
+	 * よく使うキー, 配列のインデックスをキーidとして使う
+	 * Dart側の定義と同じ順番にすること
+	 */
+	private static final String[] KEYS = {
+		"remotePeerId", "room", "error", "remoteHandle",
+	};
+
+	/**
+	 * ヘッダーのバイト数
+	 */
+	private static final int HEADER_SIZE = 9;
+	/**
+	 * バッファを確保するときに見積もるイベント1つあたりのバイト数
+	 * (イベント, remoteHandle, room, stateVersion程度)
+	 */
+	private static final int BYTES_PER_EVENT = 64;
+	/**
+	 * 確保するバッファの最小サイズ
+	 */
+	private static final int MIN_BUFFER_SIZE = 256;
+	/**
+	 * プールで保持するバッファの最大数
+	 */
+	private static final int MAX_POOL_SIZE = 4;
+	/**
+	 * プールへ戻すバッファの最大サイズ, これより大きなバッファは使い捨てにする
+	 */
+	private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+	/**
+	 * 送信が終わって再利用できるバッファ, 自身で排他制御する
+	 */
+	@NonNull
+	private final ArrayDeque<ByteBuffer> mPool = new ArrayDeque<>(MAX_POOL_SIZE);
+
+	/**
+	 * イベントをバイナリへ変換する
+	 * 返したバッファは送信が終わった後でrecycleへ渡すこと
+	 * @param peerHandle
+	 * @param events
+	 * @return 書き込み終了位置がpositionになったダイレクトバッファ
+	 */
+	@NonNull
+	public ByteBuffer encode(final int peerHandle,
+		@NonNull final List<Map<String, Object>> events) {
+
+		ByteBuffer buf = obtain(HEADER_SIZE + events.size() * BYTES_PER_EVENT);
+		buf.put((byte)VERSION);
+		buf.putInt(peerHandle);
+		buf.putInt(events.size());
+		for (final Map<String, Object> message: events) {
+			buf = ensure(buf, 5);
+			buf.put((byte)eventOrdinal(message.get("event")));
+			final int countPos = buf.position();
+			buf.putInt(0);
+			int count = 0;
+			for (final Map.Entry<String, Object> entry: message.entrySet()) {
+				final String key = entry.getKey();
+				if ("event".equals(key) || "peerId".equals(key)) {
+					continue;
+				}
+				buf = putKey(buf, key);
+				buf = putValue(buf, entry.getValue());
+				count++;
+			}
+			buf.putInt(countPos, count);
+		}
+		return buf;
+	}
+
+	/**
+	 * 送信が終わったバッファをプールへ戻す
+	 * BinaryMessengerのメッセージ送信の応答が返ってきてから呼び出すこと
+	 * @param buf encodeが返したバッファ
+	 */
+	public void recycle(@NonNull final ByteBuffer buf) {
+		if (!buf.isDirect() || (buf.capacity() > MAX_POOLED_CAPACITY)) {
+			return;
+		}
+		buf.clear();
+		synchronized (mPool) {
+			if (mPool.size() < MAX_POOL_SIZE) {
+				mPool.addLast(buf);
+			}
+		}
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * 指定したバイト数以上のバッファをプールから取得する
+	 * プールに無ければ新たに確保する
+	 * @param bytes
+	 * @return
+	 */
+	@NonNull
+	private ByteBuffer obtain(final int bytes) {
+		synchronized (mPool) {
+			final int n = mPool.size();
+			for (int i = 0; i < n; i++) {
+				final ByteBuffer buf = mPool.pollFirst();
+				if (buf.capacity() >= bytes) {
+					return buf;
+				}
+				// 小さすぎるバッファは後ろへ回して他の送信で使う
+				mPool.addLast(buf);
+			}
+		}
+		int capacity = MIN_BUFFER_SIZE;
+		while ((capacity < bytes) && (capacity <= Integer.MAX_VALUE / 2)) {
+			capacity *= 2;
+		}
+		return ByteBuffer.allocateDirect(Math.max(capacity, bytes)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * 指定したバイト数を書き込めるようにする
+	 * 足りなければ大きなバッファへコピーして元のバッファはプールへ戻す
+	 * @param buf
+	 * @param bytes
+	 * @return
+	 */
+	@NonNull
+	private ByteBuffer ensure(@NonNull final ByteBuffer buf, final int bytes) {
+		if (buf.remaining() >= bytes) {
+			return buf;
+		}
+		final int required = buf.position() + bytes;
+		if (required < 0) {
+			throw new IllegalArgumentException("event too large");
+		}
+		int capacity = buf.capacity();
+		while (capacity < required) {
+			// intの範囲を超えるときは必要なサイズちょうどにする
+			capacity = capacity <= Integer.MAX_VALUE / 2 ? capacity * 2 : required;
+		}
+		final ByteBuffer result = obtain(capacity);
+		buf.flip();
+		result.put(buf);
+		recycle(buf);
+		return result;
+	}
+
+	@NonNull
+	private ByteBuffer putKey(@NonNull ByteBuffer buf, @NonNull final String key) {
+		for (int i = 0; i < KEYS.length; i++) {
+			if (KEYS[i].equals(key)) {
+				buf = ensure(buf, 1);
+				buf.put((byte)i);
+				return buf;
+			}
+		}
+		buf = ensure(buf, 1);
+		buf.put((byte)KEY_CUSTOM);
+		return putString(buf, key);
+	}
+
+	@NonNull
+	private ByteBuffer putValue(@NonNull ByteBuffer buf, @Nullable final Object value) {
+		if ((value instanceof Integer) || (value instanceof Long)) {
+			buf = ensure(buf, 9);
+			buf.put((byte)TYPE_LONG);
+			buf.putLong(((Number)value).longValue());
+		} else if (value instanceof Number) {
+			buf = ensure(buf, 9);
+			buf.put((byte)TYPE_DOUBLE);
+			buf.putDouble(((Number)value).doubleValue());
+		} else if (value instanceof List) {
+			final List<?> list = (List<?>)value;
+			buf = ensure(buf, 5);
+			buf.put((byte)TYPE_STRING_LIST);
+			buf.putInt(list.size());
+			for (final Object item: list) {
+				buf = putString(buf, String.valueOf(item));
+			}
+		} else {
+			buf = ensure(buf, 1);
+			buf.put((byte)TYPE_STRING);
+			buf = putString(buf, value != null ? value.toString() : "");
+		}
+		return buf;
+	}
+
+	/**
+	 * 文字列をUTF-8で書き込む
+	 * 一時的なbyte配列を生成しないように自前で変換する
+	 * @param buf
+	 * @param str
+	 * @return
+	 */
+	@NonNull
+	private ByteBuffer putString(@NonNull ByteBuffer buf, @NonNull final String str) {
+		final int n = str.length();
+		int bytes = 0;
+		for (int i = 0; i < n; i++) {
+			final char c = str.charAt(i);
+			if (c < 0x80) {
+				bytes++;
+			} else if (c < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(c) && (i + 1 < n)) {
+				bytes += 4;
+				i++;
+			} else {
+				bytes += 3;
+			}
+		}
+		buf = ensure(buf, bytes + 4);
+		buf.putInt(bytes);
+		for (int i = 0; i < n; i++) {
+			final char c = str.charAt(i);
+			if (c < 0x80) {
+				buf.put((byte)c);
+			} else if (c < 0x800) {
+				buf.put((byte)(0xc0 | (c >> 6)));
+				buf.put((byte)(0x80 | (c & 0x3f)));
+			} else if (Character.isHighSurrogate(c) && (i + 1 < n)) {
+				final int cp = Character.toCodePoint(c, str.charAt(++i));
+				buf.put((byte)(0xf0 | (cp >> 18)));
+				buf.put((byte)(0x80 | ((cp >> 12) & 0x3f)));
+				buf.put((byte)(0x80 | ((cp >> 6) & 0x3f)));
+				buf.put((byte)(0x80 | (cp & 0x3f)));
+			} else {
+				buf.put((byte)(0xe0 | (c >> 12)));
+				buf.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				buf.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+		return buf;
+	}
+
+	private static int eventOrdinal(@Nullable final Object event) {
+		try {
+			return Const.SkywayEvent.valueOf(String.valueOf(event)).ordinal();
+		} catch (final IllegalArgumentException e) {
+			return 0xff;
+		}
+	}
+}
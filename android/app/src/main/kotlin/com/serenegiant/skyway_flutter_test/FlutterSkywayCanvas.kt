@@ -1,8 +1,11 @@
 package com.serenegiant.skyway_flutter_test
 
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
 import android.util.Log
 import android.util.SparseArray
+import android.view.SurfaceView
 import android.view.View
 import io.flutter.plugin.common.BinaryMessenger
 import io.flutter.plugin.common.MethodCall
@@ -10,34 +13,183 @@ import io.flutter.plugin.common.MethodChannel
 import io.flutter.plugin.common.StandardMessageCodec
 import io.flutter.plugin.platform.PlatformView
 import io.flutter.plugin.platform.PlatformViewFactory
+import io.flutter.view.TextureRegistry
 import io.skyway.Peer.Browser.Canvas
 import java.lang.IndexOutOfBoundsException
+import java.lang.reflect.Method
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 
 /**
  * Skywayの映像表示用のCanvasをFlutterのウイジェットとして使えるようにラップ
+ * targetFactoryを指定したときはPlatformView(AndroidView)の代わりに
+ * RenderTarget(FlutterのTextureウイジェットで表示するためのSurfaceTextureや
+ * モザイク表示のタイル)へ描画する
+ * (どの場合も映像の描画先としてはCanvasを使うので描画する側からは区別しない)
+ * Dart側からsetRenderOptionsで最大フレームレート/最大解像度/スケーリング/左右反転を
+ * Canvas毎に設定できる(サムネイル表示のときに描画負荷を減らすため)
  */
 class FlutterSkywayCanvas(
 	context: Context,
 	messenger: BinaryMessenger,
-	id: Int, args: Any?) : PlatformView, MethodChannel.MethodCallHandler {
+	id: Int, args: Any?,
+	private val pool: CanvasPool,
+	targetFactory: ((canvas: Canvas, width: Int, height: Int, limiter: FrameRateLimiter) -> RenderTarget)? = null)
+		: PlatformView, MethodChannel.MethodCallHandler {
+
+	/**
+	 * Canvasをビュー階層へ追加せずに描画するときの描画先
+	 * メインスレッド上で呼ばれる
+	 */
+	interface RenderTarget {
+		/**
+		 * Canvasの描画先を切り替えることができたかどうか
+		 */
+		val isSupported: Boolean
+		/**
+		 * 描画サイズを変更する
+		 */
+		fun resize(width: Int, height: Int)
+		/**
+		 * Canvasの描画先を元に戻して破棄する
+		 */
+		fun release()
+	}
+
+	/**
+	 * Canvasへ映像を描画しているオブジェクトとの紐付け
+	 * Canvasをプールへ戻す前にunbindが呼ばれるので描画先から取り除くこと
+	 */
+	interface RendererBinding {
+		fun unbind(view: FlutterSkywayCanvas)
+		/**
+		 * Dart側から通知された表示状態が変化したときの処理
+		 * 非表示の間は描画先から取り除いてデコード→描画の負荷を減らす
+		 * メインスレッド上で呼ばれる
+		 */
+		fun onVisibilityChanged(view: FlutterSkywayCanvas, visible: Boolean)
+	}
+
+	/**
+	 * FlutterSkywayCanvasが生成されたときのコールバック
+	 * 描画先のCanvasが生成される前に映像の取得を開始したときに
+	 * Canvasが生成されてから描画先へ追加するために使う
+	 */
+	interface OnViewRegisteredListener {
+		/**
+		 * メインスレッド上で呼ばれる
+		 */
+		fun onViewRegistered(view: FlutterSkywayCanvas)
+	}
 
 	private val mId = id
-	private val canvas: Canvas = Canvas(context)
+	/**
+	 * Dart側識別用id
+	 */
+	val viewId: Int
+		get() = mId
+	private val canvas: Canvas
+	private val channel: MethodChannel
+	/**
+	 * ビュー階層外で描画するときのCanvasの描画先, PlatformViewで表示するときはnull
+	 */
+	private val renderTarget: RenderTarget?
+	private val bindings = mutableListOf<RendererBinding>()
+	private val handler = Handler(Looper.getMainLooper())
+	/**
+	 * Dart側から最後に通知された表示状態
+	 */
+	private var requestVisible = true
+	/**
+	 * 映像を描画するかどうか
+	 * 非表示になってもHIDE_DELAY_MS以内に再表示されたときは描画先から取り除かない(ヒステリシス)
+	 */
+	@Volatile
+	var isVisible = true
+		private set
+	/**
+	 * 描画間隔の制限と描画/間引いたフレームの計数
+	 * テクスチャで表示するときはCanvasが描画したフレームをこれに従って間引いてから転送する
+	 */
+	private val limiter = FrameRateLimiter()
+	/**
+	 * Dart側から通知された表示サイズ(物理ピクセル, 不明なら0)
+	 */
+	private var requestWidth: Int
+	private var requestHeight: Int
+	/**
+	 * 最大フレームレート, 0なら制限しない
+	 */
+	private var maxFps = 0f
+	/**
+	 * 最大解像度, 0なら制限しない
+	 */
+	private var maxWidth = 0
+	private var maxHeight = 0
+	/**
+	 * 最大解像度で制限した描画サイズ, 制限していなければ0
+	 */
+	private var renderWidth = 0
+	private var renderHeight = 0
+	/**
+	 * プールへ戻すときに元に戻すためのスケーリング
+	 */
+	private val defaultScaling: Canvas.ScalingEnum?
 
 	init {
 		if (DEBUG) Log.v(TAG, "ctor:id=$id")
-		sViews.append(id, this)
-		canvas.mirror = false
-		// FIXME レイアウトxmlで指定できないのでデフォルトから変更が必要な属性はここでセットする
-		// FIXME 表示されているかの確認ようにとりあえず適当に背景色を付けておく
-		canvas.setBackgroundColor(0x3fff0000.toInt())
+		// FIXME レイアウトxmlで指定できないのでデフォルトから変更が必要な属性はCanvasPoolでセットする
+		val params = args as? Map<*, *>
+		val width = (params?.get("width") as? Number)?.toInt() ?: 0
+		val height = (params?.get("height") as? Number)?.toInt() ?: 0
+		requestWidth = width
+		requestHeight = height
+		canvas = pool.acquire(context, width, height)
+		defaultScaling = canvas.scaling
+		renderTarget = targetFactory?.invoke(canvas, width, height, limiter)
 
 		// Dart側からのsetter/getter呼び出しのためのメソッドチャネルを生成
-		MethodChannel(messenger, Const.SKYWAY_CANVAS_VIEW + "_$id").also {
+		channel = MethodChannel(messenger, Const.SKYWAY_CANVAS_VIEW + "_$id").also {
 			it.setMethodCallHandler(this)
 		}
 	}
 
+	/**
+	 * findViewByIdで探せるように登録してOnViewRegisteredListenerへ通知する
+	 * 生成途中のオブジェクトを他のスレッドから参照されないように
+	 * コンストラクタからは呼ばずに生成が完了してからCanvasFactoryが呼び出す
+	 */
+	internal fun register() {
+		sViews[mId] = this
+		for (listener in sListeners) {
+			listener.onViewRegistered(this)
+		}
+	}
+
+	/**
+	 * テクスチャで表示するかどうか
+	 */
+	val isTexture: Boolean
+		get() = renderTarget is CanvasTextureBridge
+
+	/**
+	 * ビュー階層外で描画するかどうか(テクスチャまたはモザイク表示のタイル)
+	 */
+	val isOffscreen: Boolean
+		get() = renderTarget != null
+
+	/**
+	 * ビュー階層外で描画するときにCanvasの描画先を切り替えることができたかどうか
+	 */
+	val isOffscreenSupported: Boolean
+		get() = renderTarget?.isSupported ?: false
+
+	/**
+	 * テクスチャで表示するときのFlutterのテクスチャid, それ以外は-1
+	 */
+	val textureId: Long
+		get() = (renderTarget as? CanvasTextureBridge)?.textureId ?: -1L
+
 	override fun getView(): View {
 		if (DEBUG) Log.v(TAG, "getView:")
 		return canvas;
@@ -45,25 +197,332 @@ class FlutterSkywayCanvas(
 
 	override fun dispose() {
 		if (DEBUG) Log.v(TAG, "dispose:")
-		sViews.remove(mId)
-
+		sViews.remove(mId, this)
+		channel.setMethodCallHandler(null)
+		handler.removeCallbacks(mHideTask)
+		// 描画中のストリームから取り除いてからプールへ戻す
+		val copy = synchronized(bindings) {
+			bindings.toList().also { bindings.clear() }
+		}
+		for (binding in copy) {
+			binding.unbind(this)
+		}
+		resetRenderOptions()
+		renderTarget?.release()
+		pool.recycle(canvas)
 	}
 
 	fun getCanvas(): Canvas {
 		return canvas
 	}
 
+	/**
+	 * Canvasへ映像を描画しているオブジェクトを登録する
+	 * @param binding
+	 */
+	fun addBinding(binding: RendererBinding) {
+		synchronized(bindings) {
+			if (!bindings.contains(binding)) {
+				bindings.add(binding)
+			}
+		}
+	}
+
+	/**
+	 * Canvasへ映像を描画しているオブジェクトの登録を解除する
+	 * @param binding
+	 */
+	fun removeBinding(binding: RendererBinding) {
+		synchronized(bindings) {
+			bindings.remove(binding)
+		}
+	}
+
 	override fun onMethodCall(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "onMethodCall:${call}");
-		// FIXME Dart側からのsetter/getter呼び出しを実装する
+		when (call.method) {
+		"setVisible" -> {
+			val visible = call.argument<Boolean>("visible")
+			if (visible != null) {
+				setVisible(visible)
+				result.success("success")
+			} else {
+				result.error("Invalid argument", "Invalid argument", "")
+			}
+		}
+		"setRenderOptions" -> {
+			val params = call.arguments as? Map<*, *>
+			if ((params != null) && setRenderOptions(params)) {
+				result.success(getRenderStats())
+			} else {
+				result.error("Invalid argument", "Invalid argument", "")
+			}
+		}
+		"getRenderStats" -> {
+			result.success(getRenderStats())
+		}
+		else -> {
+			// FIXME Dart側からのその他のsetter/getter呼び出しを実装する
+			result.notImplemented()
+		}
+		}
+	}
+
+	/**
+	 * Dart側から表示状態を通知されたときの処理
+	 * 表示されたときは直ぐに描画を再開し、非表示になったときは
+	 * HIDE_DELAY_MSの間非表示のままであれば描画先から取り除く
+	 * @param visible
+	 */
+	private fun setVisible(visible: Boolean) {
+		if (requestVisible == visible) {
+			return
+		}
+		requestVisible = visible
+		handler.removeCallbacks(mHideTask)
+		if (visible) {
+			updateVisibility(true)
+		} else {
+			handler.postDelayed(mHideTask, HIDE_DELAY_MS)
+		}
+	}
+
+	private fun updateVisibility(visible: Boolean) {
+		if (isVisible != visible) {
+			if (DEBUG) Log.v(TAG, "updateVisibility:id=$mId,visible=$visible")
+			isVisible = visible
+			val copy = synchronized(bindings) { bindings.toList() }
+			for (binding in copy) {
+				binding.onVisibilityChanged(this, visible)
+			}
+		}
+	}
+
+	/**
+	 * 描画方法を設定する, 指定しなかった項目は変更しない
+	 * maxFps: 最大フレームレート(0なら制限しない)
+	 * maxWidth/maxHeight: 最大解像度(0なら制限しない), 縦横比を保って縮小したサイズでCanvasに描画させる
+	 * scaling: スケーリング(Canvas.ScalingEnumの名前)
+	 * mirror: 左右反転するかどうか
+	 * @param params
+	 * @return 不正な値が含まれていたときはfalse(何も変更しない)
+	 */
+	private fun setRenderOptions(params: Map<*, *>): Boolean {
+		if (DEBUG) Log.v(TAG, "setRenderOptions:id=$mId,$params")
+		val fps = params["maxFps"]
+		val width = params["maxWidth"]
+		val height = params["maxHeight"]
+		val scalingName = params["scaling"]
+		val mirror = params["mirror"]
+		val scaling = if (scalingName != null) {
+			Canvas.ScalingEnum.values().firstOrNull { it.name == scalingName } ?: return false
+		} else {
+			null
+		}
+		if (((fps != null) && (fps !is Number))
+			|| ((width != null) && (width !is Number))
+			|| ((height != null) && (height !is Number))
+			|| ((mirror != null) && (mirror !is Boolean))) {
+			return false
+		}
+		if (fps is Number) {
+			maxFps = Math.max(0f, fps.toFloat())
+			applyFrameRate()
+		}
+		if ((width is Number) || (height is Number)) {
+			if (width is Number) {
+				maxWidth = Math.max(0, width.toInt())
+			}
+			if (height is Number) {
+				maxHeight = Math.max(0, height.toInt())
+			}
+			applyResolution()
+		}
+		if (scaling != null) {
+			canvas.scaling = scaling
+		}
+		if (mirror is Boolean) {
+			canvas.mirror = mirror
+		}
+		return true
+	}
+
+	/**
+	 * 描画方法と描画/間引いたフレーム数を取得する
+	 * renderedFrames/droppedFramesはビュー階層外で描画しているときのみ計数する
+	 * (PlatformViewで表示しているときはSDKの内部で描画するので計数できない)
+	 */
+	private fun getRenderStats(): Map<String, Any?> {
+		return mapOf(
+			"viewId" to mId,
+			"texture" to isTexture,
+			"maxFps" to maxFps.toDouble(),
+			"maxWidth" to maxWidth,
+			"maxHeight" to maxHeight,
+			"renderWidth" to renderWidth,
+			"renderHeight" to renderHeight,
+			"scaling" to canvas.scaling?.name,
+			"mirror" to canvas.mirror,
+			"fpsLimitSupported" to (isOffscreen || (fpsReduction != null)),
+			"countsFrames" to isOffscreen,
+			"renderedFrames" to limiter.renderedFrames,
+			"droppedFrames" to limiter.droppedFrames)
+	}
+
+	/**
+	 * 描画サイズを変更する(モザイク表示でタイルの大きさが変わったとき)
+	 * 最大解像度を設定していればそれ以下に制限する
+	 * @param width
+	 * @param height
+	 */
+	fun setRenderSize(width: Int, height: Int) {
+		if ((width != requestWidth) || (height != requestHeight)) {
+			requestWidth = width
+			requestHeight = height
+			applyResolution()
+		}
+	}
+
+	/**
+	 * 最大フレームレートを適用する
+	 * ビュー階層外で描画するときはTextureFrameForwarder/MosaicCompositorで間引く
+	 * PlatformViewで表示するときはCanvas(WebRTCのSurfaceViewRenderer)の描画前の間引き処理を使う
+	 */
+	private fun applyFrameRate() {
+		limiter.setMaxFps(maxFps)
+		if (renderTarget == null) {
+			if ((maxFps > 0) && (fpsReduction == null)) {
+				Log.w(TAG, "applyFrameRate:id=$mId,maxFps is not supported by this Canvas, ignored")
+			}
+			setFpsReduction(maxFps)
+		}
+	}
+
+	/**
+	 * 最大解像度を適用する
+	 * Canvasの描画先のバッファサイズを小さくしてCanvasが縮小して描画するようにする
+	 * (表示時はSurfaceViewまたはTextureウイジェットが表示サイズへ拡大する)
+	 */
+	private fun applyResolution() {
+		val baseWidth = if (canvas.width > 0) canvas.width else requestWidth
+		val baseHeight = if (canvas.height > 0) canvas.height else requestHeight
+		val w = if (baseWidth > 0) baseWidth else CanvasTextureBridge.DEFAULT_WIDTH
+		val h = if (baseHeight > 0) baseHeight else CanvasTextureBridge.DEFAULT_HEIGHT
+		var scale = 1.0f
+		if (maxWidth > 0) {
+			scale = Math.min(scale, maxWidth / w.toFloat())
+		}
+		if (maxHeight > 0) {
+			scale = Math.min(scale, maxHeight / h.toFloat())
+		}
+		if (scale < 1.0f) {
+			// YUVの映像を縮小するので偶数にしておく
+			renderWidth = Math.max(2, Math.round(w * scale) and 1.inv())
+			renderHeight = Math.max(2, Math.round(h * scale) and 1.inv())
+		} else {
+			renderWidth = 0
+			renderHeight = 0
+		}
+		if (DEBUG) Log.v(TAG, "applyResolution:id=$mId,${w}x${h}→${renderWidth}x${renderHeight}")
+		if (renderTarget != null) {
+			renderTarget.resize(
+				if (renderWidth > 0) renderWidth else requestWidth,
+				if (renderHeight > 0) renderHeight else requestHeight)
+		} else {
+			val holder = (canvas as? SurfaceView)?.holder
+			if (renderWidth > 0) {
+				holder?.setFixedSize(renderWidth, renderHeight)
+			} else {
+				holder?.setSizeFromLayout()
+			}
+		}
+	}
+
+	/**
+	 * プールへ戻す前に描画方法を元に戻す
+	 */
+	private fun resetRenderOptions() {
+		// ビュー階層外で描画するときはCanvasの描画先ごと破棄するので戻す必要はない
+		if ((renderTarget == null) && ((maxFps > 0) || (renderWidth > 0))) {
+			maxFps = 0f
+			maxWidth = 0
+			maxHeight = 0
+			applyFrameRate()
+			applyResolution()
+		}
+		canvas.scaling = defaultScaling
+	}
+
+	/**
+	 * Canvasの描画前の間引き処理を設定する
+	 * SDKのバージョンによって対応していないときは何もしない
+	 * @param fps 0なら間引かない
+	 */
+	private fun setFpsReduction(fps: Float) {
+		try {
+			fpsReduction?.invoke(canvas, if (fps > 0) fps else Float.POSITIVE_INFINITY)
+		} catch (e: Exception) {
+			Log.w(TAG, e)
+		}
+	}
+
+	/**
+	 * Canvasの描画前の間引き処理(SurfaceViewRenderer#setFpsReduction), 対応していなければnull
+	 */
+	private val fpsReduction: Method?
+		get() = findFpsReduction(canvas.javaClass)
+
+	private val mHideTask = Runnable {
+		if (!requestVisible) {
+			updateVisibility(false)
+		}
 	}
 
 //--------------------------------------------------------------------------------
 	companion object {
 		private const val DEBUG = true // set false on production
 		private val TAG = FlutterSkywayCanvas::class.java.simpleName
-		private val sViews = SparseArray<FlutterSkywayCanvas>()
+		/**
+		 * 生成済みのFlutterSkywayCanvas, キーはDart側識別用id
+		 * SDKのワーカースレッドからも探すのでConcurrentHashMapで保持する
+		 */
+		private val sViews = ConcurrentHashMap<Int, FlutterSkywayCanvas>()
+		private val sListeners = CopyOnWriteArrayList<OnViewRegisteredListener>()
+		/**
+		 * 非表示になってから描画先から取り除くまでの遅延時間
+		 */
+		private const val HIDE_DELAY_MS = 500L
+		/**
+		 * Canvasのクラス毎のsetFpsReductionメソッドのキャッシュ(メインスレッド上でのみアクセスする)
+		 */
+		private val sFpsReductions = mutableMapOf<Class<*>, Method?>()
+
+		/**
+		 * Canvasの描画前の間引き処理を設定するメソッドを探す
+		 * SDKが公開していないのでリフレクションで探して見つからなければnullを返す
+		 * (PlatformViewで表示するときは最大フレームレートを制限できなくなる)
+		 */
+		private fun findFpsReduction(clazz: Class<*>): Method? {
+			if (sFpsReductions.containsKey(clazz)) {
+				return sFpsReductions[clazz]
+			}
+			val result = try {
+				clazz.getMethod("setFpsReduction", java.lang.Float.TYPE)
+			} catch (e: NoSuchMethodException) {
+				Log.w(TAG, "${clazz.name}#setFpsReduction not found, maxFps is ignored on platform views")
+				null
+			} catch (e: SecurityException) {
+				Log.w(TAG, "${clazz.name}#setFpsReduction is not accessible, maxFps is ignored on platform views", e)
+				null
+			}
+			sFpsReductions[clazz] = result
+			return result
+		}
 
+		/**
+		 * 指定したidのFlutterSkywayCanvasを探す, 任意のスレッドから呼び出せる
+		 * @param id Dart側識別用id
+		 */
 		fun findViewById(id: Int?): FlutterSkywayCanvas? {
 			if (id != null) {
 				return sViews[id]
@@ -72,15 +531,195 @@ class FlutterSkywayCanvas(
 			}
 
 		}
+
+		/**
+		 * FlutterSkywayCanvasが生成されたときのコールバックを登録する
+		 * @param listener
+		 */
+		fun addOnViewRegisteredListener(listener: OnViewRegisteredListener) {
+			sListeners.addIfAbsent(listener)
+		}
+
+		/**
+		 * FlutterSkywayCanvasが生成されたときのコールバックの登録を解除する
+		 * @param listener
+		 */
+		fun removeOnViewRegisteredListener(listener: OnViewRegisteredListener) {
+			sListeners.remove(listener)
+		}
 	}
 }
 
 /**
  * FlutterSkywayCanvas生成のためのファクトリークラス
+ * 生成するFlutterSkywayCanvasのCanvasはCanvasPoolで再利用する
+ * PlatformViewとして生成する以外にcreateTextureでテクスチャで表示するFlutterSkywayCanvasや
+ * createMosaicで複数のリモート映像を1つのテクスチャへ合成して表示するモザイク表示も生成できる
  */
-class CanvasFactory(private val messenger: BinaryMessenger)
+class CanvasFactory(
+	private val messenger: BinaryMessenger,
+	private val textures: TextureRegistry)
 	: PlatformViewFactory(StandardMessageCodec.INSTANCE) {
 
+	val pool = CanvasPool()
+	/**
+	 * createTextureで生成したFlutterSkywayCanvasの数
+	 */
+	var textureViews = 0
+		private set
+	/**
+	 * createMosaicで生成したモザイク表示
+	 */
+	private val mosaics = SparseArray<SkywayMosaic>()
+	/**
+	 * 次にcreateTileで割り当てるid
+	 */
+	private var nextTileId = TILE_VIEW_ID_BASE
+
 	override fun create(context: Context?, viewId: Int, args: Any?): PlatformView
-		= FlutterSkywayCanvas(context!!, messenger, viewId, args)
+		= FlutterSkywayCanvas(context!!, messenger, viewId, args, pool).also { it.register() }
+
+	/**
+	 * テクスチャで表示するFlutterSkywayCanvasを生成する
+	 * PlatformViewのidと重ならないようにTEXTURE_VIEW_ID_BASE以上のidを割り当てる
+	 * メインスレッド上から呼び出すこと
+	 * @param context
+	 * @param width 表示予定の幅(不明なら0)
+	 * @param height 表示予定の高さ(不明なら0)
+	 * @return SDKのCanvasがテクスチャへの描画に対応していなければnull
+	 */
+	fun createTexture(context: Context, width: Int, height: Int): FlutterSkywayCanvas? {
+		val entry = textures.createSurfaceTexture()
+		val id = TEXTURE_VIEW_ID_BASE + entry.id().toInt()
+		val view = FlutterSkywayCanvas(context, messenger, id,
+			mapOf("width" to width, "height" to height), pool) { canvas, w, h, limiter ->
+				CanvasTextureBridge(canvas, entry, w, h, limiter)
+			}
+		if (!view.isOffscreenSupported) {
+			view.dispose()
+			return null
+		}
+		view.register()
+		textureViews++
+		return view
+	}
+
+	/**
+	 * createTextureで生成したFlutterSkywayCanvasを破棄する
+	 * @param viewId
+	 * @return 破棄したときはtrue
+	 */
+	fun disposeTexture(viewId: Int): Boolean {
+		val view = FlutterSkywayCanvas.findViewById(viewId)
+		return if ((view != null) && view.isTexture) {
+			view.dispose()
+			textureViews--
+			true
+		} else {
+			false
+		}
+	}
+
+	/**
+	 * 複数のリモート映像を1つのテクスチャへ合成して表示するモザイク表示を生成する
+	 * メインスレッド上から呼び出すこと
+	 * @param context
+	 * @param width 表示予定の幅(不明なら0)
+	 * @param height 表示予定の高さ(不明なら0)
+	 * @return 合成処理を初期化できなければnull
+	 */
+	fun createMosaic(context: Context, width: Int, height: Int): SkywayMosaic? {
+		val entry = textures.createSurfaceTexture()
+		return try {
+			SkywayMosaic(this, context, entry, width, height).also {
+				mosaics.put(it.mosaicId, it)
+			}
+		} catch (e: IllegalStateException) {
+			entry.release()
+			null
+		}
+	}
+
+	/**
+	 * createMosaicで生成したモザイク表示を取得する
+	 * @param mosaicId
+	 */
+	fun findMosaic(mosaicId: Int): SkywayMosaic? {
+		return mosaics[mosaicId]
+	}
+
+	/**
+	 * createMosaicで生成したモザイク表示を破棄する
+	 * @param mosaicId
+	 * @return 破棄したときはtrue
+	 */
+	fun disposeMosaic(mosaicId: Int): Boolean {
+		val mosaic = mosaics[mosaicId]
+		return if (mosaic != null) {
+			mosaics.remove(mosaicId)
+			mosaic.release()
+			true
+		} else {
+			false
+		}
+	}
+
+	/**
+	 * 全てのモザイク表示を破棄する
+	 */
+	fun disposeAllMosaics() {
+		for (i in 0 until mosaics.size()) {
+			mosaics.valueAt(i).release()
+		}
+		mosaics.clear()
+	}
+
+	/**
+	 * モザイク表示のタイル(ビュー階層外で描画するFlutterSkywayCanvas)を生成する
+	 * PlatformView/テクスチャのidと重ならないようにTILE_VIEW_ID_BASE以上のidを割り当てる
+	 * @param context
+	 * @param width タイルのサイズ
+	 * @param height タイルのサイズ
+	 * @param targetFactory Canvasの描画先を生成する
+	 * @return SDKのCanvasがビュー階層外への描画に対応していなければnull
+	 */
+	internal fun createTile(context: Context, width: Int, height: Int,
+		targetFactory: (canvas: Canvas, width: Int, height: Int, limiter: FrameRateLimiter) -> FlutterSkywayCanvas.RenderTarget)
+			: FlutterSkywayCanvas? {
+
+		val view = FlutterSkywayCanvas(context, messenger, nextTileId++,
+			mapOf("width" to width, "height" to height), pool, targetFactory)
+		if (!view.isOffscreenSupported) {
+			view.dispose()
+			return null
+		}
+		view.register()
+		return view
+	}
+
+	/**
+	 * createTileで生成したタイルを破棄する
+	 * @param view
+	 */
+	internal fun disposeTile(view: FlutterSkywayCanvas) {
+		view.dispose()
+	}
+
+	/**
+	 * プールの統計情報と生成中のテクスチャ/モザイク表示の数を取得する
+	 */
+	fun stats(): Map<String, Any> {
+		return pool.stats() + ("textureViews" to textureViews) + ("mosaics" to mosaics.size())
+	}
+
+	companion object {
+		/**
+		 * テクスチャで表示するFlutterSkywayCanvasのidの開始値
+		 */
+		const val TEXTURE_VIEW_ID_BASE = 0x10000
+		/**
+		 * モザイク表示のタイルのidの開始値
+		 */
+		const val TILE_VIEW_ID_BASE = 0x1000000
+	}
 }
@@ -3,21 +3,36 @@ package com.serenegiant.skyway_flutter_test;
 import android.app.Activity;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
-import io.skyway.Peer.Browser.Canvas;
 import io.skyway.Peer.Browser.MediaConstraints;
 import io.skyway.Peer.Browser.MediaStream;
 import io.skyway.Peer.Browser.Navigator;
@@ -37,6 +52,43 @@ public class FlutterSkywayPeer {
 	private static final boolean DEBUG = true;	// set false on production
 	private static final String TAG = FlutterSkywayPeer.class.getSimpleName();
 
+	/**
+	 * 適応モードで負荷を計測してローカル映像の取得設定を見直す間隔[ミリ秒]
+	 */
+	private static final long ADAPTIVE_CAPTURE_INTERVAL_MS = 3000;
+	/**
+	 * ルーム切り替え時に切り替え先のルームがOPENしてから
+	 * リモート映像を受信するまで切り替え元のルームを閉じずに待つ最大時間[ミリ秒]
+	 */
+	private static final long ROOM_SWITCH_GRACE_MS = 1000;
+	/**
+	 * 切り替え先のリモート映像を受信する前に切り替え元のルームを閉じたときに
+	 * 映像が途切れた時間を計測するためにリモート映像の受信を待つ最大時間[ミリ秒]
+	 * 超えたときはgapMs=-1でOnRoomSwitchedを送信する
+	 */
+	private static final long ROOM_SWITCH_GAP_TIMEOUT_MS = 10000;
+
+	/**
+	 * 通話開始までのフェーズ名
+	 */
+	private static final String TRACE_CONNECT = "connect";
+	private static final String TRACE_POOL_OPEN = "poolOpen";
+	private static final String TRACE_GET_USER_MEDIA = "getUserMedia";
+	private static final String TRACE_CALL = "call";
+	private static final String TRACE_JOIN = "join";
+	private static final String TRACE_FIRST_STREAM = "firstStream";
+	private static final String TRACE_RENDER = "render";
+	/**
+	 * イベントによってどこからも参照されなくなった(ハンドルを破棄した)リモートピアidのリストのキー
+	 * Dart側はこのイベントを処理した後でハンドルとの対応を破棄する
+	 */
+	private static final String KEY_RELEASED_PEER_IDS = RoomStateModel.KEY_RELEASED_PEER_IDS;
+
+	/**
+	 * Dart側との間でpeerIdの代わりに使うハンドルの生成用
+	 */
+	private static final AtomicInteger sNextPeerHandle = new AtomicInteger();
+
 	/**
 	 * リモートピア一覧を取得したときのコールバックリスナー
 	 */
@@ -46,57 +98,251 @@ public class FlutterSkywayPeer {
 
 	/**
 	 * リモートピア関係のオブジェクトのホルダー&ヘルパークラス
+	 * 状態遷移はRemoteStreamRegistry.EntryがCASで行うので複数のスレッドから同時に呼び出されても
+	 * SDKの破棄処理は1回だけ実行される(ロックは保持しない)
 	 */
-	private class RemotePeer {
-		@NonNull
-		private final String peerId;
+	private class RemotePeer extends RemoteStreamRegistry.Entry
+		implements FlutterSkywayCanvas.RendererBinding {
+
 		@NonNull
 		private final MediaStream stream;
-		private Canvas canvas;
+		@NonNull
+		private final AtomicReference<FlutterSkywayCanvas> view = new AtomicReference<>();
+		/**
+		 * 実際に映像を描画中(addVideoRenderer済み)の描画先
+		 */
+		@NonNull
+		private final AtomicReference<FlutterSkywayCanvas> rendering = new AtomicReference<>();
+		/**
+		 * リモート映像を受信した時刻[ナノ秒], 初めて描画を開始するまでの時間の計測用
+		 * 描画を開始した後は0
+		 */
+		@NonNull
+		private final AtomicLong receivedNs = new AtomicLong(System.nanoTime());
 
+		/**
+		 * コンストラクタ
+		 * @param remotePeerId
+		 * @param holder 受信しているルーム, p2p接続の場合はnull
+		 * @param remoteStream
+		 */
 		public RemotePeer(
 			@NonNull final String remotePeerId,
+			@Nullable final RoomHolder holder,
 			@NonNull final MediaStream remoteStream) {
 
-			peerId = remotePeerId;
+			super(remotePeerId, holder != null ? holder.name : null, holder);
 			stream = remoteStream;
 		}
 
 		/**
 		 * 描画先のCanvasオブジェクトをセットする
-		 * @param canvas
+		 * @param view
+		 * @return 既に破棄処理中または破棄済みの場合はfalse
 		 */
-		public void setCanvas(@Nullable final Canvas canvas) {
-			if (DEBUG) Log.v(TAG, "RemotePeer#setCanvas:" + canvas);
-			if (this.canvas != canvas) {
-				if (this.canvas != null) {
-					stream.removeVideoRenderer(canvas, 0);
+		public boolean setCanvas(@Nullable final FlutterSkywayCanvas view) {
+			if (DEBUG) Log.v(TAG, "RemotePeer#setCanvas:" + view);
+			if (isReleasing()) {
+				return false;
+			}
+			final FlutterSkywayCanvas prev = this.view.getAndSet(view);
+			if (prev != view) {
+				if (prev != null) {
+					prev.removeBinding(this);
+					detachRenderer(prev);
 				}
-				this.canvas = canvas;
-				if (canvas != null) {
-					stream.addVideoRenderer(canvas, 0);
+				if (view != null) {
+					view.addBinding(this);
+					if (view.isVisible()) {
+						attachRenderer(view);
+					}
 				}
 			}
+			if ((view != null) && !attach()) {
+				// 描画先を追加している間に破棄処理が始まった
+				unbind(view);
+				return false;
+			}
+			return true;
 		}
 
 		/**
-		 * リモート映像の取得を停止させて関係するリソースを破棄する
+		 * 描画先のCanvasが破棄される(プールへ戻される)ときの処理
+		 * FlutterSkywayCanvas#disposeからメインスレッド上で呼ばれる
+		 * SDKの呼び出しはワーカースレッド上で行う
+		 * (再利用したCanvasへの描画先の追加も同じワーカースレッド上で後から行うので先に取り除かれる)
+		 * @param view
 		 */
-		public void release() {
-			if (DEBUG) Log.v(TAG, "RemotePeer#release:");
-			if (canvas != null) {
-				stream.removeVideoRenderer(canvas, 0);
-				stream.close();
-				canvas = null;
-				final Map<String, String> message
-					= createMessage(Const.SkywayEvent.OnRemoveRemoteStream);
-				message.put("remotePeerId", peerId);
+		@Override
+		public void unbind(@NonNull final FlutterSkywayCanvas view) {
+			if (this.view.compareAndSet(view, null)) {
+				view.removeBinding(this);
 				try {
-					sendMessage(message);
-				} catch (final Exception e) {
-					if (DEBUG) Log.w(TAG, e);
+					queueSdkTask(new Runnable() {
+						@Override
+						public void run() {
+							detachRenderer(view);
+						}
+					});
+				} catch (final RejectedExecutionException e) {
+					// 破棄済みならrelease内で取り除いている
+					if (DEBUG) Log.v(TAG, "RemotePeer#unbind:already released");
+				}
+			}
+		}
+
+		@Override
+		public void onVisibilityChanged(
+			@NonNull final FlutterSkywayCanvas view, final boolean visible) {
+
+			if (DEBUG) Log.v(TAG, "RemotePeer#onVisibilityChanged:" + peerId + ",visible=" + visible);
+			try {
+				queueSdkTask(new Runnable() {
+					@Override
+					public void run() {
+						if ((RemotePeer.this.view.get() == view) && !isReleasing()) {
+							if (visible) {
+								attachRenderer(view);
+							} else {
+								detachRenderer(view);
+							}
+						}
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				if (DEBUG) Log.v(TAG, "RemotePeer#onVisibilityChanged:already released");
+			}
+		}
+
+		private void attachRenderer(@NonNull final FlutterSkywayCanvas view) {
+			final FlutterSkywayCanvas prev = rendering.getAndSet(view);
+			if (prev != view) {
+				if (prev != null) {
+					// 取り除く前に描画先が切り替わったとき
+					stream.removeVideoRenderer(prev.getCanvas(), 0);
+				}
+				stream.addVideoRenderer(view.getCanvas(), 0);
+				final long received = receivedNs.getAndSet(0);
+				if (received != 0) {
+					mMetrics.recordStreamToRender(System.nanoTime() - received);
 				}
+				mTracer.end(TRACE_RENDER, key);
+			}
+		}
+
+		private void detachRenderer(@NonNull final FlutterSkywayCanvas view) {
+			if (rendering.compareAndSet(view, null)) {
+				stream.removeVideoRenderer(view.getCanvas(), 0);
+			}
+		}
+
+		/**
+		 * リモート映像の取得を停止させて関係するリソースを破棄する
+		 * release()から1回だけ呼ばれる
+		 */
+		@Override
+		protected void onRelease() {
+			if (DEBUG) Log.v(TAG, "RemotePeer#onRelease:");
+			final FlutterSkywayCanvas prev = view.getAndSet(null);
+			if (prev != null) {
+				prev.removeBinding(this);
+			}
+			// unbindでワーカースレッドへ渡した後に破棄されたときもここで取り除く
+			final FlutterSkywayCanvas rendered = rendering.get();
+			if (rendered != null) {
+				detachRenderer(rendered);
+			}
+			stream.close();
+			final Map<String, Object> message
+				= createMessage(Const.SkywayEvent.OnRemoveRemoteStream);
+			message.put("remotePeerId", peerId);
+			if (room != null) {
+				message.put("room", room);
 			}
+			try {
+				sendMessage(message);
+			} catch (final Exception e) {
+				if (DEBUG) Log.w(TAG, e);
+			}
+		}
+	}
+
+	/**
+	 * SFU/Meshのルーム毎のオブジェクトのホルダークラス
+	 * ルーム毎のコールバックを保持する(受信しているリモート映像はmRemotesで保持する)
+	 */
+	private class RoomHolder {
+		@NonNull
+		private final String name;
+		@NonNull
+		private final RoomOption.RoomModeEnum mode;
+		@NonNull
+		private final Room room;
+		/**
+		 * RoomEventEnum.OPENを受け取ったかどうか
+		 */
+		private volatile boolean opened;
+
+		public RoomHolder(@NonNull final String name,
+			@NonNull final RoomOption.RoomModeEnum mode,
+			@NonNull final Room room) {
+
+			this.name = name;
+			this.mode = mode;
+			this.room = room;
+		}
+	}
+
+	/**
+	 * 実行中のルーム切り替え
+	 * 切り替え先のルームに入室してOPENしてから切り替え元のルームを閉じる(make-before-break)
+	 */
+	private static class RoomSwitch {
+		/**
+		 * 切り替え元のルーム名, nullなら閉じるルームは無い
+		 */
+		@Nullable
+		private final String from;
+		@NonNull
+		private final String to;
+		@NonNull
+		private final RoomOption.RoomModeEnum mode;
+		private final long startMs;
+		/**
+		 * 切り替え先のルームへこの切り替えで入室したかどうか
+		 * (まとめられたときに入室済みだったルームからは退室しないようにする)
+		 */
+		private final boolean joined;
+		/**
+		 * まとめられた切り替え要求の数
+		 */
+		private final int coalesced;
+		/**
+		 * 切り替え開始からOPENまでの時間, OPEN前は-1
+		 */
+		private long openMs = -1;
+		/**
+		 * 切り替え元のルームを閉じた時刻(SystemClock#elapsedRealtime), 閉じる前は-1
+		 */
+		private long closedMs = -1;
+		@Nullable
+		private Runnable graceTask;
+		/**
+		 * 切り替え先のリモート映像の受信待ちを打ち切るためのRunnable
+		 */
+		@Nullable
+		private Runnable gapTask;
+
+		private RoomSwitch(@Nullable final String from, @NonNull final String to,
+			@NonNull final RoomOption.RoomModeEnum mode,
+			final long startMs, final boolean joined, final int coalesced) {
+
+			this.from = from;
+			this.to = to;
+			this.mode = mode;
+			this.startMs = startMs;
+			this.joined = joined;
+			this.coalesced = coalesced;
 		}
 	}
 
@@ -106,37 +352,267 @@ public class FlutterSkywayPeer {
 	private final Activity activity;
 	@NonNull
 	private final EventChannel _Eventchannel;
+	/**
+	 * バイナリ形式でイベントを送信するためのチャネル
+	 */
+	@NonNull
+	private final BasicMessageChannel<ByteBuffer> _binaryChannel;
 	@NonNull
 	private final String _peerId;
+	/**
+	 * Dart側との間でpeerIdの代わりに使うハンドル
+	 */
+	private final int _peerHandle = sNextPeerHandle.incrementAndGet();
 	@NonNull
 	private final Peer _peer;
 	@Nullable
 	private EventChannel.EventSink _eventSink;
-	private MediaStream _localStream;
+	/**
+	 * ローカル映像のMediaStreamオブジェクト
+	 * SDKのコールバックスレッドからもアクセスするのでAtomicReferenceで保持する
+	 */
+	@NonNull
+	private final AtomicReference<MediaStream> _localStream = new AtomicReference<>();
 	/**
 	 * p2p接続の場合のMediaConnectionオブジェクト
 	 */
-	private MediaConnection _mediaConnection;
-	@Nullable
-	private String _roomName;
+	@NonNull
+	private final AtomicReference<MediaConnection> _mediaConnection = new AtomicReference<>();
 	/**
-	 *
+	 * 入室中のSFU/Meshのルーム, キーはルーム名
+	 * ローカル映像のMediaStreamは全てのルームで共有する
+	 */
+	@NonNull
+	private final ConcurrentHashMap<String, RoomHolder> mRooms = new ConcurrentHashMap<>();
+	/**
+	 * 実行中のルーム切り替え, SDKのワーカースレッド上からのみアクセスする
 	 */
 	@Nullable
-	private RoomOption.RoomModeEnum _roomMode;
+	private RoomSwitch mSwitch;
 	/**
-	 * SFU/Mesh接続の場合のRoomモブジェクト
+	 * 切り替え元のルームを閉じた後で切り替え先のリモート映像の受信を待っている
+	 * (OnRoomSwitchedを送信していない)ルーム切り替え, SDKのワーカースレッド上からのみアクセスする
 	 */
 	@Nullable
-	private Room _room;
+	private RoomSwitch mGapSwitch;
+
+	private volatile int _localVideoId = -1;
+	/**
+	 * ローカル映像の描画先のCanvasが生成されていないときのCanvas Viewのdart側識別用id
+	 * Canvasが生成されたときに描画先へ追加する, 待っていなければ-1
+	 */
+	private volatile int mPendingLocalVideoId = -1;
+	/**
+	 * 描画先のCanvasが生成されていないリモート映像, キーはCanvas Viewのdart側識別用id, 値はリモート映像の識別子(RemoteStreamRegistry#keyOf)
+	 */
+	@NonNull
+	private final ConcurrentHashMap<Integer, String> mPendingRemoteViews = new ConcurrentHashMap<>();
+	/**
+	 * 描画先のCanvasが後から生成されたときの処理
+	 */
+	@NonNull
+	private final FlutterSkywayCanvas.OnViewRegisteredListener mViewListener
+		= new FlutterSkywayCanvas.OnViewRegisteredListener() {
+		@Override
+		public void onViewRegistered(@NonNull final FlutterSkywayCanvas view) {
+			final int id = view.getViewId();
+			if ((mPendingLocalVideoId != id) && !mPendingRemoteViews.containsKey(id)) {
+				return;
+			}
+			try {
+				queueSdkTask(new Runnable() {
+					@Override
+					public void run() {
+						bindPendingView(id);
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				if (DEBUG) Log.v(TAG, "onViewRegistered:already released");
+			}
+		}
+	};
+	/**
+	 * ローカル映像の描画先
+	 */
+	@NonNull
+	private final AtomicReference<FlutterSkywayCanvas> _localView = new AtomicReference<>();
+	/**
+	 * ローカル映像を実際に描画中(addVideoRenderer済み)の描画先
+	 */
+	@NonNull
+	private final AtomicReference<FlutterSkywayCanvas> _localRendering = new AtomicReference<>();
+	/**
+	 * ローカル映像の描画先が破棄されるときや表示状態が変化したときの処理
+	 */
+	@NonNull
+	private final FlutterSkywayCanvas.RendererBinding mLocalBinding
+		= new FlutterSkywayCanvas.RendererBinding() {
+		@Override
+		public void unbind(@NonNull final FlutterSkywayCanvas view) {
+			if (_localView.compareAndSet(view, null)) {
+				_localVideoId = -1;
+				try {
+					queueSdkTask(new Runnable() {
+						@Override
+						public void run() {
+							detachLocalRenderer(view);
+						}
+					});
+				} catch (final RejectedExecutionException e) {
+					// 破棄済みならrelease内で取り除いている
+					if (DEBUG) Log.v(TAG, "unbind:already released");
+				}
+			}
+		}
 
-	private int _localVideoId = -1;
-	private Canvas _localCanvas;
+		@Override
+		public void onVisibilityChanged(
+			@NonNull final FlutterSkywayCanvas view, final boolean visible) {
+
+			try {
+				queueSdkTask(new Runnable() {
+					@Override
+					public void run() {
+						if (_localView.get() == view) {
+							if (visible) {
+								attachLocalRenderer(view);
+							} else {
+								detachLocalRenderer(view);
+							}
+						}
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				if (DEBUG) Log.v(TAG, "onVisibilityChanged:already released");
+			}
+		}
+	};
+
+	/**
+	 * 現在のローカル映像の取得設定
+	 */
+	@NonNull
+	private volatile CaptureProfile mCaptureProfile = CaptureProfile.DEFAULT;
+	/**
+	 * アプリが指定したローカル映像の取得設定
+	 * 適応モードではこれより重い取得設定にはしない
+	 */
+	@NonNull
+	private volatile CaptureProfile mCaptureCeiling = CaptureProfile.DEFAULT;
+	/**
+	 * 適応モードかどうか
+	 */
+	private volatile boolean mAdaptiveCapture;
+	@NonNull
+	private final CaptureLoadMonitor mLoadMonitor;
+	/**
+	 * ピア一覧のキャッシュ
+	 */
+	@NonNull
+	private final PeerDirectory mDirectory;
+	/**
+	 * ピア一覧をバックグラウンドで更新する間隔[ミリ秒], 0以下なら更新しない
+	 */
+	private volatile long mDirectoryRefreshMs;
+	/**
+	 * イベント送信等の計測値(全てのピアで共有)
+	 */
+	@NonNull
+	private final SkywayMetrics mMetrics;
+	/**
+	 * 計測値をOnMetricsイベントで定期的に送信する間隔[ミリ秒], 0以下なら送信しない
+	 */
+	private volatile long mMetricsIntervalMs;
+	/**
+	 * 通話開始までの各フェーズの所要時間の記録
+	 */
+	@NonNull
+	private final CallTracer mTracer;
 
+	/**
+	 * Dart側へのイベント送信(EventSink#success)はメインスレッド上で行う
+	 */
 	@NonNull
 	private final Handler _handler = new Handler(Looper.getMainLooper());
+	/**
+	 * SDKの処理を実行するためのワーカースレッド(ピア毎に1つ)
+	 * SDKの呼び出しとSDKからのコールバック処理はすべてこのスレッド上で直列に実行する
+	 */
+	@NonNull
+	private final ExecutorService mSdkExecutor;
+	/**
+	 * 受信している全てのリモート映像(p2p接続と全てのルーム)
+	 */
+	@NonNull
+	private final RemoteStreamRegistry<RemotePeer> mRemotes = new RemoteStreamRegistry<>();
+	/**
+	 * 同時に描画するリモート映像の数を制限するためのスケジューラー
+	 * SDKのワーカースレッド上からのみアクセスする
+	 */
+	@NonNull
+	private final RenderScheduler mScheduler = new RenderScheduler();
+	@NonNull
+	private final EventBatcher mBatcher = new EventBatcher(new EventBatcher.Sink() {
+		@Override
+		public void onFlush(@NonNull final List<Map<String, Object>> events) {
+			synchronized (mSync) {
+				if (_eventSink != null) {
+					for (final Map<String, Object> message: events) {
+						toWireLocked(message);
+					}
+					if (mBinaryEvent) {
+						sendBinary(events);
+					} else {
+						_eventSink.success(events);
+					}
+				} else {
+					// 送信待ちの間にcancelされたときは再度listenされるまで溜めておく
+					for (final Map<String, Object> message: events) {
+						bufferLocked(message);
+					}
+				}
+			}
+		}
+	});
+	/**
+	 * Dart側がlistenしていない間に発生したイベント, mSyncで排他制御する
+	 */
+	@NonNull
+	private final PendingEventBuffer mPendingEvents = new PendingEventBuffer(
+		PendingEventBuffer.DEFAULT_CAPACITY, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+	/**
+	 * 入室中のルームのメンバーとリモート映像(getRoomStateで取得する)
+	 */
 	@NonNull
-	private final Map<String, RemotePeer> mRemotes = new HashMap<>();
+	private final RoomStateModel mRoomState = new RoomStateModel();
+	/**
+	 * Dart側との間でリモートピアidの代わりに使うハンドル
+	 */
+	@NonNull
+	private final HandleTable<String> mRemoteHandles = new HandleTable<>();
+	/**
+	 * リモートピアidとハンドルの対応をDart側へ送信済みのハンドル, mSyncで排他制御する
+	 * インデックスはハンドルのスロット(HandleTable#slotOf)
+	 */
+	@NonNull
+	private final BitSet mAnnouncedHandles = new BitSet();
+	/**
+	 * sendMessageでルームのメンバーやリモート映像から取り除いたリモートピアidを受け取るための作業用, mSyncで排他制御する
+	 */
+	@NonNull
+	private final ArrayList<String> mRemovedPeerIds = new ArrayList<>();
+	/**
+	 * イベントを送信せずにルームを閉じたとき(closeRoom)にどこからも参照されなくなったリモートピアid,
+	 * 次に送信するイベントに付けてDart側へ送る, mSyncで排他制御する
+	 */
+	@NonNull
+	private final ArrayList<String> mDeferredReleasedPeerIds = new ArrayList<>();
+	@NonNull
+	private final EventCodec mCodec = new EventCodec();
+	/**
+	 * イベントをバイナリ形式で送信するかどうか
+	 */
+	private boolean mBinaryEvent;
 
 	/**
 	 * コンストラクタ
@@ -145,31 +621,62 @@ public class FlutterSkywayPeer {
 	 * @param peerId
 	 * @param peer
 	 * @param binaryMessenger
+	 * @param metrics
 	 */
 	public FlutterSkywayPeer(@NonNull final Activity activity,
 		@NonNull final String peerId,
 		@NonNull final Peer peer,
-		@NonNull final BinaryMessenger binaryMessenger) {
+		@NonNull final BinaryMessenger binaryMessenger,
+		@NonNull final SkywayMetrics metrics) {
 
 		if (DEBUG) Log.v(TAG, "FlutterSkywayPeer:");
 		this.activity = activity;
 		_peerId = peerId;
 		_peer = peer;
+		mMetrics = metrics;
+		mTracer = new CallTracer(_peerHandle, peerId, CallTracer.DEFAULT_CAPACITY);
+		mLoadMonitor = new CaptureLoadMonitor(activity);
+		mDirectory = new PeerDirectory(peerId, new PeerDirectory.Fetcher() {
+			@Override
+			public void fetch() {
+				// Get all IDs connected to the server
+				_peer.listAllPeers(serial(new OnCallback() {
+					@Override
+					public void onCallback(final Object object) {
+						mDirectory.onFetched(object instanceof JSONArray ? (JSONArray)object : null);
+					}
+				}));
+			}
+		}, _handler);
+		mSdkExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(@NonNull final Runnable r) {
+				return new Thread(r, "SkywaySdk-" + peerId);
+			}
+		});
+		// Dart側へのイベント送信はデフォルトで描画フレーム毎にまとめる
+		// (打ち消したイベントのバージョンは後続のイベントへ引き継ぐので同期し直す必要はない)
+		mBatcher.setInterval(EventBatcher.BATCH_PER_FRAME);
 		_Eventchannel = new EventChannel(binaryMessenger,
 			Const.PEER_EVENT_CHANNEL_NAME + "_" + peer.identity());
 		_Eventchannel.setStreamHandler(mStreamHandler);
+		_binaryChannel = new BasicMessageChannel<>(binaryMessenger,
+			Const.PEER_BINARY_CHANNEL_NAME + "_" + peer.identity(), BinaryCodec.INSTANCE);
+		FlutterSkywayCanvas.Companion.addOnViewRegisteredListener(mViewListener);
 
 		// DISCONNECTED
-		_peer.on(Peer.PeerEventEnum.DISCONNECTED, new OnCallback() {
+		_peer.on(Peer.PeerEventEnum.DISCONNECTED, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "PeerEventEnum.DISCONNECTED:" + object);
+				// 切断されたので問い合わせ結果は届かない
+				mDirectory.abort();
 				sendEmptyMessage(Const.SkywayEvent.OnDisconnect);
 			}
-		});
+		}));
 
 		// CALL (Incoming call)
-		_peer.on(Peer.PeerEventEnum.CALL, new OnCallback() {
+		_peer.on(Peer.PeerEventEnum.CALL, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "PeerEventEnum.CALL:" + object);
@@ -177,20 +684,35 @@ public class FlutterSkywayPeer {
 					return;
 				}
 
-				_mediaConnection = (MediaConnection) object;
-				setMediaCallbacks(_mediaConnection);
+				final MediaConnection connection = (MediaConnection) object;
+				setMediaCallbacks(connection);
+				final MediaConnection prev = _mediaConnection.getAndSet(connection);
+				if (prev != null) {
+					closeMediaConnection(prev);
+				}
 				// XXX accept/rejectできるようにするにはここでanswerを呼んじゃだめだけど
-				_mediaConnection.answer(_localStream);
-				final Map<String, String> message
+				connection.answer(_localStream.get());
+				final Map<String, Object> message
 					= createMessage(Const.SkywayEvent.OnCall);
-				message.put("remotePeerId", _mediaConnection.peer());
+				message.put("remotePeerId", connection.peer());
 				try {
 					sendMessage(message);
 				} catch (final Exception e) {
 					Log.w(TAG, "PeerEventEnum.CAL: EventChannel is not ready ro already released.", e);
 				}
 			}
-		});
+		}));
+	}
+
+	/**
+	 * SDKの処理をピア毎のワーカースレッド上で実行する
+	 * @param task
+	 * @throws RejectedExecutionException 既に破棄されている
+	 */
+	public void queueSdkTask(@NonNull final Runnable task)
+		throws RejectedExecutionException {
+
+		mSdkExecutor.execute(task);
 	}
 
 	/**
@@ -200,16 +722,13 @@ public class FlutterSkywayPeer {
 		if (DEBUG) Log.v(TAG, "hangUp:");
 		closeRemoteStreamAll();
 		// p2p接続の場合
-		if (_mediaConnection != null) {
-			if (_mediaConnection.isOpen()) {
-				_mediaConnection.close();
-			}
-			unsetMediaCallbacks(_mediaConnection);
-			_mediaConnection = null;
+		final MediaConnection connection = _mediaConnection.getAndSet(null);
+		if (connection != null) {
+			closeMediaConnection(connection);
 		}
 		// SFU/Mesh接続の場合
-		if (_roomName != null) {
-			leave(_roomName);
+		for (final String roomName: mRooms.keySet()) {
+			leave(roomName);
 		}
 	}
 
@@ -222,29 +741,39 @@ public class FlutterSkywayPeer {
 		throws IllegalStateException {
 
 		if (DEBUG) Log.v(TAG, "startCall:" + remotePeerId);
-		if (!isConnected() || (_localStream == null)) {
+		final MediaStream localStream = _localStream.get();
+		if (!isConnected() || (localStream == null)) {
 			throw new IllegalStateException("Already released or not started local stream");
 		}
 
-		if (_mediaConnection != null) {
-			_mediaConnection.close();
+		final MediaConnection prev = _mediaConnection.getAndSet(null);
+		if (prev != null) {
+			closeMediaConnection(prev);
 		}
-		if (_room != null) {
-			unsetRoomCallback(_room);
-			_room = null;
+		for (final RoomHolder holder: mRooms.values()) {
+			if (mRooms.remove(holder.name, holder)) {
+				closeRoom(holder);
+			}
 		}
 
 		final CallOption option = new CallOption();
-		_mediaConnection = _peer.call(remotePeerId, _localStream, option);
+		mTracer.begin(TRACE_CALL, CallTracer.CATEGORY_P2P, remotePeerId);
+		final MediaConnection connection = _peer.call(remotePeerId, localStream, option);
 
-		if (_mediaConnection != null) {
-			setMediaCallbacks(_mediaConnection);
+		if (connection != null) {
+			setMediaCallbacks(connection);
+			final MediaConnection old = _mediaConnection.getAndSet(connection);
+			if (old != null) {
+				closeMediaConnection(old);
+			}
 		}
 
 	}
 
 	/**
 	 * SFUまたはMeshで指定したルームに入室する
+	 * 既に入室中の他のルームはそのまま(同時に複数のルームに入室できる)
+	 * ローカル映像のMediaStreamは取得し直さずに全てのルームで共有する
 	 * @param roomName
 	 * @param mode
 	 * @throws IllegalStateException
@@ -253,44 +782,117 @@ public class FlutterSkywayPeer {
 		throws IllegalStateException {
 
 		if (DEBUG) Log.v(TAG, "join:" + roomName + ",mode=" + mode);
-		if (!isConnected() || (_localStream == null)) {
+		final MediaStream localStream = _localStream.get();
+		if (!isConnected() || (localStream == null)) {
 			throw new IllegalStateException("Already released or not started local stream");
 		}
 
-		if (_mediaConnection != null) {
-			_mediaConnection.close();
+		final MediaConnection connection = _mediaConnection.getAndSet(null);
+		if (connection != null) {
+			closeMediaConnection(connection);
 		}
-		if ((_room == null) || !roomName.equals(_roomName) || !mode.equals(_roomMode)) {
-			if (_room != null) {
-				unsetRoomCallback(_room);
-				_room = null;
+		final RoomHolder current = mRooms.get(roomName);
+		if (current != null) {
+			if (current.mode == mode) {
+				// 既に同じモードで入室している
+				return;
 			}
-			final RoomOption option = new RoomOption();
-			option.mode = mode;
-			option.stream = _localStream;
+			// 違うモードで入室しているときは一旦退室する
+			if (mRooms.remove(roomName, current)) {
+				closeRoom(current);
+			}
+		}
+		final RoomOption option = new RoomOption();
+		option.mode = mode;
+		option.stream = localStream;
 
-			// Join Room
-			_room = _peer.joinRoom(roomName, option);
-			_roomName = roomName;
-			_roomMode = mode;
-			setRoomCallback(_room);
+		// Join Room
+		mTracer.begin(TRACE_JOIN, traceCategory(mode), roomName);
+		final Room room = _peer.joinRoom(roomName, option);
+		if (room != null) {
+			final RoomHolder holder = new RoomHolder(roomName, mode, room);
+			setRoomCallback(holder);
+			mRooms.put(roomName, holder);
 		}
 	}
 
 	/**
 	 * 指定したSFU/Meshのルームから退室する
-	 * XXX 今は同時に1つしかルームに入室できないので引数は無効
+	 * 受信しているリモート映像の破棄はRoomEventEnum.CLOSEを受け取ったときに行う
 	 * @param roomName
 	 */
 	public void leave(@NonNull final String roomName) {
-		if (DEBUG) Log.v(TAG, "leave:");
-		if (isConnected() && _room != null) {
-			_room.close();
-			_roomName = null;
-			_roomMode = null;
+		if (DEBUG) Log.v(TAG, "leave:" + roomName);
+		final RoomHolder holder = mRooms.remove(roomName);
+		if (holder != null) {
+			if (isConnected()) {
+				holder.room.close();
+			} else {
+				closeRoom(holder);
+			}
+		}
+	}
+
+	/**
+	 * 入室中のルームから別のルームへ切り替える
+	 * 切り替え先のルームに入室してOPENし、リモート映像を受信する(または一定時間経過する)まで
+	 * 切り替え元のルームを閉じないので映像/音声が途切れない(make-before-break)
+	 * 切り替え中に次の切り替えが要求されたときは最新の切り替え先だけを適用する
+	 * 切り替えが完了するとOnRoomSwitchedイベントを送信する
+	 * 切り替え先のリモート映像を受信する前に切り替え元のルームを閉じたときは、映像が途切れた時間(gapMs)を
+	 * 計測するために切り替え先のリモート映像を受信するまで(最大ROOM_SWITCH_GAP_TIMEOUT_MS)送信を遅らせる
+	 * 切り替え先のルームが切り替え完了前に閉じられたときはOnRoomSwitchFailedイベントを送信する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param from 切り替え元のルーム名, nullなら入室するだけ
+	 * @param to 切り替え先のルーム名
+	 * @param mode 切り替え先のルームのモード
+	 * @throws IllegalStateException
+	 */
+	public void switchRoom(@Nullable final String from, @NonNull final String to,
+		@NonNull final RoomOption.RoomModeEnum mode) throws IllegalStateException {
+
+		if (DEBUG) Log.v(TAG, "switchRoom:" + from + "→" + to + ",mode=" + mode);
+		// 前回の切り替えで切り替え先のリモート映像を待っていればそこで打ち切る
+		flushGapSwitch();
+		final RoomSwitch current = mSwitch;
+		if (current != null) {
+			if (current.to.equals(to) && (current.mode == mode)) {
+				// 同じルームへ切り替え中
+				return;
+			}
+			// まだ完了していない切り替えは破棄して最新の切り替え先だけを適用する
+			mSwitch = null;
+			if (current.graceTask != null) {
+				_handler.removeCallbacks(current.graceTask);
+			}
+			if (current.joined && !current.to.equals(current.from)) {
+				leave(current.to);
+			}
+			startSwitch(current.from, to, mode, current.startMs, current.coalesced + 1);
+		} else {
+			startSwitch(from, to, mode, SystemClock.elapsedRealtime(), 0);
 		}
 	}
 
+	/**
+	 * 入室中のSFU/Meshのルーム名一覧を取得する
+	 * @return
+	 */
+	@NonNull
+	public List<String> getRoomNames() {
+		return new ArrayList<>(mRooms.keySet());
+	}
+
+	/**
+	 * 入室中のルームのメンバーと受信中のリモート映像を取得する
+	 * @param sinceVersion Dart側が保持しているバージョン, 負なら全体を取得する
+	 * @return 指定したバージョン以降の変化分または全体, 詳細はRoomStateModel#snapshot参照
+	 */
+	@NonNull
+	public Map<String, Object> getRoomState(final long sinceVersion) {
+		return mRoomState.snapshot(sinceVersion);
+	}
+
 	/**
 	 * リモートピア一覧を取得
 	 * @param callback
@@ -300,116 +902,386 @@ public class FlutterSkywayPeer {
 		if (!isConnected()) {
 			callback.onListAllPeers(Collections.emptyList());
 		} else {
-			// Get all IDs connected to the server
-			_peer.listAllPeers(new OnCallback() {
-				@Override
-				public void onCallback(Object object) {
-					if (!(object instanceof JSONArray)) {
-						callback.onListAllPeers(Collections.emptyList());
-						return;
-					}
+			// キャッシュが有効期限切れのときだけ問い合わせる
+			mDirectory.get(callback);
+		}
+	}
 
-					final JSONArray peers = (JSONArray) object;
-					final List<String> peerIds = new ArrayList<>();
-					String peerId;
+	/**
+	 * ピア一覧のキャッシュ設定
+	 * @param ttlMs キャッシュの有効期限[ミリ秒], 0以下ならキャッシュしない(同時に要求されたときはまとめる)
+	 * @param refreshIntervalMs バックグラウンドでピア一覧を更新する間隔[ミリ秒], 0以下なら更新しない
+	 * 			更新するとピア一覧の差分をOnPeersChangedイベントで送信する
+	 */
+	public void setPeerDirectory(final long ttlMs, final long refreshIntervalMs) {
+		if (DEBUG) Log.v(TAG, "setPeerDirectory:ttl=" + ttlMs + ",refresh=" + refreshIntervalMs);
+		mDirectory.setTtl(ttlMs);
+		mDirectoryRefreshMs = refreshIntervalMs;
+		_handler.removeCallbacks(mDirectoryRefreshTask);
+		if (refreshIntervalMs > 0) {
+			mDirectory.setListener(mDirectoryListener);
+			_handler.post(mDirectoryRefreshTask);
+		} else {
+			mDirectory.setListener(null);
+		}
+	}
 
-					// Exclude my own ID
-					for (int i = 0; peers.length() > i; i++) {
-						try {
-							peerId = peers.getString(i);
-							if (!_peerId.equals(peerId)) {
-								peerIds.add(peerId);
-							}
-						} catch (Exception e) {
-							e.printStackTrace();
-						}
-					}
-					callback.onListAllPeers(peerIds);
-				}
-			});
+	/**
+	 * ピアidを取得する
+	 * @return
+	 */
+	@NonNull
+	public String getPeerId() {
+		return _peerId;
+	}
+
+	/**
+	 * Dart側との間でpeerIdの代わりに使うハンドルを取得する
+	 * @return
+	 */
+	public int getPeerHandle() {
+		return _peerHandle;
+	}
+
+	/**
+	 * ピア接続でエラーが発生したときの処理
+	 * 問い合わせ中のピア一覧は結果が届かないことがあるので待たずに失敗として扱う
+	 * @param error
+	 */
+	public void onPeerError(@Nullable final Object error) {
+		if (DEBUG) Log.v(TAG, "onPeerError:" + error);
+		mDirectory.abort();
+	}
+
+	/**
+	 * Dart側から受け取ったリモートピアidまたはそのハンドルをリモートピアidへ変換する
+	 * @param remotePeerId リモートピアid(String)またはハンドル(Integer)
+	 * @return 見つからなければnull
+	 */
+	@Nullable
+	public String resolveRemotePeerId(@Nullable final Object remotePeerId) {
+		return mRemoteHandles.resolve(remotePeerId, String.class);
+	}
+
+	/**
+	 * 通話開始までの各フェーズの所要時間の記録を取得する
+	 * @return
+	 */
+	@NonNull
+	public CallTracer getTracer() {
+		return mTracer;
+	}
+
+	/**
+	 * ピア接続(シグナリングサーバーへの接続開始からOPENまで)の所要時間を記録する
+	 * @param startNs 接続を開始したときのSystem.nanoTimeの値
+	 */
+	public void traceConnect(final long startNs) {
+		mTracer.record(TRACE_CONNECT, CallTracer.CATEGORY_PEER,
+			null, startNs, System.nanoTime());
+	}
+
+	/**
+	 * プールから取得した接続済みのPeerを使ったときのピア接続の所要時間を記録する
+	 * connectスパン(プールから取得するまで)に加えて、プールがバックグラウンドで
+	 * 接続開始からOPENまでにかかった時間をpoolOpenスパンとして実際に接続した時刻に記録する
+	 * @param startNs 接続を開始したときのSystem.nanoTimeの値
+	 * @param openMs プールが接続開始からOPENまでにかかった時間[ミリ秒]
+	 * @param readyAtMs プールのPeerがOPENした時刻(SystemClock#elapsedRealtime)
+	 */
+	public void tracePooledConnect(final long startNs, final long openMs, final long readyAtMs) {
+		final long nowNs = System.nanoTime();
+		mTracer.record(TRACE_CONNECT, CallTracer.CATEGORY_PEER,
+			"pooled", startNs, nowNs);
+		if (openMs >= 0) {
+			// elapsedRealtimeの時刻をSystem.nanoTimeの時刻へ換算する
+			final long readyNs = nowNs
+				- TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime() - readyAtMs);
+			mTracer.record(TRACE_POOL_OPEN, CallTracer.CATEGORY_PEER,
+				"pooled", readyNs - TimeUnit.MILLISECONDS.toNanos(openMs), readyNs);
+		}
+	}
+
+	/**
+	 * 計測値を定期的にOnMetricsイベントで送信する間隔を設定する
+	 * @param intervalMs 0以下なら送信しない
+	 */
+	public void setMetricsInterval(final long intervalMs) {
+		if (DEBUG) Log.v(TAG, "setMetricsInterval:" + intervalMs);
+		mMetricsIntervalMs = intervalMs;
+		_handler.removeCallbacks(mMetricsTask);
+		if (intervalMs > 0) {
+			_handler.postDelayed(mMetricsTask, intervalMs);
 		}
 	}
 
 	/**
 	 * ローカル映像の取得開始
+	 * カメラを開くのに時間がかかるのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * 描画先のCanvasがまだ生成されていなければ映像の取得だけを開始して
+	 * Canvasが生成されたときに描画先へ追加する
 	 * @param localVideoId Canvas Viewのdart側識別用id
-	 * @throws IllegalArgumentException 描画先のCanvasが見つからなかった
 	 */
-	public void startLocalStream(final int localVideoId)
-		throws IllegalArgumentException {
-
+	public void startLocalStream(final int localVideoId) {
 		if (DEBUG) Log.v(TAG, "startLocalStream:" + localVideoId);
 		if (_localVideoId != localVideoId) {
-			if (_localStream != null && _localCanvas != null) {
-				_localStream.removeVideoRenderer(_localCanvas, 0);
+			MediaStream localStream = _localStream.get();
+			final FlutterSkywayCanvas prevView = _localView.getAndSet(null);
+			if (prevView != null) {
+				prevView.removeBinding(mLocalBinding);
+				detachLocalRenderer(prevView);
 			}
-			if (_localStream == null) {
-				final MediaConstraints constraints = new MediaConstraints();
-				constraints.maxWidth = 960;
-				constraints.maxHeight = 540;
-				constraints.cameraPosition = MediaConstraints.CameraPositionEnum.FRONT;
-
+			_localVideoId = mPendingLocalVideoId = -1;
+			if (localStream == null) {
 				Navigator.initialize(_peer);
-				_localStream = Navigator.getUserMedia(constraints);
+				final long startNs = System.nanoTime();
+				localStream = Navigator.getUserMedia(mCaptureProfile.toConstraints());
+				mTracer.record(TRACE_GET_USER_MEDIA, CallTracer.CATEGORY_MEDIA,
+					mCaptureProfile.name, startNs, System.nanoTime());
+				_localStream.set(localStream);
 			}
-			_localCanvas = getCanvas(localVideoId);
-			if (_localCanvas != null) {
-				_localVideoId = localVideoId;
-				_localStream.addVideoRenderer(_localCanvas, 0);
+			// Canvasの生成と競合しても取りこぼさないように先に登録してから探す
+			// (見つかったときはbindPendingViewが後から実行されても二重に追加しない)
+			mPendingLocalVideoId = localVideoId;
+			final FlutterSkywayCanvas view = getCanvasView(localVideoId);
+			if (view != null) {
+				mPendingLocalVideoId = -1;
+				bindLocalView(localVideoId, view);
 			} else {
-				// ここにくるのはプログラムミス
-				throw new IllegalArgumentException();
+				if (DEBUG) Log.v(TAG, "startLocalStream:wait for canvas," + localVideoId);
 			}
 		}
 	}
 
+	/**
+	 * あらかじめ取得しておいたローカル映像(LocalMediaWarmer)を使うようにする
+	 * 次のstartLocalStreamではカメラを開かずにこのMediaStreamを描画先へ追加する
+	 * 既にローカル映像を取得しているときは渡したMediaStreamを破棄する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param stream
+	 * @param profile streamを取得したときの取得設定
+	 * @param warmMs streamの取得にかかった時間
+	 */
+	public void adoptLocalStream(@NonNull final MediaStream stream,
+		@NonNull final CaptureProfile profile, final long warmMs) {
+
+		if (DEBUG) Log.v(TAG, "adoptLocalStream:" + profile + ",saved " + warmMs + "ms");
+		if (_localStream.compareAndSet(null, stream)) {
+			mCaptureProfile = mCaptureCeiling = profile;
+			// 取得にかかった時間は短縮できたので0として記録する
+			final long now = System.nanoTime();
+			mTracer.record(TRACE_GET_USER_MEDIA, CallTracer.CATEGORY_MEDIA,
+				profile.name + "(prewarmed)", now, now);
+		} else {
+			stream.close();
+		}
+	}
+
 	/**
 	 * リモート映像の取得開始
+	 * 描画先のCanvasがまだ生成されていなければCanvasが生成されたときに描画先へ追加する
+	 * 描画先スロットを設定しているときは同時に描画する数を制限するために
+	 * スケジューラーが割り当てたスロット以外の描画先へは追加しない
 	 * @param remoteVideoId  Canvas Viewのdart側識別用id
 	 * @param remotePeerId
+	 * @param roomName リモート映像を受信しているルーム名,
+	 * 			nullならp2p接続または最初に見つかったルームのリモート映像
 	 * @throws IllegalArgumentException
+	 * @throws IllegalStateException 描画先スロットを設定していて割り当てられたスロット以外の描画先を指定した
 	 */
 	public void startRemoteStream(
-		final int remoteVideoId, final String remotePeerId)
-			throws IllegalArgumentException {
+		final int remoteVideoId, final String remotePeerId,
+		@Nullable final String roomName)
+			throws IllegalArgumentException, IllegalStateException {
 
-		if (DEBUG) Log.v(TAG, "startRemoteStream:" + remoteVideoId);
-		final RemotePeer remote = getRemote(remotePeerId);
+		if (DEBUG) Log.v(TAG, "startRemoteStream:" + remoteVideoId + ",room=" + roomName);
+		final RemotePeer remote = findRemote(remotePeerId, roomName);
 		if (remote != null) {
-			final Canvas canvas = getCanvas(remoteVideoId);
-			if (canvas != null) {
-				remote.setCanvas(canvas);
+			if (mScheduler.isEnabled() && (mScheduler.viewIdOf(remote.key) != remoteVideoId)) {
+				throw new IllegalStateException("Render slots are full or not assigned,remote peer=" + remotePeerId);
+			}
+			final RoomHolder holder = remote.room != null ? mRooms.get(remote.room) : null;
+			mTracer.begin(TRACE_RENDER,
+				holder != null ? traceCategory(holder.mode) : CallTracer.CATEGORY_P2P, remote.key);
+			// 描画先のCanvasが生成されていなければ生成されたときに描画先へ追加する
+			// Canvasの生成と競合しても取りこぼさないように先に登録してから探す
+			mPendingRemoteViews.put(remoteVideoId, remote.key);
+			final FlutterSkywayCanvas view = getCanvasView(remoteVideoId);
+			if (view != null) {
+				mPendingRemoteViews.remove(remoteVideoId, remote.key);
+				if (!remote.setCanvas(view)) {
+					throw new IllegalArgumentException("Specific remote peer already released,remote peer=" + remotePeerId);
+				}
 			} else {
-				// ここにくるのはプログラムミス
-				throw new IllegalArgumentException("Specific canvas,id=" + remoteVideoId);
+				if (DEBUG) Log.v(TAG, "startRemoteStream:wait for canvas," + remoteVideoId);
 			}
 		} else {
 			throw new IllegalArgumentException("Specific remote peer not found,remote peer=" + remotePeerId);
 		}
 	}
 
+	/**
+	 * リモート映像の描画先スロットを設定する
+	 * 設定するとリモート映像の描画先はスケジューラーが優先度順に割り当てるようになり
+	 * 同時に描画するリモート映像の数はスロットの数までに制限される
+	 * 割り当てが変わるとOnPromote/OnDemoteイベントを送信する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param viewIds 描画先スロットとして使うCanvas Viewのdart側識別用id, 空ならスケジューラーを無効にする
+	 */
+	public void setRenderSlots(@NonNull final int[] viewIds) {
+		if (DEBUG) Log.v(TAG, "setRenderSlots:" + viewIds.length);
+		for (final String key: mScheduler.setSlots(viewIds)) {
+			demote(key);
+		}
+		applySchedule();
+		if (mScheduler.isEnabled()) {
+			// startRemoteStreamで割り当てたスロット以外の描画先へ追加していたリモート映像を取り除く
+			for (final RemotePeer remote: mRemotes.values()) {
+				final FlutterSkywayCanvas view = remote.view.get();
+				if ((view != null) && (mScheduler.viewIdOf(remote.key) != view.getViewId())) {
+					demote(remote.key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * リモート映像の描画優先度を設定する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param remotePeerId
+	 * @param priority 大きいほど優先する
+	 * @param pinned trueなら他の条件に関係なく優先して描画する
+	 */
+	public void setRemotePriority(@NonNull final String remotePeerId,
+		final int priority, final boolean pinned) {
+
+		if (DEBUG) Log.v(TAG, "setRemotePriority:" + remotePeerId + ",priority=" + priority + ",pinned=" + pinned);
+		// まだリモート映像を受信していなければ受信したときに適用される
+		mScheduler.setPriority(remotePeerId, priority, pinned);
+		applySchedule();
+	}
+
+	/**
+	 * リモートピアが発話したことを通知する
+	 * 最近発話したリモートピアほど優先して描画する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param remotePeerId
+	 */
+	public void notifySpeaking(@NonNull final String remotePeerId) {
+		if (DEBUG) Log.v(TAG, "notifySpeaking:" + remotePeerId);
+		mScheduler.setSpeaking(remotePeerId, SystemClock.elapsedRealtime());
+		applySchedule();
+	}
+
+	/**
+	 * ローカル映像の取得設定を変更する
+	 * ローカル映像を取得中であればピア接続はそのままでローカル映像だけを取得し直して
+	 * 通話中のMediaConnection/Roomの送信映像を差し替える
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
+	 * @param name プリセット名
+	 * @param camera nullなら現在のカメラのまま
+	 * @param adaptive trueなら負荷/温度/ルームの人数に応じて指定したプリセットを上限として自動で切り替える
+	 * @return 適用した取得設定
+	 * @throws IllegalArgumentException プリセットが見つからなかった
+	 */
+	@NonNull
+	public Map<String, Object> setCaptureProfile(@NonNull final String name,
+		@Nullable final MediaConstraints.CameraPositionEnum camera,
+		final boolean adaptive) throws IllegalArgumentException {
+
+		if (DEBUG) Log.v(TAG, "setCaptureProfile:" + name + ",camera=" + camera + ",adaptive=" + adaptive);
+		final CaptureProfile preset = CaptureProfile.find(name);
+		if (preset == null) {
+			throw new IllegalArgumentException("Unknown capture profile," + name);
+		}
+		final CaptureProfile profile
+			= preset.withCamera(camera != null ? camera : mCaptureProfile.camera);
+		mCaptureCeiling = profile;
+		changeCaptureProfile(profile, "app");
+		mAdaptiveCapture = adaptive;
+		_handler.removeCallbacks(mAdaptiveCaptureTask);
+		if (adaptive) {
+			mLoadMonitor.reset();
+			_handler.postDelayed(mAdaptiveCaptureTask, ADAPTIVE_CAPTURE_INTERVAL_MS);
+		}
+		return profile.toMap();
+	}
+
+	/**
+	 * Dart側へのイベント送信をまとめて行うかどうかを設定する(デフォルトは描画フレーム毎)
+	 * @param intervalMs 負数ならまとめずに直ぐに送信する,
+	 * 					0なら描画フレーム毎, 正数ならミリ秒単位の送信間隔
+	 */
+	public void setEventBatching(final int intervalMs) {
+		if (DEBUG) Log.v(TAG, "setEventBatching:" + intervalMs);
+		mBatcher.setInterval(intervalMs);
+	}
+
+	/**
+	 * Dart側へのイベントをバイナリ形式で送信するかどうかを設定する
+	 * バイナリ形式のイベントはハンドルで宛先を判別するので
+	 * Dart側がハンドルを(getPeerHandleで)取得してから有効にすること
+	 * @param enable
+	 * @return バイナリ形式のイベントでpeerIdの代わりに使うハンドル
+	 */
+	public int setBinaryEvent(final boolean enable) {
+		if (DEBUG) Log.v(TAG, "setBinaryEvent:" + enable);
+		synchronized (mSync) {
+			mBinaryEvent = enable;
+		}
+		return _peerHandle;
+	}
+
 	/**
 	 * ピア接続を切断し関係するリソースを開放する
+	 * SDKの処理を含むのでqueueSdkTaskでワーカースレッド上から呼び出すこと
 	 */
 	public void release() {
 		if (DEBUG) Log.v(TAG, "release:");
+		FlutterSkywayCanvas.Companion.removeOnViewRegisteredListener(mViewListener);
+		mPendingLocalVideoId = -1;
+		mPendingRemoteViews.clear();
+		mAdaptiveCapture = false;
+		_handler.removeCallbacks(mAdaptiveCaptureTask);
+		mDirectoryRefreshMs = 0;
+		_handler.removeCallbacks(mDirectoryRefreshTask);
+		mMetricsIntervalMs = 0;
+		_handler.removeCallbacks(mMetricsTask);
+		final RoomSwitch sw = mSwitch;
+		mSwitch = null;
+		if ((sw != null) && (sw.graceTask != null)) {
+			_handler.removeCallbacks(sw.graceTask);
+		}
+		final RoomSwitch gap = mGapSwitch;
+		mGapSwitch = null;
+		if ((gap != null) && (gap.gapTask != null)) {
+			_handler.removeCallbacks(gap.gapTask);
+		}
+		mDirectory.clear();
 		closeRemoteStreamAll();
-
-		if (_localStream != null) {
-			if (_localCanvas != null) {
-				_localStream.removeVideoRenderer(_localCanvas, 0);
-				_localCanvas = null;
+		for (final RoomHolder holder: mRooms.values()) {
+			if (mRooms.remove(holder.name, holder)) {
+				closeRoom(holder);
 			}
-			_localStream.close();
-			_localStream = null;
 		}
 
-		if (_mediaConnection != null) {
-			if (_mediaConnection.isOpen()) {
-				_mediaConnection.close();
-			}
-			unsetMediaCallbacks(_mediaConnection);
-			_mediaConnection = null;
+		// ローカル映像を描画先から取り除いてからMediaStreamを破棄する
+		final FlutterSkywayCanvas view = _localView.getAndSet(null);
+		if (view != null) {
+			view.removeBinding(mLocalBinding);
+		}
+		final FlutterSkywayCanvas rendered = _localRendering.get();
+		if (rendered != null) {
+			detachLocalRenderer(rendered);
+		}
+		final MediaStream localStream = _localStream.getAndSet(null);
+		if (localStream != null) {
+			localStream.close();
+		}
+
+		final MediaConnection connection = _mediaConnection.getAndSet(null);
+		if (connection != null) {
+			closeMediaConnection(connection);
 		}
 
 		Navigator.terminate();
@@ -424,10 +1296,27 @@ public class FlutterSkywayPeer {
 				_peer.destroy();
 			}
 		}
-		if (_eventSink != null) {
-			sendEmptyMessage(Const.SkywayEvent.OnRelease);
-			_eventSink = null;
-		}
+		// イベント送信はメインスレッド上で行う
+		_handler.post(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mSync) {
+					if (_eventSink != null) {
+						// 送信待ちのイベントを送ってからバッチ送信を無効にする
+						mBatcher.flush();
+						mBatcher.release();
+						deliverMessage(createMessage(Const.SkywayEvent.OnRelease));
+						_eventSink = null;
+					} else {
+						mBatcher.release();
+					}
+					// 以降のイベントは溜めずに破棄する
+					mPendingEvents.close();
+				}
+			}
+		});
+		// 実行中のタスク(この呼び出し自体)が終了したらワーカースレッドも終了する
+		mSdkExecutor.shutdown();
 	}
 
 //--------------------------------------------------------------------------------
@@ -444,9 +1333,10 @@ public class FlutterSkywayPeer {
 	 * @param event
 	 * @return
 	 */
+	@VisibleForTesting
 	@NonNull
-	private Map<String, String> createMessage(final Const.SkywayEvent event) {
-		final Map<String, String> message = new HashMap<>();
+	Map<String, Object> createMessage(final Const.SkywayEvent event) {
+		final Map<String, Object> message = new HashMap<>();
 		message.put("event", event.name());
 		message.put("peerId", _peerId);
 		return message;
@@ -454,19 +1344,210 @@ public class FlutterSkywayPeer {
 
 	/**
 	 * Dart側へイベントチャネルでイベントを送信する
+	 * Dart側がlistenしていなければ送信待ちのバッファへ追加して次にlistenされたときに送信する
+	 * 破棄済みのときは何もしない
 	 * @param message
-	 * @throws IllegalStateException
 	 */
-	private void sendMessage(@NonNull final Map<String, String> message)
-		throws IllegalStateException {
-
-		synchronized (mSync) {
-			if (_eventSink != null) {
-				_eventSink.success(message);
-			} else {
-				throw new IllegalStateException("EventSink not ready or already released.");
-			}
-		}
+	@VisibleForTesting
+	void sendMessage(@NonNull final Map<String, Object> message) {
+		synchronized (mSync) {
+			// バージョンの順番と送信する順番が入れ替わらないように送信順を決めるのと同じロック内で適用する
+			// (RoomStateModelは自身のロックしか使わないのでここでロックしても大丈夫)
+			final long version = mRoomState.apply(message, mRemovedPeerIds);
+			if (version >= 0) {
+				// Dart側でイベントの取りこぼしを検出できるようにルームの状態のバージョンを付ける
+				message.put(RoomStateModel.KEY_STATE_VERSION, version);
+			}
+			List<String> released = releasedPeerIdsLocked(message);
+			if (!mDeferredReleasedPeerIds.isEmpty()) {
+				// 直前にイベントを送信せずに閉じたルームのメンバーのハンドルも一緒に破棄する
+				if (released == null) {
+					released = new ArrayList<>();
+				}
+				for (final String id: mDeferredReleasedPeerIds) {
+					// 閉じた後で再び参照されるようになったリモートピアのハンドルは破棄しない
+					if (!released.contains(id)
+						&& !mRoomState.contains(id) && !mRemotes.containsKey(id)) {
+
+						released.add(id);
+					}
+				}
+				mDeferredReleasedPeerIds.clear();
+			}
+			if ((released != null) && !released.isEmpty()) {
+				// どこからも参照されなくなったリモートピアのハンドルを送信時に破棄する
+				message.put(KEY_RELEASED_PEER_IDS, released);
+				if (_eventSink == null) {
+					// 送信待ちのバッファで溢れたりまとめられたりしても残らないように直ぐに破棄する
+					// (送信するときに改めて割り当てたハンドルも送信時に破棄する)
+					releaseHandlesLocked(released);
+				}
+			}
+			if (_eventSink != null) {
+				enqueueLocked(message);
+			} else if (!bufferLocked(message)) {
+				return;
+			}
+		}
+		mMetrics.onEvent(Const.SkywayEvent.valueOf((String)message.get("event")));
+	}
+
+	/**
+	 * Dart側へ送信する(バッチ送信が有効ならバッチ送信する)
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param message
+	 */
+	private void enqueueLocked(@NonNull final Map<String, Object> message) {
+		if (mBatcher.isEnabled()) {
+			mBatcher.offer(message);
+		} else {
+			_handler.post(new Runnable() {
+				@Override
+				public void run() {
+					deliverMessage(message);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Dart側がlistenしていないときにイベントを送信待ちのバッファへ追加する
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param message
+	 * @return 追加した場合true, 溢れたまたは破棄済みのために追加しなかった場合false
+	 */
+	private boolean bufferLocked(@NonNull final Map<String, Object> message) {
+		if (mPendingEvents.isClosed()) {
+			mMetrics.onSendFailed();
+			return false;
+		}
+		final int result = mPendingEvents.offer(message);
+		mMetrics.onEventBuffered(result);
+		return result != PendingEventBuffer.RESULT_REJECTED;
+	}
+
+	/**
+	 * Dart側へ送信する直前にピアidとリモートピアidをハンドルへ置き換える
+	 * ピアidはDart側で補うので送信しない
+	 * リモートピアidは最初に送信するときだけハンドルと一緒に送信してそれ以降はハンドルだけを送信する
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param message
+	 */
+	private void toWireLocked(@NonNull final Map<String, Object> message) {
+		message.remove("peerId");
+		final Object remotePeerId = message.get("remotePeerId");
+		if (remotePeerId instanceof String) {
+			final int handle = mRemoteHandles.intern((String)remotePeerId);
+			final int slot = HandleTable.slotOf(handle);
+			message.put("remoteHandle", handle);
+			if (mAnnouncedHandles.get(slot)) {
+				message.remove("remotePeerId");
+			} else {
+				mAnnouncedHandles.set(slot);
+			}
+		}
+		final Object released = message.get(KEY_RELEASED_PEER_IDS);
+		if (released instanceof List) {
+			@SuppressWarnings("unchecked")
+			final List<String> ids = (List<String>)released;
+			releaseHandlesLocked(ids);
+		}
+	}
+
+	/**
+	 * イベントによってどこからも参照されなくなったリモートピアのidを取得する
+	 * (どのルームのメンバーでもなく受信中のリモート映像も無い)
+	 * mSyncをロックした状態でRoomStateModel#applyまたはRoomStateModel#closeの後に呼び出すこと
+	 * @param message イベントを送信しないときはnull
+	 * @return 無ければnull
+	 */
+	@Nullable
+	private List<String> releasedPeerIdsLocked(@Nullable final Map<String, Object> message) {
+		final Object remotePeerId = message != null ? message.get("remotePeerId") : null;
+		if ((remotePeerId instanceof String) && !message.containsKey("room")
+			&& Const.SkywayEvent.OnRemoveRemoteStream.name().equals(message.get("event"))) {
+			// p2p接続のリモート映像はRoomStateModelで管理していない
+			mRemovedPeerIds.add((String)remotePeerId);
+		}
+		if (mRemovedPeerIds.isEmpty()) {
+			return null;
+		}
+		List<String> result = null;
+		for (final String id: mRemovedPeerIds) {
+			if (!mRoomState.contains(id) && !mRemotes.containsKey(id)) {
+				if (result == null) {
+					result = new ArrayList<>();
+				}
+				if (!result.contains(id)) {
+					result.add(id);
+				}
+			}
+		}
+		mRemovedPeerIds.clear();
+		return result;
+	}
+
+	/**
+	 * リモートピアのハンドルを破棄してDart側へ送信済みの印を消す
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param remotePeerIds
+	 */
+	private void releaseHandlesLocked(@NonNull final List<String> remotePeerIds) {
+		for (final String id: remotePeerIds) {
+			final int handle = mRemoteHandles.remove(id);
+			if (handle != 0) {
+				mAnnouncedHandles.clear(HandleTable.slotOf(handle));
+			}
+		}
+	}
+
+	/**
+	 * バッチ送信しない場合にDart側へイベントを1つ送信する
+	 * メインスレッド上で呼び出すこと
+	 * @param message
+	 */
+	private void deliverMessage(@NonNull final Map<String, Object> message) {
+		synchronized (mSync) {
+			if (_eventSink != null) {
+				toWireLocked(message);
+				if (mBinaryEvent) {
+					sendBinary(Collections.singletonList(message));
+				} else {
+					_eventSink.success(message);
+				}
+			} else {
+				// 送信待ちの間にcancelされたときは再度listenされるまで溜めておく
+				bufferLocked(message);
+			}
+		}
+	}
+
+	/**
+	 * Dart側へバイナリ形式でイベントを送信する
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param events
+	 */
+	private void sendBinary(@NonNull final List<Map<String, Object>> events) {
+		// BinaryMessengerは送信後も非同期にバッファを読み込むことがあるので
+		// Dart側から応答が返ってきてからバッファを再利用する
+		final ByteBuffer buf = mCodec.encode(_peerHandle, events);
+		_binaryChannel.send(buf, new BasicMessageChannel.Reply<ByteBuffer>() {
+			@Override
+			public void reply(@Nullable final ByteBuffer reply) {
+				mCodec.recycle(buf);
+			}
+		});
+	}
+
+	/**
+	 * ルームのモードから通話開始までの記録のカテゴリーを取得する
+	 * @param mode
+	 * @return
+	 */
+	@NonNull
+	private static String traceCategory(@Nullable final RoomOption.RoomModeEnum mode) {
+		return mode == RoomOption.RoomModeEnum.SFU
+			? CallTracer.CATEGORY_SFU : CallTracer.CATEGORY_MESH;
 	}
 
 	/**
@@ -487,16 +1568,57 @@ public class FlutterSkywayPeer {
 			if (DEBUG) Log.v(TAG, "onListen:" + events);
 			synchronized (mSync) {
 				_eventSink = events;
-				sendEmptyMessage(Const.SkywayEvent.OnConnect);
+				// listenし直したときはリモートピアidとハンドルの対応を送信し直す
+				mAnnouncedHandles.clear();
+				final Map<String, Object> message = createMessage(Const.SkywayEvent.OnConnect);
+				message.put("peerHandle", _peerHandle);
+				sendMessage(message);
+				// listenされる前に発生したイベントを送信する
+				for (final Map<String, Object> pending: mPendingEvents.drain()) {
+					enqueueLocked(pending);
+				}
 			}
 		}
 
 		@Override
 		public void onCancel(final Object arguments) {
 			if (DEBUG) Log.v(TAG, "onCancel:" + arguments);
+			synchronized (mSync) {
+				// 再度listenされるまでのイベントは送信待ちのバッファへ溜めておく
+				_eventSink = null;
+			}
 		}
 	};
 //--------------------------------------------------------------------------------
+	/**
+	 * SDKからのコールバックをSDK用のワーカースレッド上で実行するようにラップする
+	 * @param callback
+	 * @return
+	 */
+	@NonNull
+	private OnCallback serial(@NonNull final OnCallback callback) {
+		return new OnCallback() {
+			@Override
+			public void onCallback(final Object object) {
+				try {
+					mSdkExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								callback.onCallback(object);
+							} catch (final Exception e) {
+								// ワーカースレッドが例外で終了しないようにする
+								Log.w(TAG, e);
+							}
+						}
+					});
+				} catch (final RejectedExecutionException e) {
+					if (DEBUG) Log.v(TAG, "already released, ignore callback:" + object);
+				}
+			}
+		};
+	}
+
 	/**
 	 * PeerEventsのためのコールバック設定を解除
 	 * @param peer
@@ -517,24 +1639,26 @@ public class FlutterSkywayPeer {
 	private void setMediaCallbacks(@NonNull final MediaConnection mediaConnection) {
 		if (DEBUG) Log.v(TAG, "setMediaCallbacks:");
 		// 相手のカメラ映像・マイク音声を受信したときのコールバックを設定
-		mediaConnection.on(MediaConnection.MediaEventEnum.STREAM, new OnCallback() {
+		mediaConnection.on(MediaConnection.MediaEventEnum.STREAM, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "MediaEventEnum.STREAM:" + object);
 				if (object instanceof MediaStream) {
-					addRemoteStream((MediaStream) object);
+					final MediaStream stream = (MediaStream)object;
+					mTracer.end(TRACE_CALL, stream.getPeerId());
+					addRemoteStream(null, stream);
 				}
 			}
-		});
+		}));
 		// 相手がメディアコネクションの切断処理を実行し、実際に切断されたときのコールバックを設定
-		mediaConnection.on(MediaConnection.MediaEventEnum.CLOSE, new OnCallback() {
+		mediaConnection.on(MediaConnection.MediaEventEnum.CLOSE, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "MediaEventEnum.CLOSE:" + object);
 				if (object instanceof MediaConnection) {
 					final MediaConnection connection = (MediaConnection)object;
 					final String remotePeerId = connection.peer();
-					removeRemoteStream(remotePeerId);
+					removeRemoteStream(null, remotePeerId);
 				}
 				try {
 					sendEmptyMessage(Const.SkywayEvent.OnDisconnect);
@@ -542,16 +1666,16 @@ public class FlutterSkywayPeer {
 					if (DEBUG) Log.w(TAG, e);
 				}
 			}
-		});
+		}));
 
 		// MediaConnectionでエラーが起こったときのコールバックを設定
-		mediaConnection.on(MediaConnection.MediaEventEnum.ERROR, new OnCallback() {
+		mediaConnection.on(MediaConnection.MediaEventEnum.ERROR, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.d(TAG, "MediaEventEnum.ERROR:" + object);
 				if (object instanceof PeerError) {
 					final PeerError error = (PeerError) object;
-					final Map<String, String> message
+					final Map<String, Object> message
 						= createMessage(Const.SkywayEvent.OnError);
 					message.put("error", error.toString());
 					try {
@@ -561,7 +1685,18 @@ public class FlutterSkywayPeer {
 					}
 				}
 			}
-		});
+		}));
+	}
+
+	/**
+	 * p2p接続のMediaConnectionを閉じてコールバック設定を解除する
+	 * @param mediaConnection
+	 */
+	private void closeMediaConnection(@NonNull final MediaConnection mediaConnection) {
+		if (mediaConnection.isOpen()) {
+			mediaConnection.close();
+		}
+		unsetMediaCallbacks(mediaConnection);
 	}
 
 	/**
@@ -575,51 +1710,59 @@ public class FlutterSkywayPeer {
 	}
 
 //--------------------------------------------------------------------------------
-	private void setRoomCallback(@NonNull final Room room) {
-		room.on(Room.RoomEventEnum.OPEN, new OnCallback() {
+	/**
+	 * Roomオブジェクトのコールバックを設定
+	 * 複数のルームに入室できるのでルーム毎のホルダーを経由して処理する
+	 * @param holder
+	 */
+	private void setRoomCallback(@NonNull final RoomHolder holder) {
+		final Room room = holder.room;
+		room.on(Room.RoomEventEnum.OPEN, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.OPEN:" + object);
-				if (object instanceof String) {
-					final Map<String, String> message
-						= createMessage(Const.SkywayEvent.OnOpenRoom);
-					message.put("room", (String)object);
-					sendMessage(message);
+				holder.opened = true;
+				mTracer.end(TRACE_JOIN, holder.name);
+				mTracer.begin(TRACE_FIRST_STREAM, traceCategory(holder.mode), holder.name);
+				final Map<String, Object> message
+					= createMessage(Const.SkywayEvent.OnOpenRoom);
+				message.put("room", holder.name);
+				sendMessage(message);
+				final RoomSwitch sw = mSwitch;
+				if ((sw != null) && sw.to.equals(holder.name)
+					&& (mRooms.get(holder.name) == holder)) {
+					onSwitchTargetOpened(sw, holder);
 				}
 			}
-		});
-		room.on(Room.RoomEventEnum.CLOSE, new OnCallback() {
+		}));
+		room.on(Room.RoomEventEnum.CLOSE, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.CLOSE:" + object);
-				closeRemoteStreamAll();
-				if (_room != null) {
-					unsetRoomCallback(_room);
-					_room = null;
-					_roomName = null;
-					_roomMode = null;
-				}
-				if (object instanceof String) {
-					final Map<String, String> message
-						= createMessage(Const.SkywayEvent.OnCloseRoom);
-					message.put("room", (String)object);
-					try {
-						sendMessage(message);
-					} catch (final Exception e) {
-						if (DEBUG) Log.w(TAG, e);
-					}
+				mRooms.remove(holder.name, holder);
+				abortSwitch(holder);
+				closeRoomRemoteStreams(holder);
+				unsetRoomCallback(room);
+				final Map<String, Object> message
+					= createMessage(Const.SkywayEvent.OnCloseRoom);
+				message.put("room", holder.name);
+				try {
+					sendMessage(message);
+				} catch (final Exception e) {
+					if (DEBUG) Log.w(TAG, e);
 				}
 			}
-		});
-		room.on(Room.RoomEventEnum.ERROR, new OnCallback() {
+		}));
+		room.on(Room.RoomEventEnum.ERROR, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.w(TAG, "RoomEventEnum.ERROR:" + object);
 				if (object instanceof PeerError) {
 					final PeerError error = (PeerError) object;
-					final Map<String, String> message
+					final Map<String, Object> message
 						= createMessage(Const.SkywayEvent.OnError);
 					message.put("error", error.toString());
+					message.put("room", holder.name);
 					try {
 						sendMessage(message);
 					} catch (final Exception e) {
@@ -627,54 +1770,58 @@ public class FlutterSkywayPeer {
 					}
 				}
 			}
-		});
-		room.on(Room.RoomEventEnum.PEER_JOIN, new OnCallback() {
+		}));
+		room.on(Room.RoomEventEnum.PEER_JOIN, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.PEER_JOIN:");
 				if (object instanceof String) {
-					final Map<String, String> message
+					final Map<String, Object> message
 						= createMessage(Const.SkywayEvent.OnJoin);
 					message.put("remotePeerId", (String)object);
+					message.put("room", holder.name);
 					sendMessage(message);
 				}
 			}
-		});
-		room.on(Room.RoomEventEnum.PEER_LEAVE, new OnCallback() {
+		}));
+		room.on(Room.RoomEventEnum.PEER_LEAVE, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.PEER_LEAVE:" + object);
 				if (object instanceof String) {
 					final String peerId = (String)object;
-					final Map<String, String> message
-						= createMessage(Const.SkywayEvent.OnRelease);
+					final Map<String, Object> message
+						= createMessage(Const.SkywayEvent.OnLeave);
 					message.put("remotePeerId", peerId);
+					message.put("room", holder.name);
 					sendMessage(message);
-					removeRemoteStream(peerId);
+					removeRemoteStream(holder, peerId);
 				}
 			}
-		});
-		room.on(Room.RoomEventEnum.STREAM, new OnCallback() {
+		}));
+		room.on(Room.RoomEventEnum.STREAM, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.STREAM: + " + object);
 				if (object instanceof MediaStream) {
 					final MediaStream stream = (MediaStream)object;
-					addRemoteStream(stream);
+					// 入室後最初のリモート映像のときだけ記録される
+					mTracer.end(TRACE_FIRST_STREAM, holder.name);
+					addRemoteStream(holder, stream);
 				}
 			}
-		});
+		}));
 
-		room.on(Room.RoomEventEnum.REMOVE_STREAM, new OnCallback() {
+		room.on(Room.RoomEventEnum.REMOVE_STREAM, serial(new OnCallback() {
 			@Override
 			public void onCallback(Object object) {
 				if (DEBUG) Log.v(TAG, "RoomEventEnum.REMOVE_STREAM: " + object);
 				if (object instanceof MediaStream) {
 					final MediaStream stream = (MediaStream)object;
-					removeRemoteStream(stream.getPeerId());
+					removeRemoteStream(holder, stream);
 				}
 			}
-		});
+		}));
 	}
 
 	/**
@@ -692,72 +1839,675 @@ public class FlutterSkywayPeer {
 	}
 //--------------------------------------------------------------------------------
 	/**
-	 * 映像表示用のCanvas(VideoSink)を取得
+	 * ローカル映像の描画先をセットする
+	 * @param localVideoId
+	 * @param view
+	 */
+	private void bindLocalView(final int localVideoId, @NonNull final FlutterSkywayCanvas view) {
+		_localView.set(view);
+		_localVideoId = localVideoId;
+		view.addBinding(mLocalBinding);
+		if (view.isVisible()) {
+			attachLocalRenderer(view);
+		}
+	}
+
+	/**
+	 * 映像の取得開始時にまだ生成されていなかった描画先のCanvasが生成されたときの処理
+	 * SDKのワーカースレッド上で実行する
+	 * @param id Canvas Viewのdart側識別用id
+	 */
+	private void bindPendingView(final int id) {
+		final FlutterSkywayCanvas view = getCanvasView(id);
+		if (view == null) {
+			// 既に破棄された
+			return;
+		}
+		if (mPendingLocalVideoId == id) {
+			if (DEBUG) Log.v(TAG, "bindPendingView:local," + id);
+			mPendingLocalVideoId = -1;
+			bindLocalView(id, view);
+		}
+		final String key = mPendingRemoteViews.remove(id);
+		final RemotePeer remote = key != null ? mRemotes.get(key) : null;
+		if ((remote != null)
+			&& (!mScheduler.isEnabled() || (mScheduler.viewIdOf(key) == id))) {
+
+			if (DEBUG) Log.v(TAG, "bindPendingView:remote," + id + "," + key);
+			remote.setCanvas(view);
+		}
+	}
+
+	/**
+	 * ローカル映像を描画先へ追加する
+	 * @param view
+	 */
+	private void attachLocalRenderer(@NonNull final FlutterSkywayCanvas view) {
+		final MediaStream localStream = _localStream.get();
+		if (localStream != null) {
+			final FlutterSkywayCanvas prev = _localRendering.getAndSet(view);
+			if (prev != view) {
+				if (prev != null) {
+					// 取り除く前に描画先が切り替わったとき
+					localStream.removeVideoRenderer(prev.getCanvas(), 0);
+				}
+				localStream.addVideoRenderer(view.getCanvas(), 0);
+			}
+		}
+	}
+
+	/**
+	 * ローカル映像を描画先から取り除く
+	 * @param view
+	 */
+	private void detachLocalRenderer(@NonNull final FlutterSkywayCanvas view) {
+		final MediaStream localStream = _localStream.get();
+		if (_localRendering.compareAndSet(view, null) && (localStream != null)) {
+			localStream.removeVideoRenderer(view.getCanvas(), 0);
+		}
+	}
+
+	/**
+	 * ローカル映像の取得設定を切り替える
+	 * 送信映像が途切れないように新しいMediaStreamを取得して差し替えてから古いMediaStreamを閉じる
+	 * カメラを同時に複数のMediaStreamから開けない端末で取得に失敗したときだけ
+	 * 古いMediaStreamを閉じてから取得し直す
+	 * @param profile
+	 * @param reason Dart側へ送る切り替え理由
+	 */
+	private void changeCaptureProfile(@NonNull final CaptureProfile profile,
+		@NonNull final String reason) {
+
+		final CaptureProfile prevProfile = mCaptureProfile;
+		mCaptureProfile = profile;
+		final MediaStream prev = _localStream.get();
+		if ((prev == null) || (prevProfile == profile)) {
+			// ローカル映像を取得していなければ次のstartLocalStreamで適用される
+			return;
+		}
+		if (DEBUG) Log.v(TAG, "changeCaptureProfile:" + prevProfile + "→" + profile + ",reason=" + reason);
+		final FlutterSkywayCanvas view = _localView.get();
+		MediaStream stream = Navigator.getUserMedia(profile.toConstraints());
+		boolean closed = false;
+		if (stream == null) {
+			Log.w(TAG, "changeCaptureProfile:failed to open new stream while old one is open, retry after closing");
+			if (view != null) {
+				detachLocalRenderer(view);
+			}
+			prev.close();
+			closed = true;
+			stream = Navigator.getUserMedia(profile.toConstraints());
+			if (stream == null) {
+				Log.w(TAG, "changeCaptureProfile:failed to open local stream");
+				_localStream.compareAndSet(prev, null);
+				return;
+			}
+		}
+		// 送信映像を先に差し替える
+		for (final RoomHolder holder: mRooms.values()) {
+			holder.room.replaceStream(stream);
+		}
+		final MediaConnection connection = _mediaConnection.get();
+		if (connection != null) {
+			connection.replaceStream(stream);
+		}
+		// 描画先を新しいMediaStreamへ付け替えてから古いMediaStreamを閉じる
+		if ((view != null) && !closed) {
+			detachLocalRenderer(view);
+		}
+		_localStream.set(stream);
+		if ((view != null) && (_localView.get() == view) && view.isVisible()) {
+			attachLocalRenderer(view);
+		}
+		if (!closed) {
+			prev.close();
+		}
+		final Map<String, Object> message
+			= createMessage(Const.SkywayEvent.OnCaptureProfileChanged);
+		message.putAll(profile.toMap());
+		message.put("reason", reason);
+		try {
+			sendMessage(message);
+		} catch (final Exception e) {
+			if (DEBUG) Log.w(TAG, e);
+		}
+	}
+
+	/**
+	 * 適応モードで定期的にローカル映像の取得設定を見直すためのRunnable
+	 * メインスレッドで定期的に実行してSDKのワーカースレッドで判定する
+	 */
+	private final Runnable mAdaptiveCaptureTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!mAdaptiveCapture) {
+				return;
+			}
+			try {
+				queueSdkTask(new Runnable() {
+					@Override
+					public void run() {
+						if (mAdaptiveCapture) {
+							final CaptureProfile next = mLoadMonitor.evaluate(
+								mCaptureProfile, mCaptureCeiling, mRemotes.size());
+							final String reason = mLoadMonitor.getLastReason();
+							if (reason != null) {
+								changeCaptureProfile(next, reason);
+							}
+						}
+					}
+				});
+				_handler.postDelayed(this, ADAPTIVE_CAPTURE_INTERVAL_MS);
+			} catch (final RejectedExecutionException e) {
+				if (DEBUG) Log.v(TAG, "mAdaptiveCaptureTask:already released");
+			}
+		}
+	};
+
+	/**
+	 * バックグラウンドでピア一覧を更新するためのRunnable
+	 * メインスレッドで定期的に実行してSDKのワーカースレッドで問い合わせる
+	 */
+	private final Runnable mDirectoryRefreshTask = new Runnable() {
+		@Override
+		public void run() {
+			final long intervalMs = mDirectoryRefreshMs;
+			if (intervalMs <= 0) {
+				return;
+			}
+			try {
+				queueSdkTask(new Runnable() {
+					@Override
+					public void run() {
+						if (isConnected()) {
+							mDirectory.refresh();
+						}
+					}
+				});
+				_handler.postDelayed(this, intervalMs);
+			} catch (final RejectedExecutionException e) {
+				if (DEBUG) Log.v(TAG, "mDirectoryRefreshTask:already released");
+			}
+		}
+	};
+
+	/**
+	 * 計測値を定期的にDart側へ送信するためのRunnable
+	 */
+	private final Runnable mMetricsTask = new Runnable() {
+		@Override
+		public void run() {
+			final long intervalMs = mMetricsIntervalMs;
+			if (intervalMs <= 0) {
+				return;
+			}
+			// 入れ子のMapはバイナリ形式のイベントで送信できないのでJSON文字列にする
+			final Map<String, Object> message = createMessage(Const.SkywayEvent.OnMetrics);
+			message.put("metrics", new JSONObject(mMetrics.snapshot()).toString());
+			try {
+				sendMessage(message);
+			} catch (final Exception e) {
+				if (DEBUG) Log.w(TAG, e);
+			}
+			_handler.postDelayed(this, intervalMs);
+		}
+	};
+
+	/**
+	 * ピア一覧が変化したときにDart側へ差分を送信する
+	 */
+	private final PeerDirectory.Listener mDirectoryListener = new PeerDirectory.Listener() {
+		@Override
+		public void onChanged(@NonNull final List<String> added,
+			@NonNull final List<String> removed) {
+
+			final Map<String, Object> message
+				= createMessage(Const.SkywayEvent.OnPeersChanged);
+			message.put("added", added);
+			message.put("removed", removed);
+			try {
+				sendMessage(message);
+			} catch (final Exception e) {
+				if (DEBUG) Log.w(TAG, e);
+			}
+		}
+	};
+
+	/**
+	 * 映像表示用のCanvas(VideoSink)を保持しているFlutterSkywayCanvasを取得
 	 * @param id
 	 * @return
 	 */
 	@Nullable
-	private Canvas getCanvas(final int id) {
-		final FlutterSkywayCanvas view
+	private FlutterSkywayCanvas getCanvasView(final int id) {
+		final FlutterSkywayCanvas result
 			= FlutterSkywayCanvas.Companion.findViewById(id);
-		final Canvas result = view != null ? view.getCanvas() : null;
-		if (DEBUG && (result == null)) Log.v(TAG, String.format("getCanvas:Canvas(id=%d) not found.", id));
+		if (DEBUG && (result == null)) Log.v(TAG, String.format("getCanvasView:Canvas(id=%d) not found.", id));
 		return result;
 	}
 
 	/**
-	 * リモート映像の取得を終了
+	 * 全てのリモート映像の取得を終了
+	 * 他のスレッドが同時に追加/削除していても破棄処理は1回だけ実行される
 	 */
-	private void closeRemoteStreamAll() {
+	@VisibleForTesting
+	void closeRemoteStreamAll() {
 		if (DEBUG) Log.v(TAG, "closeRemoteStreamAll:");
-		final Map<String, RemotePeer> copy;
-		synchronized (mRemotes) {
-			copy = new HashMap<>(mRemotes);
-			mRemotes.clear();
+		mScheduler.clear();
+		for (final RemotePeer remote: mRemotes.removeAll()) {
+			remote.release();
 		}
-		for (final RemotePeer remote: copy.values()) {
+	}
+
+	/**
+	 * 指定したルームで受信しているリモート映像の取得を終了
+	 * @param holder
+	 */
+	private void closeRoomRemoteStreams(@NonNull final RoomHolder holder) {
+		if (DEBUG) Log.v(TAG, "closeRoomRemoteStreams:" + holder.name);
+		boolean changed = false;
+		for (final RemotePeer remote: mRemotes.removeOwnedBy(holder)) {
+			changed |= mScheduler.remove(remote.key);
 			remote.release();
 		}
+		if (changed) {
+			applySchedule();
+		}
+	}
+
+	/**
+	 * ルームの切り替えを開始する
+	 * @param from
+	 * @param to
+	 * @param mode
+	 * @param startMs
+	 * @param coalesced
+	 * @throws IllegalStateException
+	 */
+	private void startSwitch(@Nullable final String from, @NonNull final String to,
+		@NonNull final RoomOption.RoomModeEnum mode,
+		final long startMs, final int coalesced) throws IllegalStateException {
+
+		RoomHolder target = mRooms.get(to);
+		final boolean joined = (target == null) || (target.mode != mode);
+		if (joined) {
+			join(to, mode);
+			target = mRooms.get(to);
+			if (target == null) {
+				throw new IllegalStateException("Failed to join room," + to);
+			}
+		}
+		final RoomSwitch sw = new RoomSwitch(from, to, mode, startMs, joined, coalesced);
+		mSwitch = sw;
+		if (target.opened) {
+			onSwitchTargetOpened(sw, target);
+		}
+	}
+
+	/**
+	 * ルーム切り替え先のルームがOPENしたときの処理
+	 * 既にリモート映像を受信していれば直ぐに切り替え元のルームを閉じ、
+	 * そうでなければリモート映像を受信するかROOM_SWITCH_GRACE_MS経過するまで待つ
+	 * @param sw
+	 * @param target
+	 */
+	private void onSwitchTargetOpened(@NonNull final RoomSwitch sw,
+		@NonNull final RoomHolder target) {
+
+		sw.openMs = SystemClock.elapsedRealtime() - sw.startMs;
+		if (mRemotes.hasOwnedBy(target)) {
+			finishSwitch(sw, true);
+		} else {
+			sw.graceTask = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						queueSdkTask(new Runnable() {
+							@Override
+							public void run() {
+								if (mSwitch == sw) {
+									finishSwitch(sw, false);
+								}
+							}
+						});
+					} catch (final RejectedExecutionException e) {
+						if (DEBUG) Log.v(TAG, "graceTask:already released");
+					}
+				}
+			};
+			_handler.postDelayed(sw.graceTask, ROOM_SWITCH_GRACE_MS);
+		}
+	}
+
+	/**
+	 * 切り替え元のルームを閉じてルーム切り替えを完了する
+	 * 切り替え先のリモート映像をまだ受信していなければ受信するまでOnRoomSwitchedの送信を遅らせる
+	 * @param sw
+	 * @param overlapped 切り替え元のルームを閉じる前に切り替え先のルームでリモート映像を受信したかどうか
+	 */
+	private void finishSwitch(@NonNull final RoomSwitch sw, final boolean overlapped) {
+		mSwitch = null;
+		if (sw.graceTask != null) {
+			_handler.removeCallbacks(sw.graceTask);
+		}
+		final boolean leaving = (sw.from != null) && !sw.from.equals(sw.to);
+		if (leaving) {
+			leave(sw.from);
+		}
+		sw.closedMs = SystemClock.elapsedRealtime();
+		if (DEBUG) Log.v(TAG, "finishSwitch:" + sw.from + "→" + sw.to + ",open=" + sw.openMs + "ms,switch=" + (sw.closedMs - sw.startMs) + "ms");
+		if (overlapped) {
+			// 切り替え先のリモート映像を受信してから切り替え元を閉じたときは途切れていない
+			sendRoomSwitched(sw, 0);
+		} else if (!leaving) {
+			// 閉じたルームが無いので途切れた時間は無い
+			sendRoomSwitched(sw, -1);
+		} else {
+			// 切り替え先のリモート映像を受信するまで待って途切れた時間を計測する
+			mGapSwitch = sw;
+			sw.gapTask = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						queueSdkTask(new Runnable() {
+							@Override
+							public void run() {
+								if (mGapSwitch == sw) {
+									flushGapSwitch();
+								}
+							}
+						});
+					} catch (final RejectedExecutionException e) {
+						if (DEBUG) Log.v(TAG, "gapTask:already released");
+					}
+				}
+			};
+			_handler.postDelayed(sw.gapTask, ROOM_SWITCH_GAP_TIMEOUT_MS);
+		}
+	}
+
+	/**
+	 * 切り替え先のリモート映像を待っているルーム切り替えがあれば
+	 * 途切れた時間を計測できなかったとして(gapMs=-1)OnRoomSwitchedを送信する
+	 */
+	private void flushGapSwitch() {
+		final RoomSwitch sw = mGapSwitch;
+		if (sw != null) {
+			mGapSwitch = null;
+			if (sw.gapTask != null) {
+				_handler.removeCallbacks(sw.gapTask);
+			}
+			sendRoomSwitched(sw, -1);
+		}
+	}
+
+	/**
+	 * OnRoomSwitchedイベントを送信する
+	 * @param sw
+	 * @param gapMs 切り替え元のルームを閉じてから切り替え先のリモート映像を受信するまでの時間,
+	 * 	計測できなかったときは-1
+	 */
+	private void sendRoomSwitched(@NonNull final RoomSwitch sw, final long gapMs) {
+		if (DEBUG) Log.v(TAG, "sendRoomSwitched:" + sw.from + "→" + sw.to + ",gap=" + gapMs + "ms");
+		final Map<String, Object> message
+			= createMessage(Const.SkywayEvent.OnRoomSwitched);
+		message.put("room", sw.to);
+		if (sw.from != null) {
+			message.put("from", sw.from);
+		}
+		message.put("openMs", sw.openMs);
+		message.put("switchMs", sw.closedMs - sw.startMs);
+		message.put("gapMs", gapMs);
+		message.put("coalesced", sw.coalesced);
+		try {
+			sendMessage(message);
+		} catch (final Exception e) {
+			if (DEBUG) Log.w(TAG, e);
+		}
+	}
+
+	/**
+	 * ルーム切り替え先のルームが切り替え完了前に閉じられたときは切り替えを中止して
+	 * OnRoomSwitchFailedイベントを送信する
+	 * (同じ名前で別のモードのルームへ入室し直した後なら中止しない)
+	 * 切り替え先のリモート映像を待っている間に閉じられたときはgapMs=-1でOnRoomSwitchedを送信する
+	 * @param holder mRoomsから取り除いた後のRoomHolder
+	 */
+	private void abortSwitch(@NonNull final RoomHolder holder) {
+		if (mRooms.containsKey(holder.name)) {
+			return;
+		}
+		final RoomSwitch gap = mGapSwitch;
+		if ((gap != null) && gap.to.equals(holder.name)) {
+			flushGapSwitch();
+		}
+		final RoomSwitch sw = mSwitch;
+		if ((sw != null) && sw.to.equals(holder.name)) {
+			mSwitch = null;
+			if (sw.graceTask != null) {
+				_handler.removeCallbacks(sw.graceTask);
+			}
+			final Map<String, Object> message
+				= createMessage(Const.SkywayEvent.OnRoomSwitchFailed);
+			message.put("error", "Failed to switch room");
+			message.put("room", holder.name);
+			if (sw.from != null) {
+				message.put("from", sw.from);
+			}
+			message.put("coalesced", sw.coalesced);
+			try {
+				sendMessage(message);
+			} catch (final Exception e) {
+				if (DEBUG) Log.w(TAG, e);
+			}
+		}
+	}
+
+	/**
+	 * ルームから退室済みまたは退室させるときにルームに関係するリソースを破棄する
+	 * mRoomsからは取り除いた状態で呼び出すこと
+	 * @param holder
+	 */
+	private void closeRoom(@NonNull final RoomHolder holder) {
+		if (DEBUG) Log.v(TAG, "closeRoom:" + holder.name);
+		unsetRoomCallback(holder.room);
+		closeRoomRemoteStreams(holder);
+		synchronized (mSync) {
+			// コールバックを解除したのでOnCloseRoomは送信されない
+			// ルームのメンバーのハンドルは次に送信するイベントと一緒に破棄する
+			mRoomState.close(holder.name, mRemovedPeerIds);
+			final List<String> released = releasedPeerIdsLocked(null);
+			if (released != null) {
+				mDeferredReleasedPeerIds.addAll(released);
+			}
+		}
+		if (isConnected()) {
+			holder.room.close();
+		}
 	}
 
 	/**
-	 * 指定したピアIDに体操するRemotePeerを取得する
+	 * 指定したリモートピアのRemotePeerを取得する
 	 * @param remotePeerId
+	 * @param roomName nullならp2p接続のリモート映像, 見つからなければ最初に見つかったルームのリモート映像
 	 * @return
 	 */
 	@Nullable
-	private RemotePeer getRemote(final String remotePeerId) {
-		synchronized (mRemotes) {
-			return mRemotes.containsKey(remotePeerId) ? mRemotes.get(remotePeerId) : null;
-		}
+	private RemotePeer findRemote(@Nullable final String remotePeerId,
+		@Nullable final String roomName) {
+
+		return remotePeerId != null ? mRemotes.find(remotePeerId, roomName) : null;
 	}
 
-	private void addRemoteStream(@NonNull final MediaStream remoteStream) {
+	/**
+	 * リモート映像を受信したときの処理
+	 * @param holder p2p接続の場合はnull
+	 * @param remoteStream
+	 */
+	@VisibleForTesting
+	void addRemoteStream(@Nullable final RoomHolder holder,
+		@NonNull final MediaStream remoteStream) {
+
 		if (DEBUG) Log.v(TAG, "addRemoteStream:" + remoteStream);
 		final String remotePeerId = remoteStream.getPeerId();
-		synchronized (mRemotes) {
-			RemotePeer peer = mRemotes.remove(remotePeerId);
-			if (peer != null) {
-				peer.release();
-			}
-			peer = new RemotePeer(remotePeerId, remoteStream);
-			mRemotes.put(remotePeerId, peer);
+		final String roomName = holder != null ? holder.name : null;
+		final RemotePeer remote = new RemotePeer(remotePeerId, holder, remoteStream);
+		final RemotePeer prev = mRemotes.put(remote);
+		if (prev != null) {
+			// ロックを保持していないのでここでSDKの破棄処理を呼んでも大丈夫
+			// スケジューラーの優先度とスロットの割り当ては新しいリモート映像へ引き継ぐ
+			prev.release();
 		}
-		final Map<String, String> message = createMessage(Const.SkywayEvent.OnAddRemoteStream);
+		final Map<String, Object> message = createMessage(Const.SkywayEvent.OnAddRemoteStream);
 		message.put("remotePeerId", remotePeerId);
-		sendMessage(message);
+		if (roomName != null) {
+			message.put("room", roomName);
+		}
+		try {
+			sendMessage(message);
+		} catch (final Exception e) {
+			if (DEBUG) Log.w(TAG, e);
+		}
+		mScheduler.add(remote.key, remotePeerId);
+		final int viewId = mScheduler.viewIdOf(remote.key);
+		if (viewId != 0) {
+			// 差し替え前のリモート映像が割り当てられていたスロットへそのまま描画する
+			bindSlot(remote, viewId);
+		}
+		applySchedule();
+		final RoomSwitch sw = mSwitch;
+		if ((holder != null) && (sw != null)
+			&& (sw.openMs >= 0) && sw.to.equals(holder.name)) {
+			// 切り替え先のルームでリモート映像を受信したので切り替え元のルームを閉じる
+			finishSwitch(sw, true);
+		}
+		final RoomSwitch gap = mGapSwitch;
+		if ((holder != null) && (gap != null) && gap.to.equals(holder.name)) {
+			// 切り替え元のルームを閉じてから最初に受信したリモート映像までの時間
+			mGapSwitch = null;
+			if (gap.gapTask != null) {
+				_handler.removeCallbacks(gap.gapTask);
+			}
+			sendRoomSwitched(gap, SystemClock.elapsedRealtime() - gap.closedMs);
+		}
 	}
 
-	private void removeRemoteStream(@NonNull final String remotePeerId) {
+	/**
+	 * 指定したリモートピアのRemotePeerを破棄する
+	 * @param holder p2p接続の場合はnull
+	 * @param remotePeerId
+	 */
+	@VisibleForTesting
+	void removeRemoteStream(@Nullable final RoomHolder holder,
+		@NonNull final String remotePeerId) {
+
 		if (DEBUG) Log.v(TAG, "removeRemoteStream:" + remotePeerId);
-		@Nullable
-		final RemotePeer peer;
-		synchronized (mRemotes) {
-			peer = mRemotes.remove(remotePeerId);
-		}
+		final String key = RemoteStreamRegistry.keyOf(holder != null ? holder.name : null, remotePeerId);
+		final RemotePeer peer = mRemotes.remove(key);
 		if (peer != null) {
 			peer.release();
 		}
+		if (mScheduler.remove(key)) {
+			applySchedule();
+		}
+	}
+
+	/**
+	 * 指定したMediaStreamに対応するRemotePeerを破棄する
+	 * 既に同じピアから新しいMediaStreamを受け取っていればそちらは破棄しない
+	 * @param holder
+	 * @param remoteStream
+	 */
+	private void removeRemoteStream(@NonNull final RoomHolder holder,
+		@NonNull final MediaStream remoteStream) {
+
+		if (DEBUG) Log.v(TAG, "removeRemoteStream:" + remoteStream);
+		final RemotePeer peer
+			= mRemotes.get(RemoteStreamRegistry.keyOf(holder.name, remoteStream.getPeerId()));
+		if ((peer != null) && (peer.stream == remoteStream) && mRemotes.remove(peer)) {
+			peer.release();
+			if (mScheduler.remove(peer.key)) {
+				applySchedule();
+			}
+		}
+	}
+
+	/**
+	 * スケジューラーで優先度順にリモート映像の描画先を割り当て直す
+	 * 降格したリモート映像の描画先を先に取り除いてから昇格したリモート映像へ割り当てる
+	 * 既に破棄されたリモート映像へ割り当てたときは描画候補から取り除いてスロットを空けて割り当て直す
+	 */
+	private void applySchedule() {
+		boolean retry;
+		do {
+			retry = false;
+			for (final RenderScheduler.Change change: mScheduler.schedule()) {
+				if (DEBUG) Log.v(TAG, "applySchedule:" + change);
+				if (!change.isPromoted()) {
+					demote(change.key);
+					continue;
+				}
+				final RemotePeer remote = mRemotes.get(change.key);
+				if ((remote == null) || !bindSlot(remote, change.viewId)) {
+					Log.w(TAG, "applySchedule:failed to promote," + change);
+					mScheduler.remove(change.key);
+					retry = true;
+					continue;
+				}
+				final Map<String, Object> message = createMessage(Const.SkywayEvent.OnPromote);
+				message.put("remotePeerId", remote.peerId);
+				if (remote.room != null) {
+					message.put("room", remote.room);
+				}
+				message.put("slot", change.slot);
+				message.put("viewId", change.viewId);
+				try {
+					sendMessage(message);
+				} catch (final Exception e) {
+					if (DEBUG) Log.w(TAG, e);
+				}
+			}
+		} while (retry);
+	}
+
+	/**
+	 * スケジューラーが割り当てたスロットの描画先へリモート映像を追加する
+	 * スロットのCanvasがまだ生成されていなければ生成されたときに描画先へ追加する
+	 * @param remote
+	 * @param viewId スロットのCanvas Viewのdart側識別用id
+	 * @return 既に破棄処理中または破棄済みの場合はfalse
+	 */
+	private boolean bindSlot(@NonNull final RemotePeer remote, final int viewId) {
+		// Canvasの生成と競合しても取りこぼさないように先に登録してから探す
+		mPendingRemoteViews.put(viewId, remote.key);
+		final FlutterSkywayCanvas view = getCanvasView(viewId);
+		if (view != null) {
+			mPendingRemoteViews.remove(viewId, remote.key);
+			return remote.setCanvas(view);
+		}
+		return !remote.isReleasing();
+	}
+
+	/**
+	 * 指定したリモート映像を描画先から取り除いてOnDemoteイベントを送信する
+	 * @param key リモート映像の識別子
+	 */
+	private void demote(@NonNull final String key) {
+		final RemotePeer remote = mRemotes.get(key);
+		if (remote == null) {
+			return;
+		}
+		remote.setCanvas(null);
+		final Map<String, Object> message = createMessage(Const.SkywayEvent.OnDemote);
+		message.put("remotePeerId", remote.peerId);
+		if (remote.room != null) {
+			message.put("room", remote.room);
+		}
+		try {
+			sendMessage(message);
+		} catch (final Exception e) {
+			if (DEBUG) Log.w(TAG, e);
+		}
 	}
 
 }
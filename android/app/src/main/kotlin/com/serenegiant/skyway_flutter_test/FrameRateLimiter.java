@@ -0,0 +1,92 @@
+package com.serenegiant.skyway_flutter_test;
+
+/**
+ * 映像フレームを描画する間隔を最大フレームレート以下に制限するためのクラス
+ * フレームが届く毎にonFrameを呼び出して描画するかどうかを判定する
+ * フレームの到着時刻の揺らぎで間引き過ぎないように描画間隔の1/4までは早く届いても描画する
+ * 描画したフレーム数と間引いたフレーム数を計数する
+ */
+class FrameRateLimiter {
+	/**
+	 * 描画間隔に対して早く届いても描画する割合(1/TOLERANCE_DIVIDER)
+	 */
+	private static final int TOLERANCE_DIVIDER = 4;
+
+	/**
+	 * 最小描画間隔[ナノ秒], 0なら制限しない
+	 */
+	private long mIntervalNs;
+	/**
+	 * 次にフレームを描画する予定時刻[ナノ秒]
+	 */
+	private long mNextFrameNs;
+	private boolean mHasFrame;
+	private long mRenderedFrames;
+	private long mDroppedFrames;
+
+	/**
+	 * 最大フレームレートを設定する
+	 * @param fps 0以下なら制限しない
+	 */
+	public synchronized void setMaxFps(final float fps) {
+		mIntervalNs = fps > 0 ? (long)(1000000000L / fps) : 0;
+		mHasFrame = false;
+	}
+
+	/**
+	 * 最大フレームレート
+	 * @return 制限しないときは0
+	 */
+	public synchronized float getMaxFps() {
+		return mIntervalNs > 0 ? 1000000000.0f / mIntervalNs : 0;
+	}
+
+	/**
+	 * フレームが届いたときの処理
+	 * @param nowNs フレームが届いた時刻[ナノ秒], System.nanoTime()
+	 * @return 描画するときはtrue, 間引くときはfalse
+	 */
+	public synchronized boolean onFrame(final long nowNs) {
+		if (mIntervalNs <= 0) {
+			mRenderedFrames++;
+			return true;
+		}
+		if (mHasFrame && (nowNs + mIntervalNs / TOLERANCE_DIVIDER < mNextFrameNs)) {
+			mDroppedFrames++;
+			return false;
+		}
+		if (!mHasFrame || (nowNs - mNextFrameNs >= mIntervalNs)) {
+			// 最初のフレームまたは映像が途切れていたときは今から数え直す
+			mNextFrameNs = nowNs + mIntervalNs;
+		} else {
+			// 到着時刻の揺らぎで描画間隔がずれないように予定時刻から進める
+			mNextFrameNs += mIntervalNs;
+		}
+		mHasFrame = true;
+		mRenderedFrames++;
+		return true;
+	}
+
+	/**
+	 * 描画したフレーム数
+	 * @return
+	 */
+	public synchronized long getRenderedFrames() {
+		return mRenderedFrames;
+	}
+
+	/**
+	 * 間引いたフレーム数
+	 * @return
+	 */
+	public synchronized long getDroppedFrames() {
+		return mDroppedFrames;
+	}
+
+	/**
+	 * 計数をリセットする
+	 */
+	public synchronized void resetCounters() {
+		mRenderedFrames = mDroppedFrames = 0;
+	}
+}
@@ -0,0 +1,309 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.graphics.SurfaceTexture
+import android.opengl.EGL14
+import android.opengl.EGLConfig
+import android.opengl.EGLContext
+import android.opengl.EGLDisplay
+import android.opengl.EGLSurface
+import android.opengl.GLES11Ext
+import android.opengl.GLES20
+import android.view.Surface
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+
+/**
+ * EGLのディスプレイとコンテキスト
+ * 1つのコンテキストで複数の描画先(EglWindow)へ描画できる
+ * 描画先が無いときもテクスチャやシェーダーを操作できるように1x1のPbufferをカレントにしておく
+ * 生成/破棄/描画は全て同じスレッド(GLスレッド)上で行うこと
+ * 生成に失敗したときはIllegalStateExceptionを投げる
+ */
+class EglCore {
+	var display: EGLDisplay = EGL14.EGL_NO_DISPLAY
+		private set
+	private var config: EGLConfig? = null
+	private var context: EGLContext = EGL14.EGL_NO_CONTEXT
+	private var pbuffer: EGLSurface = EGL14.EGL_NO_SURFACE
+
+	init {
+		try {
+			setup()
+		} catch (e: IllegalStateException) {
+			release()
+			throw e
+		}
+	}
+
+	/**
+	 * 指定したSurfaceへ描画するためのEGLSurfaceを生成する
+	 * @param surface
+	 */
+	fun createWindowSurface(surface: Surface): EGLSurface {
+		val eglSurface = EGL14.eglCreateWindowSurface(display, config, surface,
+			intArrayOf(EGL14.EGL_NONE), 0)
+		check(eglSurface != EGL14.EGL_NO_SURFACE) { "eglCreateWindowSurface failed" }
+		return eglSurface
+	}
+
+	/**
+	 * 指定したEGLSurfaceを描画先にする
+	 * @param eglSurface
+	 */
+	fun makeCurrent(eglSurface: EGLSurface) {
+		check(EGL14.eglMakeCurrent(display, eglSurface, eglSurface, context)) { "eglMakeCurrent failed" }
+	}
+
+	/**
+	 * 描画先をPbufferへ戻す, 描画先のEGLSurfaceを破棄する前に呼ぶ
+	 */
+	fun makeDefault() {
+		EGL14.eglMakeCurrent(display, pbuffer, pbuffer, context)
+	}
+
+	/**
+	 * 指定したEGLSurfaceを破棄する, 描画先になっていればPbufferへ戻してから破棄する
+	 * @param eglSurface
+	 */
+	fun destroySurface(eglSurface: EGLSurface) {
+		if (EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW) == eglSurface) {
+			makeDefault()
+		}
+		EGL14.eglDestroySurface(display, eglSurface)
+	}
+
+	/**
+	 * 破棄する
+	 * EGLDisplayはFlutterのレンダラーと共有しているのでeglTerminateは呼ばない
+	 */
+	fun release() {
+		if (display != EGL14.EGL_NO_DISPLAY) {
+			EGL14.eglMakeCurrent(display,
+				EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT)
+			if (pbuffer != EGL14.EGL_NO_SURFACE) {
+				EGL14.eglDestroySurface(display, pbuffer)
+			}
+			if (context != EGL14.EGL_NO_CONTEXT) {
+				EGL14.eglDestroyContext(display, context)
+			}
+			EGL14.eglReleaseThread()
+		}
+		pbuffer = EGL14.EGL_NO_SURFACE
+		context = EGL14.EGL_NO_CONTEXT
+		config = null
+		display = EGL14.EGL_NO_DISPLAY
+	}
+
+	private fun setup() {
+		display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY)
+		val version = IntArray(2)
+		check(EGL14.eglInitialize(display, version, 0, version, 1)) { "eglInitialize failed" }
+		val attribs = intArrayOf(
+			EGL14.EGL_RED_SIZE, 8,
+			EGL14.EGL_GREEN_SIZE, 8,
+			EGL14.EGL_BLUE_SIZE, 8,
+			EGL14.EGL_ALPHA_SIZE, 8,
+			EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+			EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT or EGL14.EGL_PBUFFER_BIT,
+			EGL14.EGL_NONE)
+		val configs = arrayOfNulls<EGLConfig>(1)
+		val numConfigs = IntArray(1)
+		check(EGL14.eglChooseConfig(display, attribs, 0, configs, 0, 1, numConfigs, 0)
+			&& (numConfigs[0] > 0)) { "eglChooseConfig failed" }
+		config = configs[0]
+		context = EGL14.eglCreateContext(display, config, EGL14.EGL_NO_CONTEXT,
+			intArrayOf(EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE), 0)
+		check(context != EGL14.EGL_NO_CONTEXT) { "eglCreateContext failed" }
+		pbuffer = EGL14.eglCreatePbufferSurface(display, config,
+			intArrayOf(EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE), 0)
+		check(pbuffer != EGL14.EGL_NO_SURFACE) { "eglCreatePbufferSurface failed" }
+		check(EGL14.eglMakeCurrent(display, pbuffer, pbuffer, context)) { "eglMakeCurrent failed" }
+	}
+}
+
+/**
+ * FlutterのTextureRegistryへ登録したSurfaceTextureへ描画するための描画先
+ * 生成時に描画先にする, 同じEglCoreで複数の描画先を使うときは描画前にmakeCurrentを呼ぶこと
+ * 生成/破棄/描画は全てEglCoreと同じGLスレッド上で行うこと
+ * 生成に失敗したときはIllegalStateExceptionを投げる
+ * @param core
+ * @param output 描画先
+ * @param width 描画先のサイズ
+ * @param height 描画先のサイズ
+ */
+class EglWindow(
+	private val core: EglCore,
+	private val output: SurfaceTexture,
+	width: Int, height: Int) {
+
+	private var eglSurface: EGLSurface = EGL14.EGL_NO_SURFACE
+	private var surface: Surface? = null
+
+	init {
+		try {
+			output.setDefaultBufferSize(width, height)
+			val s = Surface(output)
+			surface = s
+			eglSurface = core.createWindowSurface(s)
+			core.makeCurrent(eglSurface)
+		} catch (e: IllegalStateException) {
+			release()
+			throw e
+		}
+	}
+
+	/**
+	 * 描画先のサイズを変更する
+	 * @param width
+	 * @param height
+	 */
+	fun resize(width: Int, height: Int) {
+		output.setDefaultBufferSize(width, height)
+	}
+
+	/**
+	 * この描画先へ描画するようにする
+	 */
+	fun makeCurrent() {
+		core.makeCurrent(eglSurface)
+	}
+
+	/**
+	 * 描画した内容を描画先へ反映する
+	 */
+	fun swap() {
+		EGL14.eglSwapBuffers(core.display, eglSurface)
+	}
+
+	/**
+	 * 破棄する, EglCoreは破棄しない
+	 */
+	fun release() {
+		if (eglSurface != EGL14.EGL_NO_SURFACE) {
+			core.destroySurface(eglSurface)
+		}
+		eglSurface = EGL14.EGL_NO_SURFACE
+		surface?.release()
+		surface = null
+	}
+}
+
+/**
+ * SurfaceTextureで受け取った映像(GL_TEXTURE_EXTERNAL_OES)を描画するためのクラス
+ * EglCoreと同じGLスレッド上で生成/描画/破棄すること(同じEglCoreの描画先で共有できる)
+ */
+class OesTextureDrawer {
+	private val program = createProgram()
+	private val position = GLES20.glGetAttribLocation(program, "aPosition")
+	private val texCoord = GLES20.glGetAttribLocation(program, "aTextureCoord")
+	private val texMatrix = GLES20.glGetUniformLocation(program, "uTexMatrix")
+
+	/**
+	 * テクスチャを現在のビューポート全体へ描画する
+	 * @param texId
+	 * @param matrix SurfaceTexture#getTransformMatrixで取得したテクスチャ変換行列
+	 */
+	fun draw(texId: Int, matrix: FloatArray) {
+		GLES20.glUseProgram(program)
+		GLES20.glActiveTexture(GLES20.GL_TEXTURE0)
+		GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texId)
+		GLES20.glUniformMatrix4fv(texMatrix, 1, false, matrix, 0)
+		GLES20.glEnableVertexAttribArray(position)
+		GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, 0, VERTICES)
+		GLES20.glEnableVertexAttribArray(texCoord)
+		GLES20.glVertexAttribPointer(texCoord, 2, GLES20.GL_FLOAT, false, 0, TEX_COORDS)
+		GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4)
+		GLES20.glDisableVertexAttribArray(position)
+		GLES20.glDisableVertexAttribArray(texCoord)
+	}
+
+	fun release() {
+		GLES20.glDeleteProgram(program)
+	}
+
+	companion object {
+		private val VERTICES = createBuffer(floatArrayOf(-1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f))
+		private val TEX_COORDS = createBuffer(floatArrayOf(0f, 0f, 1f, 0f, 0f, 1f, 1f, 1f))
+
+		private const val VERTEX_SHADER = """
+attribute vec4 aPosition;
+attribute vec4 aTextureCoord;
+uniform mat4 uTexMatrix;
+varying vec2 vTextureCoord;
+void main() {
+	gl_Position = aPosition;
+	vTextureCoord = (uTexMatrix * aTextureCoord).xy;
+}
+"""
+		private const val FRAGMENT_SHADER = """#extension GL_OES_EGL_image_external : require
+precision mediump float;
+uniform samplerExternalOES sTexture;
+varying vec2 vTextureCoord;
+void main() {
+	gl_FragColor = texture2D(sTexture, vTextureCoord);
+}
+"""
+
+		/**
+		 * SurfaceTextureで映像を受け取るためのテクスチャを生成する
+		 * @return テクスチャ名
+		 */
+		fun createOesTexture(): Int {
+			val tex = IntArray(1)
+			GLES20.glGenTextures(1, tex, 0)
+			GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, tex[0])
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR)
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR)
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE)
+			GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE)
+			return tex[0]
+		}
+
+		fun deleteTexture(texId: Int) {
+			GLES20.glDeleteTextures(1, intArrayOf(texId), 0)
+		}
+
+		private fun createProgram(): Int {
+			val vs = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER)
+			val fs = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER)
+			val program = GLES20.glCreateProgram()
+			GLES20.glAttachShader(program, vs)
+			GLES20.glAttachShader(program, fs)
+			GLES20.glLinkProgram(program)
+			GLES20.glDeleteShader(vs)
+			GLES20.glDeleteShader(fs)
+			val status = IntArray(1)
+			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0)
+			if (status[0] != GLES20.GL_TRUE) {
+				val log = GLES20.glGetProgramInfoLog(program)
+				GLES20.glDeleteProgram(program)
+				throw IllegalStateException("failed to link program:$log")
+			}
+			return program
+		}
+
+		private fun loadShader(type: Int, source: String): Int {
+			val shader = GLES20.glCreateShader(type)
+			GLES20.glShaderSource(shader, source)
+			GLES20.glCompileShader(shader)
+			val status = IntArray(1)
+			GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0)
+			if (status[0] == 0) {
+				val log = GLES20.glGetShaderInfoLog(shader)
+				GLES20.glDeleteShader(shader)
+				throw IllegalStateException("failed to compile shader:$log")
+			}
+			return shader
+		}
+
+		private fun createBuffer(values: FloatArray): FloatBuffer {
+			return ByteBuffer.allocateDirect(values.size * 4)
+				.order(ByteOrder.nativeOrder())
+				.asFloatBuffer().apply {
+					put(values)
+					position(0)
+				}
+		}
+	}
+}
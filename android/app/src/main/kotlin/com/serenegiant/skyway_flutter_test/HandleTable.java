@@ -0,0 +1,217 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Dart側との間で文字列のid(ピアidやリモートピアid)の代わりに使う整数のハンドルを管理するためのクラス
+ * ハンドルの下位SLOT_BITSビットを配列のインデックス(スロット)として使うので取得時にハッシュ計算が不要
+ * 破棄したスロットは世代(上位ビット)を1つ進めてから再利用するので
+ * Dart側に古いハンドルが残っていても別のオブジェクトを指さない(同じスロットの世代が一巡するまで)
+ * 同時に保持できるのはMAX_SLOTS個まで, 保持する数に応じた大きさの配列しか使わない
+ * ハンドル0は無効値
+ * @param <T>
+ */
+class HandleTable<T> {
+	private static final int DEFAULT_CAPACITY = 16;
+	/**
+	 * スロットに使う下位ビット数
+	 */
+	private static final int SLOT_BITS = 16;
+	private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+	/**
+	 * 世代に使う上位ビットのマスク(ハンドルが負にならないように符号ビットは使わない)
+	 */
+	private static final int GENERATION_MASK = Integer.MAX_VALUE >>> SLOT_BITS;
+	/**
+	 * 同時に保持できる最大数(スロット0は使わない)
+	 */
+	public static final int MAX_SLOTS = SLOT_MASK;
+
+	@NonNull
+	private Object[] mValues = new Object[DEFAULT_CAPACITY];
+	/**
+	 * スロット毎の現在のハンドル(世代を含む), 空きスロットでは次に割り当てるハンドルの世代
+	 */
+	@NonNull
+	private int[] mHandleAt = new int[DEFAULT_CAPACITY];
+	/**
+	 * internで割り当てたハンドル
+	 */
+	@NonNull
+	private final Map<T, Integer> mHandles = new HashMap<>();
+	/**
+	 * 破棄したスロット, 同じスロットがすぐに再利用されないように古い順に使う
+	 */
+	@NonNull
+	private final ArrayDeque<Integer> mFreeSlots = new ArrayDeque<>();
+	/**
+	 * 一度も使っていない次のスロット
+	 */
+	private int mNextSlot = 1;
+	/**
+	 * 保持している値の数
+	 */
+	private int mCount;
+
+	/**
+	 * ハンドルのスロット(配列のインデックス)を取得する
+	 * ハンドル毎の付加情報(送信済みフラグ等)を保持する配列やBitSetのインデックスとして使える
+	 * (スロットは再利用されるので破棄したときはそのスロットの付加情報も消すこと)
+	 * @param handle
+	 * @return
+	 */
+	public static int slotOf(final int handle) {
+		return handle & SLOT_MASK;
+	}
+
+	/**
+	 * 指定した値にハンドルを割り当てる, 既に割り当て済みならそのハンドルを返す
+	 * @param value
+	 * @return
+	 * @throws IllegalStateException MAX_SLOTS個を超えて割り当てようとした
+	 */
+	public synchronized int intern(@NonNull final T value) throws IllegalStateException {
+		final Integer handle = mHandles.get(value);
+		if (handle != null) {
+			return handle;
+		}
+		final int slot;
+		if (!mFreeSlots.isEmpty()) {
+			slot = mFreeSlots.pollFirst();
+		} else if (mNextSlot <= MAX_SLOTS) {
+			slot = mNextSlot++;
+		} else {
+			throw new IllegalStateException("too many handles");
+		}
+		ensureLocked(slot);
+		final int result = (mHandleAt[slot] & ~SLOT_MASK) | slot;
+		mHandleAt[slot] = result;
+		mValues[slot] = value;
+		mHandles.put(value, result);
+		mCount++;
+		return result;
+	}
+
+	/**
+	 * 呼び出し側で割り当て済みのハンドル(FlutterSkywayPeer#getPeerHandle等)で値を登録する
+	 * internで割り当てるハンドルとは混在させないこと
+	 * @param handle 1以上
+	 * @param value
+	 * @throws IllegalArgumentException
+	 * @throws IllegalStateException 同じスロットを別のハンドルが使用中
+	 */
+	public synchronized void put(final int handle, @NonNull final T value)
+		throws IllegalArgumentException, IllegalStateException {
+
+		final int slot = slotOf(handle);
+		if ((handle <= 0) || (slot == 0)) {
+			throw new IllegalArgumentException("invalid handle " + handle);
+		}
+		ensureLocked(slot);
+		if ((mValues[slot] != null) && (mHandleAt[slot] != handle)) {
+			throw new IllegalStateException("slot is in use,handle=" + handle);
+		}
+		if (mValues[slot] == null) {
+			mCount++;
+		}
+		mHandleAt[slot] = handle;
+		mValues[slot] = value;
+	}
+
+	/**
+	 * 指定したハンドルの値を取得する
+	 * @param handle
+	 * @return 未割り当てまたは破棄済みならnull
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public synchronized T get(final int handle) {
+		final int slot = slotOf(handle);
+		return (handle > 0) && (slot < mValues.length) && (mHandleAt[slot] == handle)
+			? (T)mValues[slot] : null;
+	}
+
+	/**
+	 * Dart側から受け取った引数(ハンドルまたは値そのもの)から値を取得する
+	 * @param handleOrValue ハンドル(Integer)または値
+	 * @param clazz 値のクラス
+	 * @return ハンドルが未割り当てまたは破棄済みのときや値の型が違うときはnull
+	 */
+	@Nullable
+	public T resolve(@Nullable final Object handleOrValue, @NonNull final Class<T> clazz) {
+		if (handleOrValue instanceof Integer) {
+			return get((Integer)handleOrValue);
+		}
+		return clazz.isInstance(handleOrValue) ? clazz.cast(handleOrValue) : null;
+	}
+
+	/**
+	 * 指定したハンドルの値を破棄する
+	 * @param handle
+	 * @param value 指定したハンドルの値がこの値のときだけ破棄する
+	 * @return 破棄したときはtrue
+	 */
+	public synchronized boolean remove(final int handle, @NonNull final T value) {
+		if (value.equals(get(handle))) {
+			// putで登録したハンドルのスロットはinternで再利用しない
+			releaseLocked(slotOf(handle), mHandles.remove(value) != null);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * internで割り当てたハンドルを破棄する
+	 * @param value
+	 * @return 破棄したハンドル, 割り当てていなければ0
+	 */
+	public synchronized int remove(@NonNull final T value) {
+		final Integer handle = mHandles.remove(value);
+		if (handle != null) {
+			releaseLocked(slotOf(handle), true);
+			return handle;
+		}
+		return 0;
+	}
+
+	/**
+	 * 保持している値の数
+	 * @return
+	 */
+	public synchronized int size() {
+		return mCount;
+	}
+
+//--------------------------------------------------------------------------------
+	private void ensureLocked(final int slot) {
+		if (slot >= mValues.length) {
+			int capacity = mValues.length * 2;
+			while (capacity <= slot) {
+				capacity *= 2;
+			}
+			mValues = Arrays.copyOf(mValues, capacity);
+			mHandleAt = Arrays.copyOf(mHandleAt, capacity);
+		}
+	}
+
+	/**
+	 * スロットを空けて次に割り当てるときの世代を1つ進める
+	 * @param slot
+	 * @param reuse internで再利用するかどうか
+	 */
+	private void releaseLocked(final int slot, final boolean reuse) {
+		mValues[slot] = null;
+		mCount--;
+		final int generation = ((mHandleAt[slot] >>> SLOT_BITS) + 1) & GENERATION_MASK;
+		mHandleAt[slot] = generation << SLOT_BITS;
+		if (reuse) {
+			mFreeSlots.addLast(slot);
+		}
+	}
+}
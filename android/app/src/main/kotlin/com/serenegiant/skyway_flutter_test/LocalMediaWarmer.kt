@@ -0,0 +1,274 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import io.skyway.Peer.Browser.MediaStream
+import io.skyway.Peer.Browser.Navigator
+import io.skyway.Peer.Peer
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 通話画面を開く前(呼び出し方法を選択している間等)にローカル映像の取得(カメラのオープン)を
+ * 開始しておくためのクラス
+ * 取得したMediaStreamはPeerPoolのPeer(Navigator.initializeに使ったPeer)と組にして1つだけ保持し
+ * そのPeerでconnectしたときに渡す, 有効期限までに使われなければ破棄する
+ * カメラのオープンは時間がかかるのでバックグラウンドスレッド上で行う
+ * 同じカメラを2重に開かないようにconnectしたときは取得中のローカル映像の取得が終わるのを待ってから渡す
+ * (別のPeerと組になっていたときはconnectしたPeerで取得し直す前に破棄する)
+ */
+class LocalMediaWarmer : PeerPool.Listener {
+
+	/**
+	 * 取得済みのローカル映像
+	 * @param warmMs ローカル映像の取得にかかった時間(connect後の取得を省略することで短縮できる時間)
+	 */
+	class Slot(val peer: Peer, val stream: MediaStream, val profile: CaptureProfile, val warmMs: Long)
+
+	private val mLock = ReentrantLock()
+	/**
+	 * ローカル映像の取得が終わったときに通知する
+	 */
+	private val mWarmed = mLock.newCondition()
+	private val mHandler = Handler(Looper.getMainLooper())
+	private val mExecutor: ExecutorService = Executors.newSingleThreadExecutor { r ->
+		Thread(r, "LocalMediaWarmer")
+	}
+	private var mSlot: Slot? = null
+	/**
+	 * ローカル映像の取得中のPeer
+	 */
+	private var mWarming: Peer? = null
+	/**
+	 * 接続済みのPeerが用意できるのを待っている取得要求の取得設定, 待っていなければnull
+	 */
+	private var mPendingProfile: CaptureProfile? = null
+	private var mTtlMs = DEFAULT_TTL_MS
+	private var mHits = 0L
+	private var mExpired = 0L
+	private var mLastWarmMs = 0L
+
+	/**
+	 * ローカル映像の取得を開始する
+	 * 既に同じ取得設定で取得済み(または取得中)なら有効期限を延長する
+	 * @param peer Navigator.initializeに使う接続済みのPeer, nullなら次にPeerが用意できたときに取得する
+	 * @param profile
+	 * @param ttlMs 取得してから使われずに破棄するまでの時間
+	 */
+	fun prewarm(peer: Peer?, profile: CaptureProfile, ttlMs: Long) {
+		if (DEBUG) Log.v(TAG, "prewarm:peer=${peer?.identity()},profile=$profile,ttlMs=$ttlMs")
+		mLock.withLock {
+			mTtlMs = ttlMs
+			val slot = mSlot
+			if ((slot != null) && (slot.profile == profile)) {
+				// 取得済みなので有効期限を延長するだけ
+				scheduleExpiration()
+				return
+			}
+			mPendingProfile = profile
+			if (slot != null) {
+				// 取得設定が違うときはカメラを閉じてから取得し直す
+				mSlot = null
+				close(slot.stream)
+			}
+			// 取得中のときは取得が終わったときに取得設定を確認して取得し直す
+			val target = peer ?: slot?.peer
+			if ((mWarming == null) && (target != null)) {
+				startLocked(target)
+			}
+		}
+	}
+
+	/**
+	 * 指定したPeerと組にして取得したローカル映像を取り出す
+	 * 取得中のときは取得が終わるまで待つのでメインスレッド上から呼び出さないこと
+	 * @param peer
+	 * @param timeoutMs 取得が終わるのを待つ最大時間
+	 * @return 取得済みのローカル映像が無いか別のPeerと組になっていればnull
+	 */
+	fun claim(peer: Peer, timeoutMs: Long): Slot? {
+		val slot = mLock.withLock {
+			var remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+			while ((mWarming != null) && (remainingNs > 0)) {
+				remainingNs = mWarmed.awaitNanos(remainingNs)
+			}
+			if (mWarming != null) {
+				// 待ちきれなかったときは取得が終わったときに破棄させる
+				mWarming = null
+				mPendingProfile = null
+			}
+			val slot = mSlot
+			if ((slot != null) && (slot.peer == peer)) {
+				mSlot = null
+				mHits++
+				slot
+			} else {
+				null
+			}
+		}
+		if (slot != null) {
+			if (DEBUG) Log.v(TAG, "claim:hit,saved ${slot.warmMs}ms")
+			mHandler.removeCallbacks(mExpirationTask)
+		}
+		return slot
+	}
+
+	/**
+	 * 取得済み/取得中のローカル映像と取得要求を全て破棄する
+	 * 呼び出したスレッド上でカメラを閉じるので戻ったときには他から開くことができる
+	 */
+	fun clear() {
+		if (DEBUG) Log.v(TAG, "clear:")
+		mHandler.removeCallbacks(mExpirationTask)
+		val slot = mLock.withLock {
+			mPendingProfile = null
+			mWarming = null
+			mWarmed.signalAll()
+			mSlot.also { mSlot = null }
+		}
+		slot?.stream?.close()
+	}
+
+	/**
+	 * 全て破棄してバックグラウンドスレッドを終了する
+	 */
+	fun release() {
+		clear()
+		mExecutor.shutdown()
+	}
+
+	/**
+	 * 統計情報を取得する
+	 */
+	fun stats(): Map<String, Any> {
+		mLock.withLock {
+			return mapOf(
+				"hits" to mHits,
+				"expired" to mExpired,
+				"ready" to (mSlot != null),
+				"warming" to (mWarming != null),
+				"lastWarmMs" to mLastWarmMs)
+		}
+	}
+
+	/**
+	 * PeerPoolに接続済みのPeerが用意できたときの処理
+	 * 取得要求が待っていればそのPeerでローカル映像の取得を開始する
+	 */
+	override fun onPeerReady(peer: Peer) {
+		mLock.withLock {
+			if ((mPendingProfile != null) && (mSlot == null) && (mWarming == null)) {
+				startLocked(peer)
+			}
+		}
+	}
+
+	/**
+	 * PeerPoolがPeerを破棄する前の処理
+	 * そのPeerと組にしたローカル映像があればPeerより先に破棄する
+	 */
+	override fun onPeerDestroy(peer: Peer) {
+		val slot = mLock.withLock {
+			if (mWarming == peer) {
+				// 取得が終わったときに破棄する
+				mWarming = null
+				mWarmed.signalAll()
+			}
+			val slot = mSlot
+			if ((slot != null) && (slot.peer == peer)) {
+				mSlot = null
+				slot
+			} else {
+				null
+			}
+		}
+		slot?.stream?.close()
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * バックグラウンドスレッド上でローカル映像の取得を開始する
+	 * mLockをロックした状態で呼び出すこと
+	 */
+	private fun startLocked(peer: Peer) {
+		val profile = mPendingProfile ?: return
+		mWarming = peer
+		mExecutor.execute {
+			val startTime = SystemClock.elapsedRealtime()
+			val stream = try {
+				Navigator.initialize(peer)
+				Navigator.getUserMedia(profile.toConstraints())
+			} catch (e: Exception) {
+				Log.w(TAG, e)
+				null
+			}
+			val warmMs = SystemClock.elapsedRealtime() - startTime
+			val accepted = mLock.withLock {
+				val current = mWarming == peer
+				if ((stream != null) && current && (mPendingProfile == profile)) {
+					mSlot = Slot(peer, stream, profile, warmMs)
+					mLastWarmMs = warmMs
+					mPendingProfile = null
+					mWarming = null
+					mWarmed.signalAll()
+					true
+				} else {
+					// カメラを閉じてから(バックグラウンドスレッド上なのでここで閉じる)
+					// 取得中に取得設定が変更されたときは取得し直す
+					stream?.close()
+					if (current) {
+						mWarming = null
+						if ((stream != null) && (mPendingProfile != null)) {
+							startLocked(peer)
+						}
+					}
+					mWarmed.signalAll()
+					false
+				}
+			}
+			if (DEBUG) Log.v(TAG, "warmed:${warmMs}ms,accepted=$accepted")
+			if (accepted) {
+				mHandler.post { scheduleExpiration() }
+			}
+		}
+	}
+
+	/**
+	 * 使われなかったローカル映像を破棄する
+	 */
+	private val mExpirationTask = Runnable {
+		val slot = mLock.withLock {
+			mSlot?.also {
+				mSlot = null
+				mExpired++
+			}
+		}
+		if (slot != null) {
+			if (DEBUG) Log.v(TAG, "expired:")
+			close(slot.stream)
+		}
+	}
+
+	private fun scheduleExpiration() {
+		mHandler.removeCallbacks(mExpirationTask)
+		mHandler.postDelayed(mExpirationTask, mLock.withLock { mTtlMs })
+	}
+
+	/**
+	 * カメラのクローズも時間がかかることがあるのでバックグラウンドスレッド上で破棄する
+	 */
+	private fun close(stream: MediaStream) {
+		mExecutor.execute { stream.close() }
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = LocalMediaWarmer::class.java.simpleName
+		const val DEFAULT_TTL_MS = 10000L
+	}
+}
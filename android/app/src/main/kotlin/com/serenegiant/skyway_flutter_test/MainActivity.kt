@@ -9,7 +9,9 @@ import io.flutter.embedding.engine.FlutterEngine
 import io.flutter.plugin.common.MethodCall
 import io.flutter.plugin.common.MethodChannel
 import io.skyway.Peer.*
+import io.skyway.Peer.Browser.MediaConstraints
 import java.util.*
+import java.util.concurrent.RejectedExecutionException
 import kotlin.collections.HashMap
 
 /**
@@ -28,72 +30,107 @@ class MainActivity : FlutterActivity() {
 	private var _remoteViewIds = IntArray(0)
 
 	private var peers: MutableMap<String, FlutterSkywayPeer> = HashMap()
+	/**
+	 * Dart側からハンドルで指定されたときにFlutterSkywayPeerを取得するためのテーブル
+	 */
+	private val peerHandles = HandleTable<FlutterSkywayPeer>()
+	private var canvasFactory: CanvasFactory? = null
+	/**
+	 * 接続済みのPeerを保持しておくためのプール
+	 * Dart側からprewarmPeersが呼ばれるまではプールしない
+	 */
+	private val peerPool by lazy { PeerPool(applicationContext) }
+	/**
+	 * 通話画面を開く前にローカル映像の取得を開始しておくためのオブジェクト
+	 * プールしているPeerと組にして取得するのでPeerプールのコールバックとして登録する
+	 */
+	private val mediaWarmer by lazy { LocalMediaWarmer().also { peerPool.listener = it } }
+	/**
+	 * イベント送信やメソッドチャネル呼び出し等の計測値(全てのピアで共有)
+	 */
+	private val metrics = SkywayMetrics()
 
 	override fun onCreate(savedInstanceState: Bundle?, persistentState: PersistableBundle?) {
 		super.onCreate(savedInstanceState, persistentState)
 		if (DEBUG) Log.v(TAG, "onCreate:");
 	}
 
+	override fun onResume() {
+		super.onResume()
+		if (DEBUG) Log.v(TAG, "onResume:");
+		// 使われずに破棄されたPeerがあれば補充する
+		peerPool.prewarm()
+	}
+
 	override fun onDestroy() {
 		if (DEBUG) Log.v(TAG, "onDestroy:");
 		releaseAll()
+		mediaWarmer.release()
+		peerPool.clear()
+		canvasFactory?.disposeAllMosaics()
+		canvasFactory?.pool?.clear()
+		canvasFactory = null
 		super.onDestroy()
 	}
 
 	override fun configureFlutterEngine(flutterEngine: FlutterEngine) {
 		super.configureFlutterEngine(flutterEngine)
 		if (DEBUG) Log.v(TAG, "configureFlutterEngine:");
+		val factory = CanvasFactory(flutterEngine.dartExecutor.binaryMessenger, flutterEngine.renderer)
+		canvasFactory = factory
 		flutterEngine
 			.platformViewsController
 			.registry
-			.registerViewFactory(Const.SKYWAY_CANVAS_VIEW,
-				CanvasFactory(flutterEngine.dartExecutor.binaryMessenger))
+			.registerViewFactory(Const.SKYWAY_CANVAS_VIEW, factory)
 		MethodChannel(flutterEngine.dartExecutor.binaryMessenger, Const.METHOD_CHANNEL_NAME)
 			.setMethodCallHandler { call, result -> onMethodCall(call, result) }
 	}
 
 	private fun onMethodCall(call: MethodCall, result: MethodChannel.Result) {
-		when (call.method) {
-		"connect" -> {
-			connect(call, result)
-		}
-		"disconnect" -> {
-			disconnect(call, result);
-		}
-		"startLocalStream" -> {
-			startLocalStream(call, result)
-		}
-		"startRemoteStream" -> {
-			startRemoteStream(call, result)
-		}
-		"listAllPeers" -> {
-			listAllPeers(call, result)
-		}
-		"hangUp" -> {
-			hangUp(call, result)
-		}
-		"call" -> {
-			call(call, result)
-		}
-		"join" -> {
-			join(call, result)
-		}
-		"leave" -> {
-			leave(call, result)
-		}
-		"accept" -> {
-			accept(call, result)
-		}
-		"reject" -> {
-			reject(call, result)
-		}
-		else -> {
-			Log.w(TAG, "unknown method call${call}")
-		}
-		}
-		// FIXME Dart側からのsetter/getter呼び出しを実装する
+		dispatcher.onMethodCall(call, result)
 	}
 
+	/**
+	 * Dart側からのメソッド呼び出しの振り分け(メソッド名とハンドラーのディスパッチテーブル)
+	 */
+	private val dispatcher = MethodDispatcher(hashMapOf(
+		"connect" to ::connect,
+		"disconnect" to ::disconnect,
+		"startLocalStream" to ::startLocalStream,
+		"startRemoteStream" to ::startRemoteStream,
+		"listAllPeers" to ::listAllPeers,
+		"hangUp" to ::hangUp,
+		"call" to ::call,
+		"join" to ::join,
+		"leave" to ::leave,
+		"getRooms" to ::getRooms,
+		"getRoomState" to ::getRoomState,
+		"switchRoom" to ::switchRoom,
+		"accept" to ::accept,
+		"reject" to ::reject,
+		"setEventBatching" to ::setEventBatching,
+		"getPeerHandle" to ::getPeerHandle,
+		"setBinaryEvent" to ::setBinaryEvent,
+		"getCanvasPoolStats" to ::getCanvasPoolStats,
+		"createTextureView" to ::createTextureView,
+		"disposeTextureView" to ::disposeTextureView,
+		"createMosaicView" to ::createMosaicView,
+		"disposeMosaicView" to ::disposeMosaicView,
+		"setMosaicLayout" to ::setMosaicLayout,
+		"getMosaicStats" to ::getMosaicStats,
+		"prewarmPeers" to ::prewarmPeers,
+		"getPeerPoolStats" to ::getPeerPoolStats,
+		"prewarmLocalMedia" to ::prewarmLocalMedia,
+		"setRenderSlots" to ::setRenderSlots,
+		"setRemotePriority" to ::setRemotePriority,
+		"notifySpeaking" to ::notifySpeaking,
+		"setCaptureProfile" to ::setCaptureProfile,
+		"setPeerDirectory" to ::setPeerDirectory,
+		"getMetrics" to ::getMetrics,
+		"setMetricsPush" to ::setMetricsPush,
+		"getCallTrace" to ::getCallTrace,
+		MethodBatch.METHOD_BATCH to ::batch), metrics)
+
 //--------------------------------------------------------------------------------
 	/**
 	 * 接続中のすべてのピアを開放する
@@ -107,7 +144,7 @@ class MainActivity : FlutterActivity() {
 		}
 		if (copy.isNotEmpty()) {
 			for ((_, v) in copy) {
-				v.release()
+				releasePeer(v)
 			}
 		}
 	}
@@ -136,6 +173,17 @@ class MainActivity : FlutterActivity() {
 		}
 		if (DEBUG) Log.v(TAG, "connect:domain=${domain},apiKey=${apiKey}")
 		if (apiKey != null) {
+			val startNs = System.nanoTime()
+			val pooled = peerPool.acquire(apiKey, domain)
+			if (pooled != null) {
+				// プールに接続済みのPeerがあればOPENを待たずに直ぐに返す
+				if (DEBUG) Log.v(TAG, "connect:use pooled peer,saved ${pooled.openMs}ms")
+				setPeerCallbacks(pooled.peer)
+				registerPeer(pooled.peer, pooled.peerId)
+					.tracePooledConnect(startNs, pooled.openMs, pooled.readyAt)
+				result.success(pooled.peerId)
+				return
+			}
 			// Initialize Peer
 			val option = PeerOption()
 			option.key = apiKey
@@ -147,31 +195,64 @@ class MainActivity : FlutterActivity() {
 			peer.on(Peer.PeerEventEnum.OPEN) { `object` ->
 				// Show my ID
 				val ownId = `object` as String
-				val wrapped = FlutterSkywayPeer(this,
-					ownId, peer,
-					flutterEngine!!.dartExecutor.binaryMessenger)
-				synchronized(peers) {
-					peers.put(ownId, wrapped)
-				}
+				registerPeer(peer, ownId).traceConnect(startNs)
 				result.success(ownId)
 			}
+			setPeerCallbacks(peer)
+		} else {
+			result.error("Invalid apiKey", "Invalid apiKey", "Invalid apiKey")
+		}
+	}
 
-			// ERROR
-			peer.on(Peer.PeerEventEnum.ERROR) { `object` ->
-				val error = `object` as PeerError
-				if (DEBUG) Log.w(TAG, "[On/Error]$error")
-				Toast.makeText(applicationContext, "Error on connecting peer(API key would be wrong),$error", Toast.LENGTH_LONG).show()
+	/**
+	 * 接続済みのPeerをFlutterSkywayPeerでラップして登録する
+	 * @param peer
+	 * @param ownId
+	 * @return
+	 */
+	private fun registerPeer(peer: Peer, ownId: String): FlutterSkywayPeer {
+		val wrapped = FlutterSkywayPeer(this,
+			ownId, peer,
+			flutterEngine!!.dartExecutor.binaryMessenger, metrics)
+		synchronized(peers) {
+			peers.put(ownId, wrapped)
+		}
+		peerHandles.put(wrapped.peerHandle, wrapped)
+		// あらかじめ取得しておいたローカル映像があれば使う
+		// 取得中なら終わるまでワーカースレッド上で待つ(後から呼ばれるstartLocalStreamも待たせる)
+		wrapped.queueSdkTask(Runnable {
+			val slot = mediaWarmer.claim(peer, LOCAL_MEDIA_CLAIM_TIMEOUT_MS)
+			if (slot != null) {
+				wrapped.adoptLocalStream(slot.stream, slot.profile, slot.warmMs)
+			} else {
+				// 別のPeerと組にして取得していたときはカメラを閉じておく
+				mediaWarmer.clear()
 			}
+		})
+		return wrapped
+	}
 
-			// CLOSE
-			peer.on(Peer.PeerEventEnum.CLOSE) {
-				if (DEBUG) Log.v(TAG, "[On/Close]")
-				synchronized(peers) {
-					peers.remove(peer.identity())?.release()
-				}
-			}
-		} else {
-			result.error("Invalid apiKey", "Invalid apiKey", "Invalid apiKey")
+	/**
+	 * PeerのERROR/CLOSEイベントのコールバックを設定する
+	 * @param peer
+	 */
+	private fun setPeerCallbacks(peer: Peer) {
+		// ERROR
+		peer.on(Peer.PeerEventEnum.ERROR) { `object` ->
+			val error = `object` as PeerError
+			if (DEBUG) Log.w(TAG, "[On/Error]$error")
+			synchronized(peers) {
+				peers[peer.identity()]
+			}?.onPeerError(error)
+			Toast.makeText(applicationContext, "Error on connecting peer(API key would be wrong),$error", Toast.LENGTH_LONG).show()
+		}
+
+		// CLOSE
+		peer.on(Peer.PeerEventEnum.CLOSE) {
+			if (DEBUG) Log.v(TAG, "[On/Close]")
+			synchronized(peers) {
+				peers.remove(peer.identity())
+			}?.let { releasePeer(it) }
 		}
 	}
 
@@ -182,28 +263,32 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun disconnect(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "disconnect:${call}")
-		val peerId = call.argument<String>("peerId")
-		if (peerId != null) {
+		val peer = getPeer(call)
+		if (peer != null) {
 			synchronized(peers) {
-				peers.remove<String?, FlutterSkywayPeer>(peerId)?.release()
+				peers.remove(peer.peerId)
 			}
+			releasePeer(peer)
 		}
 		result.success("success")
 	}
 
 	/**
 	 * ローカル映像を取得開始
+	 * 描画先のCanvasがまだ生成されていなくてもよい(生成されたときに描画を開始する)
 	 * @param call
 	 * @param result
 	 */
 	private fun startLocalStream(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "startLocalStream:${call}")
-		val peerId = call.argument<String>("peerId")
 		val localVideoId = call.argument<Int>("localVideoId")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
 		if (peer != null && (localVideoId != null)) {
-			peer.startLocalStream(localVideoId)
-			result.success("success")
+			// カメラを開くのに時間がかかるのでメインスレッドをブロックしないようにワーカースレッド上で実行する
+			runOnSdkThread(peer, result, "Failed to start local stream") {
+				peer.startLocalStream(localVideoId)
+				"success"
+			}
 		} else {
 			result.error("Failed to start local stream", "Pls. check permission", "")
 		}
@@ -216,13 +301,15 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun startRemoteStream(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "startRemoteStream:${call}")
-		val peerId = call.argument<String>("peerId")
 		val remoteVideoId = call.argument<Int>("remoteVideoId")
-		val remotePeerId = call.argument<String>("remotePeerId")
-		val peer = getPeer(peerId)
+		val room = call.argument<String>("room")
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
 		if (peer != null && (remoteVideoId != null) && (remotePeerId != null)) {
-			peer.startRemoteStream(remoteVideoId, remotePeerId)
-			result.success("success")
+			runOnSdkThread(peer, result, "Failed to start remote stream") {
+				peer.startRemoteStream(remoteVideoId, remotePeerId, room)
+				"success"
+			}
 		} else {
 			result.error("Failed to start local stream", "Pls. check permission", "")
 		}
@@ -236,14 +323,19 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun listAllPeers(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "listAllPeers:${call}")
-		val peerId = call.argument<String>("peerId")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
 		if (peer != null) {
-			peer.listAllPeers(object: FlutterSkywayPeer.OnListAllPeersCallback {
-				override fun onListAllPeers(list: List<String>) {
-					result.success(list)
-				}
-			})
+			try {
+				peer.queueSdkTask(Runnable {
+					peer.listAllPeers(object: FlutterSkywayPeer.OnListAllPeersCallback {
+						override fun onListAllPeers(list: List<String>) {
+							runOnUiThread { result.success(list) }
+						}
+					})
+				})
+			} catch (e: RejectedExecutionException) {
+				result.success(arrayOf<String>())
+			}
 		} else {
 			result.success(arrayOf<String>())
 		}
@@ -256,11 +348,12 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun hangUp(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "call:${call}")
-		val peerId = call.argument<String>("peerId")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
 		if (peer != null) {
-			peer.hangUp()
-			result.success("success")
+			runOnSdkThread(peer, result, "Failed to hangUp") {
+				peer.hangUp()
+				"success"
+			}
 		} else {
 			result.error("Failed to hangUp", "Failed to hangUp", "")
 		}
@@ -273,12 +366,13 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun call(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "call:${call}")
-		val peerId = call.argument<String>("peerId")
-		val remotePeerId = call.argument<String>("remotePeerId")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
 		if (peer != null && (remotePeerId != null)) {
-			peer.startCall(remotePeerId)
-			result.success("success")
+			runOnSdkThread(peer, result, "Failed to call") {
+				peer.startCall(remotePeerId)
+				"success"
+			}
 		} else {
 			result.error("Failed to call", "Failed to call", "")
 		}
@@ -291,19 +385,22 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun join(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "join:${call}")
-		val peerId = call.argument<String>("peerId")
 		val room = call.argument<String>("room")
 		val mode = call.argument<Int>("mode")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
 		if ((peer != null) && (room != null) && (mode != null)) {
 			when (mode) {
 			RoomOption.RoomModeEnum.MESH.ordinal -> {
-				peer.join(room, RoomOption.RoomModeEnum.MESH)
-				result.success("success")
+				runOnSdkThread(peer, result, "Failed to join") {
+					peer.join(room, RoomOption.RoomModeEnum.MESH)
+					"success"
+				}
 			}
 			RoomOption.RoomModeEnum.SFU.ordinal -> {
-				peer.join(room, RoomOption.RoomModeEnum.SFU)
-				result.success("success")
+				runOnSdkThread(peer, result, "Failed to join") {
+					peer.join(room, RoomOption.RoomModeEnum.SFU)
+					"success"
+				}
 			}
 			else -> {
 				result.error("Invalid mode(${mode})", "Invalid mode(${mode})", "")
@@ -321,17 +418,72 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun leave(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "leave:${call}")
-		val peerId = call.argument<String>("peerId")
 		val room = call.argument<String>("room")
-		val peer = getPeer(peerId)
+		val peer = getPeer(call)
 		if ((peer != null) && (room != null)) {
-			peer.leave(room)
-			result.success("success")
+			runOnSdkThread(peer, result, "Failed to leave") {
+				peer.leave(room)
+				"success"
+			}
 		} else {
 			result.error("Failed to call", "Failed to call", "")
 		}
 	}
 
+	/**
+	 * 入室中のSFU/Meshのルームから別のルームへ切り替え
+	 * 切り替え先のルームがOPENしてから切り替え元のルームを閉じる
+	 * @param call
+	 * @param result
+	 */
+	private fun switchRoom(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "switchRoom:${call}")
+		val from = call.argument<String>("from")
+		val room = call.argument<String>("room")
+		val mode = when (call.argument<Int>("mode")) {
+			RoomOption.RoomModeEnum.MESH.ordinal -> RoomOption.RoomModeEnum.MESH
+			RoomOption.RoomModeEnum.SFU.ordinal -> RoomOption.RoomModeEnum.SFU
+			else -> null
+		}
+		val peer = getPeer(call)
+		if ((peer != null) && (room != null) && (mode != null)) {
+			runOnSdkThread(peer, result, "Failed to switch room") {
+				peer.switchRoom(from, room, mode)
+				"success"
+			}
+		} else {
+			result.error("Failed to switch room", "Failed to switch room", "")
+		}
+	}
+
+	/**
+	 * 入室中のSFU/Meshのルーム名一覧を取得
+	 * @param call
+	 * @param result
+	 */
+	private fun getRooms(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getRooms:${call}")
+		val peer = getPeer(call)
+		result.success(peer?.roomNames ?: listOf<String>())
+	}
+
+	/**
+	 * 入室中のSFU/Meshのルームのメンバーと受信中のリモート映像を取得
+	 * sinceVersion以降の変化分だけを返せないときは全体を返す
+	 * @param call
+	 * @param result
+	 */
+	private fun getRoomState(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getRoomState:${call}")
+		val sinceVersion = call.argument<Number>("sinceVersion")?.toLong() ?: -1L
+		val peer = getPeer(call)
+		if (peer != null) {
+			result.success(peer.getRoomState(sinceVersion))
+		} else {
+			result.error("Failed to get room state", "Failed to get room state", "")
+		}
+	}
+
 	/**
 	 * p2p接続での着呼要求を承認
 	 * @param call
@@ -339,8 +491,8 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun accept(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "accept:${call}")
-		val peerId = call.argument<String>("peerId")
-		val remotePeerId = call.argument<String>("remotePeerId")
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
 		// FIXME 未実装 削除するかも
 		result.success("success")
 	}
@@ -352,24 +504,479 @@ class MainActivity : FlutterActivity() {
 	 */
 	private fun reject(call: MethodCall, result: MethodChannel.Result) {
 		if (DEBUG) Log.v(TAG, "reject:${call}")
-		val peerId = call.argument<String>("peerId")
-		val remotePeerId = call.argument<String>("remotePeerId")
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
 		// FIXME 未実装 削除するかも
 		result.success("success")
 	}
 
 	/**
-	 * 指定したピアidに対応するFlutterSkywayPeerを取得する
-	 * @param peerId
+	 * Dart側へのイベント送信をまとめて行うかどうかを設定
+	 * @param call
+	 * @param result
 	 */
-	private fun getPeer(peerId: String?) : FlutterSkywayPeer? {
-		synchronized(peers) {
-			return peers[peerId]
+	private fun setEventBatching(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setEventBatching:${call}")
+		val intervalMs = call.argument<Int>("intervalMs")
+		val peer = getPeer(call)
+		if ((peer != null) && (intervalMs != null)) {
+			peer.setEventBatching(intervalMs)
+			result.success("success")
+		} else {
+			result.error("Failed to set event batching", "Failed to set event batching", "")
+		}
+	}
+
+	/**
+	 * Dart側との間でpeerIdの代わりに使うハンドルを取得
+	 * バイナリ形式のイベントを有効にする前にDart側がハンドルを知っておくために使う
+	 * @param call
+	 * @param result
+	 */
+	private fun getPeerHandle(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getPeerHandle:${call}")
+		val peer = getPeer(call)
+		if (peer != null) {
+			result.success(peer.peerHandle)
+		} else {
+			result.error("Failed to get peer handle", "Failed to get peer handle", "")
+		}
+	}
+
+	/**
+	 * Dart側へのイベントをバイナリ形式で送信するかどうかを設定
+	 * 結果としてバイナリ形式のイベントでpeerIdの代わりに使うハンドルを返す
+	 * @param call
+	 * @param result
+	 */
+	private fun setBinaryEvent(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setBinaryEvent:${call}")
+		val enable = call.argument<Boolean>("enable")
+		val peer = getPeer(call)
+		if ((peer != null) && (enable != null)) {
+			result.success(peer.setBinaryEvent(enable))
+		} else {
+			result.error("Failed to set binary event", "Failed to set binary event", "")
+		}
+	}
+
+	/**
+	 * Canvasプールのヒット/ミス回数等を取得
+	 * @param call
+	 * @param result
+	 */
+	private fun getCanvasPoolStats(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getCanvasPoolStats:${call}")
+		result.success(canvasFactory?.stats() ?: mapOf<String, Any>())
+	}
+
+	/**
+	 * PlatformViewの代わりにFlutterのTextureウイジェットで表示する映像の描画先を生成
+	 * 結果としてviewId(startLocalStream/startRemoteStream等で使う描画先のid)と
+	 * textureId(Textureウイジェットへ渡すid)を返す
+	 * @param call
+	 * @param result
+	 */
+	private fun createTextureView(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "createTextureView:${call}")
+		val width = call.argument<Int>("width") ?: 0
+		val height = call.argument<Int>("height") ?: 0
+		val view = canvasFactory?.createTexture(this, width, height)
+		if (view != null) {
+			result.success(mapOf("viewId" to view.viewId, "textureId" to view.textureId))
+		} else {
+			result.error("Failed to create texture view", "Texture rendering is not supported", "")
+		}
+	}
+
+	/**
+	 * createTextureViewで生成した描画先を破棄
+	 * @param call
+	 * @param result
+	 */
+	private fun disposeTextureView(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "disposeTextureView:${call}")
+		val viewId = call.argument<Int>("viewId")
+		result.success((viewId != null) && (canvasFactory?.disposeTexture(viewId) ?: false))
+	}
+
+	/**
+	 * 複数のリモート映像を1つのテクスチャへ合成して表示するモザイク表示を生成
+	 * 結果としてmosaicId(setMosaicLayout等で使うid)と
+	 * textureId(Textureウイジェットへ渡すid)を返す
+	 * @param call
+	 * @param result
+	 */
+	private fun createMosaicView(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "createMosaicView:${call}")
+		val width = call.argument<Int>("width") ?: 0
+		val height = call.argument<Int>("height") ?: 0
+		val mosaic = canvasFactory?.createMosaic(this, width, height)
+		if (mosaic != null) {
+			result.success(mapOf("mosaicId" to mosaic.mosaicId, "textureId" to mosaic.textureId))
+		} else {
+			result.error("Failed to create mosaic view", "Mosaic rendering is not supported", "")
+		}
+	}
+
+	/**
+	 * createMosaicViewで生成したモザイク表示を破棄
+	 * @param call
+	 * @param result
+	 */
+	private fun disposeMosaicView(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "disposeMosaicView:${call}")
+		val mosaicId = call.argument<Int>("mosaicId")
+		result.success((mosaicId != null) && (canvasFactory?.disposeMosaic(mosaicId) ?: false))
+	}
+
+	/**
+	 * モザイク表示のレイアウトとリモートピアの並び順を設定
+	 * 新しく並び順に含まれたリモートピアはタイルを生成して映像の取得を開始する
+	 * 結果としてリモートピアのidとタイルのviewIdを並び順の通りに返す
+	 * @param call
+	 * @param result
+	 */
+	private fun setMosaicLayout(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setMosaicLayout:${call}")
+		val mosaicId = call.argument<Int>("mosaicId")
+		val layout = call.argument<String>("layout") ?: MosaicLayout.GRID
+		val width = call.argument<Int>("width") ?: 0
+		val height = call.argument<Int>("height") ?: 0
+		val room = call.argument<String>("room")
+		val peer = getPeer(call)
+		val mosaic = if (mosaicId != null) canvasFactory?.findMosaic(mosaicId) else null
+		val remotePeerIds = call.argument<List<Any>>("remotePeerIds")?.mapNotNull {
+			peer?.resolveRemotePeerId(it)
+		}
+		if ((peer != null) && (mosaic != null) && (remotePeerIds != null)
+			&& MosaicLayout.isValid(layout)) {
+
+			val added = mosaic.setLayout(layout, remotePeerIds, width, height)
+			val tiles = mosaic.tileViewIds()
+			runOnSdkThread(peer, result, "Failed to set mosaic layout") {
+				for ((remotePeerId, viewId) in added) {
+					try {
+						peer.startRemoteStream(viewId, remotePeerId, room)
+					} catch (e: RuntimeException) {
+						// 既に退室したリモートピアや描画先スロットが一杯等, 他のタイルの映像の取得は続ける
+						Log.w(TAG, e)
+					}
+				}
+				tiles
+			}
+		} else {
+			result.error("Failed to set mosaic layout", "Invalid argument", "")
+		}
+	}
+
+	/**
+	 * モザイク表示の統計情報(タイルの数, 合成した回数等)を取得
+	 * @param call
+	 * @param result
+	 */
+	private fun getMosaicStats(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getMosaicStats:${call}")
+		val mosaicId = call.argument<Int>("mosaicId")
+		val mosaic = if (mosaicId != null) canvasFactory?.findMosaic(mosaicId) else null
+		if (mosaic != null) {
+			result.success(mosaic.stats())
+		} else {
+			result.error("Failed to get mosaic stats", "Invalid argument", "")
+		}
+	}
+
+	/**
+	 * リモート映像の描画先スロットを設定
+	 * 同時に描画するリモート映像の数がスロットの数までに制限される
+	 * @param call
+	 * @param result
+	 */
+	private fun setRenderSlots(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setRenderSlots:${call}")
+		val viewIds = call.argument<List<Int>>("viewIds")
+		val peer = getPeer(call)
+		if ((peer != null) && (viewIds != null)) {
+			runOnSdkThread(peer, result, "Failed to set render slots") {
+				peer.setRenderSlots(viewIds.toIntArray())
+				"success"
+			}
+		} else {
+			result.error("Failed to set render slots", "Failed to set render slots", "")
+		}
+	}
+
+	/**
+	 * リモート映像の描画優先度を設定
+	 * @param call
+	 * @param result
+	 */
+	private fun setRemotePriority(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setRemotePriority:${call}")
+		val priority = call.argument<Int>("priority") ?: 0
+		val pinned = call.argument<Boolean>("pinned") ?: false
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
+		if ((peer != null) && (remotePeerId != null)) {
+			runOnSdkThread(peer, result, "Failed to set remote priority") {
+				peer.setRemotePriority(remotePeerId, priority, pinned)
+				"success"
+			}
+		} else {
+			result.error("Failed to set remote priority", "Failed to set remote priority", "")
+		}
+	}
+
+	/**
+	 * リモートピアが発話したことを通知
+	 * @param call
+	 * @param result
+	 */
+	private fun notifySpeaking(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "notifySpeaking:${call}")
+		val peer = getPeer(call)
+		val remotePeerId = peer?.resolveRemotePeerId(call.argument<Any>("remotePeerId"))
+		if ((peer != null) && (remotePeerId != null)) {
+			runOnSdkThread(peer, result, "Failed to notify speaking") {
+				peer.notifySpeaking(remotePeerId)
+				"success"
+			}
+		} else {
+			result.error("Failed to notify speaking", "Failed to notify speaking", "")
+		}
+	}
+
+	/**
+	 * ローカル映像の取得設定(プリセット)を変更
+	 * 結果として適用した取得設定を返す
+	 * @param call
+	 * @param result
+	 */
+	private fun setCaptureProfile(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setCaptureProfile:${call}")
+		val profile = call.argument<String>("profile")
+		val camera = when (call.argument<String>("camera")) {
+			"front" -> MediaConstraints.CameraPositionEnum.FRONT
+			"back" -> MediaConstraints.CameraPositionEnum.BACK
+			else -> null
+		}
+		val adaptive = call.argument<Boolean>("adaptive") ?: false
+		val peer = getPeer(call)
+		if ((peer != null) && (profile != null)) {
+			runOnSdkThread(peer, result, "Failed to set capture profile") {
+				peer.setCaptureProfile(profile, camera, adaptive)
+			}
+		} else {
+			result.error("Failed to set capture profile", "Failed to set capture profile", "")
+		}
+	}
+
+	/**
+	 * ピア一覧のキャッシュ設定
+	 * @param call
+	 * @param result
+	 */
+	private fun setPeerDirectory(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setPeerDirectory:${call}")
+		val ttlMs = call.argument<Int>("ttlMs")
+		val refreshIntervalMs = call.argument<Int>("refreshIntervalMs") ?: 0
+		val peer = getPeer(call)
+		if ((peer != null) && (ttlMs != null)) {
+			peer.setPeerDirectory(ttlMs.toLong(), refreshIntervalMs.toLong())
+			result.success("success")
+		} else {
+			result.error("Failed to set peer directory", "Failed to set peer directory", "")
+		}
+	}
+
+	/**
+	 * 接続済みのPeerをあらかじめ用意しておくプールを設定
+	 * 次回以降のconnectではシグナリングサーバーとのハンドシェイクを待たずに接続できる
+	 * @param call
+	 * @param result
+	 */
+	private fun prewarmPeers(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "prewarmPeers:${call}")
+		val apiKey = call.argument<String>("apiKey")
+		val domain = call.argument<String>("domain") ?: "localhost"
+		val size = call.argument<Int>("size") ?: 1
+		val idleTimeoutMs = call.argument<Int>("idleTimeoutMs")?.toLong()
+			?: PeerPool.DEFAULT_IDLE_TIMEOUT_MS
+		if (apiKey != null) {
+			peerPool.configure(apiKey, domain, size, idleTimeoutMs)
+			result.success("success")
+		} else {
+			result.error("Invalid apiKey", "Invalid apiKey", "Invalid apiKey")
+		}
+	}
+
+	/**
+	 * 通話画面を開く前にローカル映像の取得(カメラのオープン)を開始する
+	 * 取得したローカル映像はプールしているPeerと組にして保持し、そのPeerでconnectしたときに使う
+	 * 有効期限(ttlMs)までにconnectしなければ破棄する
+	 * Navigatorは全てのピアで共有されるので接続中のピアがあるときは何もしない
+	 * 結果として取得を開始した(またはプールのPeerが用意できるのを待っている)かどうかを返す
+	 * @param call
+	 * @param result
+	 */
+	private fun prewarmLocalMedia(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "prewarmLocalMedia:${call}")
+		val profile = CaptureProfile.find(call.argument<String>("profile") ?: CaptureProfile.DEFAULT.name)
+		val ttlMs = call.argument<Int>("ttlMs")?.toLong() ?: LocalMediaWarmer.DEFAULT_TTL_MS
+		if (profile == null) {
+			result.error("Failed to prewarm local media", "Unknown capture profile", "")
+			return
+		}
+		val busy = synchronized(peers) { peers.isNotEmpty() }
+		if (!busy) {
+			mediaWarmer.prewarm(peerPool.peekReady(), profile, ttlMs)
+		}
+		result.success(!busy)
+	}
+
+	/**
+	 * Peerプールのヒット/ミス回数や短縮できたOPENまでの時間等を取得
+	 * @param call
+	 * @param result
+	 */
+	private fun getPeerPoolStats(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getPeerPoolStats:${call}")
+		result.success(peerPool.stats() + mapOf("localMedia" to mediaWarmer.stats()))
+	}
+
+	/**
+	 * イベント送信数やメソッドチャネルの処理時間等の計測値を取得
+	 * @param call
+	 * @param result
+	 */
+	private fun getMetrics(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getMetrics:${call}")
+		val snapshot = metrics.snapshot()
+		if (call.argument<Boolean>("reset") == true) {
+			metrics.reset()
+		}
+		result.success(snapshot)
+	}
+
+	/**
+	 * 計測値をOnMetricsイベントで定期的に送信する間隔を設定
+	 * @param call
+	 * @param result
+	 */
+	private fun setMetricsPush(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "setMetricsPush:${call}")
+		val intervalMs = call.argument<Int>("intervalMs") ?: 0
+		val peer = getPeer(call)
+		if (peer != null) {
+			peer.setMetricsInterval(intervalMs.toLong())
+			result.success("success")
+		} else {
+			result.error("Failed to set metrics push", "Failed to set metrics push", "")
+		}
+	}
+
+	/**
+	 * 通話開始までの各フェーズの所要時間をChrome trace event形式のJSON文字列で取得
+	 * peerIdを指定しなければ全てのピアの記録をまとめて返す
+	 * @param call
+	 * @param result
+	 */
+	private fun getCallTrace(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "getCallTrace:${call}")
+		val clear = call.argument<Boolean>("clear") ?: false
+		val tracers = if (call.argument<Any>("peerId") != null) {
+			listOfNotNull(getPeer(call)?.tracer)
+		} else {
+			synchronized(peers) {
+				peers.values.map { it.tracer }
+			}
+		}
+		result.success(CallTracer.toChromeTrace(tracers, clear))
+	}
+
+	/**
+	 * 複数のメソッド呼び出しを順番に実行して結果をまとめて返す
+	 * 各コマンドの結果を待ってから次のコマンドを実行する
+	 * 結果は各コマンドのmethod, status(success/error/notImplemented/skipped),
+	 * result(成功時), errorCode/errorMessage(エラー時)を持つMapのリスト
+	 * @param call
+	 * @param result
+	 */
+	private fun batch(call: MethodCall, result: MethodChannel.Result) {
+		if (DEBUG) Log.v(TAG, "batch:${call}")
+		val commands = call.argument<List<Map<String, Any?>>>("commands")
+		val stopOnError = call.argument<Boolean>("stopOnError") ?: true
+		if (commands != null) {
+			// 各コマンドの処理時間もonMethodCallで計測する
+			MethodBatch(commands, stopOnError, call.argument<String>("peerId"),
+				{ c, r -> onMethodCall(c, r) }, result).start()
+		} else {
+			result.error("Failed to batch", "Failed to batch", "")
+		}
+	}
+
+	/**
+	 * SDKの処理をピア毎のワーカースレッド上で実行して結果をメインスレッドで返す
+	 * @param peer
+	 * @param result
+	 * @param errorCode 例外が発生したときのエラーコード
+	 * @param task
+	 */
+	private fun runOnSdkThread(peer: FlutterSkywayPeer, result: MethodChannel.Result,
+		errorCode: String, task: () -> Any?) {
+
+		try {
+			peer.queueSdkTask(Runnable {
+				try {
+					val value = task()
+					runOnUiThread { result.success(value) }
+				} catch (e: Exception) {
+					Log.w(TAG, e)
+					runOnUiThread { result.error(errorCode, e.message, "") }
+				}
+			})
+		} catch (e: RejectedExecutionException) {
+			result.error(errorCode, "Already released", "")
+		}
+	}
+
+	/**
+	 * ピア毎のワーカースレッド上でFlutterSkywayPeerを破棄する
+	 * @param peer
+	 */
+	private fun releasePeer(peer: FlutterSkywayPeer) {
+		peerHandles.remove(peer.peerHandle, peer)
+		try {
+			peer.queueSdkTask(Runnable { peer.release() })
+		} catch (e: RejectedExecutionException) {
+			if (DEBUG) Log.v(TAG, "releasePeer:already released")
+		}
+	}
+
+	/**
+	 * メソッド呼び出しの引数peerIdに対応するFlutterSkywayPeerを取得する
+	 * peerIdはピアid(String)またはFlutterSkywayPeer#getPeerHandleのハンドル(Int)
+	 * @param call
+	 */
+	private fun getPeer(call: MethodCall) : FlutterSkywayPeer? {
+		val peerId = call.argument<Any>("peerId")
+		return if (peerId is Int) {
+			peerHandles.get(peerId)
+		} else if (peerId is String) {
+			synchronized(peers) {
+				peers[peerId]
+			}
+		} else {
+			null
 		}
 	}
 
 	companion object {
 		private const val DEBUG = true // set false on production
 		private val TAG = MainActivity::class.java.simpleName
+		/**
+		 * connectしたときに取得中のローカル映像の取得が終わるのを待つ最大時間
+		 */
+		private const val LOCAL_MEDIA_CLAIM_TIMEOUT_MS = 3000L
 	}
 }
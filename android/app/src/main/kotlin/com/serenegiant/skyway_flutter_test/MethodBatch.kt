@@ -0,0 +1,169 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.os.Handler
+import android.os.Looper
+import android.util.Log
+import io.flutter.plugin.common.MethodCall
+import io.flutter.plugin.common.MethodChannel
+
+/**
+ * Dart側からまとめて受け取った複数のメソッド呼び出し(コマンド)を順番に実行して
+ * 全ての結果を1回の応答で返すためのクラス
+ * 各コマンドの結果(SDKのワーカースレッドを経由して非同期で返るものも含む)を待ってから次のコマンドを実行する
+ * コマンドの引数にpeerIdが無ければバッチのpeerId(途中でconnectが成功したときはその結果)を補う
+ * startはメインスレッド上で呼び出すこと
+ * @param commands 各要素はmethod(メソッド名)とargs(引数のMap)を持つMap
+ * @param stopOnError trueならエラーになったコマンド以降を実行しない(結果はskipped)
+ * @param peerId コマンドの引数にpeerIdが無いときに使うピアid
+ * @param dispatch 1つのコマンドを実行する関数
+ * @param result 全てのコマンドの結果を返すためのResult
+ */
+class MethodBatch(
+	private val commands: List<Map<String, Any?>>,
+	private val stopOnError: Boolean,
+	private var peerId: String?,
+	private val dispatch: (MethodCall, MethodChannel.Result) -> Unit,
+	private val result: MethodChannel.Result) {
+
+	private val mHandler = Handler(Looper.getMainLooper())
+	private val mResults = ArrayList<Map<String, Any?>>(commands.size)
+	private var mIndex = 0
+	private var mStopped = false
+	/**
+	 * runNextのループ内でコマンドを実行中かどうか
+	 * 結果が同期的に返ったときは再帰呼び出しせずにループで次のコマンドを実行する
+	 */
+	private var mRunning = false
+
+	/**
+	 * 先頭のコマンドから実行を開始する
+	 */
+	fun start() {
+		if (DEBUG) Log.v(TAG, "start:${commands.size} commands,stopOnError=$stopOnError")
+		runNext()
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * 結果を待っていないコマンドを順番に実行する
+	 * 結果が非同期で返るコマンドを実行したときはそこで中断してonCompleteから再開する
+	 */
+	private fun runNext() {
+		mRunning = true
+		while (mIndex < commands.size) {
+			val index = mIndex
+			val command = commands[index]
+			val method = command["method"] as? String
+			if (mStopped) {
+				complete(index, method, STATUS_SKIPPED, null, null)
+				continue
+			}
+			if (method == null) {
+				complete(index, null, STATUS_ERROR, "Invalid command", "method is missing")
+			} else if (method == METHOD_BATCH) {
+				complete(index, method, STATUS_ERROR, "Invalid command", "Nested batch is not supported")
+			} else {
+				val args = HashMap<String, Any?>()
+				(command["args"] as? Map<*, *>)?.forEach { (k, v) -> args[k.toString()] = v }
+				if ((peerId != null) && !args.containsKey("peerId")) {
+					args["peerId"] = peerId
+				}
+				try {
+					dispatch(MethodCall(method, args), CommandResult(index, method))
+				} catch (e: Exception) {
+					Log.w(TAG, e)
+					onComplete(index, method, STATUS_ERROR, e.javaClass.simpleName, e.message)
+				}
+			}
+			if (mIndex == index) {
+				// 結果が非同期で返るのを待つ
+				mRunning = false
+				return
+			}
+		}
+		mRunning = false
+		if (DEBUG) Log.v(TAG, "finished:")
+		result.success(mResults)
+	}
+
+	/**
+	 * コマンドの結果を受け取ったときの処理
+	 * メインスレッド以外から呼ばれたときはメインスレッドへ移して処理する
+	 */
+	private fun onComplete(index: Int, method: String?, status: String, value: Any?, details: Any?) {
+		if (Looper.myLooper() != Looper.getMainLooper()) {
+			mHandler.post { onComplete(index, method, status, value, details) }
+			return
+		}
+		if (index != mIndex) {
+			// 2重に結果が返ってきたときは無視する
+			Log.w(TAG, "onComplete:unexpected result for #$index,$method")
+			return
+		}
+		complete(index, method, status, value, details)
+		if (!mRunning) {
+			runNext()
+		}
+	}
+
+	/**
+	 * コマンドの結果を記録して次のコマンドへ進む
+	 * @param value 成功時は結果, エラー時はエラーコード
+	 * @param details エラー時のメッセージ
+	 */
+	private fun complete(index: Int, method: String?, status: String, value: Any?, details: Any?) {
+		val entry = HashMap<String, Any?>()
+		entry["method"] = method
+		entry["status"] = status
+		when (status) {
+		STATUS_SUCCESS -> {
+			entry["result"] = value
+			if ((method == METHOD_CONNECT) && (value is String)) {
+				// 以降のコマンドでは接続したピアを使う
+				peerId = value
+			}
+		}
+		STATUS_ERROR -> {
+			entry["errorCode"] = value
+			entry["errorMessage"] = details
+			mStopped = stopOnError
+		}
+		STATUS_NOT_IMPLEMENTED -> {
+			mStopped = stopOnError
+		}
+		}
+		if (DEBUG) Log.v(TAG, "complete:#$index,$method,$status")
+		mResults.add(entry)
+		mIndex = index + 1
+	}
+
+	/**
+	 * 1つのコマンドの結果を受け取るためのResult
+	 */
+	private inner class CommandResult(private val index: Int, private val method: String) : MethodChannel.Result {
+		override fun success(value: Any?) {
+			onComplete(index, method, STATUS_SUCCESS, value, null)
+		}
+
+		override fun error(errorCode: String?, errorMessage: String?, errorDetails: Any?) {
+			onComplete(index, method, STATUS_ERROR, errorCode, errorMessage)
+		}
+
+		override fun notImplemented() {
+			onComplete(index, method, STATUS_NOT_IMPLEMENTED, null, null)
+		}
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = MethodBatch::class.java.simpleName
+
+		const val METHOD_BATCH = "batch"
+		private const val METHOD_CONNECT = "connect"
+
+		const val STATUS_SUCCESS = "success"
+		const val STATUS_ERROR = "error"
+		const val STATUS_NOT_IMPLEMENTED = "notImplemented"
+		const val STATUS_SKIPPED = "skipped"
+	}
+}
@@ -0,0 +1,41 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.util.Log
+import io.flutter.plugin.common.MethodCall
+import io.flutter.plugin.common.MethodChannel
+
+/**
+ * Dart側からのメソッド呼び出しをメソッド名毎のハンドラーへ振り分けるためのクラス
+ * メソッド呼び出し毎に文字列を比較しないようにあらかじめ生成したディスパッチテーブルを使う
+ * 各メソッドの処理時間はSkywayMetricsへ記録する
+ * (Android/Flutterのフレームワークに依存しないのでベンチマークからも使う)
+ * @param handlers メソッド名とハンドラーのディスパッチテーブル
+ * @param metrics 処理時間の記録先
+ */
+class MethodDispatcher(
+	private val handlers: Map<String, (MethodCall, MethodChannel.Result) -> Unit>,
+	private val metrics: SkywayMetrics) {
+
+	/**
+	 * メソッド名に対応するハンドラーを探して呼び出す
+	 * 対応するハンドラーが無ければnotImplementedを返す
+	 * @param call
+	 * @param result
+	 */
+	fun onMethodCall(call: MethodCall, result: MethodChannel.Result) {
+		val startNs = System.nanoTime()
+		val handler = handlers[call.method]
+		if (handler != null) {
+			handler(call, result)
+		} else {
+			Log.w(TAG, "unknown method call${call}")
+			result.notImplemented()
+		}
+		// FIXME Dart側からのsetter/getter呼び出しを実装する
+		metrics.recordMethod(call.method, System.nanoTime() - startNs)
+	}
+
+	companion object {
+		private val TAG = MethodDispatcher::class.java.simpleName
+	}
+}
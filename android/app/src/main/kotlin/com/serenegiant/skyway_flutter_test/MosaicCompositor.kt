@@ -0,0 +1,406 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.graphics.SurfaceTexture
+import android.opengl.GLES20
+import android.os.Handler
+import android.os.HandlerThread
+import android.util.Log
+import android.view.Choreographer
+import android.view.Surface
+import io.skyway.Peer.Browser.Canvas
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * 複数のCanvas(リモート映像)を1つのFlutterのテクスチャ(SurfaceTexture)へ合成するためのクラス
+ * 各Canvasの描画先はタイル毎のSurfaceTextureへ切り替えて、いずれかのタイルへ新しいフレームが
+ * 届いたときに次のVSYNCで全タイルを1回だけ合成して転送する
+ * (リモート映像毎に必要だったSurfaceと合成処理がN個から1個になる)
+ * タイル毎のFrameRateLimiterで間引いたフレームは合成のきっかけにしない
+ * (他のタイルのフレームで合成するときはそのタイルの最新のフレームを描画する)
+ * OpenGL|ESの処理は専用スレッド上で行う
+ * 生成に失敗したときはIllegalStateExceptionを投げる
+ * @param output 転送先(FlutterのTextureRegistryへ登録したSurfaceTexture)
+ * @param width 転送先のサイズ
+ * @param height 転送先のサイズ
+ */
+class MosaicCompositor(
+	private val output: SurfaceTexture,
+	width: Int, height: Int) {
+
+	/**
+	 * タイルの入力(Canvasが描画した映像を受け取るテクスチャとSurfaceTexture)
+	 * MosaicCompositor#createInputsでまとめて生成してcreateTileへ渡す
+	 */
+	class TileInput internal constructor(
+		internal val texId: Int,
+		internal val surfaceTexture: SurfaceTexture)
+
+	/**
+	 * 1つのCanvasの描画先
+	 * MosaicCompositor#createTileで生成してFlutterSkywayCanvasの描画先として使う
+	 * 生成時に渡したTileInputはこのタイルを破棄するときに破棄する
+	 */
+	inner class Tile internal constructor(
+		canvas: Canvas, width: Int, height: Int,
+		private val limiter: FrameRateLimiter,
+		tileInput: TileInput)
+		: FlutterSkywayCanvas.RenderTarget, SurfaceTexture.OnFrameAvailableListener {
+
+		private val holder = CanvasSurfaceHolder(canvas)
+		private var inputSurface: Surface? = null
+		// 以下はGLスレッド上でのみアクセスする(生成時の代入はhandler.postより前なので問題ない)
+		private val texMatrix = FloatArray(16)
+		private var input: SurfaceTexture? = tileInput.surfaceTexture
+		private var texId = tileInput.texId
+		private var hasFrame = false
+		/**
+		 * 転送先での描画位置(左上原点), サイズが0なら描画しない
+		 */
+		private var x = 0
+		private var y = 0
+		private var tileWidth = 0
+		private var tileHeight = 0
+
+		init {
+			// GLスレッドとの待ち合わせはcreateInputsで済ませているのでここではGLスレッドを待たない
+			val st = tileInput.surfaceTexture
+			st.setDefaultBufferSize(width, height)
+			if (holder.isSupported) {
+				st.setOnFrameAvailableListener(this, handler)
+				val surface = Surface(st)
+				if (holder.attach(surface, width, height)) {
+					inputSurface = surface
+					handler.post {
+						if (!released) {
+							tiles.add(this)
+						} else {
+							releaseLocked()
+						}
+					}
+				} else {
+					Log.w(TAG, "Canvas did not use the surface, tile is not available")
+					holder.detach()
+					st.setOnFrameAvailableListener(null)
+					surface.release()
+				}
+			}
+		}
+
+		override val isSupported: Boolean
+			get() = inputSurface != null
+
+		/**
+		 * Canvasが描画するサイズを変更する
+		 * (転送先での描画位置/サイズはsetTileRectで指定する)
+		 */
+		override fun resize(width: Int, height: Int) {
+			if ((inputSurface != null) && (width > 0) && (height > 0)) {
+				runOnGLThread {
+					input?.setDefaultBufferSize(width, height)
+				}
+				holder.resize(width, height)
+			}
+		}
+
+		override fun release() {
+			holder.detach()
+			runOnGLThread {
+				releaseLocked()
+				requestRender()
+			}
+			inputSurface?.release()
+			inputSurface = null
+		}
+
+		/**
+		 * Canvasが描画したときの処理, GLスレッド上で呼ばれる
+		 */
+		override fun onFrameAvailable(surfaceTexture: SurfaceTexture) {
+			if (input == null) {
+				return
+			}
+			// 間引くときも次のフレームを受け取れるように読み捨てる必要がある
+			surfaceTexture.updateTexImage()
+			surfaceTexture.getTransformMatrix(texMatrix)
+			hasFrame = true
+			if (limiter.onFrame(System.nanoTime())) {
+				requestRender()
+			}
+		}
+
+		/**
+		 * 転送先での描画位置を設定する, GLスレッド上で呼ぶこと
+		 */
+		internal fun setRect(x: Int, y: Int, width: Int, height: Int) {
+			this.x = x
+			this.y = y
+			this.tileWidth = width
+			this.tileHeight = height
+		}
+
+		/**
+		 * 転送先へ描画する, GLスレッド上で呼ぶこと
+		 */
+		internal fun draw(drawer: OesTextureDrawer, outputHeight: Int) {
+			if (hasFrame && (tileWidth > 0) && (tileHeight > 0)) {
+				// OpenGL|ESのビューポートは左下原点
+				GLES20.glViewport(x, outputHeight - y - tileHeight, tileWidth, tileHeight)
+				drawer.draw(texId, texMatrix)
+			}
+		}
+
+		/**
+		 * GLスレッド上で呼ぶこと
+		 */
+		internal fun releaseLocked() {
+			tiles.remove(this)
+			input?.let {
+				it.setOnFrameAvailableListener(null)
+				it.release()
+			}
+			input = null
+			if (texId != 0) {
+				OesTextureDrawer.deleteTexture(texId)
+				texId = 0
+			}
+		}
+	}
+
+	private val thread = HandlerThread(TAG).apply { start() }
+	private val handler = Handler(thread.looper)
+	// 以下はGLスレッド上でのみアクセスする
+	private val tiles = mutableListOf<Tile>()
+	private var core: EglCore? = null
+	private var window: EglWindow? = null
+	private var drawer: OesTextureDrawer? = null
+	private var choreographer: Choreographer? = null
+	private var width = width
+	private var height = height
+	private var renderRequested = false
+	private var released = false
+	/**
+	 * 合成した回数
+	 */
+	@Volatile
+	var compositedFrames = 0L
+		private set
+
+	private val mFrameCallback = Choreographer.FrameCallback {
+		composite()
+	}
+
+	init {
+		if (DEBUG) Log.v(TAG, "ctor:${width}x${height}")
+		var initialized = false
+		runOnGLThread {
+			try {
+				val eglCore = EglCore()
+				core = eglCore
+				window = EglWindow(eglCore, output, this.width, this.height)
+				drawer = OesTextureDrawer()
+				choreographer = Choreographer.getInstance()
+				initialized = true
+			} catch (e: RuntimeException) {
+				Log.w(TAG, e)
+				releaseLocked()
+			}
+		}
+		if (!initialized) {
+			thread.quit()
+			throw IllegalStateException("failed to initialize EGL")
+		}
+	}
+
+	/**
+	 * createTileへ渡すタイルの入力をまとめて生成する
+	 * タイル毎にGLスレッドと待ち合わせしないように1回のGLスレッドへの切り替えで生成する
+	 * createTileへ渡さなかった入力はreleaseInputsで破棄すること
+	 * メインスレッド上で呼ぶこと
+	 * @param count
+	 * @return 生成した入力, 破棄済みまたはタイムアウトしたときはcountより少ない
+	 */
+	fun createInputs(count: Int): MutableList<TileInput> {
+		val result = mutableListOf<TileInput>()
+		if (count <= 0) {
+			return result
+		}
+		var created: List<TileInput>? = null
+		runOnGLThread {
+			if (!released) {
+				created = List(count) {
+					val texId = OesTextureDrawer.createOesTexture()
+					TileInput(texId, SurfaceTexture(texId))
+				}
+			}
+		}
+		created?.let { result.addAll(it) }
+		return result
+	}
+
+	/**
+	 * createTileへ渡さなかったタイルの入力を破棄する
+	 * GLスレッド上での破棄は待たない
+	 * @param inputs
+	 */
+	fun releaseInputs(inputs: Collection<TileInput>) {
+		if (inputs.isEmpty()) {
+			return
+		}
+		val list = inputs.toList()
+		val posted = handler.post {
+			for (input in list) {
+				input.surfaceTexture.release()
+				OesTextureDrawer.deleteTexture(input.texId)
+			}
+		}
+		if (!posted) {
+			// GLスレッドが終了していればテクスチャはコンテキストと一緒に破棄されている
+			for (input in list) {
+				input.surfaceTexture.release()
+			}
+		}
+	}
+
+	/**
+	 * Canvasの描画先となるタイルを生成する
+	 * Canvasがビュー階層外への描画に対応していなければTile#isSupportedがfalseになる
+	 * メインスレッド上で呼ぶこと
+	 * @param canvas
+	 * @param width Canvasが描画するサイズ
+	 * @param height Canvasが描画するサイズ
+	 * @param limiter
+	 * @param input createInputsで生成した入力, タイルを破棄するときに一緒に破棄する
+	 */
+	fun createTile(canvas: Canvas, width: Int, height: Int,
+		limiter: FrameRateLimiter, input: TileInput): Tile {
+
+		return Tile(canvas,
+			if (width > 0) width else CanvasTextureBridge.DEFAULT_WIDTH,
+			if (height > 0) height else CanvasTextureBridge.DEFAULT_HEIGHT,
+			limiter, input)
+	}
+
+	/**
+	 * 転送先でのタイルの描画位置(左上原点)を設定する
+	 * @param tile
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	fun setTileRect(tile: Tile, x: Int, y: Int, width: Int, height: Int) {
+		handler.post {
+			tile.setRect(x, y, width, height)
+			requestRender()
+		}
+	}
+
+	/**
+	 * 転送先のサイズを変更する
+	 * @param width
+	 * @param height
+	 */
+	fun resize(width: Int, height: Int) {
+		if (DEBUG) Log.v(TAG, "resize:${width}x${height}")
+		runOnGLThread {
+			if (!released) {
+				this.width = width
+				this.height = height
+				window?.resize(width, height)
+				requestRender()
+			}
+		}
+	}
+
+	/**
+	 * 破棄する, 転送先を破棄する前に呼び出すこと
+	 * タイルは先に破棄しておくこと(残っていればここで描画を止める)
+	 */
+	fun release() {
+		if (DEBUG) Log.v(TAG, "release:")
+		runOnGLThread {
+			releaseLocked()
+		}
+		thread.quitSafely()
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * GLスレッド上で実行して終了するまで待つ
+	 * 既にGLスレッドが終了していれば何もしない
+	 */
+	private fun runOnGLThread(task: () -> Unit) {
+		val latch = CountDownLatch(1)
+		val posted = handler.post {
+			try {
+				task()
+			} finally {
+				latch.countDown()
+			}
+		}
+		if (posted && !latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			Log.w(TAG, "runOnGLThread:timeout")
+		}
+	}
+
+	/**
+	 * 次のVSYNCで合成する, GLスレッド上で呼ぶこと
+	 * 同じVSYNCまでに複数のタイルへフレームが届いても合成は1回だけ行う
+	 */
+	private fun requestRender() {
+		if (!released && !renderRequested) {
+			renderRequested = true
+			choreographer?.postFrameCallback(mFrameCallback)
+		}
+	}
+
+	/**
+	 * 全タイルを転送先へ合成する, GLスレッド上で呼ばれる
+	 */
+	private fun composite() {
+		renderRequested = false
+		val drawer = drawer ?: return
+		if (released) {
+			return
+		}
+		GLES20.glViewport(0, 0, width, height)
+		GLES20.glClearColor(0f, 0f, 0f, 1f)
+		GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT)
+		for (tile in tiles) {
+			tile.draw(drawer, height)
+		}
+		window?.swap()
+		compositedFrames++
+	}
+
+	/**
+	 * GLスレッド上で呼ぶこと
+	 */
+	private fun releaseLocked() {
+		if (released) {
+			return
+		}
+		released = true
+		choreographer?.removeFrameCallback(mFrameCallback)
+		choreographer = null
+		for (tile in tiles.toList()) {
+			tile.releaseLocked()
+		}
+		drawer?.release()
+		drawer = null
+		window?.release()
+		window = null
+		core?.release()
+		core = null
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = MosaicCompositor::class.java.simpleName
+		/**
+		 * GLスレッド上での初期化/後始末を待つ最大時間
+		 */
+		private const val TIMEOUT_MS = 1000L
+	}
+}
@@ -0,0 +1,95 @@
+package com.serenegiant.skyway_flutter_test;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * モザイク表示で各リモート映像を描画する位置(タイル)を計算するためのクラス
+ * 座標は左上原点で, 映像を縮小して描画するので位置/サイズは偶数に揃える
+ */
+class MosaicLayout {
+	/**
+	 * レイアウト: 全員を同じ大きさで格子状に並べる
+	 */
+	public static final String GRID = "grid";
+	/**
+	 * レイアウト: 先頭のリモート映像を上側に大きく表示して残りを下側に帯状に並べる
+	 */
+	public static final String SPEAKER = "speaker";
+
+	/**
+	 * SPEAKERのときに下側の帯に横に並べる最大数, 超えたときは帯を複数行にする
+	 */
+	private static final int STRIP_MAX_COLUMNS = 4;
+	/**
+	 * SPEAKERのときの下側の帯の高さの割合(1/STRIP_RATIO)
+	 */
+	private static final int STRIP_RATIO = 4;
+
+	/**
+	 * 指定したレイアウト名が有効かどうか
+	 * @param layout
+	 * @return
+	 */
+	public static boolean isValid(@Nullable final String layout) {
+		return GRID.equals(layout) || SPEAKER.equals(layout);
+	}
+
+	/**
+	 * 各タイルの位置とサイズを計算する
+	 * @param layout GRIDまたはSPEAKER
+	 * @param n タイルの数
+	 * @param width 描画先全体のサイズ
+	 * @param height 描画先全体のサイズ
+	 * @return タイル毎の{x, y, width, height}をn個並べた配列
+	 */
+	@NonNull
+	public static int[] compute(@NonNull final String layout,
+		final int n, final int width, final int height) {
+
+		final int[] result = new int[n * 4];
+		if (n <= 0) {
+			return result;
+		}
+		if (SPEAKER.equals(layout) && (n > 1)) {
+			final int rows = (n - 1 + STRIP_MAX_COLUMNS - 1) / STRIP_MAX_COLUMNS;
+			final int stripHeight = even(height / STRIP_RATIO);
+			final int mainHeight = height - stripHeight;
+			set(result, 0, 0, 0, width, mainHeight);
+			grid(result, 1, n - 1, Math.min(n - 1, STRIP_MAX_COLUMNS), rows,
+				0, mainHeight, width, stripHeight);
+		} else {
+			final int cols = (int)Math.ceil(Math.sqrt(n));
+			final int rows = (n + cols - 1) / cols;
+			grid(result, 0, n, cols, rows, 0, 0, width, height);
+		}
+		return result;
+	}
+
+	/**
+	 * 指定した範囲へタイルを格子状に並べる
+	 */
+	private static void grid(@NonNull final int[] result,
+		final int offset, final int n, final int cols, final int rows,
+		final int x, final int y, final int width, final int height) {
+
+		final int w = even(width / cols);
+		final int h = even(height / rows);
+		for (int i = 0; i < n; i++) {
+			set(result, offset + i, x + (i % cols) * w, y + (i / cols) * h, w, h);
+		}
+	}
+
+	private static void set(@NonNull final int[] result, final int ix,
+		final int x, final int y, final int width, final int height) {
+
+		result[ix * 4] = x;
+		result[ix * 4 + 1] = y;
+		result[ix * 4 + 2] = width;
+		result[ix * 4 + 3] = height;
+	}
+
+	private static int even(final int value) {
+		return Math.max(2, value & ~1);
+	}
+}
@@ -0,0 +1,322 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 同じSkywayのアプリケーションに接続しているピア一覧のキャッシュ
+ * 有効期限内はシグナリングサーバーへ問い合わせずにキャッシュを返す
+ * 問い合わせ中に要求された場合は新たに問い合わせずに同じ結果を返す(single-flight)
+ * 一覧が変化したときは前回との差分(追加/削除されたピアID)をListenerへ通知する
+ * 問い合わせ結果が届かないまま期限を過ぎたりピア接続が切断されたときは
+ * 問い合わせ中の状態を解除して待っているコールバックへ失敗時と同じ結果を返す
+ */
+class PeerDirectory {
+	private static final boolean DEBUG = false;	// set false on production
+	private static final String TAG = PeerDirectory.class.getSimpleName();
+
+	/**
+	 * デフォルトのキャッシュの有効期限[ミリ秒]
+	 */
+	public static final long DEFAULT_TTL_MS = 5000;
+	/**
+	 * 問い合わせ結果を待つ最大時間[ミリ秒]
+	 */
+	public static final long FETCH_TIMEOUT_MS = 10000;
+
+	/**
+	 * ピア一覧を実際に問い合わせるためのインターフェース
+	 */
+	public interface Fetcher {
+		/**
+		 * 問い合わせを開始する, 結果はPeerDirectory#onFetchedで返すこと
+		 */
+		public void fetch();
+	}
+
+	/**
+	 * ピア一覧の差分を受け取るためのインターフェース
+	 */
+	public interface Listener {
+		public void onChanged(@NonNull final List<String> added,
+			@NonNull final List<String> removed);
+	}
+
+	@NonNull
+	private final Object mSync = new Object();
+	@NonNull
+	private final String mOwnPeerId;
+	@NonNull
+	private final Fetcher mFetcher;
+	/**
+	 * 問い合わせの期限の計測用, nullなら期限を設けない
+	 */
+	@Nullable
+	private final Handler mHandler;
+	@Nullable
+	private Listener mListener;
+	/**
+	 * 問い合わせ結果を待っているコールバック
+	 */
+	@NonNull
+	private final List<FlutterSkywayPeer.OnListAllPeersCallback> mWaiting = new ArrayList<>();
+	/**
+	 * キャッシュしているピア一覧(変更不可)
+	 */
+	@Nullable
+	private List<String> mPeers;
+	/**
+	 * 最後にListenerへ通知した時点のピア一覧(差分計算用)
+	 */
+	@NonNull
+	private List<String> mNotified = Collections.emptyList();
+	private long mFetchedAtMs;
+	private long mTtlMs = DEFAULT_TTL_MS;
+	private boolean mInFlight;
+
+	/**
+	 * 問い合わせの期限を過ぎたときの処理
+	 */
+	private final Runnable mTimeoutTask = new Runnable() {
+		@Override
+		public void run() {
+			Log.w(TAG, "fetch timeout");
+			abort();
+		}
+	};
+
+	/**
+	 * コンストラクタ
+	 * 問い合わせの期限を設けない
+	 * @param ownPeerId 自分自身のピアID(一覧から除外する)
+	 * @param fetcher
+	 */
+	public PeerDirectory(@NonNull final String ownPeerId, @NonNull final Fetcher fetcher) {
+		this(ownPeerId, fetcher, null);
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param ownPeerId 自分自身のピアID(一覧から除外する)
+	 * @param fetcher
+	 * @param handler 問い合わせの期限(FETCH_TIMEOUT_MS)の計測用, nullなら期限を設けない
+	 */
+	public PeerDirectory(@NonNull final String ownPeerId, @NonNull final Fetcher fetcher,
+		@Nullable final Handler handler) {
+
+		mOwnPeerId = ownPeerId;
+		mFetcher = fetcher;
+		mHandler = handler;
+	}
+
+	/**
+	 * キャッシュの有効期限を設定する
+	 * @param ttlMs 0以下ならキャッシュしない(問い合わせ中の要求はまとめる)
+	 */
+	public void setTtl(final long ttlMs) {
+		synchronized (mSync) {
+			mTtlMs = ttlMs;
+		}
+	}
+
+	/**
+	 * 一覧の差分を受け取るListenerを設定する
+	 * 設定後の最初の通知では全てのピアを追加されたピアとして通知する
+	 * @param listener nullなら差分を通知しない
+	 */
+	public void setListener(@Nullable final Listener listener) {
+		synchronized (mSync) {
+			mListener = listener;
+			mNotified = Collections.emptyList();
+		}
+	}
+
+	/**
+	 * ピア一覧を取得する
+	 * キャッシュが有効期限内ならそのまま返し、そうでなければ問い合わせる
+	 * @param callback
+	 */
+	public void get(@NonNull final FlutterSkywayPeer.OnListAllPeersCallback callback) {
+		final List<String> cached;
+		synchronized (mSync) {
+			cached = isFresh() ? mPeers : null;
+			if (cached == null) {
+				mWaiting.add(callback);
+			}
+		}
+		if (cached != null) {
+			if (DEBUG) Log.v(TAG, "get:hit");
+			callback.onListAllPeers(cached);
+		} else {
+			refresh();
+		}
+	}
+
+	/**
+	 * キャッシュの有効期限に関係なく問い合わせる
+	 * 既に問い合わせ中であれば何もしない
+	 */
+	public void refresh() {
+		synchronized (mSync) {
+			if (mInFlight) {
+				return;
+			}
+			mInFlight = true;
+		}
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mTimeoutTask);
+			mHandler.postDelayed(mTimeoutTask, FETCH_TIMEOUT_MS);
+		}
+		try {
+			mFetcher.fetch();
+		} catch (final RuntimeException e) {
+			Log.w(TAG, e);
+			onFetched(null);
+		}
+	}
+
+	/**
+	 * 問い合わせ結果を受け取ったときの処理
+	 * @param result 問い合わせに失敗したときはnull
+	 */
+	public void onFetched(@Nullable final JSONArray result) {
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mTimeoutTask);
+		}
+		final List<String> peers = result != null ? parse(result) : null;
+		final List<FlutterSkywayPeer.OnListAllPeersCallback> waiting;
+		final List<String> prev;
+		final List<String> notify;
+		final Listener listener;
+		synchronized (mSync) {
+			mInFlight = false;
+			if (peers != null) {
+				mPeers = peers;
+				mFetchedAtMs = SystemClock.elapsedRealtime();
+			}
+			notify = mPeers != null ? mPeers : Collections.<String>emptyList();
+			listener = peers != null ? mListener : null;
+			prev = mNotified;
+			if (listener != null) {
+				mNotified = peers;
+			}
+			waiting = new ArrayList<>(mWaiting);
+			mWaiting.clear();
+		}
+		for (final FlutterSkywayPeer.OnListAllPeersCallback callback: waiting) {
+			callback.onListAllPeers(notify);
+		}
+		if (listener != null) {
+			notifyDelta(listener, prev, peers);
+		}
+	}
+
+	/**
+	 * 問い合わせ中であれば結果を待たずに問い合わせに失敗したものとして扱う
+	 * 待っているコールバックにはキャッシュしている一覧(無ければ空の一覧)を返す
+	 * 後から結果が届いたときはキャッシュを更新する
+	 */
+	public void abort() {
+		synchronized (mSync) {
+			if (!mInFlight) {
+				return;
+			}
+		}
+		if (DEBUG) Log.v(TAG, "abort:");
+		onFetched(null);
+	}
+
+	/**
+	 * キャッシュを破棄する
+	 * 問い合わせ結果を待っているコールバックには空の一覧を返す
+	 */
+	public void clear() {
+		if (mHandler != null) {
+			mHandler.removeCallbacks(mTimeoutTask);
+		}
+		final List<FlutterSkywayPeer.OnListAllPeersCallback> waiting;
+		synchronized (mSync) {
+			mInFlight = false;
+			mPeers = null;
+			mListener = null;
+			mNotified = Collections.emptyList();
+			waiting = new ArrayList<>(mWaiting);
+			mWaiting.clear();
+		}
+		for (final FlutterSkywayPeer.OnListAllPeersCallback callback: waiting) {
+			callback.onListAllPeers(Collections.<String>emptyList());
+		}
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * mSyncをロックした状態で呼び出すこと
+	 * @return
+	 */
+	private boolean isFresh() {
+		return (mPeers != null) && (mTtlMs > 0)
+			&& (SystemClock.elapsedRealtime() - mFetchedAtMs < mTtlMs);
+	}
+
+	/**
+	 * 問い合わせ結果を変更不可のリストへ変換する, 自分自身は除外する
+	 * @param peers
+	 * @return
+	 */
+	@NonNull
+	private List<String> parse(@NonNull final JSONArray peers) {
+		final List<String> result = new ArrayList<>(peers.length());
+		for (int i = 0; peers.length() > i; i++) {
+			try {
+				final String peerId = peers.getString(i);
+				if (!mOwnPeerId.equals(peerId)) {
+					result.add(peerId);
+				}
+			} catch (final Exception e) {
+				Log.w(TAG, e);
+			}
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * 前回の一覧との差分があればListenerへ通知する
+	 * @param listener
+	 * @param prev
+	 * @param peers
+	 */
+	private static void notifyDelta(@NonNull final Listener listener,
+		@NonNull final List<String> prev, @NonNull final List<String> peers) {
+
+		final Set<String> prevSet = new HashSet<>(prev);
+		final Set<String> currentSet = new HashSet<>(peers);
+		final List<String> added = new ArrayList<>();
+		final List<String> removed = new ArrayList<>();
+		for (final String peerId: peers) {
+			if (!prevSet.contains(peerId)) {
+				added.add(peerId);
+			}
+		}
+		for (final String peerId: prev) {
+			if (!currentSet.contains(peerId)) {
+				removed.add(peerId);
+			}
+		}
+		if (!added.isEmpty() || !removed.isEmpty()) {
+			if (DEBUG) Log.v(TAG, "notifyDelta:added=" + added + ",removed=" + removed);
+			listener.onChanged(added, removed);
+		}
+	}
+}
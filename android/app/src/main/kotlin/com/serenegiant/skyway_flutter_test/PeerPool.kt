@@ -0,0 +1,363 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.content.Context
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import io.skyway.Peer.Peer
+import io.skyway.Peer.PeerOption
+import java.util.ArrayDeque
+
+/**
+ * あらかじめシグナリングサーバーへ接続(PeerEventEnum.OPEN済み)したPeerを保持しておくためのプール
+ * Dart側からconnectが呼ばれたときにハンドシェイクを待たずに直ぐにPeerを渡せるようにする
+ * 渡した後はバックグラウンドで補充し、一定時間使われなかったPeerは破棄する
+ * OPEN_TIMEOUT_MS以内にOPENしなかったPeerは破棄して接続し直す
+ */
+class PeerPool(private val context: Context) {
+
+	/**
+	 * プールしているPeer
+	 * @param openMs 接続開始からOPENまでにかかった時間(プールから渡すことで短縮できた時間)
+	 */
+	class Entry(val peer: Peer, val peerId: String, val openMs: Long, val readyAt: Long)
+
+	/**
+	 * プールしているPeerの状態変化を受け取るためのコールバック
+	 */
+	interface Listener {
+		/**
+		 * 接続済みのPeerをプールへ追加したとき
+		 */
+		fun onPeerReady(peer: Peer)
+		/**
+		 * プールしているPeerを破棄する直前
+		 */
+		fun onPeerDestroy(peer: Peer)
+	}
+
+	private val mSync = Any()
+	private val mHandler = Handler(Looper.getMainLooper())
+	private val mReady = ArrayDeque<Entry>()
+	/**
+	 * 接続中(OPEN待ち)のPeer
+	 */
+	private val mPending = HashSet<Peer>()
+	private var mApiKey: String? = null
+	private var mDomain: String? = null
+	private var mSize = 0
+	private var mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS
+	private var mHits = 0L
+	private var mMisses = 0L
+	private var mSavedOpenMs = 0L
+	private var mLastSavedOpenMs = 0L
+	private var mEvicted = 0L
+	private var mOpenTimeouts = 0L
+	@Volatile
+	var listener: Listener? = null
+
+	/**
+	 * プールの設定を変更して補充を開始する
+	 * apiKey/domainが変わったときはプールしているPeerを破棄する
+	 * @param apiKey
+	 * @param domain
+	 * @param size プールするPeerの数, 0ならプールしない
+	 * @param idleTimeoutMs 使われなかったPeerを破棄するまでの時間
+	 */
+	fun configure(apiKey: String, domain: String, size: Int, idleTimeoutMs: Long) {
+		if (DEBUG) Log.v(TAG, "configure:size=$size,idleTimeoutMs=$idleTimeoutMs")
+		val evicted = synchronized(mSync) {
+			val changed = (apiKey != mApiKey) || (domain != mDomain)
+			mApiKey = apiKey
+			mDomain = domain
+			mSize = size
+			mIdleTimeoutMs = idleTimeoutMs
+			if (changed) drainLocked() else trimLocked()
+		}
+		destroy(evicted)
+		prewarm()
+	}
+
+	/**
+	 * 設定されている数になるまでPeerの接続を開始する
+	 * アプリの起動時/復帰時に呼び出す
+	 */
+	fun prewarm() {
+		val apiKey: String
+		val domain: String
+		val count: Int
+		synchronized(mSync) {
+			apiKey = mApiKey ?: return
+			domain = mDomain ?: return
+			count = mSize - mReady.size - mPending.size
+		}
+		for (i in 0 until count) {
+			open(apiKey, domain)
+		}
+		scheduleEviction()
+	}
+
+	/**
+	 * 接続済みのPeerを取得する
+	 * プールから渡したPeerのコールバックは解除済みなので呼び出し側で設定すること
+	 * @param apiKey
+	 * @param domain
+	 * @return apiKey/domainが一致する接続済みのPeerがなければnull
+	 */
+	fun acquire(apiKey: String, domain: String): Entry? {
+		val stale = ArrayList<Peer>()
+		val entry = synchronized(mSync) {
+			val entry = if ((apiKey == mApiKey) && (domain == mDomain)) {
+				pollReadyLocked(stale)
+			} else {
+				null
+			}
+			if (entry != null) {
+				mHits++
+				mSavedOpenMs += entry.openMs
+				mLastSavedOpenMs = entry.openMs
+			} else {
+				mMisses++
+			}
+			entry
+		}
+		destroy(stale)
+		if (entry != null) {
+			if (DEBUG) Log.v(TAG, "acquire:hit,saved ${entry.openMs}ms")
+			unsetCallbacks(entry.peer)
+			// 渡した分をバックグラウンドで補充する
+			mHandler.post { prewarm() }
+		}
+		return entry
+	}
+
+	/**
+	 * 次にacquireで渡すPeerを取得する(プールからは取り出さない)
+	 * @return 接続済みのPeerがなければnull
+	 */
+	fun peekReady(): Peer? {
+		synchronized(mSync) {
+			return mReady.firstOrNull { !it.peer.isDisconnected && !it.peer.isDestroyed }?.peer
+		}
+	}
+
+	/**
+	 * プールしているPeerを全て破棄する
+	 */
+	fun clear() {
+		if (DEBUG) Log.v(TAG, "clear:")
+		mHandler.removeCallbacks(mEvictionTask)
+		val evicted = synchronized(mSync) {
+			mSize = 0
+			drainLocked()
+		}
+		destroy(evicted)
+	}
+
+	/**
+	 * プールの統計情報を取得する
+	 */
+	fun stats(): Map<String, Any> {
+		synchronized(mSync) {
+			return mapOf(
+				"hits" to mHits,
+				"misses" to mMisses,
+				"evicted" to mEvicted,
+				"openTimeouts" to mOpenTimeouts,
+				"ready" to mReady.size,
+				"pending" to mPending.size,
+				"size" to mSize,
+				"savedOpenMs" to mSavedOpenMs,
+				"lastSavedOpenMs" to mLastSavedOpenMs)
+		}
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * Peerを生成してシグナリングサーバーへの接続を開始する
+	 */
+	private fun open(apiKey: String, domain: String) {
+		val option = PeerOption()
+		option.key = apiKey
+		option.domain = domain
+		option.debug = Peer.DebugLevelEnum.ALL_LOGS
+		val startTime = SystemClock.elapsedRealtime()
+		val peer = Peer(context, option)
+		synchronized(mSync) {
+			mPending.add(peer)
+		}
+		// シグナリングサーバーから応答が無いまま接続中のPeerが残り続けないようにする
+		val timeoutTask = Runnable {
+			val expired = synchronized(mSync) {
+				val expired = mPending.remove(peer)
+				if (expired) {
+					mOpenTimeouts++
+					mEvicted++
+				}
+				expired
+			}
+			if (expired) {
+				Log.w(TAG, "open timeout")
+				destroy(listOf(peer))
+				prewarm()
+			}
+		}
+		mHandler.postDelayed(timeoutTask, OPEN_TIMEOUT_MS)
+		peer.on(Peer.PeerEventEnum.OPEN) { `object` ->
+			mHandler.removeCallbacks(timeoutTask)
+			val now = SystemClock.elapsedRealtime()
+			val entry = Entry(peer, `object` as String, now - startTime, now)
+			val accepted = synchronized(mSync) {
+				if (mPending.remove(peer) && (mReady.size < mSize)) {
+					mReady.addLast(entry)
+					true
+				} else {
+					false
+				}
+			}
+			if (DEBUG) Log.v(TAG, "OPEN:${entry.peerId},${entry.openMs}ms,accepted=$accepted")
+			if (accepted) {
+				listener?.onPeerReady(peer)
+			} else {
+				destroy(listOf(peer))
+			}
+		}
+		peer.on(Peer.PeerEventEnum.ERROR) { `object` ->
+			Log.w(TAG, "ERROR:${`object`}")
+			evict(peer)
+		}
+		peer.on(Peer.PeerEventEnum.CLOSE) {
+			if (DEBUG) Log.v(TAG, "CLOSE:")
+			evict(peer)
+		}
+		peer.on(Peer.PeerEventEnum.DISCONNECTED) {
+			if (DEBUG) Log.v(TAG, "DISCONNECTED:")
+			evict(peer)
+		}
+	}
+
+	/**
+	 * 接続中またはプール中のPeerでエラー等が起きたときにプールから取り除いて破棄する
+	 */
+	private fun evict(peer: Peer) {
+		val removed = synchronized(mSync) {
+			val removed = mPending.remove(peer) or mReady.removeAll { it.peer == peer }
+			if (removed) {
+				mEvicted++
+			}
+			removed
+		}
+		if (removed) {
+			destroy(listOf(peer))
+		}
+	}
+
+	/**
+	 * 使われなかった時間がidleTimeoutMsを超えたPeerを破棄する
+	 */
+	private val mEvictionTask: Runnable = object : Runnable {
+		override fun run() {
+			val now = SystemClock.elapsedRealtime()
+			val evicted = ArrayList<Peer>()
+			val hasMore = synchronized(mSync) {
+				val it = mReady.iterator()
+				while (it.hasNext()) {
+					val entry = it.next()
+					if (now - entry.readyAt >= mIdleTimeoutMs) {
+						it.remove()
+						evicted.add(entry.peer)
+						mEvicted++
+					}
+				}
+				mReady.isNotEmpty() || mPending.isNotEmpty()
+			}
+			if (DEBUG && evicted.isNotEmpty()) Log.v(TAG, "evict idle peers:${evicted.size}")
+			destroy(evicted)
+			if (hasMore) {
+				scheduleEviction()
+			}
+		}
+	}
+
+	private fun scheduleEviction() {
+		mHandler.removeCallbacks(mEvictionTask)
+		val delayMs = synchronized(mSync) { mIdleTimeoutMs }
+		if (delayMs > 0) {
+			mHandler.postDelayed(mEvictionTask, delayMs)
+		}
+	}
+
+	/**
+	 * 次に渡すPeerを取り出す
+	 * mSyncをロックした状態で呼び出すこと
+	 * @param stale 既に切断されていたPeerを追加する(ロックを解放してから破棄すること)
+	 */
+	private fun pollReadyLocked(stale: MutableList<Peer>): Entry? {
+		while (mReady.isNotEmpty()) {
+			val entry = mReady.pollFirst()!!
+			if (!entry.peer.isDisconnected && !entry.peer.isDestroyed) {
+				return entry
+			}
+			stale.add(entry.peer)
+			mEvicted++
+		}
+		return null
+	}
+
+	/**
+	 * プールサイズを超えた分を取り出す
+	 * mSyncをロックした状態で呼び出すこと
+	 */
+	private fun trimLocked(): List<Peer> {
+		val result = ArrayList<Peer>()
+		while (mReady.size > mSize) {
+			result.add(mReady.pollLast()!!.peer)
+		}
+		return result
+	}
+
+	/**
+	 * 全てのPeerを取り出す
+	 * mSyncをロックした状態で呼び出すこと
+	 */
+	private fun drainLocked(): List<Peer> {
+		val result = ArrayList<Peer>(mPending)
+		mPending.clear()
+		for (entry in mReady) {
+			result.add(entry.peer)
+		}
+		mReady.clear()
+		return result
+	}
+
+	private fun unsetCallbacks(peer: Peer) {
+		peer.on(Peer.PeerEventEnum.OPEN, null)
+		peer.on(Peer.PeerEventEnum.ERROR, null)
+		peer.on(Peer.PeerEventEnum.CLOSE, null)
+		peer.on(Peer.PeerEventEnum.DISCONNECTED, null)
+	}
+
+	private fun destroy(peers: List<Peer>) {
+		for (peer in peers) {
+			listener?.onPeerDestroy(peer)
+			unsetCallbacks(peer)
+			if (!peer.isDisconnected) {
+				peer.disconnect()
+			}
+			if (!peer.isDestroyed) {
+				peer.destroy()
+			}
+		}
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = PeerPool::class.java.simpleName
+		const val DEFAULT_IDLE_TIMEOUT_MS = 60000L
+		/**
+		 * 接続を開始してからOPENするまでの最大時間
+		 */
+		const val OPEN_TIMEOUT_MS = 15000L
+	}
+}
@@ -0,0 +1,349 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Dart側がイベントチャネルをlistenする前(またはcancelしてから再度listenするまで)に
+ * 発生したイベントを溜めておくための固定サイズのリングバッファ
+ * 同じ対象の状態を表すイベント(同じリモートピアの入退室, リモート映像の追加/削除等)は
+ * 最新のものだけを残す(古いものを取り除いて新しいものを末尾に追加する)
+ * 取り除いたイベントのルームの状態のバージョンは後続のイベントへ引き継ぐ(RoomStateModel#carryVersion)
+ * 溢れたときはOverflowPolicyに従って一番古いイベントか新しいイベントを破棄する
+ * (溢れて破棄したイベントのバージョンは引き継がないのでDart側はバージョンの飛びを検出して同期し直す)
+ * 取り除いたり溢れて破棄したイベントに付いていたハンドルを破棄したリモートピアidは
+ * 常に後続のイベントへ引き継ぐ(RoomStateModel#carryReleasedPeerIds)
+ * スレッドセーフではないので呼び出し側で排他制御すること
+ */
+class PendingEventBuffer {
+	private static final boolean DEBUG = false;	// set false on production
+	private static final String TAG = PendingEventBuffer.class.getSimpleName();
+
+	/**
+	 * デフォルトで保持するイベントの数
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * 溢れたときの処理
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * 一番古いイベントを破棄して追加する
+		 */
+		DROP_OLDEST,
+		/**
+		 * 追加しようとしたイベントを破棄する
+		 */
+		DROP_NEWEST,
+	}
+
+	/**
+	 * offerの結果: 追加した
+	 */
+	public static final int RESULT_BUFFERED = 0;
+	/**
+	 * offerの結果: 同じ対象の古いイベントを取り除いて追加した
+	 */
+	public static final int RESULT_COALESCED = 1;
+	/**
+	 * offerの結果: 溢れたので一番古いイベントを破棄して追加した
+	 */
+	public static final int RESULT_DROPPED_OLDEST = 2;
+	/**
+	 * offerの結果: 溢れたため(または破棄済みのため)追加しなかった
+	 */
+	public static final int RESULT_REJECTED = 3;
+
+	@NonNull
+	private final OverflowPolicy mPolicy;
+	/**
+	 * イベントのリングバッファ, 取り除いたイベントはnullになる
+	 */
+	@NonNull
+	private final Object[] mEvents;
+	/**
+	 * 各イベントのまとめるためのキー(coalesceKey), まとめないイベントはnull
+	 */
+	@NonNull
+	private final String[] mKeys;
+	/**
+	 * まとめるためのキーとリングバッファ内の位置
+	 */
+	@NonNull
+	private final Map<String, Integer> mIndex = new HashMap<>();
+	/**
+	 * 一番古いイベントの位置
+	 */
+	private int mHead;
+	/**
+	 * mHeadから使用している数(取り除いたイベントを含む)
+	 */
+	private int mSize;
+	/**
+	 * 実際に保持しているイベントの数
+	 */
+	private int mCount;
+	/**
+	 * まとめて取り除いたイベントのバージョンのうち後続のイベントへまだ引き継いでいないものの最小値, 無ければ-1
+	 */
+	private long mCarriedVersion = -1;
+	/**
+	 * 溢れて追加しなかったイベントに付いていたハンドルを破棄したリモートピアidのうち
+	 * 後続のイベントへまだ引き継いでいないもの, 無ければnull
+	 */
+	@Nullable
+	private List<String> mCarriedReleased;
+	private boolean mClosed;
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 保持するイベントの最大数
+	 * @param policy 溢れたときの処理
+	 */
+	public PendingEventBuffer(final int capacity, @NonNull final OverflowPolicy policy) {
+		final int n = Math.max(1, capacity);
+		mEvents = new Object[n];
+		mKeys = new String[n];
+		mPolicy = policy;
+	}
+
+	/**
+	 * イベントを追加する
+	 * @param message
+	 * @return RESULT_XXX
+	 */
+	public int offer(@NonNull final Map<String, Object> message) {
+		if (mClosed) {
+			return RESULT_REJECTED;
+		}
+		int result = RESULT_BUFFERED;
+		final String key = coalesceKey(message);
+		Map<String, Object> coalesced = null;
+		if (key != null) {
+			final Integer ix = mIndex.remove(key);
+			if (ix != null) {
+				if (DEBUG) Log.v(TAG, "offer:coalesce " + mEvents[ix] + "→" + message);
+				coalesced = eventAt(ix);
+				mEvents[ix] = null;
+				mKeys[ix] = null;
+				mCount--;
+				result = RESULT_COALESCED;
+			}
+		}
+		final int capacity = mEvents.length;
+		if ((mSize == capacity) && (mCount < capacity)) {
+			compact();
+		}
+		if (mSize == capacity) {
+			if (mPolicy == OverflowPolicy.DROP_NEWEST) {
+				if (DEBUG) Log.v(TAG, "offer:overflow,drop " + message);
+				final List<String> released = RoomStateModel.releasedPeerIdsOf(message);
+				if (released != null) {
+					if (mCarriedReleased == null) {
+						mCarriedReleased = new ArrayList<>();
+					}
+					mCarriedReleased.addAll(released);
+				}
+				return RESULT_REJECTED;
+			}
+			if (DEBUG) Log.v(TAG, "offer:overflow,drop " + mEvents[mHead]);
+			RoomStateModel.carryReleasedPeerIds(message,
+				RoomStateModel.releasedPeerIdsOf(eventAt(mHead)));
+			removeAt(mHead);
+			mHead = (mHead + 1) % capacity;
+			mSize--;
+			result = RESULT_DROPPED_OLDEST;
+		}
+		final int tail = (mHead + mSize) % capacity;
+		mEvents[tail] = message;
+		mKeys[tail] = key;
+		if (key != null) {
+			mIndex.put(key, tail);
+		}
+		mSize++;
+		mCount++;
+		if ((mCarriedVersion >= 0) && RoomStateModel.carryVersion(message, mCarriedVersion)) {
+			mCarriedVersion = -1;
+		}
+		if (mCarriedReleased != null) {
+			RoomStateModel.carryReleasedPeerIds(message, mCarriedReleased);
+			mCarriedReleased = null;
+		}
+		if (coalesced != null) {
+			carry(coalesced);
+			// まとめたイベントは同じ対象の新しいイベントなのでそこへ引き継ぐ
+			RoomStateModel.carryReleasedPeerIds(message, RoomStateModel.releasedPeerIdsOf(coalesced));
+		}
+		return result;
+	}
+
+	/**
+	 * 保持しているイベントを古い順に全て取り出す
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	@NonNull
+	public List<Map<String, Object>> drain() {
+		final List<Map<String, Object>> result = new ArrayList<>(mCount);
+		final int capacity = mEvents.length;
+		for (int i = 0; i < mSize; i++) {
+			final int ix = (mHead + i) % capacity;
+			if (mEvents[ix] != null) {
+				result.add((Map<String, Object>)mEvents[ix]);
+			}
+			mEvents[ix] = null;
+			mKeys[ix] = null;
+		}
+		mIndex.clear();
+		mHead = mSize = mCount = 0;
+		return result;
+	}
+
+	/**
+	 * 保持しているイベントを破棄して以降は追加できないようにする
+	 */
+	public void close() {
+		drain();
+		mCarriedVersion = -1;
+		mCarriedReleased = null;
+		mClosed = true;
+	}
+
+	/**
+	 * 保持しているイベントの数
+	 * @return
+	 */
+	public int size() {
+		return mCount;
+	}
+
+	/**
+	 * closeを呼んだかどうか
+	 * @return
+	 */
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+//--------------------------------------------------------------------------------
+	@SuppressWarnings("unchecked")
+	@Nullable
+	private Map<String, Object> eventAt(final int ix) {
+		return (Map<String, Object>)mEvents[ix];
+	}
+
+	/**
+	 * まとめて取り除いたイベントのバージョンをそれより後で最初にバージョンが付いているイベントへ引き継ぐ
+	 * 見つからなければ次に追加されるイベントへ引き継ぐ
+	 * @param removed
+	 */
+	private void carry(@NonNull final Map<String, Object> removed) {
+		final long version = RoomStateModel.versionOf(removed);
+		if (version < 0) {
+			return;
+		}
+		final long from = RoomStateModel.versionFromOf(removed);
+		final int capacity = mEvents.length;
+		for (int i = 0; i < mSize; i++) {
+			final Map<String, Object> next = eventAt((mHead + i) % capacity);
+			// バージョンは追加した順に大きくなるので取り除いたイベントより大きい最初のイベントへ引き継ぐ
+			if ((next != null) && (RoomStateModel.versionOf(next) > version)
+				&& RoomStateModel.carryVersion(next, from)) {
+				return;
+			}
+		}
+		mCarriedVersion = mCarriedVersion >= 0 ? Math.min(mCarriedVersion, from) : from;
+	}
+
+	/**
+	 * 指定した位置のイベントを取り除く
+	 * @param ix
+	 */
+	private void removeAt(final int ix) {
+		if (mEvents[ix] != null) {
+			final String key = mKeys[ix];
+			if (key != null) {
+				mIndex.remove(key);
+			}
+			mEvents[ix] = null;
+			mKeys[ix] = null;
+			mCount--;
+		}
+	}
+
+	/**
+	 * 取り除いたイベントの隙間を詰める
+	 */
+	private void compact() {
+		final int capacity = mEvents.length;
+		int n = 0;
+		for (int i = 0; i < mSize; i++) {
+			final int src = (mHead + i) % capacity;
+			if (mEvents[src] != null) {
+				final int dst = (mHead + n) % capacity;
+				if (dst != src) {
+					mEvents[dst] = mEvents[src];
+					mKeys[dst] = mKeys[src];
+					mEvents[src] = null;
+					mKeys[src] = null;
+					if (mKeys[dst] != null) {
+						mIndex.put(mKeys[dst], dst);
+					}
+				}
+				n++;
+			}
+		}
+		mSize = n;
+	}
+
+	/**
+	 * 同じ対象の状態を表すイベントをまとめるためのキーを取得する
+	 * 入退室(OnJoin/OnLeave), リモート映像(OnAddRemoteStream/OnRemoveRemoteStream),
+	 * 描画先スロット(OnPromote/OnDemote)はリモートピアとルーム毎,
+	 * ルームの開閉(OnOpenRoom/OnCloseRoom)はルーム毎に最新のものだけを残す
+	 * 取得設定の変更(OnCaptureProfileChanged)と計測値(OnMetrics)は最新のものだけを残す
+	 * @param message
+	 * @return まとめないイベントならnull
+	 */
+	@Nullable
+	private static String coalesceKey(@NonNull final Map<String, Object> message) {
+		final Object event = message.get("event");
+		if (!(event instanceof String)) {
+			return null;
+		}
+		final String kind;
+		switch (Const.SkywayEvent.valueOf((String)event)) {
+		case OnJoin:
+		case OnLeave:
+			kind = "member";
+			break;
+		case OnAddRemoteStream:
+		case OnRemoveRemoteStream:
+			kind = "stream";
+			break;
+		case OnPromote:
+		case OnDemote:
+			kind = "slot";
+			break;
+		case OnOpenRoom:
+		case OnCloseRoom:
+			return "room:" + message.get("room");
+		case OnCaptureProfileChanged:
+		case OnMetrics:
+			return (String)event;
+		default:
+			return null;
+		}
+		final Object remotePeerId = message.get("remotePeerId");
+		return remotePeerId != null
+			? kind + ":" + remotePeerId + ":" + message.get("room") : null;
+	}
+}
@@ -0,0 +1,279 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 受信している全てのリモート映像(p2p接続と全てのルーム)を保持するレジストリ
+ * ConcurrentHashMapで保持するのでロック無しで複数のスレッドから追加/削除/列挙できる
+ * 取り除いたエントリーの破棄処理(Entry#release)は呼び出し側でロックを保持せずに行う
+ * エントリーの状態遷移はCASで行うので同じエントリーを複数のスレッドから破棄しても
+ * 破棄処理(Entry#onRelease)は1回だけ実行される
+ * SDKには依存しないのでリモート映像の実体(MediaStream)はEntryの派生クラスで保持する
+ * @param <E>
+ */
+class RemoteStreamRegistry<E extends RemoteStreamRegistry.Entry> {
+
+	/**
+	 * Entryの状態
+	 * STATE_PENDING → STATE_ATTACHED → STATE_RELEASING → STATE_RELEASED の順にだけ遷移する
+	 * (STATE_PENDINGから直接STATE_RELEASINGへ遷移することもある)
+	 */
+	public static final int STATE_PENDING = 0;
+	public static final int STATE_ATTACHED = 1;
+	public static final int STATE_RELEASING = 2;
+	public static final int STATE_RELEASED = 3;
+
+	/**
+	 * 1つのリモート映像のエントリー
+	 */
+	public static abstract class Entry {
+		@NonNull
+		public final String peerId;
+		/**
+		 * 受信しているルーム名, p2p接続の場合はnull
+		 */
+		@Nullable
+		public final String room;
+		/**
+		 * リモート映像の識別子(keyOf参照)
+		 */
+		@NonNull
+		public final String key;
+		/**
+		 * 受信しているルームのホルダー等, p2p接続の場合はnull
+		 * 同じ名前のルームへ入室し直したときに前回の入室時のエントリーと区別するために使う
+		 */
+		@Nullable
+		public final Object owner;
+		@NonNull
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+		protected Entry(@NonNull final String remotePeerId,
+			@Nullable final String roomName, @Nullable final Object owner) {
+
+			peerId = remotePeerId;
+			room = roomName;
+			key = keyOf(roomName, remotePeerId);
+			this.owner = owner;
+		}
+
+		/**
+		 * 描画先を追加したときにSTATE_ATTACHEDへ遷移させる
+		 * @return 既に破棄処理中または破棄済みの場合はfalse
+		 */
+		public boolean attach() {
+			return state.compareAndSet(STATE_PENDING, STATE_ATTACHED)
+				|| (state.get() < STATE_RELEASING);
+		}
+
+		/**
+		 * 破棄処理中または破棄済みかどうか
+		 * @return
+		 */
+		public boolean isReleasing() {
+			return state.get() >= STATE_RELEASING;
+		}
+
+		/**
+		 * 現在の状態
+		 * @return STATE_XXX
+		 */
+		public int getState() {
+			return state.get();
+		}
+
+		/**
+		 * 破棄処理を実行する
+		 * 複数のスレッドから同時に呼び出されてもonReleaseは1回だけ呼ばれる
+		 * @return 破棄処理を実行した場合true, 既に破棄処理中または破棄済みの場合はfalse
+		 */
+		public final boolean release() {
+			int current;
+			do {
+				current = state.get();
+				if (current >= STATE_RELEASING) {
+					return false;
+				}
+			} while (!state.compareAndSet(current, STATE_RELEASING));
+			try {
+				onRelease();
+			} finally {
+				state.set(STATE_RELEASED);
+			}
+			return true;
+		}
+
+		/**
+		 * 実際の破棄処理(描画先から取り除いてMediaStreamを閉じる等)
+		 * STATE_RELEASINGの状態で1回だけ呼ばれる
+		 */
+		protected abstract void onRelease();
+	}
+
+	/**
+	 * リモート映像の識別子を取得する
+	 * 同じピアが複数のルームに入室していても区別できるようにルーム名を付加する
+	 * @param roomName p2p接続の場合はnull
+	 * @param remotePeerId
+	 * @return
+	 */
+	@NonNull
+	public static String keyOf(@Nullable final String roomName,
+		@NonNull final String remotePeerId) {
+
+		return roomName != null ? remotePeerId + "@" + roomName : remotePeerId;
+	}
+
+	/**
+	 * キーはkeyOf
+	 */
+	@NonNull
+	private final ConcurrentHashMap<String, E> mEntries = new ConcurrentHashMap<>();
+
+	/**
+	 * エントリーを追加する
+	 * 同じキーのエントリーがあれば置き換えて置き換えられたエントリーを返すので呼び出し側で破棄すること
+	 * @param entry
+	 * @return 置き換えられたエントリー, 無ければnull
+	 */
+	@Nullable
+	public E put(@NonNull final E entry) {
+		return mEntries.put(entry.key, entry);
+	}
+
+	/**
+	 * 指定したキーのエントリーを取得する
+	 * @param key
+	 * @return
+	 */
+	@Nullable
+	public E get(@NonNull final String key) {
+		return mEntries.get(key);
+	}
+
+	/**
+	 * 指定したリモートピアのエントリーを探す
+	 * @param remotePeerId
+	 * @param roomName nullならp2p接続のエントリー, 見つからなければ最初に見つかったルームのエントリー
+	 * @return
+	 */
+	@Nullable
+	public E find(@NonNull final String remotePeerId, @Nullable final String roomName) {
+		final E result = mEntries.get(keyOf(roomName, remotePeerId));
+		if ((result == null) && (roomName == null)) {
+			for (final E entry: mEntries.values()) {
+				if ((entry.room != null) && entry.peerId.equals(remotePeerId)) {
+					return entry;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 指定したキーのエントリーを取り除く
+	 * 取り除いたエントリーは呼び出し側で破棄すること
+	 * @param key
+	 * @return 取り除いたエントリー, 無ければnull
+	 */
+	@Nullable
+	public E remove(@NonNull final String key) {
+		return mEntries.remove(key);
+	}
+
+	/**
+	 * 指定したエントリーが登録されていれば取り除く
+	 * (既に同じキーで別のエントリーへ置き換えられていれば取り除かない)
+	 * 取り除いたエントリーは呼び出し側で破棄すること
+	 * @param entry
+	 * @return 取り除いた場合true
+	 */
+	public boolean remove(@NonNull final E entry) {
+		return mEntries.remove(entry.key, entry);
+	}
+
+	/**
+	 * 指定したルームのエントリーを全て取り除く
+	 * 取り除いたエントリーは呼び出し側で破棄すること
+	 * @param owner Entry#owner
+	 * @return 取り除いたエントリー
+	 */
+	@NonNull
+	public List<E> removeOwnedBy(@NonNull final Object owner) {
+		final List<E> result = new ArrayList<>();
+		for (final Map.Entry<String, E> e: mEntries.entrySet()) {
+			final E entry = e.getValue();
+			if ((entry.owner == owner) && mEntries.remove(e.getKey(), entry)) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 全てのエントリーを取り除く
+	 * 同時に追加されたエントリーは取り除かないことがある
+	 * 取り除いたエントリーは呼び出し側で破棄すること
+	 * @return 取り除いたエントリー
+	 */
+	@NonNull
+	public List<E> removeAll() {
+		final List<E> result = new ArrayList<>(mEntries.size());
+		for (final Map.Entry<String, E> e: mEntries.entrySet()) {
+			final E entry = e.getValue();
+			if (mEntries.remove(e.getKey(), entry)) {
+				result.add(entry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 指定したルームのエントリーがあるかどうか
+	 * @param owner Entry#owner
+	 * @return
+	 */
+	public boolean hasOwnedBy(@NonNull final Object owner) {
+		for (final E entry: mEntries.values()) {
+			if (entry.owner == owner) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 指定したキーのエントリーがあるかどうか
+	 * @param key
+	 * @return
+	 */
+	public boolean containsKey(@NonNull final String key) {
+		return mEntries.containsKey(key);
+	}
+
+	/**
+	 * 登録されている全てのエントリー
+	 * 列挙中に他のスレッドから追加/削除されても例外にならない(ConcurrentHashMapのビュー)
+	 * @return
+	 */
+	@NonNull
+	public Collection<E> values() {
+		return mEntries.values();
+	}
+
+	/**
+	 * 登録されているエントリーの数
+	 * @return
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+}
@@ -0,0 +1,305 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 同時に描画するリモート映像の数を描画先スロット(Canvas)の数までに制限するためのスケジューラー
+ * 固定表示(pinned) → アプリが指定した優先度 → 最近発話した順 → 入室順 で並べて
+ * 上位N件をスロットへ割り当てる
+ * 既にスロットへ割り当てられていて上位N件に残っているリモート映像は同じスロットのままにする
+ * リモート映像は同じピアが複数のルームに入室していても区別できる識別子(キー)で管理する
+ * 優先度と発話時刻はリモートピア毎に保持するので、映像を受信する前に設定したり
+ * 同じピアの映像が差し替わったりしても引き継がれる(そのピアの映像が全て無くなったら破棄する)
+ *
+ * スレッドセーフではないのでSDKのワーカースレッド上からのみ呼び出すこと
+ */
+class RenderScheduler {
+
+	/**
+	 * スロットの割り当て変更
+	 */
+	public static class Change {
+		/**
+		 * リモート映像の識別子
+		 */
+		@NonNull
+		public final String key;
+		/**
+		 * 割り当てられたスロットのインデックス, 割り当て解除(降格)のときは-1
+		 */
+		public final int slot;
+		/**
+		 * 割り当てられたスロットのCanvas View id, 割り当て解除(降格)のときは0
+		 */
+		public final int viewId;
+
+		private Change(@NonNull final String key, final int slot, final int viewId) {
+			this.key = key;
+			this.slot = slot;
+			this.viewId = viewId;
+		}
+
+		public boolean isPromoted() {
+			return slot >= 0;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return "Change{" + key + ",slot=" + slot + ",viewId=" + viewId + "}";
+		}
+	}
+
+	/**
+	 * リモートピア毎の優先度と発話時刻
+	 */
+	private static class PeerState {
+		private boolean pinned;
+		private int priority;
+		private long lastSpeakingMs;
+		/**
+		 * このリモートピアの描画候補の数
+		 */
+		private int candidates;
+	}
+
+	private static class Candidate {
+		@NonNull
+		private final String key;
+		@NonNull
+		private final String peerId;
+		@NonNull
+		private final PeerState state;
+		private final long joinOrder;
+
+		private Candidate(@NonNull final String key,
+			@NonNull final String peerId, @NonNull final PeerState state,
+			final long joinOrder) {
+
+			this.key = key;
+			this.peerId = peerId;
+			this.state = state;
+			this.joinOrder = joinOrder;
+		}
+	}
+
+	private static final Comparator<Candidate> RANKING = new Comparator<Candidate>() {
+		@Override
+		public int compare(final Candidate a, final Candidate b) {
+			if (a.state.pinned != b.state.pinned) {
+				return a.state.pinned ? -1 : 1;
+			}
+			if (a.state.priority != b.state.priority) {
+				return a.state.priority > b.state.priority ? -1 : 1;
+			}
+			if (a.state.lastSpeakingMs != b.state.lastSpeakingMs) {
+				return a.state.lastSpeakingMs > b.state.lastSpeakingMs ? -1 : 1;
+			}
+			return Long.compare(a.joinOrder, b.joinOrder);
+		}
+	};
+
+	@NonNull
+	private final Map<String, Candidate> mCandidates = new HashMap<>();
+	/**
+	 * リモートピア毎の優先度と発話時刻, キーはリモートピアのid
+	 */
+	@NonNull
+	private final Map<String, PeerState> mPeers = new HashMap<>();
+	/**
+	 * 描画先スロットのCanvas View id
+	 */
+	@NonNull
+	private int[] mSlots = new int[0];
+	/**
+	 * 各スロットへ割り当てているリモート映像のキー
+	 */
+	@NonNull
+	private String[] mAssigned = new String[0];
+	private long mJoinOrder;
+
+	/**
+	 * スケジューラーが有効かどうか(描画先スロットが設定されているかどうか)
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return mSlots.length > 0;
+	}
+
+	/**
+	 * 描画先スロットを設定する
+	 * 設定後にscheduleを呼ぶと全てのスロットを割り当て直す
+	 * @param viewIds 描画先スロットのCanvas View id, 空なら無効
+	 * @return スロットが変わったために割り当てを解除したリモート映像のキー
+	 */
+	@NonNull
+	public List<String> setSlots(@NonNull final int[] viewIds) {
+		final List<String> result = new ArrayList<>();
+		for (final String key: mAssigned) {
+			if (key != null) {
+				result.add(key);
+			}
+		}
+		mSlots = viewIds.clone();
+		mAssigned = new String[viewIds.length];
+		return result;
+	}
+
+	/**
+	 * リモート映像を描画候補に追加する
+	 * 既に追加されていれば何もしない(スロットの割り当てと優先度はそのまま)
+	 * @param key
+	 * @param peerId リモートピアのid
+	 */
+	public void add(@NonNull final String key, @NonNull final String peerId) {
+		if (!mCandidates.containsKey(key)) {
+			final PeerState state = obtainPeer(peerId);
+			state.candidates++;
+			mCandidates.put(key, new Candidate(key, peerId, state, mJoinOrder++));
+		}
+	}
+
+	/**
+	 * リモート映像を描画候補から取り除く
+	 * @param key
+	 * @return スロットへ割り当てられていた場合true
+	 */
+	public boolean remove(@NonNull final String key) {
+		final Candidate candidate = mCandidates.remove(key);
+		if ((candidate != null) && (--candidate.state.candidates <= 0)) {
+			mPeers.remove(candidate.peerId);
+		}
+		for (int i = 0; i < mAssigned.length; i++) {
+			if (key.equals(mAssigned[i])) {
+				mAssigned[i] = null;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 全ての描画候補を取り除く
+	 */
+	public void clear() {
+		mCandidates.clear();
+		mPeers.clear();
+		mAssigned = new String[mSlots.length];
+	}
+
+	/**
+	 * アプリ側から指定する優先度を設定する
+	 * まだ描画候補に無いリモートピアの場合は映像を受信したときに適用する
+	 * @param peerId リモートピアのid
+	 * @param priority 大きいほど優先する
+	 * @param pinned trueなら常に優先する
+	 */
+	public void setPriority(@NonNull final String peerId,
+		final int priority, final boolean pinned) {
+
+		final PeerState state = obtainPeer(peerId);
+		state.priority = priority;
+		state.pinned = pinned;
+	}
+
+	/**
+	 * 発話したことを記録する
+	 * まだ描画候補に無いリモートピアの場合は映像を受信したときに適用する
+	 * @param peerId リモートピアのid
+	 * @param timeMs
+	 */
+	public void setSpeaking(@NonNull final String peerId, final long timeMs) {
+		obtainPeer(peerId).lastSpeakingMs = timeMs;
+	}
+
+	/**
+	 * 指定したリモート映像が割り当てられているスロットのインデックスを取得する
+	 * @param key
+	 * @return 割り当てられていなければ-1
+	 */
+	public int slotOf(@Nullable final String key) {
+		for (int i = 0; i < mAssigned.length; i++) {
+			if ((key != null) && key.equals(mAssigned[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * 指定したリモート映像が割り当てられているスロットのCanvas View idを取得する
+	 * @param key
+	 * @return 割り当てられていなければ0
+	 */
+	public int viewIdOf(@Nullable final String key) {
+		final int slot = slotOf(key);
+		return slot >= 0 ? mSlots[slot] : 0;
+	}
+
+	/**
+	 * 優先度順に上位N件をスロットへ割り当て直す
+	 * @return 割り当ての変更, 降格を先に並べる
+	 */
+	@NonNull
+	public List<Change> schedule() {
+		if (!isEnabled()) {
+			return Collections.emptyList();
+		}
+		final List<Candidate> ranked = new ArrayList<>(mCandidates.values());
+		Collections.sort(ranked, RANKING);
+		final Set<String> top = new HashSet<>();
+		for (int i = 0, n = Math.min(mSlots.length, ranked.size()); i < n; i++) {
+			top.add(ranked.get(i).key);
+		}
+		final List<Change> demoted = new ArrayList<>();
+		final List<Change> promoted = new ArrayList<>();
+		// 上位N件から外れたものを降格させる
+		for (int i = 0; i < mAssigned.length; i++) {
+			final String key = mAssigned[i];
+			if (key != null) {
+				if (top.contains(key)) {
+					top.remove(key);
+				} else {
+					mAssigned[i] = null;
+					demoted.add(new Change(key, -1, 0));
+				}
+			}
+		}
+		// 空いたスロットへ上位から順に割り当てる
+		int slot = 0;
+		for (final Candidate candidate: ranked) {
+			if (top.isEmpty()) {
+				break;
+			}
+			if (top.remove(candidate.key)) {
+				while (mAssigned[slot] != null) {
+					slot++;
+				}
+				mAssigned[slot] = candidate.key;
+				promoted.add(new Change(candidate.key, slot, mSlots[slot]));
+			}
+		}
+		demoted.addAll(promoted);
+		return demoted;
+	}
+
+	@NonNull
+	private PeerState obtainPeer(@NonNull final String peerId) {
+		PeerState state = mPeers.get(peerId);
+		if (state == null) {
+			state = new PeerState();
+			mPeers.put(peerId, state);
+		}
+		return state;
+	}
+}
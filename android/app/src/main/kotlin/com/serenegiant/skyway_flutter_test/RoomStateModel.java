@@ -0,0 +1,389 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * 入室中のSFU/Meshのルーム毎のメンバー(リモートピア)と受信中のリモート映像を保持するクラス
+ * Dart側へ送信するイベントから更新して変化する毎にバージョンを1つ増やす
+ * Dart側はイベントを取りこぼしたとき(バージョンが飛んだとき)や画面を作り直したときに
+ * getRoomStateで指定したバージョン以降の変化分(または全体)を取得して同期する
+ * 変化分は直近のCHANGE_LOG_SIZE個だけ保持するのでそれより古いバージョンを指定したときは全体を返す
+ * 送信前に打ち消したりまとめたりして送信しなかったイベントのバージョンは後続のイベントの
+ * stateVersionFromへ引き継いでDart側がバージョンの飛びを取りこぼしと区別できるようにする(carryVersion)
+ */
+class RoomStateModel {
+	private static final boolean DEBUG = false;	// set false on production
+	private static final String TAG = RoomStateModel.class.getSimpleName();
+
+	/**
+	 * 保持する変化分の最大数
+	 */
+	public static final int CHANGE_LOG_SIZE = 256;
+
+	public static final String OP_OPEN = "open";
+	public static final String OP_CLOSE = "close";
+	public static final String OP_JOIN = "join";
+	public static final String OP_LEAVE = "leave";
+	public static final String OP_ADD_STREAM = "addStream";
+	public static final String OP_REMOVE_STREAM = "removeStream";
+
+	/**
+	 * イベントに付けるバージョンのキー
+	 */
+	public static final String KEY_STATE_VERSION = "stateVersion";
+	/**
+	 * 送信しなかったイベントのバージョンを引き継いだときのバージョンの範囲の先頭のキー
+	 * Dart側はstateVersionFrom〜stateVersionの変化をまとめて適用したものとして扱う
+	 */
+	public static final String KEY_STATE_VERSION_FROM = "stateVersionFrom";
+	/**
+	 * どのルームのメンバーでもなくなりリモート映像も無くなったのでハンドルを破棄したリモートピアidのキー
+	 * 送信しなかったイベントに付いていたときは後続のイベントへ引き継ぐ(carryReleasedPeerIds)
+	 */
+	public static final String KEY_RELEASED_PEER_IDS = "releasedPeerIds";
+
+	/**
+	 * 1つのルームの状態
+	 */
+	private static class RoomEntry {
+		/**
+		 * 入室中のリモートピアのid
+		 */
+		@NonNull
+		private final Set<String> members = new LinkedHashSet<>();
+		/**
+		 * 受信中のリモート映像のリモートピアのid
+		 */
+		@NonNull
+		private final Set<String> streams = new LinkedHashSet<>();
+	}
+
+	/**
+	 * 1つの変化
+	 */
+	private static class Change {
+		private final long version;
+		@NonNull
+		private final String op;
+		@NonNull
+		private final String room;
+		@Nullable
+		private final String remotePeerId;
+
+		private Change(final long version, @NonNull final String op,
+			@NonNull final String room, @Nullable final String remotePeerId) {
+
+			this.version = version;
+			this.op = op;
+			this.room = room;
+			this.remotePeerId = remotePeerId;
+		}
+	}
+
+	@NonNull
+	private final Object mSync = new Object();
+	/**
+	 * ルーム名とルームの状態, 入室した順に保持する
+	 */
+	@NonNull
+	private final Map<String, RoomEntry> mRooms = new LinkedHashMap<>();
+	@NonNull
+	private final ArrayDeque<Change> mChanges = new ArrayDeque<>(CHANGE_LOG_SIZE);
+	private long mVersion;
+
+	/**
+	 * Dart側へ送信するイベントでルームの状態を更新する
+	 * ルームの状態に関係しないイベントや状態が変化しないイベントは無視する
+	 * @param message
+	 * @return 状態が変化したときは更新後のバージョン, 変化しなければ-1
+	 */
+	public long apply(@NonNull final Map<String, Object> message) {
+		return apply(message, null);
+	}
+
+	/**
+	 * Dart側へ送信するイベントでルームの状態を更新する
+	 * ルームの状態に関係しないイベントや状態が変化しないイベントは無視する
+	 * @param message
+	 * @param removed nullでなければこのイベントでルームのメンバーまたはリモート映像から
+	 * 			取り除いたリモートピアのidを追加する(他のルームに残っているかどうかはcontainsで確認すること)
+	 * @return 状態が変化したときは更新後のバージョン, 変化しなければ-1
+	 */
+	public long apply(@NonNull final Map<String, Object> message,
+		@Nullable final Collection<String> removed) {
+
+		final Object event = message.get("event");
+		final Object room = message.get("room");
+		if (!(event instanceof String) || !(room instanceof String)) {
+			// p2pのイベント等
+			return -1;
+		}
+		final Object remote = message.get("remotePeerId");
+		final String remotePeerId = remote instanceof String ? (String)remote : null;
+		switch (Const.SkywayEvent.valueOf((String)event)) {
+		case OnOpenRoom:
+			return update(OP_OPEN, (String)room, null, null);
+		case OnCloseRoom:
+			return update(OP_CLOSE, (String)room, null, removed);
+		case OnJoin:
+			return remotePeerId != null ? update(OP_JOIN, (String)room, remotePeerId, null) : -1;
+		case OnLeave:
+			return remotePeerId != null ? update(OP_LEAVE, (String)room, remotePeerId, removed) : -1;
+		case OnAddRemoteStream:
+			return remotePeerId != null ? update(OP_ADD_STREAM, (String)room, remotePeerId, null) : -1;
+		case OnRemoveRemoteStream:
+			return remotePeerId != null ? update(OP_REMOVE_STREAM, (String)room, remotePeerId, removed) : -1;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * 指定したリモートピアがいずれかのルームのメンバーかリモート映像に含まれているかどうか
+	 * @param remotePeerId
+	 * @return
+	 */
+	public boolean contains(@NonNull final String remotePeerId) {
+		synchronized (mSync) {
+			for (final RoomEntry entry: mRooms.values()) {
+				if (entry.members.contains(remotePeerId) || entry.streams.contains(remotePeerId)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * イベントを送信せずに退室したとき(コールバックを解除してから閉じたとき)の処理
+	 * @param room
+	 * @return 状態が変化したときは更新後のバージョン, 変化しなければ-1
+	 */
+	public long close(@NonNull final String room) {
+		return close(room, null);
+	}
+
+	/**
+	 * イベントを送信せずに退室したとき(コールバックを解除してから閉じたとき)の処理
+	 * @param room
+	 * @param removed nullでなければルームのメンバーとリモート映像のリモートピアのidを追加する
+	 * 			(他のルームに残っているかどうかはcontainsで確認すること)
+	 * @return 状態が変化したときは更新後のバージョン, 変化しなければ-1
+	 */
+	public long close(@NonNull final String room, @Nullable final Collection<String> removed) {
+		return update(OP_CLOSE, room, null, removed);
+	}
+
+	/**
+	 * 指定したバージョン以降の変化分または全体を取得する
+	 * 変化分の方が全体より大きくなるときや変化分が残っていないときは全体を返す
+	 * 全体: {version, full=true, rooms={ルーム名: {members=[...], streams=[...]}}}
+	 * 変化分: {version, full=false, changes=[{op, room, remotePeerId}...]}
+	 * @param sinceVersion Dart側が保持しているバージョン, 負なら全体を返す
+	 * @return
+	 */
+	@NonNull
+	public Map<String, Object> snapshot(final long sinceVersion) {
+		final Map<String, Object> result = new HashMap<>();
+		synchronized (mSync) {
+			result.put("version", mVersion);
+			final Change oldest = mChanges.peekFirst();
+			final long n = mVersion - sinceVersion;
+			final boolean hasLog = (sinceVersion >= 0) && (n >= 0)
+				&& ((n == 0) || ((oldest != null) && (oldest.version <= sinceVersion + 1)));
+			if (hasLog && (n <= countLocked())) {
+				final List<Map<String, Object>> changes = new ArrayList<>((int)n);
+				// 新しい方から必要な数だけ取り出す
+				final Iterator<Change> it = mChanges.descendingIterator();
+				while (it.hasNext()) {
+					final Change change = it.next();
+					if (change.version <= sinceVersion) {
+						break;
+					}
+					final Map<String, Object> entry = new HashMap<>();
+					entry.put("op", change.op);
+					entry.put("room", change.room);
+					if (change.remotePeerId != null) {
+						entry.put("remotePeerId", change.remotePeerId);
+					}
+					changes.add(entry);
+				}
+				Collections.reverse(changes);
+				result.put("full", false);
+				result.put("changes", changes);
+			} else {
+				final Map<String, Object> rooms = new LinkedHashMap<>();
+				for (final Map.Entry<String, RoomEntry> e: mRooms.entrySet()) {
+					final Map<String, Object> entry = new HashMap<>();
+					entry.put("members", new ArrayList<>(e.getValue().members));
+					entry.put("streams", new ArrayList<>(e.getValue().streams));
+					rooms.put(e.getKey(), entry);
+				}
+				result.put("full", true);
+				result.put("rooms", rooms);
+			}
+		}
+		if (DEBUG) Log.v(TAG, "snapshot:since=" + sinceVersion + "," + result);
+		return result;
+	}
+
+	/**
+	 * イベントに付けたバージョンを取得する
+	 * @param message
+	 * @return バージョンが付いていなければ-1
+	 */
+	public static long versionOf(@Nullable final Map<String, Object> message) {
+		final Object version = message != null ? message.get(KEY_STATE_VERSION) : null;
+		return version instanceof Number ? ((Number)version).longValue() : -1;
+	}
+
+	/**
+	 * イベントに付けたバージョンの範囲の先頭を取得する
+	 * @param message
+	 * @return 引き継いだバージョンが無ければstateVersion, バージョンが付いていなければ-1
+	 */
+	public static long versionFromOf(@Nullable final Map<String, Object> message) {
+		final Object from = message != null ? message.get(KEY_STATE_VERSION_FROM) : null;
+		return from instanceof Number ? ((Number)from).longValue() : versionOf(message);
+	}
+
+	/**
+	 * 送信しなかったイベントのバージョン(範囲の先頭)を後続のイベントへ引き継ぐ
+	 * @param next 送信しなかったイベントより後に送信するイベント
+	 * @param from 送信しなかったイベントのversionFromOf
+	 * @return 引き継いだときはtrue, nextにバージョンが付いていないときはfalse
+	 */
+	public static boolean carryVersion(@NonNull final Map<String, Object> next, final long from) {
+		final long current = versionFromOf(next);
+		if (current < 0) {
+			return false;
+		}
+		if ((from >= 0) && (from < current)) {
+			next.put(KEY_STATE_VERSION_FROM, from);
+		}
+		return true;
+	}
+
+	/**
+	 * イベントに付けたハンドルを破棄したリモートピアidを取得する
+	 * @param message
+	 * @return 無ければnull
+	 */
+	@SuppressWarnings("unchecked")
+	@Nullable
+	public static List<String> releasedPeerIdsOf(@Nullable final Map<String, Object> message) {
+		final Object released = message != null ? message.get(KEY_RELEASED_PEER_IDS) : null;
+		return released instanceof List ? (List<String>)released : null;
+	}
+
+	/**
+	 * ハンドルを破棄したリモートピアidを後続のイベントへ引き継ぐ
+	 * (送信しなかったイベントに付いていたものを引き継がないとDart側でハンドルの対応が残ったままになる)
+	 * @param next
+	 * @param remotePeerIds
+	 */
+	public static void carryReleasedPeerIds(@NonNull final Map<String, Object> next,
+		@Nullable final Collection<String> remotePeerIds) {
+
+		if ((remotePeerIds == null) || remotePeerIds.isEmpty()) {
+			return;
+		}
+		final List<String> current = releasedPeerIdsOf(next);
+		final List<String> result = current != null ? current : new ArrayList<String>();
+		for (final String id: remotePeerIds) {
+			if (!result.contains(id)) {
+				result.add(id);
+			}
+		}
+		next.put(KEY_RELEASED_PEER_IDS, result);
+	}
+
+//--------------------------------------------------------------------------------
+	private long update(@NonNull final String op,
+		@NonNull final String room, @Nullable final String remotePeerId,
+		@Nullable final Collection<String> removed) {
+
+		synchronized (mSync) {
+			return updateLocked(op, room, remotePeerId, removed);
+		}
+	}
+
+	/**
+	 * mSyncをロックした状態で呼び出すこと
+	 */
+	private long updateLocked(@NonNull final String op,
+		@NonNull final String room, @Nullable final String remotePeerId,
+		@Nullable final Collection<String> removed) {
+
+		RoomEntry entry = mRooms.get(room);
+		final boolean changed;
+		if (OP_CLOSE.equals(op)) {
+			changed = mRooms.remove(room) != null;
+			if (changed && (removed != null)) {
+				removed.addAll(entry.members);
+				removed.addAll(entry.streams);
+			}
+		} else if (OP_OPEN.equals(op)) {
+			changed = entry == null;
+			if (changed) {
+				mRooms.put(room, new RoomEntry());
+			}
+		} else {
+			if (entry == null) {
+				// OPENより先にメンバーやリモート映像のイベントが来たとき
+				entry = new RoomEntry();
+				mRooms.put(room, entry);
+			}
+			if (OP_JOIN.equals(op)) {
+				changed = entry.members.add(remotePeerId);
+			} else if (OP_LEAVE.equals(op)) {
+				changed = entry.members.remove(remotePeerId);
+			} else if (OP_ADD_STREAM.equals(op)) {
+				changed = entry.streams.add(remotePeerId);
+			} else {
+				changed = entry.streams.remove(remotePeerId);
+			}
+			if (changed && (removed != null)
+				&& (OP_LEAVE.equals(op) || OP_REMOVE_STREAM.equals(op))) {
+				removed.add(remotePeerId);
+			}
+		}
+		if (!changed) {
+			return -1;
+		}
+		mVersion++;
+		if (mChanges.size() >= CHANGE_LOG_SIZE) {
+			mChanges.pollFirst();
+		}
+		mChanges.addLast(new Change(mVersion, op, room, remotePeerId));
+		return mVersion;
+	}
+
+	/**
+	 * 全体を返すときの要素数(ルーム数+メンバー数+リモート映像数)
+	 * mSyncをロックした状態で呼び出すこと
+	 * @return
+	 */
+	private int countLocked() {
+		int result = mRooms.size();
+		for (final RoomEntry entry: mRooms.values()) {
+			result += entry.members.size() + entry.streams.size();
+		}
+		return result;
+	}
+}
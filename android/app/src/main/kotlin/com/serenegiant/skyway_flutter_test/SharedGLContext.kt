@@ -0,0 +1,138 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.util.Log
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * テクスチャビュー(TextureFrameForwarder)で共有するGLスレッドとEGLのコンテキスト
+ * ビュー毎にスレッドとEGLのコンテキスト(とシェーダー)を生成するとビューの数だけ
+ * スレッドの切り替えとメモリが増えるので1つを共有して、ビュー毎には描画先(EglWindow)と
+ * 映像を受け取るテクスチャだけを生成する
+ * acquireで取得してreleaseで返す, 全て返したときにスレッドとコンテキストを破棄する
+ */
+class SharedGLContext private constructor() {
+	private val thread = HandlerThread(TAG).apply { start() }
+	/**
+	 * GLスレッドのHandler, SurfaceTexture#setOnFrameAvailableListenerへ渡す
+	 */
+	val handler = Handler(thread.looper)
+	/**
+	 * 以下はGLスレッド上でのみアクセスする
+	 */
+	lateinit var core: EglCore
+		private set
+	lateinit var drawer: OesTextureDrawer
+		private set
+	/**
+	 * 参照数, sSyncで保護する
+	 */
+	private var refCount = 0
+
+	/**
+	 * GLスレッド上で実行して終了するまで待つ
+	 * 既にGLスレッドが終了していれば何もしない
+	 */
+	fun runOnGLThread(task: () -> Unit) {
+		val latch = CountDownLatch(1)
+		val posted = handler.post {
+			try {
+				task()
+			} finally {
+				latch.countDown()
+			}
+		}
+		if (posted && !latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			Log.w(TAG, "runOnGLThread:timeout")
+		}
+	}
+
+	/**
+	 * acquireで取得したものを返す
+	 * 参照が無くなればGLスレッド上でコンテキストを破棄してからスレッドを終了する
+	 */
+	fun release() {
+		synchronized(sSync) {
+			if (--refCount > 0) {
+				return
+			}
+			if (sInstance === this) {
+				sInstance = null
+			}
+		}
+		if (DEBUG) Log.v(TAG, "release:")
+		handler.post {
+			releaseGL()
+		}
+		thread.quitSafely()
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * GLスレッド上でEGL/OpenGL|ESを初期化する
+	 * @return 初期化できればtrue
+	 */
+	private fun setup(): Boolean {
+		var initialized = false
+		runOnGLThread {
+			try {
+				core = EglCore()
+				drawer = OesTextureDrawer()
+				initialized = true
+			} catch (e: RuntimeException) {
+				Log.w(TAG, e)
+				releaseGL()
+			}
+		}
+		if (!initialized) {
+			thread.quit()
+		}
+		return initialized
+	}
+
+	/**
+	 * GLスレッド上で呼ぶこと
+	 */
+	private fun releaseGL() {
+		if (this::drawer.isInitialized) {
+			drawer.release()
+		}
+		if (this::core.isInitialized) {
+			core.release()
+		}
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = SharedGLContext::class.java.simpleName
+		/**
+		 * GLスレッド上での初期化/後始末を待つ最大時間
+		 */
+		private const val TIMEOUT_MS = 1000L
+
+		private val sSync = Any()
+		private var sInstance: SharedGLContext? = null
+
+		/**
+		 * 共有するGLスレッドとコンテキストを取得する, 無ければ生成する
+		 * 使い終わったらreleaseを呼ぶこと
+		 * @throws IllegalStateException EGLの初期化に失敗した
+		 */
+		@Throws(IllegalStateException::class)
+		fun acquire(): SharedGLContext {
+			synchronized(sSync) {
+				val result = sInstance ?: SharedGLContext().also {
+					if (DEBUG) Log.v(TAG, "acquire:create")
+					if (!it.setup()) {
+						throw IllegalStateException("failed to initialize EGL")
+					}
+					sInstance = it
+				}
+				result.refCount++
+				return result
+			}
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * イベント送信やメソッドチャネル呼び出し等のホットパスの計測値(カウンタ/ヒストグラム)を保持するクラス
+ * 計測値の記録はロックせずに配列/アトミック変数の更新だけで行うので
+ * (メソッド毎のヒストグラムを初めて生成するとき以外は)メモリを割り当てない
+ * どのスレッドから呼び出してもよい
+ */
+class SkywayMetrics {
+
+	/**
+	 * ヒストグラムを保持するメソッド名の最大数
+	 * これを超えた分はOTHER_METHODへまとめる
+	 */
+	private static final int MAX_METHODS = 64;
+	private static final String OTHER_METHOD = "other";
+
+	/**
+	 * 2のべき乗毎のバケットで値を集計するヒストグラム
+	 * バケットiには[2^(i-1), 2^i)の値が入る(バケット0は0)
+	 */
+	public static class Histogram {
+		/**
+		 * バケットの数, 2^(BUCKETS-2)以上の値は最後のバケットへ入れる
+		 */
+		private static final int BUCKETS = 32;
+
+		@NonNull
+		private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+		@NonNull
+		private final AtomicLong mCount = new AtomicLong();
+		@NonNull
+		private final AtomicLong mSum = new AtomicLong();
+		@NonNull
+		private final AtomicLong mMax = new AtomicLong();
+
+		/**
+		 * 値を記録する
+		 * @param value 負の値は0として扱う
+		 */
+		public void record(final long value) {
+			final long v = Math.max(0, value);
+			final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v));
+			mBuckets.incrementAndGet(bucket);
+			mCount.incrementAndGet();
+			mSum.addAndGet(v);
+			long max;
+			do {
+				max = mMax.get();
+			} while ((v > max) && !mMax.compareAndSet(max, v));
+		}
+
+		public void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				mBuckets.set(i, 0);
+			}
+			mCount.set(0);
+			mSum.set(0);
+			mMax.set(0);
+		}
+
+		/**
+		 * Dart側へ送るためにMapへ変換する
+		 * パーセンタイルは該当するバケットの上限値(近似値)
+		 * @return count, sum, max, p50, p90, p99, buckets(最後の0以外のバケットまで)
+		 */
+		@NonNull
+		public Map<String, Object> toMap() {
+			final long[] buckets = new long[BUCKETS];
+			long count = 0;
+			int last = -1;
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = mBuckets.get(i);
+				count += buckets[i];
+				if (buckets[i] != 0) {
+					last = i;
+				}
+			}
+			final List<Long> list = new ArrayList<>(last + 1);
+			for (int i = 0; i <= last; i++) {
+				list.add(buckets[i]);
+			}
+			final Map<String, Object> result = new HashMap<>();
+			result.put("count", count);
+			result.put("sum", mSum.get());
+			result.put("max", mMax.get());
+			result.put("p50", percentile(buckets, count, 50));
+			result.put("p90", percentile(buckets, count, 90));
+			result.put("p99", percentile(buckets, count, 99));
+			result.put("buckets", list);
+			return result;
+		}
+
+		private static long percentile(@NonNull final long[] buckets,
+			final long count, final int percent) {
+
+			final long threshold = (count * percent + 99) / 100;
+			long sum = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				sum += buckets[i];
+				if ((sum > 0) && (sum >= threshold)) {
+					return i > 0 ? (1L << i) - 1 : 0;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * 送信したイベントの数, インデックスはConst.SkywayEventのordinal
+	 */
+	@NonNull
+	private final AtomicLongArray mEvents
+		= new AtomicLongArray(Const.SkywayEvent.values().length);
+	/**
+	 * 破棄済みのために送信できなかったイベントの数
+	 */
+	@NonNull
+	private final AtomicLong mSendFailures = new AtomicLong();
+	/**
+	 * Dart側がlistenしていないために送信待ちのバッファへ追加したイベントの数
+	 */
+	@NonNull
+	private final AtomicLong mBuffered = new AtomicLong();
+	/**
+	 * 送信待ちのバッファ内で同じ対象の新しいイベントにまとめたために取り除いたイベントの数
+	 */
+	@NonNull
+	private final AtomicLong mCoalesced = new AtomicLong();
+	/**
+	 * 送信待ちのバッファが溢れたために破棄したイベントの数
+	 */
+	@NonNull
+	private final AtomicLong mOverflowed = new AtomicLong();
+	/**
+	 * メソッドチャネルのハンドラーの処理時間[マイクロ秒], キーはメソッド名
+	 */
+	@NonNull
+	private final ConcurrentHashMap<String, Histogram> mMethods = new ConcurrentHashMap<>();
+	/**
+	 * リモート映像を受信(STREAM)してから描画を開始(addVideoRenderer)するまでの時間[ミリ秒]
+	 */
+	@NonNull
+	private final Histogram mStreamToRender = new Histogram();
+	private volatile long mResetAtMs = SystemClock.elapsedRealtime();
+
+	/**
+	 * イベントを送信したことを記録する
+	 * @param event
+	 */
+	public void onEvent(@NonNull final Const.SkywayEvent event) {
+		mEvents.incrementAndGet(event.ordinal());
+	}
+
+	/**
+	 * 破棄済みのためにイベントを送信できなかったことを記録する
+	 */
+	public void onSendFailed() {
+		mSendFailures.incrementAndGet();
+	}
+
+	/**
+	 * イベントを送信待ちのバッファへ追加したことを記録する
+	 * @param result PendingEventBuffer#offerの結果
+	 */
+	public void onEventBuffered(final int result) {
+		switch (result) {
+		case PendingEventBuffer.RESULT_COALESCED:
+			mCoalesced.incrementAndGet();
+			mBuffered.incrementAndGet();
+			break;
+		case PendingEventBuffer.RESULT_DROPPED_OLDEST:
+			mOverflowed.incrementAndGet();
+			mBuffered.incrementAndGet();
+			break;
+		case PendingEventBuffer.RESULT_REJECTED:
+			mOverflowed.incrementAndGet();
+			break;
+		default:
+			mBuffered.incrementAndGet();
+			break;
+		}
+	}
+
+	/**
+	 * メソッドチャネルのハンドラーの処理時間を記録する
+	 * @param method
+	 * @param durationNs
+	 */
+	public void recordMethod(@Nullable final String method, final long durationNs) {
+		getMethodHistogram(method).record(durationNs / 1000);
+	}
+
+	/**
+	 * リモート映像を受信してから描画を開始するまでの時間を記録する
+	 * @param durationNs
+	 */
+	public void recordStreamToRender(final long durationNs) {
+		mStreamToRender.record(durationNs / 1000000);
+	}
+
+	/**
+	 * 全ての計測値を0に戻す
+	 */
+	public void reset() {
+		for (int i = 0, n = mEvents.length(); i < n; i++) {
+			mEvents.set(i, 0);
+		}
+		mSendFailures.set(0);
+		mBuffered.set(0);
+		mCoalesced.set(0);
+		mOverflowed.set(0);
+		for (final Histogram histogram: mMethods.values()) {
+			histogram.reset();
+		}
+		mStreamToRender.reset();
+		mResetAtMs = SystemClock.elapsedRealtime();
+	}
+
+	/**
+	 * Dart側へ送るために現在の計測値をMapへ変換する
+	 * @return events(イベント名毎の送信数), sendFailures,
+	 * 			bufferedEvents, coalescedEvents, overflowedEvents(listen前の送信待ちのバッファ),
+	 * 			methodUs(メソッド名毎のヒストグラム),
+	 * 			streamToRenderMs, elapsedMs(前回のreset/生成からの経過時間)
+	 */
+	@NonNull
+	public Map<String, Object> snapshot() {
+		final Const.SkywayEvent[] values = Const.SkywayEvent.values();
+		final Map<String, Object> events = new HashMap<>();
+		for (int i = 0; i < values.length; i++) {
+			final long count = mEvents.get(i);
+			if (count != 0) {
+				events.put(values[i].name(), count);
+			}
+		}
+		final Map<String, Object> methods = new HashMap<>();
+		for (final Map.Entry<String, Histogram> entry: mMethods.entrySet()) {
+			methods.put(entry.getKey(), entry.getValue().toMap());
+		}
+		final Map<String, Object> result = new HashMap<>();
+		result.put("events", events);
+		result.put("sendFailures", mSendFailures.get());
+		result.put("bufferedEvents", mBuffered.get());
+		result.put("coalescedEvents", mCoalesced.get());
+		result.put("overflowedEvents", mOverflowed.get());
+		result.put("methodUs", methods);
+		result.put("streamToRenderMs", mStreamToRender.toMap());
+		result.put("elapsedMs", SystemClock.elapsedRealtime() - mResetAtMs);
+		return result;
+	}
+
+//--------------------------------------------------------------------------------
+	@NonNull
+	private Histogram getMethodHistogram(@Nullable final String method) {
+		final String name = method != null ? method : OTHER_METHOD;
+		Histogram result = mMethods.get(name);
+		if (result == null) {
+			final String key = mMethods.size() < MAX_METHODS ? name : OTHER_METHOD;
+			result = mMethods.get(key);
+			if (result == null) {
+				final Histogram histogram = new Histogram();
+				result = mMethods.putIfAbsent(key, histogram);
+				if (result == null) {
+					result = histogram;
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,184 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.content.Context
+import android.util.Log
+import io.flutter.view.TextureRegistry
+
+/**
+ * 複数のリモート映像を1つのFlutterのテクスチャへ合成して表示するモザイク表示
+ * Dart側はレイアウト(MosaicLayout.GRID/SPEAKER)とリモートピアの並び順だけを指定して
+ * タイルの位置計算とタイル毎のFlutterSkywayCanvas(ビュー階層外で描画する)の生成/破棄はネイティブ側で行う
+ * 同じリモートピアのタイルは並び順やレイアウトが変わっても作り直さずに描画位置だけを変更する
+ * メインスレッド上で呼び出すこと
+ * 生成に失敗したときはIllegalStateExceptionを投げる
+ * @param factory タイルの生成に使う
+ * @param context
+ * @param entry 合成した映像の描画先
+ * @param width 描画先のサイズ(0以下ならCanvasTextureBridge.DEFAULT_WIDTH)
+ * @param height 描画先のサイズ(0以下ならCanvasTextureBridge.DEFAULT_HEIGHT)
+ */
+class SkywayMosaic(
+	private val factory: CanvasFactory,
+	private val context: Context,
+	private val entry: TextureRegistry.SurfaceTextureEntry,
+	width: Int, height: Int) {
+
+	/**
+	 * 1つのリモートピアのタイル
+	 */
+	private class TileView(
+		val view: FlutterSkywayCanvas,
+		val tile: MosaicCompositor.Tile)
+
+	private var width = if (width > 0) width else CanvasTextureBridge.DEFAULT_WIDTH
+	private var height = if (height > 0) height else CanvasTextureBridge.DEFAULT_HEIGHT
+	private val compositor = MosaicCompositor(entry.surfaceTexture(), this.width, this.height)
+	/**
+	 * リモートピアのidとタイル, 並び順の通り
+	 */
+	private val tiles = LinkedHashMap<String, TileView>()
+	private var layout = MosaicLayout.GRID
+
+	/**
+	 * Dart側識別用id
+	 */
+	val mosaicId: Int
+		get() = entry.id().toInt()
+
+	/**
+	 * Flutterのテクスチャid(Textureウイジェットへ渡す)
+	 */
+	val textureId: Long
+		get() = entry.id()
+
+	/**
+	 * レイアウトとリモートピアの並び順を設定する
+	 * 並び順に含まれなくなったリモートピアのタイルは破棄し, 新しく含まれたリモートピアのタイルを生成する
+	 * 新しく生成したタイルは呼び出し側でFlutterSkywayPeer#startRemoteStreamを呼んで映像の取得を開始すること
+	 * @param layout MosaicLayout.GRID/SPEAKER
+	 * @param peerIds 表示するリモートピアのid(SPEAKERのときは先頭を大きく表示する)
+	 * @param width 描画先のサイズ, 0以下なら変更しない
+	 * @param height 描画先のサイズ, 0以下なら変更しない
+	 * @return 新しく生成したタイルのリモートピアのidとviewId
+	 * @throws IllegalArgumentException
+	 */
+	fun setLayout(layout: String, peerIds: List<String>,
+		width: Int, height: Int): Map<String, Int> {
+
+		if (DEBUG) Log.v(TAG, "setLayout:$layout,n=${peerIds.size},${width}x${height}")
+		val remotePeerIds = peerIds.distinct()
+		if (!MosaicLayout.isValid(layout)) {
+			throw IllegalArgumentException("Unknown mosaic layout,$layout")
+		}
+		this.layout = layout
+		if ((width > 0) && (height > 0) && ((width != this.width) || (height != this.height))) {
+			this.width = width
+			this.height = height
+			compositor.resize(width, height)
+		}
+		// 並び順に含まれなくなったリモートピアのタイルを破棄する
+		val iter = tiles.entries.iterator()
+		while (iter.hasNext()) {
+			val e = iter.next()
+			if (!remotePeerIds.contains(e.key)) {
+				iter.remove()
+				factory.disposeTile(e.value.view)
+			}
+		}
+		// 新しく含まれたリモートピアのタイルを先に生成してから, 生成できたタイルだけで描画位置を計算する
+		// (生成に失敗したタイルの場所が空いたままにならないように)
+		val added = mutableMapOf<String, Int>()
+		val newCount = remotePeerIds.count { !tiles.containsKey(it) }
+		if (newCount > 0) {
+			// タイル毎にGLスレッドと待ち合わせしないように入力はまとめて生成する
+			val inputs = compositor.createInputs(newCount)
+			// 生成時のサイズは全てのタイルを生成できたときの配置から決める
+			val rects = MosaicLayout.compute(layout, remotePeerIds.size, this.width, this.height)
+			for ((i, remotePeerId) in remotePeerIds.withIndex()) {
+				if (tiles.containsKey(remotePeerId)) {
+					continue
+				}
+				if (inputs.isEmpty()) {
+					Log.w(TAG, "setLayout:failed to create tile input for $remotePeerId")
+					break
+				}
+				val input = inputs.removeAt(0)
+				var tile: MosaicCompositor.Tile? = null
+				val view = factory.createTile(context, rects[i * 4 + 2], rects[i * 4 + 3]) { canvas, cw, ch, limiter ->
+					compositor.createTile(canvas, cw, ch, limiter, input).also { tile = it }
+				}
+				val t = tile
+				if (t == null) {
+					// タイルへ渡していなければ入力を破棄する(渡していればタイルと一緒に破棄される)
+					compositor.releaseInputs(listOf(input))
+				}
+				if ((view == null) || (t == null)) {
+					Log.w(TAG, "setLayout:failed to create tile for $remotePeerId")
+					continue
+				}
+				tiles[remotePeerId] = TileView(view, t)
+				added[remotePeerId] = view.viewId
+			}
+			compositor.releaseInputs(inputs)
+		}
+		// 生成できたタイルだけを並び順の通りに配置する
+		val ordered = LinkedHashMap<String, TileView>()
+		for (remotePeerId in remotePeerIds) {
+			tiles[remotePeerId]?.let { ordered[remotePeerId] = it }
+		}
+		val rects = MosaicLayout.compute(layout, ordered.size, this.width, this.height)
+		for ((i, tileView) in ordered.values.withIndex()) {
+			val w = rects[i * 4 + 2]
+			val h = rects[i * 4 + 3]
+			// 生成時と同じサイズなら何もしない
+			tileView.view.setRenderSize(w, h)
+			compositor.setTileRect(tileView.tile, rects[i * 4], rects[i * 4 + 1], w, h)
+		}
+		tiles.clear()
+		tiles.putAll(ordered)
+		return added
+	}
+
+	/**
+	 * リモートピアのidとタイルのviewId(並び順の通り)
+	 * タイル毎の描画方法の設定や描画/間引いたフレーム数の取得に使う
+	 */
+	fun tileViewIds(): Map<String, Int> {
+		val result = LinkedHashMap<String, Int>()
+		for ((remotePeerId, tileView) in tiles) {
+			result[remotePeerId] = tileView.view.viewId
+		}
+		return result
+	}
+
+	/**
+	 * 統計情報を取得する
+	 */
+	fun stats(): Map<String, Any> {
+		return mapOf(
+			"mosaicId" to mosaicId,
+			"layout" to layout,
+			"width" to width,
+			"height" to height,
+			"tiles" to tiles.size,
+			"compositedFrames" to compositor.compositedFrames)
+	}
+
+	/**
+	 * 破棄する, タイルを破棄(描画中のリモート映像から取り除く)してから合成処理を破棄する
+	 */
+	fun release() {
+		if (DEBUG) Log.v(TAG, "release:")
+		for (tileView in tiles.values) {
+			factory.disposeTile(tileView.view)
+		}
+		tiles.clear()
+		compositor.release()
+		entry.release()
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = SkywayMosaic::class.java.simpleName
+	}
+}
@@ -0,0 +1,158 @@
+package com.serenegiant.skyway_flutter_test
+
+import android.graphics.SurfaceTexture
+import android.opengl.GLES20
+import android.util.Log
+import android.view.Surface
+
+/**
+ * Canvasが描画した映像フレームを一旦自前のSurfaceTextureで受け取って
+ * FrameRateLimiterで間引いたうえでFlutterのテクスチャ(SurfaceTexture)へ転送するためのクラス
+ * 間引くフレームはupdateTexImageで読み捨てるだけでFlutter側へは描画しない
+ * 受け取る側と転送先は同じサイズにするのでCanvasが縮小して描画した映像をそのまま転送する
+ * OpenGL|ESの処理は全てのTextureFrameForwarderで共有するGLスレッド(SharedGLContext)上で行い
+ * インスタンス毎には描画先(EglWindow)と映像を受け取るテクスチャだけを生成する
+ * EGLの初期化に失敗したときはIllegalStateExceptionを投げる
+ * @param output 転送先(FlutterのTextureRegistryへ登録したSurfaceTexture)
+ * @param width 映像サイズ
+ * @param height 映像サイズ
+ * @param limiter 描画間隔の制限と描画/間引いたフレームの計数
+ */
+class TextureFrameForwarder(
+	private val output: SurfaceTexture,
+	width: Int, height: Int,
+	private val limiter: FrameRateLimiter) : SurfaceTexture.OnFrameAvailableListener {
+
+	private val gl = SharedGLContext.acquire()
+	private val texMatrix = FloatArray(16)
+	// 以下はGLスレッド上でのみアクセスする
+	private var window: EglWindow? = null
+	private var input: SurfaceTexture? = null
+	private var texId = 0
+	private var width = width
+	private var height = height
+	private var released = false
+
+	/**
+	 * Canvasの描画先として渡すSurface
+	 */
+	val inputSurface: Surface
+
+	init {
+		if (DEBUG) Log.v(TAG, "ctor:${width}x${height}")
+		var surface: Surface? = null
+		gl.runOnGLThread {
+			try {
+				surface = Surface(setup())
+			} catch (e: RuntimeException) {
+				Log.w(TAG, e)
+				cleanup()
+			}
+		}
+		inputSurface = surface ?: run {
+			gl.release()
+			throw IllegalStateException("failed to initialize EGL")
+		}
+	}
+
+	/**
+	 * 映像サイズを変更する
+	 * 呼び出し後にCanvasへSurfaceHolder.Callback#surfaceChangedで通知すること
+	 * (変更前のサイズで描画されないようにGLスレッド上で変更するまで待つ)
+	 * @param width
+	 * @param height
+	 */
+	fun resize(width: Int, height: Int) {
+		if (DEBUG) Log.v(TAG, "resize:${width}x${height}")
+		gl.runOnGLThread {
+			if (!released) {
+				this.width = width
+				this.height = height
+				input?.setDefaultBufferSize(width, height)
+				window?.resize(width, height)
+			}
+		}
+	}
+
+	/**
+	 * 破棄する, 転送先を破棄する前に呼び出すこと
+	 * GLスレッド上での後始末が終わるまで待つ
+	 */
+	fun release() {
+		if (DEBUG) Log.v(TAG, "release:")
+		gl.runOnGLThread {
+			cleanup()
+		}
+		inputSurface.release()
+		gl.release()
+	}
+
+	/**
+	 * Canvasが描画したときの処理, GLスレッド上で呼ばれる
+	 */
+	override fun onFrameAvailable(surfaceTexture: SurfaceTexture) {
+		val window = window
+		if (released || (window == null)) {
+			return
+		}
+		// 他のTextureFrameForwarderと同じコンテキストを使うので自分の描画先へ切り替える
+		// (共有するGLスレッドを止めないように失敗したときはこのフレームを捨てる)
+		try {
+			window.makeCurrent()
+		} catch (e: IllegalStateException) {
+			Log.w(TAG, e)
+			return
+		}
+		// 間引くときも次のフレームを受け取れるように読み捨てる必要がある
+		surfaceTexture.updateTexImage()
+		if (!limiter.onFrame(System.nanoTime())) {
+			return
+		}
+		surfaceTexture.getTransformMatrix(texMatrix)
+		GLES20.glViewport(0, 0, width, height)
+		gl.drawer.draw(texId, texMatrix)
+		window.swap()
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * 描画先とテクスチャの初期化, GLスレッド上で呼ぶこと
+	 * @return Canvasが描画した映像を受け取るSurfaceTexture
+	 */
+	private fun setup(): SurfaceTexture {
+		window = EglWindow(gl.core, output, width, height)
+		texId = OesTextureDrawer.createOesTexture()
+		return SurfaceTexture(texId).also {
+			it.setDefaultBufferSize(width, height)
+			it.setOnFrameAvailableListener(this, gl.handler)
+			input = it
+		}
+	}
+
+	/**
+	 * 描画先とテクスチャの後始末, GLスレッド上で呼ぶこと
+	 * 共有するコンテキストは破棄しない
+	 */
+	private fun cleanup() {
+		if (released) {
+			return
+		}
+		released = true
+		input?.let {
+			it.setOnFrameAvailableListener(null)
+			it.release()
+		}
+		input = null
+		if (texId != 0) {
+			OesTextureDrawer.deleteTexture(texId)
+			texId = 0
+		}
+		window?.release()
+		window = null
+	}
+
+	companion object {
+		private const val DEBUG = true // set false on production
+		private val TAG = TextureFrameForwarder::class.java.simpleName
+	}
+}
@@ -0,0 +1,184 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 大人数のルームを模擬する合成トラフィック
+ * 合成したリモートピア毎に PEER_JOIN → STREAM → REMOVE_STREAM → PEER_LEAVE の順でイベントを発生させ,
+ * 指定した割合でERRORとルームの切断(CLOSE → 再入室)を混ぜる
+ * SkyWay SDKには依存しないのでbenchmarkモジュールのSkywaySimulator(フェイクのSDKのRoomへイベントを発生させる)と
+ * appモジュールのユニットテスト(SDK無しでRoomStateModel等へ直接適用する)の両方から使う
+ */
+class SimulatedTraffic {
+
+	public static final String REMOTE_PREFIX = "sim-";
+
+	// 合成したリモートピアの状態, 次に発生させるイベント
+	public static final int STATE_JOIN = 0;
+	public static final int STATE_STREAM = 1;
+	public static final int STATE_REMOVE_STREAM = 2;
+	public static final int STATE_LEAVE = 3;
+	public static final int NUM_STATES = 4;
+
+	/**
+	 * 発生させたイベントを受け取るコールバックリスナー
+	 */
+	public interface Listener {
+		/**
+		 * リモートピアのイベント
+		 * @param state STATE_XXX
+		 * @param peerIx 合成したリモートピアのインデックス
+		 * @param room
+		 * @param remotePeerId
+		 * @return ルームへ入室していないなどでイベントを発生させなかったときはfalse,
+		 * 			リモートピアの状態を進めない
+		 */
+		public boolean onPeerEvent(final int state, final int peerIx,
+			@NonNull final String room, @NonNull final String remotePeerId);
+
+		/**
+		 * ルームのERROR
+		 * @param room
+		 */
+		public void onError(@NonNull final String room);
+
+		/**
+		 * ルームの切断(CLOSE → 再入室)
+		 * @param roomIx ルームのインデックス
+		 * @param room
+		 * @return ルームへ入室していないなどで切断しなかったときはfalse
+		 */
+		public boolean onDisconnect(final int roomIx, @NonNull final String room);
+	}
+
+	private final int mPeers;
+	private final int mRooms;
+	private final double mErrorRate;
+	private final double mDisconnectRate;
+	@NonNull
+	private final Random mRandom;
+	@NonNull
+	private final String[] mRemoteIds;
+	@NonNull
+	private final String[] mRoomNames;
+	@NonNull
+	private final int[] mStates;
+
+	/**
+	 * コンストラクタ
+	 * @param peers 合成するリモートピアの数
+	 * @param rooms ルームの数, リモートピアはルームへ均等に割り振る
+	 * @param errorRate イベントのうちERRORにする割合
+	 * @param disconnectRate イベントのうちルームの切断にする割合
+	 * @param seed
+	 */
+	public SimulatedTraffic(final int peers, final int rooms,
+		final double errorRate, final double disconnectRate, final long seed) {
+
+		if ((peers <= 0) || (rooms <= 0)) {
+			throw new IllegalArgumentException("peers and rooms must be positive");
+		}
+		mPeers = peers;
+		mRooms = rooms;
+		mErrorRate = errorRate;
+		mDisconnectRate = disconnectRate;
+		mRandom = new Random(seed);
+		mRemoteIds = new String[peers];
+		for (int i = 0; i < peers; i++) {
+			mRemoteIds[i] = REMOTE_PREFIX + i;
+		}
+		mRoomNames = new String[rooms];
+		for (int i = 0; i < rooms; i++) {
+			mRoomNames[i] = "room" + i;
+		}
+		mStates = new int[peers];
+	}
+
+	public int getPeers() {
+		return mPeers;
+	}
+
+	public int getRooms() {
+		return mRooms;
+	}
+
+	@NonNull
+	public String roomName(final int roomIx) {
+		return mRoomNames[roomIx];
+	}
+
+	@NonNull
+	public String remotePeerId(final int peerIx) {
+		return mRemoteIds[peerIx];
+	}
+
+	/**
+	 * 合成したリモートピアが割り振られているルームのインデックス
+	 * @param peerIx
+	 * @return
+	 */
+	public int roomOf(final int peerIx) {
+		return peerIx % mRooms;
+	}
+
+	/**
+	 * 合成したリモートピアが次に発生させるイベント
+	 * @param peerIx
+	 * @return STATE_XXX
+	 */
+	public int stateOf(final int peerIx) {
+		return mStates[peerIx];
+	}
+
+	/**
+	 * リモートピアidから合成したリモートピアのインデックスを取得する
+	 * @param remotePeerId
+	 * @return 合成したリモートピアでなければ-1
+	 */
+	public int indexOf(@NonNull final String remotePeerId) {
+		if (remotePeerId.startsWith(REMOTE_PREFIX)) {
+			try {
+				final int ix = Integer.parseInt(remotePeerId.substring(REMOTE_PREFIX.length()));
+				return (ix >= 0) && (ix < mPeers) ? ix : -1;
+			} catch (final NumberFormatException e) {
+				// ignore
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * イベントを1つ発生させる
+	 * @param listener
+	 */
+	public void next(@NonNull final Listener listener) {
+		final double r = mRandom.nextDouble();
+		if (r < mDisconnectRate) {
+			disconnect(mRandom.nextInt(mRooms), listener);
+		} else if (r < mDisconnectRate + mErrorRate) {
+			listener.onError(mRoomNames[mRandom.nextInt(mRooms)]);
+		} else {
+			final int ix = mRandom.nextInt(mPeers);
+			final int state = mStates[ix];
+			if (listener.onPeerEvent(state, ix, mRoomNames[roomOf(ix)], mRemoteIds[ix])) {
+				mStates[ix] = (state + 1) % NUM_STATES;
+			}
+		}
+	}
+
+	/**
+	 * ルームの切断を発生させる
+	 * ルーム内の合成したリモートピアは全て退室したことにする
+	 * @param roomIx
+	 * @param listener
+	 */
+	public void disconnect(final int roomIx, @NonNull final Listener listener) {
+		if (listener.onDisconnect(roomIx, mRoomNames[roomIx])) {
+			for (int i = roomIx; i < mPeers; i += mRooms) {
+				mStates[i] = STATE_JOIN;
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventBatcherTest {
+
+	/**
+	 * Dart側のSkywayRoomState#applyEventと同じ判定でイベントを適用する
+	 */
+	private static class DartRoomState {
+		private final Map<String, Set<String>> members = new HashMap<>();
+		private final Map<String, Set<String>> streams = new HashMap<>();
+		private long version;
+
+		/**
+		 * @return バージョンが飛んでいてgetRoomStateで同期し直す必要があるときはfalse
+		 */
+		private boolean applyEvent(@NonNull final Map<String, Object> args) {
+			final long stateVersion = RoomStateModel.versionOf(args);
+			if ((stateVersion < 0) || (stateVersion <= version)) {
+				return true;
+			}
+			if (RoomStateModel.versionFromOf(args) > version + 1) {
+				return false;
+			}
+			final String room = (String)args.get("room");
+			final String remotePeerId = (String)args.get("remotePeerId");
+			if (!members.containsKey(room)) {
+				members.put(room, new HashSet<String>());
+				streams.put(room, new HashSet<String>());
+			}
+			switch (Const.SkywayEvent.valueOf((String)args.get("event"))) {
+			case OnJoin:
+				members.get(room).add(remotePeerId);
+				break;
+			case OnLeave:
+				members.get(room).remove(remotePeerId);
+				break;
+			case OnAddRemoteStream:
+				streams.get(room).add(remotePeerId);
+				break;
+			case OnRemoveRemoteStream:
+				streams.get(room).remove(remotePeerId);
+				break;
+			default:
+				break;
+			}
+			version = stateVersion;
+			return true;
+		}
+	}
+
+	private static class TestSink implements EventBatcher.Sink {
+		private final List<Map<String, Object>> flushed = new ArrayList<>();
+
+		@Override
+		public void onFlush(@NonNull final List<Map<String, Object>> events) {
+			flushed.addAll(events);
+		}
+	}
+
+	/**
+	 * FlutterSkywayPeer#sendMessageと同じくルームの状態を更新してバージョンを付けてから追加する
+	 */
+	private static void send(@NonNull final RoomStateModel model, @NonNull final EventBatcher batcher,
+		@NonNull final Const.SkywayEvent event, final String remotePeerId) {
+
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", event.name());
+		message.put("room", "room");
+		if (remotePeerId != null) {
+			message.put("remotePeerId", remotePeerId);
+		}
+		final long version = model.apply(message);
+		if (version >= 0) {
+			message.put(RoomStateModel.KEY_STATE_VERSION, version);
+		}
+		batcher.offer(message);
+	}
+
+	@Test
+	public void cancelsAddAndRemoveInSameBatch() {
+		final RoomStateModel model = new RoomStateModel();
+		final TestSink sink = new TestSink();
+		final EventBatcher batcher = new EventBatcher(sink);
+		batcher.setInterval(EventBatcher.BATCH_PER_FRAME);
+		send(model, batcher, Const.SkywayEvent.OnAddRemoteStream, "a");
+		send(model, batcher, Const.SkywayEvent.OnJoin, "b");
+		send(model, batcher, Const.SkywayEvent.OnRemoveRemoteStream, "a");
+		batcher.flush();
+		assertEquals(1, sink.flushed.size());
+		assertEquals(Const.SkywayEvent.OnJoin.name(), sink.flushed.get(0).get("event"));
+	}
+
+	/**
+	 * 打ち消したイベントのバージョンを後続のイベントへ引き継いで
+	 * Dart側がバージョンの飛びを取りこぼしとして扱わずに適用できることを確認する
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void cancellationCarriesVersionToApplyEvent() {
+		final RoomStateModel model = new RoomStateModel();
+		final TestSink sink = new TestSink();
+		final EventBatcher batcher = new EventBatcher(sink);
+		batcher.setInterval(EventBatcher.BATCH_PER_FRAME);
+		final DartRoomState dart = new DartRoomState();
+
+		send(model, batcher, Const.SkywayEvent.OnOpenRoom, null);			// v1
+		send(model, batcher, Const.SkywayEvent.OnJoin, "a");				// v2
+		send(model, batcher, Const.SkywayEvent.OnAddRemoteStream, "a");		// v3 打ち消される
+		send(model, batcher, Const.SkywayEvent.OnJoin, "b");				// v4 ← v3を引き継ぐ
+		send(model, batcher, Const.SkywayEvent.OnRemoveRemoteStream, "a");	// v5 打ち消す
+		batcher.flush();
+		assertEquals(3, sink.flushed.size());
+		final Map<String, Object> joinB = sink.flushed.get(2);
+		assertEquals(4L, RoomStateModel.versionOf(joinB));
+		assertEquals(3L, RoomStateModel.versionFromOf(joinB));
+		for (final Map<String, Object> message: sink.flushed) {
+			assertTrue(message.toString(), dart.applyEvent(message));
+		}
+		assertEquals(4, dart.version);
+
+		// 打ち消す側のイベントのバージョンは次のバッチの最初のイベントへ引き継ぐ
+		sink.flushed.clear();
+		send(model, batcher, Const.SkywayEvent.OnJoin, "c");				// v6 打ち消される
+		send(model, batcher, Const.SkywayEvent.OnLeave, "c");				// v7 打ち消す
+		send(model, batcher, Const.SkywayEvent.OnAddRemoteStream, "b");		// v8 ← v5〜7を引き継ぐ
+		batcher.flush();
+		assertEquals(1, sink.flushed.size());
+		assertEquals(5L, RoomStateModel.versionFromOf(sink.flushed.get(0)));
+		assertTrue(dart.applyEvent(sink.flushed.get(0)));
+		assertEquals(8, dart.version);
+
+		// 同期し直さなくてもプラットフォーム側の状態と一致する
+		final Map<String, Object> full = model.snapshot(-1);
+		assertEquals(full.get("version"), dart.version);
+		final Map<String, Object> room = (Map<String, Object>)((Map<String, Object>)full.get("rooms")).get("room");
+		assertEquals(new HashSet<>((List<String>)room.get("members")), dart.members.get("room"));
+		assertEquals(new HashSet<>((List<String>)room.get("streams")), dart.streams.get("room"));
+	}
+
+	/**
+	 * 打ち消したイベントに付いていたハンドルを破棄したリモートピアidを取りこぼさないことを確認する
+	 */
+	@Test
+	public void cancellationCarriesReleasedPeerIds() {
+		final RoomStateModel model = new RoomStateModel();
+		final TestSink sink = new TestSink();
+		final EventBatcher batcher = new EventBatcher(sink);
+		batcher.setInterval(EventBatcher.BATCH_PER_FRAME);
+		send(model, batcher, Const.SkywayEvent.OnJoin, "a");
+		final Map<String, Object> leave = new HashMap<>();
+		leave.put("event", Const.SkywayEvent.OnLeave.name());
+		leave.put("room", "room");
+		leave.put("remotePeerId", "a");
+		final List<String> released = new ArrayList<>();
+		released.add("a");
+		leave.put(RoomStateModel.KEY_RELEASED_PEER_IDS, released);
+		batcher.offer(leave);
+		batcher.flush();
+		assertTrue(sink.flushed.isEmpty());
+
+		// 打ち消した後に送信するイベントへ引き継ぐ
+		send(model, batcher, Const.SkywayEvent.OnJoin, "b");
+		batcher.flush();
+		assertEquals(1, sink.flushed.size());
+		assertEquals(released, RoomStateModel.releasedPeerIdsOf(sink.flushed.get(0)));
+	}
+
+	@Test
+	public void gapWithoutCarriedVersionNeedsResync() {
+		final DartRoomState dart = new DartRoomState();
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", Const.SkywayEvent.OnJoin.name());
+		message.put("room", "room");
+		message.put("remotePeerId", "a");
+		message.put(RoomStateModel.KEY_STATE_VERSION, 3L);
+		assertFalse(dart.applyEvent(message));
+		message.put(RoomStateModel.KEY_STATE_VERSION_FROM, 1L);
+		assertTrue(dart.applyEvent(message));
+		assertEquals(3, dart.version);
+	}
+}
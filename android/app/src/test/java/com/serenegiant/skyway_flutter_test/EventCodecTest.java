@@ -0,0 +1,170 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventCodecTest {
+	// EventCodecの値の型とキーid
+	private static final int TYPE_STRING = 0;
+	private static final int TYPE_LONG = 1;
+	private static final int TYPE_DOUBLE = 2;
+	private static final int TYPE_STRING_LIST = 3;
+	private static final int KEY_REMOTE_PEER_ID = 0;
+	private static final int KEY_CUSTOM = 0xff;
+
+	private static ByteBuffer encode(final int peerHandle,
+		final List<Map<String, Object>> events) {
+
+		final ByteBuffer buf = new EventCodec().encode(peerHandle, events);
+		buf.flip();
+		return buf.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static String getString(final ByteBuffer buf) {
+		final byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void encodesHeaderAndFields() {
+		final Map<String, Object> message = new LinkedHashMap<>();
+		message.put("event", Const.SkywayEvent.OnJoin.name());
+		message.put("peerId", "local");
+		message.put("remotePeerId", "remote");
+		message.put("stateVersion", 7L);
+		message.put("ratio", 0.5);
+		message.put("ids", Arrays.asList("a", "b"));
+		final ByteBuffer buf = encode(3, Collections.singletonList(message));
+
+		assertEquals(EventCodec.VERSION, buf.get() & 0xff);
+		assertEquals(3, buf.getInt());
+		assertEquals(1, buf.getInt());
+		assertEquals(Const.SkywayEvent.OnJoin.ordinal(), buf.get() & 0xff);
+		// eventとpeerIdはフィールドに含めない
+		assertEquals(4, buf.getInt());
+
+		assertEquals(KEY_REMOTE_PEER_ID, buf.get() & 0xff);
+		assertEquals(TYPE_STRING, buf.get());
+		assertEquals("remote", getString(buf));
+
+		assertEquals(KEY_CUSTOM, buf.get() & 0xff);
+		assertEquals("stateVersion", getString(buf));
+		assertEquals(TYPE_LONG, buf.get());
+		assertEquals(7L, buf.getLong());
+
+		assertEquals(KEY_CUSTOM, buf.get() & 0xff);
+		assertEquals("ratio", getString(buf));
+		assertEquals(TYPE_DOUBLE, buf.get());
+		assertEquals(0.5, buf.getDouble(), 0.0);
+
+		assertEquals(KEY_CUSTOM, buf.get() & 0xff);
+		assertEquals("ids", getString(buf));
+		assertEquals(TYPE_STRING_LIST, buf.get());
+		assertEquals(2, buf.getInt());
+		assertEquals("a", getString(buf));
+		assertEquals("b", getString(buf));
+		assertEquals(0, buf.remaining());
+	}
+
+	@Test
+	public void encodesMultiByteUtf8() {
+		final String str = "ルーム😀é";
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", Const.SkywayEvent.OnOpenRoom.name());
+		message.put("room", str);
+		final ByteBuffer buf = encode(1, Collections.singletonList(message));
+		buf.position(1 + 4 + 4 + 1 + 4 + 1 + 1);
+		assertEquals(str, getString(buf));
+	}
+
+	@Test
+	public void usesU32LengthsBeyondU16() {
+		// u16では表せない長さの文字列でもバッファを大きくして正しい長さを書き込む
+		final char[] chars = new char[70000];
+		Arrays.fill(chars, 'x');
+		final String str = new String(chars);
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", Const.SkywayEvent.OnError.name());
+		message.put("error", str);
+		final ByteBuffer buf = encode(1, Collections.singletonList(message));
+		buf.position(1 + 4 + 4 + 1 + 4 + 1 + 1);
+		assertEquals(70000, buf.getInt(buf.position()));
+		assertEquals(str, getString(buf));
+	}
+
+	@Test
+	public void reusesRecycledBuffer() {
+		final EventCodec codec = new EventCodec();
+		final List<Map<String, Object>> events = Collections.emptyList();
+		final ByteBuffer first = codec.encode(1, events);
+		// 送信中(recycle前)のバッファは使い回さない
+		final ByteBuffer second = codec.encode(1, events);
+		assertNotSame(first, second);
+		codec.recycle(first);
+		final ByteBuffer third = codec.encode(2, events);
+		assertSame(first, third);
+		// 再利用したバッファにも先頭から書き込む
+		third.flip();
+		assertEquals(1 + 4 + 4, third.remaining());
+		assertEquals(EventCodec.VERSION, third.get() & 0xff);
+		assertEquals(2, third.order(ByteOrder.LITTLE_ENDIAN).getInt());
+	}
+
+	@Test
+	public void sizesBufferFromEventCount() {
+		final EventCodec codec = new EventCodec();
+		final List<Map<String, Object>> few = new ArrayList<>();
+		final List<Map<String, Object>> many = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			final Map<String, Object> message = new HashMap<>();
+			message.put("event", Const.SkywayEvent.OnJoin.name());
+			message.put("remoteHandle", i + 1);
+			message.put("room", "room");
+			if (i < 2) {
+				few.add(message);
+			}
+			many.add(message);
+		}
+		final ByteBuffer small = codec.encode(1, few);
+		assertTrue(small.capacity() < 4096);
+		final ByteBuffer large = codec.encode(1, many);
+		assertTrue(large.capacity() >= large.position());
+		// 小さなバッファは大きなイベントのリストには使わずに新しく確保する
+		codec.recycle(small);
+		assertNotSame(small, codec.encode(1, many));
+		assertSame(small, codec.encode(1, few));
+	}
+
+	@Test
+	public void recyclesBufferReplacedWhileGrowing() {
+		final EventCodec codec = new EventCodec();
+		final char[] chars = new char[1000];
+		Arrays.fill(chars, 'x');
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", Const.SkywayEvent.OnError.name());
+		message.put("error", new String(chars));
+		final List<Map<String, Object>> small = Collections.emptyList();
+		// 書き込み途中で大きなバッファへ移したときは元のバッファをプールへ戻す
+		final ByteBuffer grown = codec.encode(1, Collections.singletonList(message));
+		assertTrue(grown.capacity() >= 1000);
+		final ByteBuffer reused = codec.encode(1, small);
+		assertNotSame(grown, reused);
+		assertTrue(reused.capacity() < grown.capacity());
+	}
+}
@@ -0,0 +1,59 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameRateLimiterTest {
+	private static final long MS = 1000000L;
+
+	@Test
+	public void unlimitedRendersEveryFrame() {
+		final FrameRateLimiter limiter = new FrameRateLimiter();
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.onFrame(i * MS));
+		}
+		assertEquals(10, limiter.getRenderedFrames());
+		assertEquals(0, limiter.getDroppedFrames());
+		assertEquals(0f, limiter.getMaxFps(), 0f);
+	}
+
+	@Test
+	public void halvesFrameRate() {
+		final FrameRateLimiter limiter = new FrameRateLimiter();
+		limiter.setMaxFps(30);
+		// 60fpsで1秒間届く
+		final long interval = 1000 * MS / 60;
+		for (int i = 0; i < 60; i++) {
+			limiter.onFrame(i * interval);
+		}
+		assertEquals(30, limiter.getRenderedFrames());
+		assertEquals(30, limiter.getDroppedFrames());
+	}
+
+	@Test
+	public void toleratesEarlyArrival() {
+		final FrameRateLimiter limiter = new FrameRateLimiter();
+		limiter.setMaxFps(10);
+		assertTrue(limiter.onFrame(0));
+		// 描画間隔(100ms)の1/4までは早く届いても描画する
+		assertTrue(limiter.onFrame(80 * MS));
+		assertFalse(limiter.onFrame(120 * MS));
+	}
+
+	@Test
+	public void restartsAfterGap() {
+		final FrameRateLimiter limiter = new FrameRateLimiter();
+		limiter.setMaxFps(10);
+		assertTrue(limiter.onFrame(0));
+		assertTrue(limiter.onFrame(1000 * MS));
+		// 途切れた後は届いた時刻から数え直す
+		assertFalse(limiter.onFrame(1050 * MS));
+		assertTrue(limiter.onFrame(1100 * MS));
+		limiter.resetCounters();
+		assertEquals(0, limiter.getRenderedFrames());
+		assertEquals(0, limiter.getDroppedFrames());
+	}
+}
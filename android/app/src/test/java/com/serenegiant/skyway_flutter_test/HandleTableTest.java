@@ -0,0 +1,114 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HandleTableTest {
+
+	@Test
+	public void internReturnsSameHandle() {
+		final HandleTable<String> table = new HandleTable<>();
+		final int a = table.intern("a");
+		final int b = table.intern("b");
+		assertTrue(a > 0);
+		assertNotEquals(a, b);
+		assertEquals(a, table.intern("a"));
+		assertEquals("a", table.get(a));
+		assertEquals("b", table.get(b));
+		assertNull(table.get(0));
+		assertEquals(2, table.size());
+	}
+
+	/**
+	 * Dart側はハンドルを受け取った後はリモートピアidの代わりにハンドル(int)を送ってくる(callやstartRemoteStream等)
+	 */
+	@Test
+	public void resolvesIntHandleFromDart() {
+		final HandleTable<String> table = new HandleTable<>();
+		final int a = table.intern("remote-a");
+		final Object fromDart = a;	// StandardMessageCodecで受け取ったDartのint
+		assertEquals("remote-a", table.resolve(fromDart, String.class));
+		// ハンドルを受け取る前はリモートピアidを送ってくる
+		assertEquals("remote-b", table.resolve("remote-b", String.class));
+		assertNull(table.resolve(null, String.class));
+		assertNull(table.resolve(1.0, String.class));
+		// 破棄済みのハンドルはリモートピアidへ変換しない
+		table.remove("remote-a");
+		assertNull(table.resolve(fromDart, String.class));
+	}
+
+	@Test
+	public void reusedSlotGetsNewGeneration() {
+		final HandleTable<String> table = new HandleTable<>();
+		final int a = table.intern("a");
+		assertEquals(a, table.remove("a"));
+		assertEquals(0, table.remove("a"));
+		assertNull(table.get(a));
+		final int b = table.intern("b");
+		// 同じスロットを再利用しても古いハンドルでは取得できない
+		assertEquals(HandleTable.slotOf(a), HandleTable.slotOf(b));
+		assertNotEquals(a, b);
+		assertNull(table.get(a));
+		assertEquals("b", table.get(b));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void freedSlotsAreReusedOldestFirst() {
+		final HandleTable<String> table = new HandleTable<>();
+		final int a = table.intern("a");
+		final int b = table.intern("b");
+		table.intern("c");
+		table.remove("b");
+		table.remove("a");
+		assertEquals(HandleTable.slotOf(b), HandleTable.slotOf(table.intern("d")));
+		assertEquals(HandleTable.slotOf(a), HandleTable.slotOf(table.intern("e")));
+	}
+
+	@Test
+	public void putAndRemoveByHandle() {
+		final HandleTable<String> table = new HandleTable<>();
+		table.put(3, "three");
+		assertEquals("three", table.get(3));
+		assertFalse(table.remove(3, "other"));
+		assertTrue(table.remove(3, "three"));
+		assertNull(table.get(3));
+		try {
+			table.put(0, "zero");
+			fail("handle 0 must be rejected");
+		} catch (final IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void putRejectsSlotInUse() {
+		final HandleTable<String> table = new HandleTable<>();
+		table.put(5, "five");
+		table.put(5 + (1 << 16), "other");
+	}
+
+	@Test
+	public void internFailsWhenFull() {
+		final HandleTable<Integer> table = new HandleTable<>();
+		for (int i = 0; i < HandleTable.MAX_SLOTS; i++) {
+			table.intern(i);
+		}
+		assertEquals(HandleTable.MAX_SLOTS, table.size());
+		try {
+			table.intern(-1);
+			fail("intern must fail when all slots are in use");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		// 空きができれば割り当てられる
+		table.remove(0);
+		assertTrue(table.intern(-1) > 0);
+	}
+}
@@ -0,0 +1,68 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MosaicLayoutTest {
+
+	@Test
+	public void validLayouts() {
+		assertTrue(MosaicLayout.isValid(MosaicLayout.GRID));
+		assertTrue(MosaicLayout.isValid(MosaicLayout.SPEAKER));
+		assertFalse(MosaicLayout.isValid("unknown"));
+		assertFalse(MosaicLayout.isValid(null));
+	}
+
+	@Test
+	public void emptyLayout() {
+		assertEquals(0, MosaicLayout.compute(MosaicLayout.GRID, 0, 640, 480).length);
+	}
+
+	@Test
+	public void gridOfFour() {
+		assertArrayEquals(new int[] {
+			0, 0, 320, 240,
+			320, 0, 320, 240,
+			0, 240, 320, 240,
+			320, 240, 320, 240,
+		}, MosaicLayout.compute(MosaicLayout.GRID, 4, 640, 480));
+	}
+
+	@Test
+	public void gridSizesAreEven() {
+		final int[] rects = MosaicLayout.compute(MosaicLayout.GRID, 3, 641, 479);
+		for (int i = 0; i < rects.length; i++) {
+			assertEquals(0, rects[i] % 2);
+		}
+	}
+
+	@Test
+	public void speakerPutsFirstOnTop() {
+		assertArrayEquals(new int[] {
+			0, 0, 640, 360,
+			0, 360, 320, 120,
+			320, 360, 320, 120,
+		}, MosaicLayout.compute(MosaicLayout.SPEAKER, 3, 640, 480));
+	}
+
+	@Test
+	public void speakerStripWraps() {
+		// 下側の帯は4列まで, 超えた分は次の行へ並べる
+		final int[] rects = MosaicLayout.compute(MosaicLayout.SPEAKER, 6, 640, 480);
+		assertEquals(6 * 4, rects.length);
+		assertEquals(160, rects[1 * 4 + 2]);
+		assertEquals(60, rects[1 * 4 + 3]);
+		assertEquals(0, rects[5 * 4]);
+		assertEquals(420, rects[5 * 4 + 1]);
+	}
+
+	@Test
+	public void speakerWithSingleTileUsesGrid() {
+		assertArrayEquals(new int[] {0, 0, 640, 480},
+			MosaicLayout.compute(MosaicLayout.SPEAKER, 1, 640, 480));
+	}
+}
@@ -0,0 +1,152 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PendingEventBufferTest {
+
+	private static Map<String, Object> event(final Const.SkywayEvent event,
+		final String remotePeerId, final String room) {
+
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", event.name());
+		if (remotePeerId != null) {
+			message.put("remotePeerId", remotePeerId);
+		}
+		if (room != null) {
+			message.put("room", room);
+		}
+		return message;
+	}
+
+	@Test
+	public void drainKeepsOrder() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(8, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		final Map<String, Object> a = event(Const.SkywayEvent.OnPeersChanged, null, null);
+		final Map<String, Object> b = event(Const.SkywayEvent.OnJoin, "remote", "room");
+		assertEquals(PendingEventBuffer.RESULT_BUFFERED, buffer.offer(a));
+		assertEquals(PendingEventBuffer.RESULT_BUFFERED, buffer.offer(b));
+		assertEquals(2, buffer.size());
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(2, drained.size());
+		assertSame(a, drained.get(0));
+		assertSame(b, drained.get(1));
+		assertEquals(0, buffer.size());
+	}
+
+	@Test
+	public void coalescesSameRemotePeerAndRoom() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(8, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		buffer.offer(event(Const.SkywayEvent.OnJoin, "remote", "room1"));
+		buffer.offer(event(Const.SkywayEvent.OnJoin, "remote", "room2"));
+		final Map<String, Object> leave = event(Const.SkywayEvent.OnLeave, "remote", "room1");
+		assertEquals(PendingEventBuffer.RESULT_COALESCED, buffer.offer(leave));
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(2, drained.size());
+		assertEquals("room2", drained.get(0).get("room"));
+		// まとめたイベントは末尾へ移動する
+		assertSame(leave, drained.get(1));
+	}
+
+	@Test
+	public void coalescingCarriesStateVersion() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(8, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		final Map<String, Object> joinA = event(Const.SkywayEvent.OnJoin, "a", "room");
+		joinA.put(RoomStateModel.KEY_STATE_VERSION, 1L);
+		final Map<String, Object> joinB = event(Const.SkywayEvent.OnJoin, "b", "room");
+		joinB.put(RoomStateModel.KEY_STATE_VERSION, 2L);
+		final Map<String, Object> leaveA = event(Const.SkywayEvent.OnLeave, "a", "room");
+		leaveA.put(RoomStateModel.KEY_STATE_VERSION, 3L);
+		buffer.offer(joinA);
+		buffer.offer(joinB);
+		assertEquals(PendingEventBuffer.RESULT_COALESCED, buffer.offer(leaveA));
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(2, drained.size());
+		// 取り除いたイベントのバージョンはその後ろの最初のイベントへ引き継ぐ
+		assertSame(joinB, drained.get(0));
+		assertEquals(1L, RoomStateModel.versionFromOf(joinB));
+		assertEquals(3L, RoomStateModel.versionFromOf(leaveA));
+	}
+
+	@Test
+	public void overflowCarriesReleasedPeerIds() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(1, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		final Map<String, Object> leave = event(Const.SkywayEvent.OnLeave, "a", "room");
+		leave.put(RoomStateModel.KEY_RELEASED_PEER_IDS, new ArrayList<>(Arrays.asList("a")));
+		buffer.offer(leave);
+		final Map<String, Object> next = event(Const.SkywayEvent.OnPeersChanged, null, null);
+		assertEquals(PendingEventBuffer.RESULT_DROPPED_OLDEST, buffer.offer(next));
+		// 溢れて破棄したイベントのハンドルを破棄したリモートピアidは後続のイベントへ引き継ぐ
+		assertEquals(Arrays.asList("a"), RoomStateModel.releasedPeerIdsOf(next));
+	}
+
+	@Test
+	public void dropOldestOnOverflow() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(2, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null));
+		final Map<String, Object> second = event(Const.SkywayEvent.OnPeersChanged, null, null);
+		final Map<String, Object> third = event(Const.SkywayEvent.OnPeersChanged, null, null);
+		buffer.offer(second);
+		assertEquals(PendingEventBuffer.RESULT_DROPPED_OLDEST, buffer.offer(third));
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(2, drained.size());
+		assertSame(second, drained.get(0));
+		assertSame(third, drained.get(1));
+	}
+
+	@Test
+	public void dropNewestOnOverflow() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(2, PendingEventBuffer.OverflowPolicy.DROP_NEWEST);
+		final Map<String, Object> first = event(Const.SkywayEvent.OnPeersChanged, null, null);
+		buffer.offer(first);
+		buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null));
+		assertEquals(PendingEventBuffer.RESULT_REJECTED,
+			buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null)));
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(2, drained.size());
+		assertSame(first, drained.get(0));
+	}
+
+	@Test
+	public void compactsWhenFullOfCoalescedGaps() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(3, PendingEventBuffer.OverflowPolicy.DROP_NEWEST);
+		buffer.offer(event(Const.SkywayEvent.OnJoin, "remote", "room"));
+		buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null));
+		buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null));
+		// 満杯でもまとめて空いた分を詰めれば追加できる
+		final Map<String, Object> leave = event(Const.SkywayEvent.OnLeave, "remote", "room");
+		assertEquals(PendingEventBuffer.RESULT_COALESCED, buffer.offer(leave));
+		assertEquals(3, buffer.size());
+		final List<Map<String, Object>> drained = buffer.drain();
+		assertEquals(3, drained.size());
+		assertSame(leave, drained.get(2));
+	}
+
+	@Test
+	public void closeRejectsLaterEvents() {
+		final PendingEventBuffer buffer
+			= new PendingEventBuffer(4, PendingEventBuffer.OverflowPolicy.DROP_OLDEST);
+		buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null));
+		buffer.close();
+		assertTrue(buffer.isClosed());
+		assertEquals(0, buffer.size());
+		assertEquals(PendingEventBuffer.RESULT_REJECTED,
+			buffer.offer(event(Const.SkywayEvent.OnPeersChanged, null, null)));
+	}
+}
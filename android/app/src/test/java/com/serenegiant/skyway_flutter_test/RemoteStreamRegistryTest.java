@@ -0,0 +1,263 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteStreamRegistryTest {
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 20000;
+	private static final int PEERS = 16;
+	private static final long TIMEOUT_SEC = 60;
+
+	/**
+	 * MediaStreamの代わり, 閉じた回数を数える
+	 */
+	private static class FakeStream {
+		private final AtomicInteger closeCount = new AtomicInteger();
+
+		private void close() {
+			closeCount.incrementAndGet();
+		}
+	}
+
+	private static class TestEntry extends RemoteStreamRegistry.Entry {
+		private final FakeStream stream = new FakeStream();
+		private final AtomicInteger releaseCount = new AtomicInteger();
+
+		private TestEntry(final String remotePeerId, final String roomName, final Object owner) {
+			super(remotePeerId, roomName, owner);
+		}
+
+		@Override
+		protected void onRelease() {
+			releaseCount.incrementAndGet();
+			// 破棄処理中に他のスレッドが割り込めるようにする
+			Thread.yield();
+			stream.close();
+		}
+	}
+
+	@Test
+	public void replacesAndRemovesByEntry() {
+		final RemoteStreamRegistry<TestEntry> registry = new RemoteStreamRegistry<>();
+		final Object room = new Object();
+		final TestEntry first = new TestEntry("a", "room", room);
+		final TestEntry second = new TestEntry("a", "room", room);
+		assertEquals("a@room", first.key);
+		assertNull(registry.put(first));
+		assertSame(first, registry.put(second));
+		// 置き換えられたエントリーでは取り除かない
+		assertFalse(registry.remove(first));
+		assertSame(second, registry.get("a@room"));
+		assertTrue(registry.remove(second));
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void findsRoomEntryForP2pLookup() {
+		final RemoteStreamRegistry<TestEntry> registry = new RemoteStreamRegistry<>();
+		final TestEntry inRoom = new TestEntry("a", "room", new Object());
+		registry.put(inRoom);
+		assertSame(inRoom, registry.find("a", null));
+		assertNull(registry.find("a", "other"));
+		final TestEntry p2p = new TestEntry("a", null, null);
+		registry.put(p2p);
+		assertSame(p2p, registry.find("a", null));
+	}
+
+	@Test
+	public void removesOnlyEntriesOfOwner() {
+		final RemoteStreamRegistry<TestEntry> registry = new RemoteStreamRegistry<>();
+		final Object previous = new Object();
+		final Object current = new Object();
+		// 同じ名前のルームへ入室し直したときは前回の入室時のエントリーだけを取り除く
+		registry.put(new TestEntry("a", "room", previous));
+		registry.put(new TestEntry("b", "room", current));
+		registry.put(new TestEntry("c", null, null));
+		final List<TestEntry> removed = registry.removeOwnedBy(previous);
+		assertEquals(1, removed.size());
+		assertEquals("a", removed.get(0).peerId);
+		assertFalse(registry.hasOwnedBy(previous));
+		assertTrue(registry.hasOwnedBy(current));
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void releasesOnlyOnce() {
+		final TestEntry entry = new TestEntry("a", null, null);
+		assertTrue(entry.attach());
+		assertEquals(RemoteStreamRegistry.STATE_ATTACHED, entry.getState());
+		assertTrue(entry.release());
+		assertFalse(entry.release());
+		assertFalse(entry.attach());
+		assertTrue(entry.isReleasing());
+		assertEquals(RemoteStreamRegistry.STATE_RELEASED, entry.getState());
+		assertEquals(1, entry.releaseCount.get());
+		assertEquals(1, entry.stream.closeCount.get());
+	}
+
+	/**
+	 * 複数のスレッドから同じエントリーを同時に破棄しても破棄処理は1回だけ実行されることを確認する
+	 */
+	@Test
+	public void concurrentReleaseRunsOnce() throws Exception {
+		final int rounds = 2000;
+		final TestEntry[] entries = new TestEntry[rounds];
+		for (int i = 0; i < rounds; i++) {
+			entries[i] = new TestEntry("remote-" + i, null, null);
+		}
+		final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+		final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (final TestEntry entry: entries) {
+							// 全てのスレッドが揃ってから同じエントリーを破棄する
+							barrier.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+							entry.attach();
+							entry.release();
+						}
+					} catch (final Throwable e) {
+						failures.add(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "release-" + t).start();
+		}
+		assertTrue("timeout", done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		assertTrue("failures:" + failures, failures.isEmpty());
+		for (final TestEntry entry: entries) {
+			assertEquals(entry.key, 1, entry.releaseCount.get());
+			assertEquals(entry.key, 1, entry.stream.closeCount.get());
+		}
+	}
+
+	/**
+	 * 複数のスレッドから同じリモートピアのエントリーを同時に追加/置き換え/削除/列挙して
+	 * 全てのエントリーが取りこぼし無く1回だけ破棄されること,
+	 * 列挙中に例外(ConcurrentModificationException等)が発生しないことを確認する
+	 */
+	@Test
+	public void concurrentAddReplaceRemove() throws InterruptedException {
+		final RemoteStreamRegistry<TestEntry> registry = new RemoteStreamRegistry<>();
+		final String[] roomNames = {null, "room0", "room1"};
+		final Object[] owners = {null, new Object(), new Object()};
+		final ConcurrentLinkedQueue<TestEntry> created = new ConcurrentLinkedQueue<>();
+		final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			final long seed = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					final Random random = new Random(seed);
+					try {
+						start.await();
+						for (int i = 0; i < ITERATIONS; i++) {
+							final String peerId = "remote-" + random.nextInt(PEERS);
+							final int roomIx = random.nextInt(roomNames.length);
+							final String key = RemoteStreamRegistry.keyOf(roomNames[roomIx], peerId);
+							final int op = random.nextInt(100);
+							if (op < 40) {
+								// STREAM: 同じピアの映像は置き換えて古い方を破棄する
+								final TestEntry entry = new TestEntry(peerId, roomNames[roomIx], owners[roomIx]);
+								created.add(entry);
+								final TestEntry prev = registry.put(entry);
+								if (prev != null) {
+									prev.release();
+								}
+							} else if (op < 55) {
+								// PEER_LEAVE
+								final TestEntry entry = registry.remove(key);
+								if (entry != null) {
+									entry.release();
+								}
+							} else if (op < 70) {
+								// REMOVE_STREAM: 置き換えられていなければ取り除く
+								final TestEntry entry = registry.get(key);
+								if ((entry != null) && registry.remove(entry)) {
+									entry.release();
+								}
+							} else if (op < 80) {
+								// 描画先の追加
+								final TestEntry entry = registry.find(peerId, roomNames[roomIx]);
+								if (entry != null) {
+									entry.attach();
+								}
+							} else if (op < 92) {
+								// 描画先スロットの割り当て等での列挙
+								int n = 0;
+								for (final TestEntry entry: registry.values()) {
+									if (!entry.isReleasing()) {
+										n++;
+									}
+								}
+								assertTrue(n >= 0);
+								registry.hasOwnedBy(owners[1 + random.nextInt(2)]);
+							} else if (op < 97) {
+								// 列挙しながら破棄する(取り除く前に他のスレッドも同じエントリーを破棄することがある)
+								for (final TestEntry entry: registry.values()) {
+									if (entry.peerId.equals(peerId)) {
+										entry.release();
+									}
+								}
+							} else if (op < 99) {
+								// ルームのCLOSE
+								for (final TestEntry entry: registry.removeOwnedBy(owners[1 + random.nextInt(2)])) {
+									entry.release();
+								}
+							} else {
+								// hangUp
+								for (final TestEntry entry: registry.removeAll()) {
+									entry.release();
+								}
+							}
+						}
+					} catch (final Throwable e) {
+						failures.add(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "registry-" + t).start();
+		}
+		start.countDown();
+		assertTrue("timeout", done.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		assertTrue("failures:" + failures, failures.isEmpty());
+
+		for (final TestEntry entry: registry.removeAll()) {
+			entry.release();
+		}
+		assertEquals(0, registry.size());
+		assertTrue(created.size() > 0);
+		final List<String> errors = new ArrayList<>();
+		for (final TestEntry entry: created) {
+			if ((entry.releaseCount.get() != 1) || (entry.stream.closeCount.get() != 1)
+				|| (entry.getState() != RemoteStreamRegistry.STATE_RELEASED)) {
+
+				errors.add(entry.key + ":released=" + entry.releaseCount.get()
+					+ ",closed=" + entry.stream.closeCount.get() + ",state=" + entry.getState());
+			}
+		}
+		assertTrue("errors:" + errors, errors.isEmpty());
+	}
+}
@@ -0,0 +1,124 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoomStateModelTest {
+
+	private static Map<String, Object> event(final Const.SkywayEvent event,
+		final String room, final String remotePeerId) {
+
+		final Map<String, Object> message = new HashMap<>();
+		message.put("event", event.name());
+		if (room != null) {
+			message.put("room", room);
+		}
+		if (remotePeerId != null) {
+			message.put("remotePeerId", remotePeerId);
+		}
+		return message;
+	}
+
+	@Test
+	public void versionAdvancesOnlyOnChange() {
+		final RoomStateModel model = new RoomStateModel();
+		assertEquals(1, model.apply(event(Const.SkywayEvent.OnOpenRoom, "room", null)));
+		assertEquals(2, model.apply(event(Const.SkywayEvent.OnJoin, "room", "a")));
+		assertEquals(-1, model.apply(event(Const.SkywayEvent.OnJoin, "room", "a")));
+		assertEquals(3, model.apply(event(Const.SkywayEvent.OnAddRemoteStream, "room", "a")));
+		// p2pのイベント(ルーム無し)は無視する
+		assertEquals(-1, model.apply(event(Const.SkywayEvent.OnAddRemoteStream, null, "b")));
+		assertEquals(-1, model.apply(event(Const.SkywayEvent.OnPeersChanged, "room", null)));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void snapshotReturnsChangesSinceVersion() {
+		final RoomStateModel model = new RoomStateModel();
+		model.apply(event(Const.SkywayEvent.OnOpenRoom, "room", null));
+		for (int i = 0; i < 4; i++) {
+			model.apply(event(Const.SkywayEvent.OnJoin, "room", "peer" + i));
+		}
+		model.apply(event(Const.SkywayEvent.OnLeave, "room", "peer3"));
+		final Map<String, Object> delta = model.snapshot(5);
+		assertEquals(6L, delta.get("version"));
+		assertEquals(false, delta.get("full"));
+		final List<Map<String, Object>> changes = (List<Map<String, Object>>)delta.get("changes");
+		assertEquals(1, changes.size());
+		assertEquals(RoomStateModel.OP_LEAVE, changes.get(0).get("op"));
+		assertEquals("peer3", changes.get(0).get("remotePeerId"));
+
+		final Map<String, Object> full = model.snapshot(-1);
+		assertEquals(true, full.get("full"));
+		final Map<String, Object> rooms = (Map<String, Object>)full.get("rooms");
+		final Map<String, Object> room = (Map<String, Object>)rooms.get("room");
+		assertEquals(3, ((List<?>)room.get("members")).size());
+	}
+
+	@Test
+	public void snapshotFallsBackToFullWhenLogIsGone() {
+		final RoomStateModel model = new RoomStateModel();
+		model.apply(event(Const.SkywayEvent.OnOpenRoom, "room", null));
+		for (int i = 0; i < RoomStateModel.CHANGE_LOG_SIZE + 10; i++) {
+			model.apply(event(Const.SkywayEvent.OnJoin, "room", "peer" + i));
+			model.apply(event(Const.SkywayEvent.OnLeave, "room", "peer" + i));
+		}
+		assertEquals(true, model.snapshot(1).get("full"));
+	}
+
+	@Test
+	public void applyReportsRemovedPeers() {
+		final RoomStateModel model = new RoomStateModel();
+		final List<String> removed = new ArrayList<>();
+		model.apply(event(Const.SkywayEvent.OnJoin, "room", "a"), removed);
+		model.apply(event(Const.SkywayEvent.OnJoin, "room", "b"), removed);
+		model.apply(event(Const.SkywayEvent.OnAddRemoteStream, "room", "c"), removed);
+		assertTrue(removed.isEmpty());
+
+		model.apply(event(Const.SkywayEvent.OnLeave, "room", "a"), removed);
+		assertEquals(1, removed.size());
+		assertEquals("a", removed.get(0));
+		// 変化しなければ追加しない
+		model.apply(event(Const.SkywayEvent.OnLeave, "room", "a"), removed);
+		assertEquals(1, removed.size());
+
+		removed.clear();
+		model.apply(event(Const.SkywayEvent.OnCloseRoom, "room", null), removed);
+		assertEquals(new HashSet<>(java.util.Arrays.asList("b", "c")), new HashSet<>(removed));
+	}
+
+	@Test
+	public void closeReportsRemainingPeers() {
+		final RoomStateModel model = new RoomStateModel();
+		model.apply(event(Const.SkywayEvent.OnJoin, "room", "a"));
+		model.apply(event(Const.SkywayEvent.OnAddRemoteStream, "room", "b"));
+		model.apply(event(Const.SkywayEvent.OnJoin, "other", "a"));
+		final List<String> removed = new ArrayList<>();
+		assertTrue(model.close("room", removed) > 0);
+		assertEquals(new HashSet<>(java.util.Arrays.asList("a", "b")), new HashSet<>(removed));
+		// 他のルームに残っているリモートピアのハンドルは破棄しないようにcontainsで確認する
+		assertTrue(model.contains("a"));
+		assertFalse(model.contains("b"));
+	}
+
+	@Test
+	public void containsChecksAllRooms() {
+		final RoomStateModel model = new RoomStateModel();
+		model.apply(event(Const.SkywayEvent.OnJoin, "room1", "a"));
+		model.apply(event(Const.SkywayEvent.OnAddRemoteStream, "room2", "a"));
+		model.apply(event(Const.SkywayEvent.OnLeave, "room1", "a"));
+		assertTrue(model.contains("a"));
+		model.apply(event(Const.SkywayEvent.OnRemoveRemoteStream, "room2", "a"));
+		assertFalse(model.contains("a"));
+		assertFalse(model.contains("unknown"));
+	}
+}
@@ -0,0 +1,257 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import androidx.annotation.NonNull;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SkywaySimulatorと同じ合成トラフィックをSDK無しでルームの状態(RoomStateModel),
+ * リモート映像(RemoteStreamRegistry), リモートピアのハンドル(HandleTable)へ
+ * FlutterSkywayPeerと同じ手順で適用して取りこぼしや破棄漏れが無いことを確認する
+ */
+public class SimulatedTrafficTest {
+	private static final int PEERS = 500;
+	private static final int ROOMS = 3;
+	private static final int EVENTS = 50000;
+	/**
+	 * Dart側の複製を同期する間隔(イベント数)
+	 */
+	private static final int SYNC_INTERVAL = 97;
+
+	private static class TestEntry extends RemoteStreamRegistry.Entry {
+		private int releaseCount;
+
+		private TestEntry(final String remotePeerId, final String roomName, final Object owner) {
+			super(remotePeerId, roomName, owner);
+		}
+
+		@Override
+		protected void onRelease() {
+			releaseCount++;
+		}
+	}
+
+	/**
+	 * FlutterSkywayPeerのルームのイベント処理を模擬する
+	 */
+	private static class Bridge implements SimulatedTraffic.Listener {
+		private final RoomStateModel model = new RoomStateModel();
+		private final RemoteStreamRegistry<TestEntry> registry = new RemoteStreamRegistry<>();
+		private final HandleTable<String> handles = new HandleTable<>();
+		private final Map<String, Object> holders = new HashMap<>();
+		private final List<TestEntry> created = new ArrayList<>();
+		private long version;
+		private int errors;
+
+		private Bridge(final SimulatedTraffic traffic) {
+			for (int i = 0; i < traffic.getRooms(); i++) {
+				open(traffic.roomName(i));
+			}
+		}
+
+		@Override
+		public boolean onPeerEvent(final int state, final int peerIx,
+			@NonNull final String room, @NonNull final String remotePeerId) {
+
+			final Object holder = holders.get(room);
+			switch (state) {
+			case SimulatedTraffic.STATE_JOIN:
+				send(Const.SkywayEvent.OnJoin, room, remotePeerId);
+				break;
+			case SimulatedTraffic.STATE_STREAM:
+			{
+				final TestEntry entry = new TestEntry(remotePeerId, room, holder);
+				created.add(entry);
+				final TestEntry prev = registry.put(entry);
+				if (prev != null) {
+					prev.release();
+				}
+				send(Const.SkywayEvent.OnAddRemoteStream, room, remotePeerId);
+				break;
+			}
+			case SimulatedTraffic.STATE_REMOVE_STREAM:
+			{
+				final TestEntry entry = registry.remove(RemoteStreamRegistry.keyOf(room, remotePeerId));
+				if (entry != null) {
+					entry.release();
+				}
+				send(Const.SkywayEvent.OnRemoveRemoteStream, room, remotePeerId);
+				break;
+			}
+			default:
+				send(Const.SkywayEvent.OnLeave, room, remotePeerId);
+				break;
+			}
+			return true;
+		}
+
+		@Override
+		public void onError(@NonNull final String room) {
+			errors++;
+			send(Const.SkywayEvent.OnError, room, null);
+		}
+
+		@Override
+		public boolean onDisconnect(final int roomIx, @NonNull final String room) {
+			final Object holder = holders.remove(room);
+			assertNotNull(holder);
+			for (final TestEntry entry: registry.removeOwnedBy(holder)) {
+				entry.release();
+			}
+			send(Const.SkywayEvent.OnCloseRoom, room, null);
+			open(room);
+			return true;
+		}
+
+		private void open(@NonNull final String room) {
+			holders.put(room, new Object());
+			send(Const.SkywayEvent.OnOpenRoom, room, null);
+		}
+
+		private void send(@NonNull final Const.SkywayEvent event,
+			@NonNull final String room, final String remotePeerId) {
+
+			final Map<String, Object> message = new HashMap<>();
+			message.put("event", event.name());
+			message.put("room", room);
+			if (remotePeerId != null) {
+				message.put("remotePeerId", remotePeerId);
+				// Dart側へ送信するときにハンドルを割り当てる
+				handles.intern(remotePeerId);
+			}
+			final List<String> removed = new ArrayList<>();
+			final long v = model.apply(message, removed);
+			if (v >= 0) {
+				// 状態が変化する毎にバージョンは1つずつ増える
+				assertEquals(version + 1, v);
+				version = v;
+			}
+			for (final String id: removed) {
+				if (!model.contains(id)) {
+					handles.remove(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Dart側(SkywayRoomState)と同じくgetRoomStateの結果を適用して保持するルームの状態の複製
+	 */
+	private static class Mirror {
+		private final Map<String, Set<String>> members = new HashMap<>();
+		private final Map<String, Set<String>> streams = new HashMap<>();
+		private long version = -1;
+
+		@SuppressWarnings("unchecked")
+		private void sync(@NonNull final RoomStateModel model) {
+			final Map<String, Object> state = model.snapshot(version);
+			if (Boolean.TRUE.equals(state.get("full"))) {
+				members.clear();
+				streams.clear();
+				final Map<String, Object> rooms = (Map<String, Object>)state.get("rooms");
+				for (final Map.Entry<String, Object> e: rooms.entrySet()) {
+					final Map<String, Object> room = (Map<String, Object>)e.getValue();
+					members.put(e.getKey(), new HashSet<>((List<String>)room.get("members")));
+					streams.put(e.getKey(), new HashSet<>((List<String>)room.get("streams")));
+				}
+			} else {
+				for (final Map<String, Object> change: (List<Map<String, Object>>)state.get("changes")) {
+					apply((String)change.get("op"), (String)change.get("room"),
+						(String)change.get("remotePeerId"));
+				}
+			}
+			version = (Long)state.get("version");
+		}
+
+		private void apply(@NonNull final String op,
+			@NonNull final String room, final String remotePeerId) {
+
+			if (RoomStateModel.OP_CLOSE.equals(op)) {
+				members.remove(room);
+				streams.remove(room);
+				return;
+			}
+			if (!members.containsKey(room)) {
+				members.put(room, new HashSet<String>());
+				streams.put(room, new HashSet<String>());
+			}
+			if (RoomStateModel.OP_JOIN.equals(op)) {
+				members.get(room).add(remotePeerId);
+			} else if (RoomStateModel.OP_LEAVE.equals(op)) {
+				members.get(room).remove(remotePeerId);
+			} else if (RoomStateModel.OP_ADD_STREAM.equals(op)) {
+				streams.get(room).add(remotePeerId);
+			} else if (RoomStateModel.OP_REMOVE_STREAM.equals(op)) {
+				streams.get(room).remove(remotePeerId);
+			}
+		}
+	}
+
+	@Test
+	public void bridgeStateFollowsSimulatedTraffic() {
+		final SimulatedTraffic traffic = new SimulatedTraffic(PEERS, ROOMS, 0.001, 0.0005, 1);
+		final Bridge bridge = new Bridge(traffic);
+		final Mirror mirror = new Mirror();
+		for (int i = 0; i < EVENTS; i++) {
+			traffic.next(bridge);
+			if (i % SYNC_INTERVAL == 0) {
+				mirror.sync(bridge.model);
+			}
+		}
+		mirror.sync(bridge.model);
+		assertTrue(bridge.errors > 0);
+
+		// 合成したリモートピアの状態から期待されるルームの状態
+		final Map<String, Set<String>> members = new HashMap<>();
+		final Map<String, Set<String>> streams = new HashMap<>();
+		for (int i = 0; i < ROOMS; i++) {
+			members.put(traffic.roomName(i), new HashSet<String>());
+			streams.put(traffic.roomName(i), new HashSet<String>());
+		}
+		int live = 0;
+		for (int i = 0; i < PEERS; i++) {
+			final String room = traffic.roomName(traffic.roomOf(i));
+			final String id = traffic.remotePeerId(i);
+			final int state = traffic.stateOf(i);
+			if (state != SimulatedTraffic.STATE_JOIN) {
+				members.get(room).add(id);
+				live++;
+			}
+			if (state == SimulatedTraffic.STATE_REMOVE_STREAM) {
+				streams.get(room).add(id);
+				assertNotNull(id, bridge.registry.get(RemoteStreamRegistry.keyOf(room, id)));
+			}
+		}
+		assertEquals(members, mirror.members);
+		assertEquals(streams, mirror.streams);
+
+		final Mirror full = new Mirror();
+		full.sync(bridge.model);
+		assertEquals(members, full.members);
+		assertEquals(streams, full.streams);
+
+		// 受信中のリモート映像以外は全て1回だけ破棄している
+		int streaming = 0;
+		for (final Set<String> ids: streams.values()) {
+			streaming += ids.size();
+		}
+		assertEquals(streaming, bridge.registry.size());
+		for (final TestEntry entry: bridge.created) {
+			final boolean registered = bridge.registry.get(entry.key) == entry;
+			assertEquals(entry.key, registered ? 0 : 1, entry.releaseCount);
+		}
+		// ハンドルはルームのメンバーかリモート映像に含まれているリモートピアの分だけ残る
+		assertEquals(live, bridge.handles.size());
+	}
+}
@@ -0,0 +1,78 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SkywayMetricsTest {
+
+	@Test
+	public void histogramPercentiles() {
+		final SkywayMetrics.Histogram histogram = new SkywayMetrics.Histogram();
+		for (int i = 0; i < 90; i++) {
+			histogram.record(3);	// バケット2: [2, 4)
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(1000);	// バケット10: [512, 1024)
+		}
+		histogram.record(-5);	// 0として扱う
+		final Map<String, Object> map = histogram.toMap();
+		assertEquals(101L, map.get("count"));
+		assertEquals(90L * 3 + 10L * 1000, map.get("sum"));
+		assertEquals(1000L, map.get("max"));
+		assertEquals(3L, map.get("p50"));
+		assertEquals(3L, map.get("p90"));
+		assertEquals(1023L, map.get("p99"));
+		assertEquals(11, ((java.util.List<?>)map.get("buckets")).size());
+
+		histogram.reset();
+		assertEquals(0L, histogram.toMap().get("count"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void countsEventsAndBuffering() {
+		final SkywayMetrics metrics = new SkywayMetrics();
+		metrics.onEvent(Const.SkywayEvent.OnJoin);
+		metrics.onEvent(Const.SkywayEvent.OnJoin);
+		metrics.onSendFailed();
+		metrics.onEventBuffered(PendingEventBuffer.RESULT_BUFFERED);
+		metrics.onEventBuffered(PendingEventBuffer.RESULT_COALESCED);
+		metrics.onEventBuffered(PendingEventBuffer.RESULT_DROPPED_OLDEST);
+		metrics.onEventBuffered(PendingEventBuffer.RESULT_REJECTED);
+		final Map<String, Object> snapshot = metrics.snapshot();
+		final Map<String, Object> events = (Map<String, Object>)snapshot.get("events");
+		assertEquals(2L, events.get(Const.SkywayEvent.OnJoin.name()));
+		assertFalse(events.containsKey(Const.SkywayEvent.OnLeave.name()));
+		assertEquals(1L, snapshot.get("sendFailures"));
+		assertEquals(3L, snapshot.get("bufferedEvents"));
+		assertEquals(1L, snapshot.get("coalescedEvents"));
+		assertEquals(2L, snapshot.get("overflowedEvents"));
+
+		metrics.reset();
+		final Map<String, Object> cleared = metrics.snapshot();
+		assertTrue(((Map<String, Object>)cleared.get("events")).isEmpty());
+		assertEquals(0L, cleared.get("bufferedEvents"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void limitsMethodHistograms() {
+		final SkywayMetrics metrics = new SkywayMetrics();
+		for (int i = 0; i < 100; i++) {
+			metrics.recordMethod("method" + i, 2000);
+		}
+		metrics.recordMethod(null, 2000);
+		final Map<String, Object> methods
+			= (Map<String, Object>)metrics.snapshot().get("methodUs");
+		// 上限(64)を超えたメソッドと名前の無い呼び出しはotherへまとめる
+		assertEquals(64 + 1, methods.size());
+		assertTrue(methods.containsKey("other"));
+		final Map<String, Object> method0 = (Map<String, Object>)methods.get("method0");
+		assertEquals(2L, method0.get("max"));
+	}
+}
@@ -0,0 +1,129 @@
+package com.serenegiant.skyway_flutter_test;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import androidx.annotation.NonNull;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.skyway.Peer.Peer;
+
+/**
+ * ベンチマーク共通のヘルパー
+ * フェイクのSDK/EventSinkを使ってFlutterSkywayPeerを生成する
+ */
+class BenchmarkSupport {
+
+	/**
+	 * 受け取ったイベントの数を数えるだけのEventSink
+	 */
+	static class CountingSink implements EventChannel.EventSink {
+		final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void success(final Object event) {
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+		}
+
+		@Override
+		public void endOfStream() {
+		}
+	}
+
+	/**
+	 * 送信されたバイナリ形式のイベントの数を数えるだけのBinaryMessenger
+	 */
+	static class CountingMessenger implements BinaryMessenger {
+		final AtomicLong count = new AtomicLong();
+
+		@Override
+		public void send(final String channel, final ByteBuffer message) {
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * フェイクのPeerを使ってFlutterSkywayPeerを生成し、Dart側がlistenした状態にする
+	 * @param peerId
+	 * @param sink
+	 * @param messenger
+	 * @return
+	 */
+	@NonNull
+	static FlutterSkywayPeer createPeer(@NonNull final String peerId,
+		@NonNull final EventChannel.EventSink sink,
+		@NonNull final BinaryMessenger messenger) {
+
+		return createPeer(new Peer(peerId), sink, messenger, new SkywayMetrics());
+	}
+
+	/**
+	 * 指定したフェイクのPeerを使ってFlutterSkywayPeerを生成し、Dart側がlistenした状態にする
+	 * @param sdkPeer
+	 * @param sink
+	 * @param messenger
+	 * @param metrics
+	 * @return
+	 */
+	@NonNull
+	static FlutterSkywayPeer createPeer(@NonNull final Peer sdkPeer,
+		@NonNull final EventChannel.EventSink sink,
+		@NonNull final BinaryMessenger messenger,
+		@NonNull final SkywayMetrics metrics) {
+
+		final String peerId = sdkPeer.identity();
+		final FlutterSkywayPeer peer = new FlutterSkywayPeer(new Activity(),
+			peerId, sdkPeer, messenger, metrics);
+		if (!EventChannel.listen(Const.PEER_EVENT_CHANNEL_NAME + "_" + peerId, sink)) {
+			throw new IllegalStateException("EventChannel not registered");
+		}
+		return peer;
+	}
+
+	/**
+	 * メインスレッド(のフェイク)に溜まっているタスクが全て実行されるまで待つ
+	 * イテレーション間でキューが溜まり続けないようにする
+	 */
+	static void awaitMainLooper() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		new Handler(Looper.getMainLooper()).post(new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		});
+		latch.await(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * SDKのワーカースレッド上で実行して終了するまで待つ
+	 * @param peer
+	 * @param task
+	 */
+	static void runOnSdkThread(@NonNull final FlutterSkywayPeer peer,
+		@NonNull final Runnable task) throws InterruptedException {
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		peer.queueSdkTask(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					latch.countDown();
+				}
+			}
+		});
+		latch.await(10, TimeUnit.SECONDS);
+	}
+}
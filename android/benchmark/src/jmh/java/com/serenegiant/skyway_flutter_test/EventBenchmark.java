@@ -0,0 +1,59 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+
+/**
+ * createMessage + sendMessageのスループット
+ * バッチ送信あり/なし, バイナリ形式あり/なしの組み合わせで計測する
+ * Dart側への実際の送信はメインスレッド(のフェイク)で行われるのでその間のロック競合も含む
+ */
+@State(Scope.Benchmark)
+public class EventBenchmark {
+
+	/**
+	 * FlutterSkywayPeer#setEventBatchingの引数, 負数ならバッチ送信しない, 0なら描画フレーム毎
+	 */
+	@Param({"-1", "0"})
+	public int batchingMs;
+	@Param({"false", "true"})
+	public boolean binary;
+
+	private FlutterSkywayPeer mPeer;
+	private BenchmarkSupport.CountingSink mSink;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mSink = new BenchmarkSupport.CountingSink();
+		mPeer = BenchmarkSupport.createPeer("event-bench",
+			mSink, new BenchmarkSupport.CountingMessenger());
+		mPeer.setEventBatching(batchingMs);
+		mPeer.setBinaryEvent(binary);
+	}
+
+	@TearDown(Level.Iteration)
+	public void drain() throws InterruptedException {
+		BenchmarkSupport.awaitMainLooper();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mPeer.release();
+	}
+
+	@Benchmark
+	public Map<String, Object> createAndSend() {
+		final Map<String, Object> message = mPeer.createMessage(Const.SkywayEvent.OnJoin);
+		message.put("remotePeerId", "remote-peer");
+		message.put("room", "bench-room");
+		mPeer.sendMessage(message);
+		return message;
+	}
+}
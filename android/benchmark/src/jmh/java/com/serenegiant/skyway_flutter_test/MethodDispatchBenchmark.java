@@ -0,0 +1,102 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.flutter.plugin.common.MethodCall;
+import io.flutter.plugin.common.MethodChannel;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function2;
+
+/**
+ * MainActivity#onMethodCallのディスパッチコスト
+ * MainActivityと同じメソッド名のディスパッチテーブルを持つMethodDispatcherで
+ * ハンドラーの検索と処理時間の記録(SkywayMetrics)にかかる時間を計測する
+ * ハンドラー自体は何もしないのでSDKの処理は含まない
+ */
+@State(Scope.Benchmark)
+public class MethodDispatchBenchmark {
+	/**
+	 * MainActivityのディスパッチテーブルに登録しているメソッド名
+	 */
+	private static final String[] METHODS = {
+		"connect", "disconnect", "startLocalStream", "startRemoteStream",
+		"listAllPeers", "hangUp", "call", "join", "leave", "getRooms",
+		"getRoomState", "switchRoom", "accept", "reject", "setEventBatching",
+		"getPeerHandle", "setBinaryEvent", "getCanvasPoolStats",
+		"createTextureView", "disposeTextureView", "createMosaicView",
+		"disposeMosaicView", "setMosaicLayout", "getMosaicStats",
+		"prewarmPeers", "getPeerPoolStats", "prewarmLocalMedia",
+		"setRenderSlots", "setRemotePriority", "notifySpeaking",
+		"setCaptureProfile", "setPeerDirectory", "getMetrics",
+		"setMetricsPush", "getCallTrace", "batch",
+	};
+
+	/**
+	 * 呼び出すメソッド名, unknownはディスパッチテーブルに無いメソッド(notImplemented)
+	 */
+	@Param({"connect", "getRoomState", "batch", "unknown"})
+	public String method;
+
+	private MethodDispatcher mDispatcher;
+	private Map<String, Object> mArgs;
+	private final CountingResult mResult = new CountingResult();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		final Function2<MethodCall, MethodChannel.Result, Unit> handler
+			= new Function2<MethodCall, MethodChannel.Result, Unit>() {
+			@Override
+			public Unit invoke(final MethodCall call, final MethodChannel.Result result) {
+				result.success(null);
+				return Unit.INSTANCE;
+			}
+		};
+		final Map<String, Function2<MethodCall, MethodChannel.Result, Unit>> handlers
+			= new HashMap<>();
+		for (final String name: METHODS) {
+			handlers.put(name, handler);
+		}
+		mDispatcher = new MethodDispatcher(handlers, new SkywayMetrics());
+		mArgs = new HashMap<>();
+		mArgs.put("peerId", "dispatch-bench");
+	}
+
+	@Benchmark
+	public MethodCall dispatch() {
+		// Dart側から届くメソッド名は毎回別の文字列インスタンスなのでハッシュ値のキャッシュを使わせない
+		final MethodCall call = new MethodCall(new String(method.toCharArray()), mArgs);
+		mDispatcher.onMethodCall(call, mResult);
+		return call;
+	}
+
+	/**
+	 * 結果を数えるだけのMethodChannel.Result
+	 */
+	private static class CountingResult implements MethodChannel.Result {
+		private long mCount;
+
+		@Override
+		public void success(final Object result) {
+			mCount++;
+		}
+
+		@Override
+		public void error(final String errorCode, final String errorMessage,
+			final Object errorDetails) {
+			mCount++;
+		}
+
+		@Override
+		public void notImplemented() {
+			mCount++;
+		}
+	}
+}
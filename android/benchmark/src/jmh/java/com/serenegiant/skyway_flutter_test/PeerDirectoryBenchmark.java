@@ -0,0 +1,110 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+import androidx.annotation.NonNull;
+
+/**
+ * listAllPeersの結果(JSON配列)の処理コスト
+ * SDKがJSON文字列をJSONArrayへ変換するコストと
+ * PeerDirectoryがJSONArrayをピア一覧へ変換して差分を計算するコストを分けて計測する
+ */
+@State(Scope.Benchmark)
+public class PeerDirectoryBenchmark {
+
+	@Param({"100", "10000"})
+	public int peers;
+
+	private String mJson;
+	private JSONArray mArray;
+	/**
+	 * 1%のピアが入れ替わった一覧(差分の計算用)
+	 */
+	private JSONArray mChanged;
+	private PeerDirectory mDirectory;
+	private PeerDirectory mListening;
+	private boolean mToggle;
+
+	@Setup(Level.Trial)
+	public void setup() throws JSONException {
+		mJson = createJson(peers, 0);
+		mArray = new JSONArray(mJson);
+		mChanged = new JSONArray(createJson(peers, Math.max(1, peers / 100)));
+		mDirectory = createDirectory();
+		mListening = createDirectory();
+		mListening.setListener(new PeerDirectory.Listener() {
+			@Override
+			public void onChanged(@NonNull final List<String> added,
+				@NonNull final List<String> removed) {
+			}
+		});
+	}
+
+	/**
+	 * SDK側でJSON文字列をJSONArrayへ変換するコスト(比較用)
+	 */
+	@Benchmark
+	public JSONArray parseJson() throws JSONException {
+		return new JSONArray(mJson);
+	}
+
+	/**
+	 * 問い合わせ結果をピア一覧へ変換して待っているコールバックへ返す
+	 */
+	@Benchmark
+	public void fetch(final Blackhole bh) {
+		mDirectory.get(new FlutterSkywayPeer.OnListAllPeersCallback() {
+			@Override
+			public void onListAllPeers(@NonNull final List<String> list) {
+				bh.consume(list);
+			}
+		});
+		mDirectory.onFetched(mArray);
+	}
+
+	/**
+	 * 一部のピアが入れ替わった一覧を交互に受け取って差分をListenerへ通知する
+	 */
+	@Benchmark
+	public void fetchWithDelta() {
+		mToggle = !mToggle;
+		mListening.refresh();
+		mListening.onFetched(mToggle ? mChanged : mArray);
+	}
+
+	private static PeerDirectory createDirectory() {
+		final PeerDirectory directory = new PeerDirectory("self", new PeerDirectory.Fetcher() {
+			@Override
+			public void fetch() {
+				// 結果はベンチマークから直接onFetchedで渡す
+			}
+		});
+		directory.setTtl(0);
+		return directory;
+	}
+
+	/**
+	 * SkyWayのピアIDと同じような長さのIDを並べたJSON配列の文字列を生成する
+	 * @param n
+	 * @param changed 先頭から入れ替えるピアの数
+	 * @return
+	 */
+	private static String createJson(final int n, final int changed) {
+		final StringBuilder sb = new StringBuilder("[\"self\"");
+		for (int i = 0; i < n; i++) {
+			sb.append(",\"").append(i < changed ? "joined" : "peer")
+				.append(String.format("%08x%08x", i, i * 31)).append('"');
+		}
+		return sb.append(']').toString();
+	}
+}
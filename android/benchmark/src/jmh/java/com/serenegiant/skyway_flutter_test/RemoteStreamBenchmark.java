@@ -0,0 +1,90 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Map;
+
+import io.skyway.Peer.Browser.MediaStream;
+
+/**
+ * addRemoteStream/removeRemoteStream/closeRemoteStreamAllのコスト
+ * リモート映像の追加/削除はアプリではSDKのワーカースレッド上でだけ行うので1スレッドで呼び出し、
+ * 同時に別のスレッド(メインスレッド相当)からイベントを送信して
+ * リモート映像の破棄時のイベント送信とロックを競合させる
+ */
+@State(Scope.Group)
+public class RemoteStreamBenchmark {
+
+	@Param({"10", "100"})
+	public int streams;
+
+	private FlutterSkywayPeer mPeer;
+	private MediaStream[] mStreams;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		mPeer = BenchmarkSupport.createPeer("stream-bench",
+			new BenchmarkSupport.CountingSink(), new BenchmarkSupport.CountingMessenger());
+		mStreams = new MediaStream[streams];
+		for (int i = 0; i < streams; i++) {
+			mStreams[i] = new MediaStream("remote-" + i);
+		}
+	}
+
+	@TearDown(Level.Iteration)
+	public void drain() throws InterruptedException {
+		mPeer.closeRemoteStreamAll();
+		BenchmarkSupport.awaitMainLooper();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mPeer.release();
+	}
+
+	/**
+	 * 全てのリモート映像を追加してから1つずつ削除する(SDKのワーカースレッド相当)
+	 */
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public void addRemove() {
+		for (final MediaStream stream: mStreams) {
+			mPeer.addRemoteStream(null, stream);
+		}
+		for (final MediaStream stream: mStreams) {
+			mPeer.removeRemoteStream(null, stream.getPeerId());
+		}
+	}
+
+	/**
+	 * 同時にイベントを送信する(メインスレッド相当)
+	 */
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public Map<String, Object> sendEvents() {
+		final Map<String, Object> message = mPeer.createMessage(Const.SkywayEvent.OnPeersChanged);
+		mPeer.sendMessage(message);
+		return message;
+	}
+
+	/**
+	 * 全てのリモート映像を追加してからまとめて破棄する
+	 */
+	@Benchmark
+	public void addCloseAll() {
+		for (final MediaStream stream: mStreams) {
+			mPeer.addRemoteStream(null, stream);
+		}
+		mPeer.closeRemoteStreamAll();
+	}
+}
@@ -0,0 +1,493 @@
+package com.serenegiant.skyway_flutter_test;
+
+import org.json.JSONObject;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.EventChannel;
+import io.skyway.Peer.Browser.MediaStream;
+import io.skyway.Peer.Peer;
+import io.skyway.Peer.PeerError;
+import io.skyway.Peer.Room;
+import io.skyway.Peer.RoomOption;
+
+/**
+ * フェイクのSkyWay SDK上で大人数のルームを模擬してネイティブ側(FlutterSkywayPeer)の
+ * イベント処理のスループット, 遅延, メモリ使用量を計測する負荷生成ツール
+ * SimulatedTrafficが生成するイベント(PEER_JOIN → STREAM → REMOVE_STREAM → PEER_LEAVE,
+ * ERROR, ルームの切断)を指定したレートでフェイクのRoomへ発生させる
+ * 遅延はイベントを発生させてからEventSinkが受け取るまでの時間
+ * (バイナリ形式のイベントではEventSinkを経由しないので計測しない)
+ *
+ * 実行: ./gradlew -PwithBenchmark :benchmark:simulate -PsimArgs="--peers 5000 --rate 20000 --duration 30"
+ */
+public class SkywaySimulator {
+
+	private static final String LOCAL_PEER_ID = "simulator";
+	private static final int LOCAL_VIEW_ID = 1;
+	/**
+	 * ヒープ使用量を計測する間隔[ミリ秒]
+	 */
+	private static final long HEAP_SAMPLING_MS = 100;
+
+	/**
+	 * 負荷生成の設定
+	 */
+	public static class Config {
+		/**
+		 * 合成するリモートピアの数
+		 */
+		public int peers = 1000;
+		/**
+		 * 同時に入室するルームの数, リモートピアはルームへ均等に割り振る
+		 */
+		public int rooms = 1;
+		/**
+		 * 1秒あたりに発生させるイベントの数
+		 */
+		public int rate = 5000;
+		public long durationMs = 10000;
+		/**
+		 * イベントのうちERRORにする割合
+		 */
+		public double errorRate = 0.001;
+		/**
+		 * イベントのうちルームの切断(CLOSE → 再入室)にする割合
+		 */
+		public double disconnectRate = 0.0001;
+		/**
+		 * FlutterSkywayPeer#setEventBatchingの引数
+		 */
+		public int batchingMs = 0;
+		public boolean binary = false;
+		@NonNull
+		public RoomOption.RoomModeEnum mode = RoomOption.RoomModeEnum.SFU;
+		public long seed = 1;
+		/**
+		 * 結果をJSON形式で保存するファイル, nullなら保存しない
+		 */
+		@Nullable
+		public String out;
+
+		/**
+		 * コマンドライン引数から設定を生成する
+		 * @param args --peers n --rooms n --rate n --duration 秒 --error-rate r --disconnect-rate r
+		 * 			--batching ms --binary --mode sfu|mesh --seed n --out path
+		 * @return
+		 * @throws IllegalArgumentException
+		 */
+		@NonNull
+		public static Config parse(@NonNull final String[] args) throws IllegalArgumentException {
+			final Config config = new Config();
+			for (int i = 0; i < args.length; i++) {
+				final String arg = args[i];
+				if ("--binary".equals(arg)) {
+					config.binary = true;
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("missing value for " + arg);
+				}
+				final String value = args[++i];
+				switch (arg) {
+				case "--peers":
+					config.peers = Integer.parseInt(value);
+					break;
+				case "--rooms":
+					config.rooms = Integer.parseInt(value);
+					break;
+				case "--rate":
+					config.rate = Integer.parseInt(value);
+					break;
+				case "--duration":
+					config.durationMs = (long)(Double.parseDouble(value) * 1000);
+					break;
+				case "--error-rate":
+					config.errorRate = Double.parseDouble(value);
+					break;
+				case "--disconnect-rate":
+					config.disconnectRate = Double.parseDouble(value);
+					break;
+				case "--batching":
+					config.batchingMs = Integer.parseInt(value);
+					break;
+				case "--mode":
+					config.mode = RoomOption.RoomModeEnum.valueOf(value.toUpperCase(Locale.US));
+					break;
+				case "--seed":
+					config.seed = Long.parseLong(value);
+					break;
+				case "--out":
+					config.out = value;
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option " + arg);
+				}
+			}
+			if ((config.peers <= 0) || (config.rooms <= 0) || (config.rate <= 0)) {
+				throw new IllegalArgumentException("peers, rooms and rate must be positive");
+			}
+			return config;
+		}
+
+		@NonNull
+		public Map<String, Object> toMap() {
+			final Map<String, Object> result = new HashMap<>();
+			result.put("peers", peers);
+			result.put("rooms", rooms);
+			result.put("rate", rate);
+			result.put("durationMs", durationMs);
+			result.put("errorRate", errorRate);
+			result.put("disconnectRate", disconnectRate);
+			result.put("batchingMs", batchingMs);
+			result.put("binary", binary);
+			result.put("mode", mode.name());
+			result.put("seed", seed);
+			return result;
+		}
+	}
+
+	/**
+	 * EventSinkが受け取ったイベントの数と遅延を記録する
+	 */
+	private class LatencySink implements EventChannel.EventSink {
+		private final AtomicLong mReceived = new AtomicLong();
+		private final SkywayMetrics.Histogram mLatencyUs = new SkywayMetrics.Histogram();
+		/**
+		 * リモートピアのハンドルとリモートピアid(Dart側と同じく最初のイベントで受け取ってreleasedPeerIdsで破棄する)
+		 */
+		private final ConcurrentHashMap<Object, String> mRemoteIds = new ConcurrentHashMap<>();
+
+		@Override
+		public void success(final Object event) {
+			if (event instanceof List) {
+				for (final Object item: (List<?>)event) {
+					onEvent(item);
+				}
+			} else {
+				onEvent(event);
+			}
+		}
+
+		@Override
+		public void error(final String errorCode, final String errorMessage, final Object errorDetails) {
+		}
+
+		@Override
+		public void endOfStream() {
+		}
+
+		private void onEvent(final Object event) {
+			mReceived.incrementAndGet();
+			if (!(event instanceof Map)) {
+				return;
+			}
+			final Map<?, ?> message = (Map<?, ?>)event;
+			final int state = stateOf(message.get("event"));
+			Object remotePeerId = message.get("remotePeerId");
+			final Object handle = message.get("remoteHandle");
+			if (handle != null) {
+				if (remotePeerId instanceof String) {
+					mRemoteIds.put(handle, (String)remotePeerId);
+				} else {
+					remotePeerId = mRemoteIds.get(handle);
+				}
+			}
+			// Dart側と同じくハンドルを破棄したリモートピアの対応を破棄する
+			final Object released = message.get("releasedPeerIds");
+			if (released instanceof List) {
+				mRemoteIds.values().removeAll((List<?>)released);
+			}
+			if ((state >= 0) && (remotePeerId instanceof String)) {
+				final int ix = mTraffic.indexOf((String)remotePeerId);
+				if (ix >= 0) {
+					final long firedNs = mFiredNs[state].get(ix);
+					if (firedNs != 0) {
+						mLatencyUs.record((System.nanoTime() - firedNs) / 1000);
+					}
+				}
+			}
+		}
+	}
+
+	@NonNull
+	private final Config mConfig;
+	@NonNull
+	private final SimulatedTraffic mTraffic;
+	@NonNull
+	private final MediaStream[] mStreams;
+	/**
+	 * 状態毎に最後にイベントを発生させた時刻[ナノ秒]
+	 */
+	@NonNull
+	private final AtomicLongArray[] mFiredNs = new AtomicLongArray[SimulatedTraffic.NUM_STATES];
+	@NonNull
+	private final Peer mSdkPeer = new Peer(LOCAL_PEER_ID);
+	@NonNull
+	private final SkywayMetrics mMetrics = new SkywayMetrics();
+	@NonNull
+	private final LatencySink mSink = new LatencySink();
+	@NonNull
+	private final BenchmarkSupport.CountingMessenger mMessenger
+		= new BenchmarkSupport.CountingMessenger();
+	private FlutterSkywayPeer mPeer;
+	private long mInjected;
+	private long mErrors;
+	private long mDisconnects;
+	private volatile long mPeakHeap;
+
+	public SkywaySimulator(@NonNull final Config config) {
+		mConfig = config;
+		mTraffic = new SimulatedTraffic(config.peers, config.rooms,
+			config.errorRate, config.disconnectRate, config.seed);
+		mStreams = new MediaStream[config.peers];
+		for (int i = 0; i < SimulatedTraffic.NUM_STATES; i++) {
+			mFiredNs[i] = new AtomicLongArray(config.peers);
+		}
+	}
+
+	/**
+	 * 負荷を生成して計測する
+	 * @return 計測結果
+	 * @throws InterruptedException
+	 */
+	@NonNull
+	public Map<String, Object> run() throws InterruptedException {
+		final long baselineHeap = usedHeapAfterGc();
+		mPeakHeap = baselineHeap;
+		final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				final Runtime runtime = Runtime.getRuntime();
+				mPeakHeap = Math.max(mPeakHeap, runtime.totalMemory() - runtime.freeMemory());
+			}
+		}, 0, HEAP_SAMPLING_MS, TimeUnit.MILLISECONDS);
+
+		mPeer = BenchmarkSupport.createPeer(mSdkPeer, mSink, mMessenger, mMetrics);
+		mPeer.setEventBatching(mConfig.batchingMs);
+		mPeer.setBinaryEvent(mConfig.binary);
+		BenchmarkSupport.runOnSdkThread(mPeer, new Runnable() {
+			@Override
+			public void run() {
+				mPeer.startLocalStream(LOCAL_VIEW_ID);
+			}
+		});
+		for (int i = 0; i < mConfig.rooms; i++) {
+			joinRoom(i);
+		}
+		// 入室時のイベントは計測に含めない
+		drain();
+		mMetrics.reset();
+		final long receivedBefore = mSink.mReceived.get();
+
+		final long startNs = System.nanoTime();
+		final long durationNs = mConfig.durationMs * 1000000L;
+		long now = startNs;
+		while (now - startNs < durationNs) {
+			final long target = (long)(mConfig.rate * ((now - startNs) / 1e9));
+			while (mInjected < target) {
+				mTraffic.next(mInjector);
+				mInjected++;
+			}
+			LockSupport.parkNanos(200000);
+			now = System.nanoTime();
+		}
+		final long injectNs = System.nanoTime() - startNs;
+		drain();
+		final long elapsedNs = System.nanoTime() - startNs;
+		final long delivered = mSink.mReceived.get() - receivedBefore;
+		final Map<String, Object> metrics = mMetrics.snapshot();
+
+		BenchmarkSupport.runOnSdkThread(mPeer, new Runnable() {
+			@Override
+			public void run() {
+				mPeer.release();
+			}
+		});
+		sampler.shutdownNow();
+		final long retainedHeap = usedHeapAfterGc();
+
+		final Map<String, Object> result = new HashMap<>();
+		result.put("config", mConfig.toMap());
+		result.put("injected", mInjected);
+		result.put("injectedPerSec", mInjected * 1e9 / injectNs);
+		result.put("delivered", delivered);
+		result.put("deliveredPerSec", delivered * 1e9 / elapsedNs);
+		result.put("binaryBatches", mMessenger.count.get());
+		result.put("errors", mErrors);
+		result.put("disconnects", mDisconnects);
+		result.put("latencyUs", mSink.mLatencyUs.toMap());
+		result.put("heapBaselineBytes", baselineHeap);
+		result.put("heapPeakBytes", mPeakHeap);
+		result.put("heapRetainedBytes", retainedHeap);
+		result.put("metrics", metrics);
+		return result;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Config config = Config.parse(args);
+		final Map<String, Object> result = new SkywaySimulator(config).run();
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> latency = (Map<String, Object>)result.get("latencyUs");
+		System.out.printf(Locale.US,
+			"injected=%d (%.0f/s), delivered=%d (%.0f/s), errors=%d, disconnects=%d%n",
+			result.get("injected"), result.get("injectedPerSec"),
+			result.get("delivered"), result.get("deliveredPerSec"),
+			result.get("errors"), result.get("disconnects"));
+		System.out.printf(Locale.US,
+			"latency[us]: p50=%s, p90=%s, p99=%s, max=%s%n",
+			latency.get("p50"), latency.get("p90"), latency.get("p99"), latency.get("max"));
+		System.out.printf(Locale.US,
+			"heap[MB]: baseline=%.1f, peak=%.1f, retained=%.1f%n",
+			mb(result.get("heapBaselineBytes")), mb(result.get("heapPeakBytes")),
+			mb(result.get("heapRetainedBytes")));
+		if (config.out != null) {
+			try (final Writer writer = new OutputStreamWriter(
+				new FileOutputStream(config.out), Charset.forName("UTF-8"))) {
+				writer.write(new JSONObject(result).toString());
+			} catch (final IOException e) {
+				System.err.println("failed to write " + config.out + ":" + e);
+			}
+		}
+		System.exit(0);
+	}
+
+//--------------------------------------------------------------------------------
+	/**
+	 * SimulatedTrafficが生成したイベントをフェイクのRoomへ発生させる
+	 */
+	private final SimulatedTraffic.Listener mInjector = new SimulatedTraffic.Listener() {
+		@Override
+		public boolean onPeerEvent(final int state, final int peerIx,
+			@NonNull final String name, @NonNull final String remotePeerId) {
+
+			final Room room = mSdkPeer.findRoom(name);
+			if (room == null) {
+				return false;
+			}
+			mFiredNs[state].set(peerIx, System.nanoTime());
+			switch (state) {
+			case SimulatedTraffic.STATE_JOIN:
+				room.fire(Room.RoomEventEnum.PEER_JOIN, remotePeerId);
+				break;
+			case SimulatedTraffic.STATE_STREAM:
+				mStreams[peerIx] = new MediaStream(remotePeerId);
+				room.fire(Room.RoomEventEnum.STREAM, mStreams[peerIx]);
+				break;
+			case SimulatedTraffic.STATE_REMOVE_STREAM:
+				room.fire(Room.RoomEventEnum.REMOVE_STREAM, mStreams[peerIx]);
+				mStreams[peerIx] = null;
+				break;
+			default:
+				room.fire(Room.RoomEventEnum.PEER_LEAVE, remotePeerId);
+				break;
+			}
+			return true;
+		}
+
+		@Override
+		public void onError(@NonNull final String name) {
+			final Room room = mSdkPeer.findRoom(name);
+			if (room != null) {
+				room.fire(Room.RoomEventEnum.ERROR, new PeerError("simulated error"));
+			}
+			mErrors++;
+		}
+
+		@Override
+		public boolean onDisconnect(final int roomIx, @NonNull final String name) {
+			final Room room = mSdkPeer.findRoom(name);
+			if (room == null) {
+				return false;
+			}
+			mDisconnects++;
+			room.fire(Room.RoomEventEnum.CLOSE, name);
+			for (int i = roomIx; i < mConfig.peers; i += mConfig.rooms) {
+				mStreams[i] = null;
+			}
+			// CLOSEのコールバックの後にSDKのワーカースレッド上で入室し直す
+			mPeer.queueSdkTask(new Runnable() {
+				@Override
+				public void run() {
+					mPeer.join(name, mConfig.mode);
+					mSdkPeer.findRoom(name).fire(Room.RoomEventEnum.OPEN, name);
+				}
+			});
+			return true;
+		}
+	};
+
+	/**
+	 * 入室してルームがOPENしたことにする
+	 * @param roomIx
+	 */
+	private void joinRoom(final int roomIx) throws InterruptedException {
+		final String name = mTraffic.roomName(roomIx);
+		BenchmarkSupport.runOnSdkThread(mPeer, new Runnable() {
+			@Override
+			public void run() {
+				mPeer.join(name, mConfig.mode);
+			}
+		});
+		mSdkPeer.findRoom(name).fire(Room.RoomEventEnum.OPEN, name);
+	}
+
+	/**
+	 * SDKのワーカースレッドとメインスレッドに溜まっているイベントを全て処理し終わるまで待つ
+	 */
+	private void drain() throws InterruptedException {
+		BenchmarkSupport.runOnSdkThread(mPeer, new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		BenchmarkSupport.awaitMainLooper();
+		// バッチ送信の場合は次のフレームで送信されるので2回待つ
+		Thread.sleep(50);
+		BenchmarkSupport.awaitMainLooper();
+	}
+
+	private static int stateOf(@Nullable final Object event) {
+		if ("OnJoin".equals(event)) {
+			return SimulatedTraffic.STATE_JOIN;
+		} else if ("OnAddRemoteStream".equals(event)) {
+			return SimulatedTraffic.STATE_STREAM;
+		} else if ("OnRemoveRemoteStream".equals(event)) {
+			return SimulatedTraffic.STATE_REMOVE_STREAM;
+		} else if ("OnLeave".equals(event)) {
+			return SimulatedTraffic.STATE_LEAVE;
+		}
+		return -1;
+	}
+
+	private static long usedHeapAfterGc() throws InterruptedException {
+		final Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static double mb(final Object bytes) {
+		return ((Number)bytes).longValue() / (1024.0 * 1024.0);
+	}
+}
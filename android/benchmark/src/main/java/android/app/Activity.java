@@ -0,0 +1,20 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Activity extends Context {
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	public final void runOnUiThread(final Runnable action) {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			action.run();
+		} else {
+			mHandler.post(action);
+		}
+	}
+}
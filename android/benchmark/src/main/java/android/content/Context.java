@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Context {
+	public static final String POWER_SERVICE = "power";
+
+	public Object getSystemService(final String name) {
+		return null;
+	}
+
+	public Context getApplicationContext() {
+		return this;
+	}
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = 21;
+	}
+
+	public static class VERSION_CODES {
+		public static final int Q = 29;
+	}
+}
@@ -0,0 +1,68 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * Looperのワーカースレッドで実行する
+ */
+public class Handler {
+	private final Looper mLooper;
+	private final Map<Runnable, List<Future<?>>> mPending = new HashMap<>();
+
+	public Handler(final Looper looper) {
+		mLooper = looper;
+	}
+
+	public final Looper getLooper() {
+		return mLooper;
+	}
+
+	public final boolean post(final Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(final Runnable r, final long delayMillis) {
+		final Future<?>[] self = new Future<?>[1];
+		final Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				synchronized (mPending) {
+					final List<Future<?>> futures = mPending.get(r);
+					if ((futures != null) && futures.remove(self[0]) && futures.isEmpty()) {
+						mPending.remove(r);
+					}
+				}
+				r.run();
+			}
+		};
+		synchronized (mPending) {
+			List<Future<?>> futures = mPending.get(r);
+			if (futures == null) {
+				futures = new ArrayList<>();
+				mPending.put(r, futures);
+			}
+			// 登録し終わるまでmPendingをロックしているのでタスクが先に実行されることはない
+			self[0] = mLooper.mExecutor.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+			futures.add(self[0]);
+		}
+		return true;
+	}
+
+	public final void removeCallbacks(final Runnable r) {
+		final List<Future<?>> futures;
+		synchronized (mPending) {
+			futures = mPending.remove(r);
+		}
+		if (futures != null) {
+			for (final Future<?> future: futures) {
+				future.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package android.os;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * メインスレッドの代わりに1つのワーカースレッドで実行する
+ */
+public final class Looper {
+	private static final Looper sMainLooper = new Looper("main");
+
+	public static Looper getMainLooper() {
+		return sMainLooper;
+	}
+
+	public static Looper myLooper() {
+		return Thread.currentThread() == sMainLooper.mThread ? sMainLooper : null;
+	}
+
+	final ScheduledExecutorService mExecutor;
+	private volatile Thread mThread;
+
+	private Looper(final String name) {
+		final ScheduledThreadPoolExecutor executor
+			= new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				mThread = thread;
+				return thread;
+			}
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		mExecutor = executor;
+	}
+}
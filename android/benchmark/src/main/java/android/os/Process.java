@@ -0,0 +1,16 @@
+package android.os;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Process {
+	public static long getElapsedCpuTime() {
+		return ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() / 1000000L;
+	}
+
+	public static int myPid() {
+		return 1;
+	}
+}
@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public final class SystemClock {
+	public static long elapsedRealtime() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	public static long elapsedRealtimeNanos() {
+		return System.nanoTime();
+	}
+
+	public static long uptimeMillis() {
+		return System.nanoTime() / 1000000L;
+	}
+}
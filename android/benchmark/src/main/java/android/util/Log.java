@@ -0,0 +1,15 @@
+package android.util;
+
+/**
+ * JMHベンチマーク用のフェイク実装, 何も出力しない
+ */
+public final class Log {
+	public static int v(String tag, String msg) { return 0; }
+	public static int d(String tag, String msg) { return 0; }
+	public static int i(String tag, String msg) { return 0; }
+	public static int w(String tag, String msg) { return 0; }
+	public static int w(String tag, Throwable tr) { return 0; }
+	public static int w(String tag, String msg, Throwable tr) { return 0; }
+	public static int e(String tag, String msg) { return 0; }
+	public static int e(String tag, String msg, Throwable tr) { return 0; }
+}
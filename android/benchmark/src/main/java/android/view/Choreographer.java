@@ -0,0 +1,36 @@
+package android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * 60fps相当の間隔でフレームコールバックを呼び出す
+ */
+public final class Choreographer {
+	private static final long FRAME_INTERVAL_MS = 16;
+	private static final Choreographer sInstance = new Choreographer();
+
+	public interface FrameCallback {
+		public void doFrame(long frameTimeNanos);
+	}
+
+	public static Choreographer getInstance() {
+		return sInstance;
+	}
+
+	private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+	public void postFrameCallback(final FrameCallback callback) {
+		mHandler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				callback.doFrame(System.nanoTime());
+			}
+		}, FRAME_INTERVAL_MS);
+	}
+
+	public void removeFrameCallback(final FrameCallback callback) {
+		// 使っていないので何もしない
+	}
+}
@@ -0,0 +1,80 @@
+package com.serenegiant.skyway_flutter_test;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.skyway.Peer.Browser.Canvas;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * 本物(FlutterSkywayCanvas.kt)はAndroidのView/FlutterのPlatformViewに依存するので置き換える
+ * Kotlinのcompanion objectと同じ形でアクセスできるようにしている
+ */
+public class FlutterSkywayCanvas {
+	public static final Companion Companion = new Companion();
+
+	public static final class Companion {
+		private final ConcurrentHashMap<Integer, FlutterSkywayCanvas> mViews
+			= new ConcurrentHashMap<>();
+
+		/**
+		 * 指定したidのCanvasを取得する, 無ければ生成する
+		 * @param id
+		 * @return
+		 */
+		public FlutterSkywayCanvas findViewById(final int id) {
+			FlutterSkywayCanvas view = mViews.get(id);
+			if (view == null) {
+				final FlutterSkywayCanvas created = new FlutterSkywayCanvas(id);
+				view = mViews.putIfAbsent(id, created);
+				if (view == null) {
+					view = created;
+				}
+			}
+			return view;
+		}
+
+		/**
+		 * findViewByIdで常に生成するのでコールバックは呼ばない
+		 * @param listener
+		 */
+		public void addOnViewRegisteredListener(final OnViewRegisteredListener listener) {
+		}
+
+		public void removeOnViewRegisteredListener(final OnViewRegisteredListener listener) {
+		}
+	}
+
+	public interface RendererBinding {
+		public void unbind(FlutterSkywayCanvas view);
+		public void onVisibilityChanged(FlutterSkywayCanvas view, boolean visible);
+	}
+
+	public interface OnViewRegisteredListener {
+		public void onViewRegistered(FlutterSkywayCanvas view);
+	}
+
+	private final int mId;
+	private final Canvas mCanvas = new Canvas();
+
+	private FlutterSkywayCanvas(final int id) {
+		mId = id;
+	}
+
+	public int getViewId() {
+		return mId;
+	}
+
+	public Canvas getCanvas() {
+		return mCanvas;
+	}
+
+	public boolean isVisible() {
+		return true;
+	}
+
+	public void addBinding(final RendererBinding binding) {
+	}
+
+	public void removeBinding(final RendererBinding binding) {
+	}
+}
@@ -0,0 +1,37 @@
+package io.flutter.plugin.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * BinaryCodecのときだけBinaryMessengerへそのまま渡す
+ * BinaryMessenger#sendから戻ったら応答が返ってきたことにする
+ */
+public final class BasicMessageChannel<T> {
+	public interface Reply<T> {
+		public void reply(T reply);
+	}
+
+	private final BinaryMessenger mMessenger;
+	private final String mName;
+
+	public BasicMessageChannel(final BinaryMessenger messenger,
+		final String name, final MessageCodec<T> codec) {
+
+		mMessenger = messenger;
+		mName = name;
+	}
+
+	public void send(final T message) {
+		send(message, null);
+	}
+
+	public void send(final T message, final Reply<T> callback) {
+		if (message instanceof ByteBuffer) {
+			mMessenger.send(mName, (ByteBuffer)message);
+		}
+		if (callback != null) {
+			callback.reply(null);
+		}
+	}
+}
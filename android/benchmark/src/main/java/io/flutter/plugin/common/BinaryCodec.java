@@ -0,0 +1,13 @@
+package io.flutter.plugin.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public final class BinaryCodec implements MessageCodec<ByteBuffer> {
+	public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+	private BinaryCodec() {
+	}
+}
@@ -0,0 +1,10 @@
+package io.flutter.plugin.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public interface BinaryMessenger {
+	public void send(String channel, ByteBuffer message);
+}
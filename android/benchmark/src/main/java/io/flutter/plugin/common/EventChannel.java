@@ -0,0 +1,51 @@
+package io.flutter.plugin.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * Dart側からのlistenの代わりにベンチマークからlistenを呼んでEventSinkを渡す
+ */
+public final class EventChannel {
+	private static final ConcurrentHashMap<String, StreamHandler> sHandlers
+		= new ConcurrentHashMap<>();
+
+	public interface EventSink {
+		public void success(Object event);
+		public void error(String errorCode, String errorMessage, Object errorDetails);
+		public void endOfStream();
+	}
+
+	public interface StreamHandler {
+		public void onListen(Object arguments, EventSink events);
+		public void onCancel(Object arguments);
+	}
+
+	/**
+	 * 指定したチャネルのStreamHandlerへEventSinkを渡す(フェイク実装のみ)
+	 * @param name
+	 * @param sink
+	 * @return StreamHandlerが設定されていなければfalse
+	 */
+	public static boolean listen(final String name, final EventSink sink) {
+		final StreamHandler handler = sHandlers.get(name);
+		if (handler != null) {
+			handler.onListen(null, sink);
+		}
+		return handler != null;
+	}
+
+	private final String mName;
+
+	public EventChannel(final BinaryMessenger messenger, final String name) {
+		mName = name;
+	}
+
+	public void setStreamHandler(final StreamHandler handler) {
+		if (handler != null) {
+			sHandlers.put(mName, handler);
+		} else {
+			sHandlers.remove(mName);
+		}
+	}
+}
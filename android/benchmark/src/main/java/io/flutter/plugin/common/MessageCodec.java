@@ -0,0 +1,7 @@
+package io.flutter.plugin.common;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public interface MessageCodec<T> {
+}
@@ -0,0 +1,30 @@
+package io.flutter.plugin.common;
+
+import java.util.Map;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * Dart側からのメソッド呼び出しの代わりにベンチマークから生成する
+ */
+public final class MethodCall {
+	public final String method;
+	public final Object arguments;
+
+	public MethodCall(final String method, final Object arguments) {
+		this.method = method;
+		this.arguments = arguments;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T argument(final String key) {
+		if (arguments instanceof Map) {
+			return (T) ((Map<?, ?>) arguments).get(key);
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "MethodCall{method=" + method + "}";
+	}
+}
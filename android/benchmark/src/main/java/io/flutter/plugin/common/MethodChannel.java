@@ -0,0 +1,16 @@
+package io.flutter.plugin.common;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * MethodDispatcherが使うResultだけを定義する
+ */
+public final class MethodChannel {
+	public interface Result {
+		public void success(Object result);
+		public void error(String errorCode, String errorMessage, Object errorDetails);
+		public void notImplemented();
+	}
+
+	private MethodChannel() {
+	}
+}
@@ -0,0 +1,13 @@
+package io.skyway.Peer.Browser;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Canvas {
+	public enum ScalingEnum {
+		ASPECT_FIT, ASPECT_FILL, FILL,
+	}
+
+	public boolean mirror;
+	public ScalingEnum scaling = ScalingEnum.ASPECT_FIT;
+}
@@ -0,0 +1,20 @@
+package io.skyway.Peer.Browser;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class MediaConstraints {
+	public enum CameraPositionEnum {
+		UNSPECIFIED, FRONT, BACK,
+	}
+
+	public boolean videoFlag = true;
+	public boolean audioFlag = true;
+	public int maxWidth;
+	public int minWidth;
+	public int maxHeight;
+	public int minHeight;
+	public int maxFrameRate;
+	public int minFrameRate;
+	public CameraPositionEnum cameraPosition = CameraPositionEnum.UNSPECIFIED;
+}
@@ -0,0 +1,27 @@
+package io.skyway.Peer.Browser;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class MediaStream {
+	private final String mPeerId;
+	private volatile boolean mClosed;
+
+	public MediaStream(final String peerId) {
+		mPeerId = peerId;
+	}
+
+	public String getPeerId() {
+		return mPeerId;
+	}
+
+	public void addVideoRenderer(final Canvas canvas, final int trackNo) {
+	}
+
+	public void removeVideoRenderer(final Canvas canvas, final int trackNo) {
+	}
+
+	public void close() {
+		mClosed = true;
+	}
+}
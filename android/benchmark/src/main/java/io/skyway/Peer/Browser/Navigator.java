@@ -0,0 +1,18 @@
+package io.skyway.Peer.Browser;
+
+import io.skyway.Peer.Peer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class Navigator {
+	public static void initialize(final Peer peer) {
+	}
+
+	public static MediaStream getUserMedia(final MediaConstraints constraints) {
+		return new MediaStream(null);
+	}
+
+	public static void terminate() {
+	}
+}
@@ -0,0 +1,7 @@
+package io.skyway.Peer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class CallOption {
+}
@@ -0,0 +1,46 @@
+package io.skyway.Peer;
+
+import java.util.EnumMap;
+
+import io.skyway.Peer.Browser.MediaStream;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class MediaConnection {
+	public enum MediaEventEnum {
+		STREAM, CLOSE, ERROR,
+	}
+
+	private final String mPeerId;
+	private final EnumMap<MediaEventEnum, OnCallback> mCallbacks
+		= new EnumMap<>(MediaEventEnum.class);
+	private volatile boolean mOpen = true;
+
+	public MediaConnection(final String remotePeerId) {
+		mPeerId = remotePeerId;
+	}
+
+	public synchronized void on(final MediaEventEnum event, final OnCallback callback) {
+		mCallbacks.put(event, callback);
+	}
+
+	public String peer() {
+		return mPeerId;
+	}
+
+	public boolean isOpen() {
+		return mOpen;
+	}
+
+	public void answer(final MediaStream stream) {
+	}
+
+	public boolean replaceStream(final MediaStream stream) {
+		return true;
+	}
+
+	public void close() {
+		mOpen = false;
+	}
+}
@@ -0,0 +1,8 @@
+package io.skyway.Peer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public interface OnCallback {
+	public void onCallback(Object object);
+}
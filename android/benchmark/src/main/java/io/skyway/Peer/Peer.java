@@ -0,0 +1,101 @@
+package io.skyway.Peer;
+
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.skyway.Peer.Browser.MediaStream;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * シグナリングサーバーへは接続せずに接続済みとして振る舞う
+ */
+public class Peer {
+	public enum PeerEventEnum {
+		OPEN, CONNECTION, CALL, CLOSE, DISCONNECTED, ERROR,
+	}
+
+	public enum DebugLevelEnum {
+		NO_LOGS, ONLY_ERROR, ERROR_AND_WARNING, ALL_LOGS,
+	}
+
+	private final String mId;
+	private final EnumMap<PeerEventEnum, OnCallback> mCallbacks
+		= new EnumMap<>(PeerEventEnum.class);
+	/**
+	 * joinRoomで生成したRoom(フェイク実装のみ)
+	 */
+	private final ConcurrentHashMap<String, Room> mRooms = new ConcurrentHashMap<>();
+	private volatile boolean mDisconnected;
+	private volatile boolean mDestroyed;
+
+	public Peer(final String id) {
+		mId = id;
+	}
+
+	public String identity() {
+		return mId;
+	}
+
+	public synchronized void on(final PeerEventEnum event, final OnCallback callback) {
+		mCallbacks.put(event, callback);
+	}
+
+	public boolean isDisconnected() {
+		return mDisconnected;
+	}
+
+	public boolean isDestroyed() {
+		return mDestroyed;
+	}
+
+	public void disconnect() {
+		mDisconnected = true;
+	}
+
+	public void destroy() {
+		mDestroyed = true;
+	}
+
+	public MediaConnection call(final String peerId,
+		final MediaStream stream, final CallOption option) {
+
+		return new MediaConnection(peerId);
+	}
+
+	public Room joinRoom(final String roomName, final RoomOption option) {
+		final Room room = new Room(roomName);
+		mRooms.put(roomName, room);
+		return room;
+	}
+
+	/**
+	 * 最後にjoinRoomで生成した指定した名前のRoomを取得する(フェイク実装のみ)
+	 * @param roomName
+	 * @return
+	 */
+	public Room findRoom(final String roomName) {
+		return mRooms.get(roomName);
+	}
+
+	/**
+	 * SDKからのコールバックを模擬する(フェイク実装のみ)
+	 * @param event
+	 * @param object
+	 */
+	public void fire(final PeerEventEnum event, final Object object) {
+		final OnCallback callback;
+		synchronized (this) {
+			callback = mCallbacks.get(event);
+		}
+		if (callback != null) {
+			callback.onCallback(object);
+		}
+	}
+
+	/**
+	 * 問い合わせ結果は返さない(ベンチマークからPeerDirectory#onFetchedを直接呼ぶ)
+	 * @param callback
+	 */
+	public void listAllPeers(final OnCallback callback) {
+	}
+}
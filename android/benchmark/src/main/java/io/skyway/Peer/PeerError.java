@@ -0,0 +1,20 @@
+package io.skyway.Peer;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class PeerError {
+	public String message;
+
+	public PeerError() {
+	}
+
+	public PeerError(final String message) {
+		this.message = message;
+	}
+
+	@Override
+	public String toString() {
+		return "PeerError{" + message + "}";
+	}
+}
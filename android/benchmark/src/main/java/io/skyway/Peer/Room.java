@@ -0,0 +1,55 @@
+package io.skyway.Peer;
+
+import java.util.EnumMap;
+
+import io.skyway.Peer.Browser.MediaStream;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ * fireでSDKからのコールバックを模擬する
+ */
+public class Room {
+	public enum RoomEventEnum {
+		OPEN, CLOSE, ERROR, PEER_JOIN, PEER_LEAVE, STREAM, REMOVE_STREAM, DATA, LOG,
+	}
+
+	private final String mName;
+	private final EnumMap<RoomEventEnum, OnCallback> mCallbacks
+		= new EnumMap<>(RoomEventEnum.class);
+
+	public Room(final String name) {
+		mName = name;
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public synchronized void on(final RoomEventEnum event, final OnCallback callback) {
+		mCallbacks.put(event, callback);
+	}
+
+	/**
+	 * SDKからのコールバックを模擬する(フェイク実装のみ)
+	 * @param event
+	 * @param object
+	 */
+	public void fire(final RoomEventEnum event, final Object object) {
+		final OnCallback callback;
+		synchronized (this) {
+			callback = mCallbacks.get(event);
+		}
+		if (callback != null) {
+			callback.onCallback(object);
+		}
+	}
+
+	public boolean close() {
+		fire(RoomEventEnum.CLOSE, mName);
+		return true;
+	}
+
+	public boolean replaceStream(final MediaStream stream) {
+		return true;
+	}
+}
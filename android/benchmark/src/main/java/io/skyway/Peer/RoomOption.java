@@ -0,0 +1,15 @@
+package io.skyway.Peer;
+
+import io.skyway.Peer.Browser.MediaStream;
+
+/**
+ * JMHベンチマーク用のフェイク実装
+ */
+public class RoomOption {
+	public enum RoomModeEnum {
+		MESH, SFU,
+	}
+
+	public RoomModeEnum mode;
+	public MediaStream stream;
+}
@@ -36,6 +36,13 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
   bool _isJoined = false;
   SkywayPeer _peer;
   final Map<String, RemotePeer> _peers = {};
+  SkywayRoomState _roomState = SkywayRoomState();
+  bool _isSyncing = false;
+  bool _needsSync = false;
+  /// 画面内に表示されているリモート映像の行の範囲, スクロールしたときに更新する
+  /// (_lastVisibleRowがnullならまだスクロールしていないので画面の高さから求める)
+  int _firstVisibleRow = 0;
+  int _lastVisibleRow;
 
   bool get isConnected {
     return _peer != null;
@@ -67,6 +74,8 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
     final Size screenSz = MediaQuery.of(context).size;
     final double w = (screenSz.width - 8) / 2.0;
     final double h = w / 3.0 * 4.0;
+    // GridViewの1行分の高さ(mainAxisSpacingを含む)
+    final double rowExtent = h + 4;
     return Scaffold(
       appBar: AppBar(
         title: Text(widget.title),
@@ -78,15 +87,20 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
               padding: const EdgeInsets.all(4.0),
               width: screenSz.width,
               height: screenSz.height,
-              child: GridView.count(
-                scrollDirection: Axis.vertical,
-                shrinkWrap: true,
-                crossAxisCount: 2,
-                mainAxisSpacing: 4,
-                crossAxisSpacing: 4,
-                // XXX GridViewの項目の高さを変えるにはアスペクト比を指定する
-                childAspectRatio: (w / h),
-                children: _buildRemoteVideos(w, h),
+              child: NotificationListener<ScrollNotification>(
+                onNotification: (ScrollNotification notification) {
+                  return _onRemoteScroll(notification, rowExtent);
+                },
+                child: GridView.count(
+                  scrollDirection: Axis.vertical,
+                  shrinkWrap: true,
+                  crossAxisCount: 2,
+                  mainAxisSpacing: 4,
+                  crossAxisSpacing: 4,
+                  // XXX GridViewの項目の高さを変えるにはアスペクト比を指定する
+                  childAspectRatio: (w / h),
+                  children: _buildRemoteVideos(w, h, rowExtent),
+                ),
               ),
             ),
             if (isConnected)
@@ -207,11 +221,15 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
   }
 
   // リモート映像のグリッド表示用widgetを生成
-  List<Widget> _buildRemoteVideos(final double w, final double h) {
+  List<Widget> _buildRemoteVideos(final double w, final double h, final double rowExtent) {
     final Size sz = MediaQuery.of(context).size;
     if (_peers.isNotEmpty) {
+      final int lastVisibleRow = _lastVisibleRow ?? (sz.height ~/ rowExtent);
       List<Widget> result = [];
       _peers.forEach((key, value) {
+        // 2列で並べるので行はインデックスの半分
+        final int row = result.length ~/ 2;
+        final bool visible = (row >= _firstVisibleRow) && (row <= lastVisibleRow);
         result.add(
           Container(
             width: w,
@@ -219,7 +237,7 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
             child: Column(
               children: [
                 Expanded(
-                  child: _createRemoteView(key),
+                  child: _createRemoteView(key, visible),
                 ),
                 Text(
                   '$key',
@@ -237,8 +255,25 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
     }
   }
 
+  /// スクロールしたときの処理
+  /// 画面内に表示されているリモート映像の行が変わったときだけ再描画する
+  bool _onRemoteScroll(ScrollNotification notification, double rowExtent) {
+    final ScrollMetrics metrics = notification.metrics;
+    final double offset = metrics.pixels < 0 ? 0 : metrics.pixels;
+    final int first = offset ~/ rowExtent;
+    final int last = (offset + metrics.viewportDimension) ~/ rowExtent;
+    if ((first != _firstVisibleRow) || (last != _lastVisibleRow)) {
+      setState(() {
+        _firstVisibleRow = first;
+        _lastVisibleRow = last;
+      });
+    }
+    return false;
+  }
+
   /// リモート映像表示用widgetを生成
-  Widget _createRemoteView(String remotePeerId) {
+  /// @param visible 画面内に表示されているかどうか, falseならプラットフォーム側で描画しない
+  Widget _createRemoteView(String remotePeerId, bool visible) {
     if (Platform.isIOS) {
       return UiKitView(
         key: ValueKey('remoteVideo$remotePeerId'),
@@ -250,6 +285,7 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
     } else if (Platform.isAndroid) {
       return SkywayCanvasView(
         key: ValueKey('remoteVideo$remotePeerId'),
+        visible: visible,
         onViewCreated: (id) {
           _onRemoteViewCreated(remotePeerId, id);
         },
@@ -281,6 +317,7 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
 
     String status;
     SkywayPeer peer;
+    _roomState = SkywayRoomState();
 
     try {
       status = 'Connected';
@@ -366,6 +403,11 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
 
   /// Skyway関係のイベントハンドラ
   void _onSkywayEvent(SkywayEvent event, Map<dynamic, dynamic> args) {
+    if (!_roomState.applyEvent(event, args)) {
+      // イベントを取りこぼしたときは入室し直さずにプラットフォーム側の状態と同期する
+      _syncRoomState();
+      return;
+    }
     switch (event) {
       case SkywayEvent.OnConnect:
         _onConnect(args['peerId']);
@@ -394,6 +436,25 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
       case SkywayEvent.OnCall:
         // do nothing, never comes for p2p
         break;
+      case SkywayEvent.OnPromote:
+      case SkywayEvent.OnDemote:
+        // do nothing, never comes without setRenderSlots
+        break;
+      case SkywayEvent.OnCaptureProfileChanged:
+        print('capture profile changed:$args');
+        break;
+      case SkywayEvent.OnPeersChanged:
+        // do nothing, never comes without refreshIntervalMs
+        break;
+      case SkywayEvent.OnRoomSwitched:
+        print('room switched:$args');
+        break;
+      case SkywayEvent.OnMetrics:
+        print('metrics:${args['metrics']}');
+        break;
+      case SkywayEvent.OnRoomSwitchFailed:
+        print('room switch failed:$args');
+        break;
     }
   }
 
@@ -410,16 +471,12 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
 
   void _onAddRemoteStream(String remotePeerId) {
     print('_onAddRemoteStream:remotePeerId=$remotePeerId');
-    setState(() {
-      _peers[remotePeerId] = RemotePeer();
-    });
+    _updatePeers();
   }
 
   void _onRemoveRemoteStream(String remotePeerId) {
     print('_onRemoveRemoteStream:remotePeerId=$remotePeerId');
-    setState(() {
-      _peers.remove(remotePeerId);
-    });
+    _updatePeers();
   }
 
   void _onOpenRoom(String room) {
@@ -443,4 +500,42 @@ class _CallP2pMeshScreenState extends State<CallP2pMeshScreen> {
   void _onLeave(String remotePeerId) {
     print('_onLeave:remotePeerId=$remotePeerId');
   }
+
+  /// ルームの状態に合わせてリモート映像の一覧を更新する
+  void _updatePeers() {
+    final Set<String> streams = _roomState.streams(_roomName);
+    setState(() {
+      _peers.removeWhere((remotePeerId, peer) => !streams.contains(remotePeerId));
+      for (final String remotePeerId in streams) {
+        _peers.putIfAbsent(remotePeerId, () => RemotePeer());
+      }
+    });
+  }
+
+  /// プラットフォーム側のルームの状態と同期する
+  /// 同期中に更にイベントを取りこぼしたときは同期し終わってからもう一度同期する
+  Future<void> _syncRoomState() async {
+    _needsSync = true;
+    if (_isSyncing) {
+      return;
+    }
+    _isSyncing = true;
+    try {
+      while (_needsSync && (_peer != null)) {
+        _needsSync = false;
+        await _peer.syncRoomState(_roomState);
+        print('_syncRoomState:$_roomState');
+      }
+    } on PlatformException catch (e) {
+      print(e);
+    } finally {
+      _isSyncing = false;
+    }
+    if (mounted) {
+      setState(() {
+        _isJoined = _roomState.rooms.containsKey(_roomName);
+      });
+      _updatePeers();
+    }
+  }
 }
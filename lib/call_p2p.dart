@@ -368,6 +368,25 @@ class _CallP2pScreenState extends State<CallP2pScreen> {
       case SkywayEvent.OnLeave:
         // do nothing, never comes for p2p
         break;
+      case SkywayEvent.OnPromote:
+      case SkywayEvent.OnDemote:
+        // do nothing, never comes without setRenderSlots
+        break;
+      case SkywayEvent.OnCaptureProfileChanged:
+        print('capture profile changed:$args');
+        break;
+      case SkywayEvent.OnPeersChanged:
+        // do nothing, never comes without refreshIntervalMs
+        break;
+      case SkywayEvent.OnRoomSwitched:
+        print('room switched:$args');
+        break;
+      case SkywayEvent.OnMetrics:
+        print('metrics:${args['metrics']}');
+        break;
+      case SkywayEvent.OnRoomSwitchFailed:
+        print('room switch failed:$args');
+        break;
     }
   }
 
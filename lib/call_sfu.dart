@@ -7,8 +7,18 @@ import 'package:skyway_flutter_test/skyway.dart';
 import 'package:shared_preferences/shared_preferences.dart';
 
 import 'skyway_canvas_view.dart';
+import 'skyway_mosaic_view.dart';
 
 const String _PREF_KEY_ROOM = 'skyway.ROOM_SFU';
+/// グリッド表示するリモート映像の描画方法
+/// フル解像度/フルフレームレートで描画する必要はないので描画負荷を減らす
+const SkywayRenderOptions _REMOTE_RENDER_OPTIONS = SkywayRenderOptions(
+  maxFps: 15,
+  maxWidth: 480,
+  maxHeight: 480,
+);
+/// リモートピアがこの数以上になったらモザイク表示(1つのテクスチャへ合成)に切り替える
+const int _MOSAIC_THRESHOLD = 9;
 
 class RemotePeer {
   bool _hasRemoteStream = false;
@@ -36,6 +46,15 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
   bool _isJoined = false;
   SkywayPeer _peer;
   final Map<String, RemotePeer> _peers = {};
+  SkywayRoomState _roomState = SkywayRoomState();
+  bool _isSyncing = false;
+  bool _needsSync = false;
+  /// 画面内に表示されているリモート映像の行の範囲, スクロールしたときに更新する
+  /// (_lastVisibleRowがnullならまだスクロールしていないので画面の高さから求める)
+  int _firstVisibleRow = 0;
+  int _lastVisibleRow;
+  /// リモート映像の表示方法
+  SkywayRenderBackend _remoteBackend = SkywayRenderBackend.platformView;
 
   bool get isConnected {
     return _peer != null;
@@ -45,6 +64,11 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
     return (_peer != null) &&_peers.isNotEmpty;
   }
 
+  /// リモート映像をモザイク表示するかどうか
+  bool get useMosaic {
+    return Platform.isAndroid && isTalking && (_peers.length >= _MOSAIC_THRESHOLD);
+  }
+
   @override
   void initState() {
     super.initState();
@@ -67,9 +91,20 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
     final Size screenSz = MediaQuery.of(context).size;
     final double w = (screenSz.width - 8) / 2.0;
     final double h = w / 3.0 * 4.0;
+    // GridViewの1行分の高さ(mainAxisSpacingを含む)
+    final double rowExtent = h + 4;
     return Scaffold(
       appBar: AppBar(
         title: Text(widget.title),
+        actions: <Widget>[
+          if (Platform.isAndroid)
+            IconButton(
+              icon: Icon(_remoteBackend == SkywayRenderBackend.texture
+                ? Icons.texture : Icons.view_quilt),
+              tooltip: 'Render backend',
+              onPressed: _toggleRemoteBackend,
+            ),
+        ],
       ),
       body: SizedBox.expand(
         child: Stack(
@@ -78,16 +113,27 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
               padding: const EdgeInsets.all(4.0),
               width: screenSz.width,
               height: screenSz.height,
-              child: GridView.count(
-                scrollDirection: Axis.vertical,
-                shrinkWrap: true,
-                crossAxisCount: 2,
-                mainAxisSpacing: 4,
-                crossAxisSpacing: 4,
-                // XXX GridViewの項目の高さを変えるにはアスペクト比を指定する
-                childAspectRatio: (w / h),
-                children: _buildRemoteVideos(w, h),
-              ),
+              child: useMosaic
+                ? SkywayMosaicView(
+                    peer: _peer,
+                    remotePeerIds: _peers.keys.toList(),
+                    room: _roomName,
+                  )
+                : NotificationListener<ScrollNotification>(
+                    onNotification: (ScrollNotification notification) {
+                      return _onRemoteScroll(notification, rowExtent);
+                    },
+                    child: GridView.count(
+                      scrollDirection: Axis.vertical,
+                      shrinkWrap: true,
+                      crossAxisCount: 2,
+                      mainAxisSpacing: 4,
+                      crossAxisSpacing: 4,
+                      // XXX GridViewの項目の高さを変えるにはアスペクト比を指定する
+                      childAspectRatio: (w / h),
+                      children: _buildRemoteVideos(w, h, rowExtent),
+                    ),
+                  ),
             ),
             if (isConnected)
               Align(
@@ -207,11 +253,15 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
   }
 
   // リモート映像のグリッド表示用widgetを生成
-  List<Widget> _buildRemoteVideos(final double w, final double h) {
+  List<Widget> _buildRemoteVideos(final double w, final double h, final double rowExtent) {
     final Size sz = MediaQuery.of(context).size;
     if (_peers.isNotEmpty) {
+      final int lastVisibleRow = _lastVisibleRow ?? (sz.height ~/ rowExtent);
       List<Widget> result = [];
       _peers.forEach((key, value) {
+        // 2列で並べるので行はインデックスの半分
+        final int row = result.length ~/ 2;
+        final bool visible = (row >= _firstVisibleRow) && (row <= lastVisibleRow);
         result.add(
           Container(
             width: w,
@@ -219,7 +269,7 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
             child: Column(
               children: [
                 Expanded(
-                  child: _createRemoteView(key),
+                  child: _createRemoteView(key, visible),
                 ),
                 Text(
                   '$key',
@@ -237,8 +287,25 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
     }
   }
 
+  /// スクロールしたときの処理
+  /// 画面内に表示されているリモート映像の行が変わったときだけ再描画する
+  bool _onRemoteScroll(ScrollNotification notification, double rowExtent) {
+    final ScrollMetrics metrics = notification.metrics;
+    final double offset = metrics.pixels < 0 ? 0 : metrics.pixels;
+    final int first = offset ~/ rowExtent;
+    final int last = (offset + metrics.viewportDimension) ~/ rowExtent;
+    if ((first != _firstVisibleRow) || (last != _lastVisibleRow)) {
+      setState(() {
+        _firstVisibleRow = first;
+        _lastVisibleRow = last;
+      });
+    }
+    return false;
+  }
+
   /// リモート映像表示用widgetを生成
-  Widget _createRemoteView(String remotePeerId) {
+  /// @param visible 画面内に表示されているかどうか, falseならプラットフォーム側で描画しない
+  Widget _createRemoteView(String remotePeerId, bool visible) {
     if (Platform.isIOS) {
       return UiKitView(
         key: ValueKey('remoteVideo$remotePeerId'),
@@ -248,8 +315,12 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
         },
       );
     } else if (Platform.isAndroid) {
+      // 表示方法を切り替えたときはビューを作り直して描画先を設定し直す
       return SkywayCanvasView(
-        key: ValueKey('remoteVideo$remotePeerId'),
+        key: ValueKey('remoteVideo$remotePeerId/$_remoteBackend'),
+        backend: _remoteBackend,
+        renderOptions: _REMOTE_RENDER_OPTIONS,
+        visible: visible,
         onViewCreated: (id) {
           _onRemoteViewCreated(remotePeerId, id);
         },
@@ -281,10 +352,16 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
 
     String status;
     SkywayPeer peer;
+    _roomState = SkywayRoomState();
 
     try {
       status = 'Connected';
       peer = await SkywayPeer.connect(widget.apiKey, widget.domain, _onSkywayEvent);
+      // 入退室が集中してもフレーム毎にまとめて受信する
+      await peer?.setEventBatching(0);
+      await peer?.setBinaryEvent(true);
+      // SFUでは人数が増えることがあるので負荷に応じてローカル映像の取得設定を切り替える
+      await peer?.setCaptureProfile(SkywayCaptureProfile.STANDARD, adaptive: true);
     } on PlatformException catch (e) {
       print(e);
       status = 'Failed to connect.';
@@ -355,6 +432,14 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
     _enter(_roomName);
   }
 
+  /// リモート映像の表示方法を切り替える
+  void _toggleRemoteBackend() {
+    setState(() {
+      _remoteBackend = _remoteBackend == SkywayRenderBackend.texture
+        ? SkywayRenderBackend.platformView : SkywayRenderBackend.texture;
+    });
+  }
+
   Future<void> _onRemoteViewCreated(String remotePeerId, int id) async {
     if (isTalking && _peers.containsKey(remotePeerId)) {
       await _peer.startRemoteStream(id, remotePeerId);
@@ -366,6 +451,11 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
 
   /// Skyway関係のイベントハンドラ
   void _onSkywayEvent(SkywayEvent event, Map<dynamic, dynamic> args) {
+    if (!_roomState.applyEvent(event, args)) {
+      // イベントを取りこぼしたときは入室し直さずにプラットフォーム側の状態と同期する
+      _syncRoomState();
+      return;
+    }
     switch (event) {
       case SkywayEvent.OnConnect:
         _onConnect(args['peerId']);
@@ -394,6 +484,25 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
       case SkywayEvent.OnCall:
         // do nothing, never comes for p2p
         break;
+      case SkywayEvent.OnPromote:
+      case SkywayEvent.OnDemote:
+        // do nothing, never comes without setRenderSlots
+        break;
+      case SkywayEvent.OnCaptureProfileChanged:
+        print('capture profile changed:$args');
+        break;
+      case SkywayEvent.OnPeersChanged:
+        // do nothing, never comes without refreshIntervalMs
+        break;
+      case SkywayEvent.OnRoomSwitched:
+        print('room switched:$args');
+        break;
+      case SkywayEvent.OnMetrics:
+        print('metrics:${args['metrics']}');
+        break;
+      case SkywayEvent.OnRoomSwitchFailed:
+        print('room switch failed:$args');
+        break;
     }
   }
 
@@ -410,16 +519,12 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
 
   void _onAddRemoteStream(String remotePeerId) {
     print('_onAddRemoteStream:remotePeerId=$remotePeerId');
-    setState(() {
-      _peers[remotePeerId] = RemotePeer();
-    });
+    _updatePeers();
   }
 
   void _onRemoveRemoteStream(String remotePeerId) {
     print('_onRemoveRemoteStream:remotePeerId=$remotePeerId');
-    setState(() {
-      _peers.remove(remotePeerId);
-    });
+    _updatePeers();
   }
 
   void _onOpenRoom(String room) {
@@ -443,4 +548,42 @@ class _CallSfuScreenState extends State<CallSfuScreen> {
   void _onLeave(String remotePeerId) {
     print('_onLeave:remotePeerId=$remotePeerId');
   }
+
+  /// ルームの状態に合わせてリモート映像の一覧を更新する
+  void _updatePeers() {
+    final Set<String> streams = _roomState.streams(_roomName);
+    setState(() {
+      _peers.removeWhere((remotePeerId, peer) => !streams.contains(remotePeerId));
+      for (final String remotePeerId in streams) {
+        _peers.putIfAbsent(remotePeerId, () => RemotePeer());
+      }
+    });
+  }
+
+  /// プラットフォーム側のルームの状態と同期する
+  /// 同期中に更にイベントを取りこぼしたときは同期し終わってからもう一度同期する
+  Future<void> _syncRoomState() async {
+    _needsSync = true;
+    if (_isSyncing) {
+      return;
+    }
+    _isSyncing = true;
+    try {
+      while (_needsSync && (_peer != null)) {
+        _needsSync = false;
+        await _peer.syncRoomState(_roomState);
+        print('_syncRoomState:$_roomState');
+      }
+    } on PlatformException catch (e) {
+      print(e);
+    } finally {
+      _isSyncing = false;
+    }
+    if (mounted) {
+      setState(() {
+        _isJoined = _roomState.rooms.containsKey(_roomName);
+      });
+      _updatePeers();
+    }
+  }
 }
@@ -6,6 +6,7 @@ import 'package:skyway_flutter_test/call_mesh.dart';
 import 'package:skyway_flutter_test/call_p2p.dart';
 import 'package:skyway_flutter_test/call_sfu.dart';
 import 'package:skyway_flutter_test/settings.dart';
+import 'package:skyway_flutter_test/skyway.dart';
 
 const String _PREF_KEY_API_KEY = 'skyway.API_KEY';
 const String _PREF_KEY_DOMAIN = 'skyway.DOMAIN';
@@ -194,6 +195,12 @@ class _SelectorScreenState extends State<SelectorScreen> {
       _apiKeyController.text = apiKey;
       _domainController.text = domain;
     });
+    if (apiKey.length > 0) {
+      // 通話画面を開いたときに直ぐに接続できるようにあらかじめピア接続しておく
+      await prewarmPeers(apiKey, domain);
+      // 呼び出し方法を選んでいる間にカメラを開いておく
+      prewarmLocalMedia();
+    }
   }
 
   /// 入力したapiキーを保存する
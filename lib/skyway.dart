@@ -1,4 +1,6 @@
 import 'dart:async';
+import 'dart:convert';
+import 'dart:typed_data';
 
 import 'package:flutter/services.dart';
 import 'package:permission_handler/permission_handler.dart';
@@ -9,6 +11,16 @@ const String _METHOD_CHANNEL_NAME = "com.serenegiant.flutter.skyway/method";
 /// 各ピア接続毎にFlutterSkywayPeerで実装するメソッドチャネルの～ベス名(実際には_$peerIdでポストフィックス)
 const String _PEER_EVENT_CHANNEL_NAME = "com.serenegiant.flutter.skyway/event";
 
+/// 各ピア接続毎にFlutterSkywayPeerでバイナリ形式のイベントを送信するチャネルのベース名(実際には_$peerIdでポストフィックス)
+const String _PEER_BINARY_CHANNEL_NAME = "com.serenegiant.flutter.skyway/binary";
+
+/// バイナリ形式のイベントのバージョン
+const int _BINARY_EVENT_VERSION = 2;
+/// バイナリ形式のイベントでキー文字列が続くことを示すキーid
+const int _BINARY_KEY_CUSTOM = 0xff;
+/// バイナリ形式のイベントでよく使うキー(ネイティブ側のEventCodecと同じ順番)
+const List<String> _BINARY_EVENT_KEYS = ['remotePeerId', 'room', 'error', 'remoteHandle'];
+
 enum SkywayEvent {
   /// ピア接続した
   OnConnect,
@@ -28,13 +40,68 @@ enum SkywayEvent {
   OnJoin,
   /// SFU/Mesh接続で誰かががルームから退室した
   OnLeave,
+  /// リモート映像が描画先スロットへ割り当てられた(昇格した)
+  OnPromote,
+  /// リモート映像が描画先スロットから外された(降格した)
+  OnDemote,
+  /// ローカル映像の取得設定が変更された
+  OnCaptureProfileChanged,
+  /// バックグラウンド更新でピア一覧が変化した(args['added'], args['removed']に差分が入る)
+  OnPeersChanged,
+  /// ルームの切り替えが完了した
+  /// (args['openMs']: 切り替え先がOPENするまでの時間, args['switchMs']: 切り替え完了までの時間,
+  ///  args['gapMs']: 映像が途切れた時間(計測できなければ-1), args['coalesced']: まとめた切り替え要求の数)
+  OnRoomSwitched,
+  /// 計測値の定期送信(args['metrics']にgetMetricsと同じ内容が入る)
+  OnMetrics,
+  /// 切り替え先のルームが切り替え完了前に閉じられたのでルームの切り替えを中止した
+  /// (args['room']: 切り替え先のルーム名, args['from']: 切り替え元のルーム名(閉じずに残る),
+  ///  args['error']: エラーメッセージ)
+  OnRoomSwitchFailed,
 }
 
+/// ネイティブ側のConst.SkywayEventの序数に対応するイベント
+/// (Dart側で処理しないイベントはnull)
+const List<SkywayEvent> _NATIVE_EVENTS = [
+  SkywayEvent.OnConnect,
+  SkywayEvent.OnDisconnect,
+  SkywayEvent.OnCall,
+  SkywayEvent.OnAddRemoteStream,
+  SkywayEvent.OnRemoveRemoteStream,
+  SkywayEvent.OnOpenRoom,
+  SkywayEvent.OnCloseRoom,
+  SkywayEvent.OnJoin,
+  SkywayEvent.OnLeave,
+  null, // OnRelease
+  null, // OnError
+  SkywayEvent.OnPromote,
+  SkywayEvent.OnDemote,
+  SkywayEvent.OnCaptureProfileChanged,
+  SkywayEvent.OnPeersChanged,
+  SkywayEvent.OnRoomSwitched,
+  SkywayEvent.OnMetrics,
+  SkywayEvent.OnRoomSwitchFailed,
+];
+
 enum SkywayRoomMode {
   Mesh,
   SFU,
 }
 
+/// ローカル映像の取得設定のプリセット名(ネイティブ側のCaptureProfileと同じ名前)
+class SkywayCaptureProfile {
+  /// 480x270@15fps
+  static const String LOW = 'low';
+  /// 640x360@24fps
+  static const String MEDIUM = 'medium';
+  /// 960x540@30fps(デフォルト)
+  static const String STANDARD = 'standard';
+  /// 1280x720@30fps
+  static const String HIGH = 'high';
+  /// 1920x1080@15fps, 発表者モード用
+  static const String PRESENTER = 'presenter';
+}
+
 typedef OnSkywayEventCallback = void Function(SkywayEvent event, Map<dynamic, dynamic> args);
 
 /// プラットフォーム側のskyway関係の処理へアクセスするためのメソッドチャネル
@@ -56,6 +123,274 @@ Future<bool> checkPermission() async {
   return cameraStatus.isGranted && micStatus.isGranted;
 }
 
+/// プラットフォーム側のCanvasプールのヒット/ミス回数等を取得する
+/// (textureViewsはテクスチャで表示中の描画先の数)
+Future<Map<dynamic, dynamic>> getCanvasPoolStats() async {
+  return await _channel.invokeMethod('getCanvasPoolStats');
+}
+
+/// AndroidViewの代わりにTextureウイジェットで表示する映像の描画先を生成する
+/// @param width 表示サイズ(物理ピクセル)
+/// @param height 表示サイズ(物理ピクセル)
+/// @return viewId(startLocalStream/startRemoteStream等へ渡す描画先のid)とtextureId(Textureウイジェットへ渡すid)
+Future<Map<dynamic, dynamic>> createTextureView(int width, int height) async {
+  return await _channel.invokeMethod('createTextureView', {
+    'width': width,
+    'height': height,
+  });
+}
+
+/// createTextureViewで生成した描画先を破棄する
+Future<bool> disposeTextureView(int viewId) async {
+  return await _channel.invokeMethod('disposeTextureView', {
+    'viewId': viewId,
+  });
+}
+
+/// 複数のリモート映像を1つのテクスチャへ合成して表示するモザイク表示を生成する
+/// 結果としてmosaicId(SkywayPeer.setMosaicLayout等で使うid)と
+/// textureId(Textureウイジェットへ渡すid)を返す
+/// 通常はSkywayMosaicViewから呼び出す
+Future<Map<dynamic, dynamic>> createMosaicView(int width, int height) async {
+  return await _channel.invokeMethod('createMosaicView', {
+    'width': width,
+    'height': height,
+  });
+}
+
+/// createMosaicViewで生成したモザイク表示を破棄する
+Future<bool> disposeMosaicView(int mosaicId) async {
+  return await _channel.invokeMethod('disposeMosaicView', {
+    'mosaicId': mosaicId,
+  });
+}
+
+/// モザイク表示の統計情報(タイルの数, 合成した回数等)を取得する
+Future<Map<dynamic, dynamic>> getMosaicStats(int mosaicId) async {
+  return await _channel.invokeMethod('getMosaicStats', {
+    'mosaicId': mosaicId,
+  });
+}
+
+/// あらかじめピア接続(シグナリングサーバーへの接続)しておくプールを設定する
+/// 次回以降のSkywayPeer.connectはハンドシェイクを待たずに直ぐに完了する
+/// @param size プールするピアの数, 0ならプールしない
+/// @param idleTimeoutMs 使われなかったピアを破棄するまでの時間
+Future<void> prewarmPeers(String apiKey, String domain,
+  {int size = 1, int idleTimeoutMs = 60000}) async {
+  print("prewarmPeers:size=$size");
+  return await _channel.invokeMethod('prewarmPeers', {
+    'apiKey': apiKey,
+    'domain': domain,
+    'size': size,
+    'idleTimeoutMs': idleTimeoutMs,
+  });
+}
+
+/// 通話画面を開く前にローカル映像の取得(カメラのオープン)を開始しておく
+/// prewarmPeersでプールしたピアと組にして取得し、そのピアでSkywayPeer.connectしたときに使うので
+/// 通話画面でのローカル映像の表示開始までの時間を短縮できる
+/// ttlMsまでにconnectしなければ破棄する
+/// @param profile 取得設定(SkywayCaptureProfile), nullならデフォルト
+/// @return 取得を開始したかどうか(接続中のピアがあるときは開始しない)
+Future<bool> prewarmLocalMedia({String profile, int ttlMs = 10000}) async {
+  print("prewarmLocalMedia:profile=$profile,ttlMs=$ttlMs");
+  return await _channel.invokeMethod('prewarmLocalMedia', {
+    'profile': profile,
+    'ttlMs': ttlMs,
+  });
+}
+
+/// プラットフォーム側のピア接続プールのヒット/ミス回数や
+/// 短縮できた接続時間(savedOpenMs, lastSavedOpenMs)等を取得する
+/// localMediaにはprewarmLocalMediaのヒット数(hits)や破棄した数(expired)等が入る
+Future<Map<dynamic, dynamic>> getPeerPoolStats() async {
+  return await _channel.invokeMethod('getPeerPoolStats');
+}
+
+/// プラットフォーム側の計測値を取得する
+/// events: イベント名毎の送信数, sendFailures: 破棄済みのため送信できなかった数,
+/// bufferedEvents/coalescedEvents/overflowedEvents: listenする前に溜めた/まとめた/溢れて破棄したイベントの数,
+/// methodUs: メソッド名毎のハンドラーの処理時間[マイクロ秒],
+/// streamToRenderMs: リモート映像を受信してから描画を開始するまでの時間[ミリ秒],
+/// elapsedMs: 前回リセットしてからの経過時間
+/// (ヒストグラムはcount, sum, max, p50, p90, p99, bucketsを含むMap)
+/// @param reset trueなら取得後に計測値を0に戻す
+Future<Map<dynamic, dynamic>> getMetrics({bool reset = false}) async {
+  return await _channel.invokeMethod('getMetrics', {
+    'reset': reset,
+  });
+}
+
+/// 全てのピアの通話開始までの各フェーズ(connect, getUserMedia, call/join, firstStream, render)の
+/// 所要時間をChrome trace event形式のJSON文字列で取得する
+/// (プールした接続済みのピアを使ったときはconnectはプールから取得するまでの時間で、
+///  プールがバックグラウンドで接続にかかった時間はpoolOpenとして記録する)
+/// (chrome://tracingやPerfettoで表示できる, カテゴリーはp2p/mesh/sfu/peer/media)
+/// @param clear trueなら取得後に記録を破棄する
+Future<String> getAllCallTraces({bool clear = false}) async {
+  return await _channel.invokeMethod('getCallTrace', {
+    'clear': clear,
+  });
+}
+
+/// invokeBatchでまとめて実行するメソッド呼び出し
+class SkywayCommand {
+  /// メソッド名(SkywayPeerの各メソッドが呼び出すメソッドチャネルのメソッド名)
+  final String method;
+  /// 引数, peerIdを省略するとバッチのpeerId(途中でconnectが成功したときはその結果)を使う
+  final Map<String, dynamic> args;
+
+  const SkywayCommand(this.method, [this.args = const {}]);
+
+  Map<String, dynamic> _toMap() => {
+    'method': method,
+    'args': args,
+  };
+}
+
+/// invokeBatchでまとめて実行したメソッド呼び出しの結果
+class SkywayCommandResult {
+  final String method;
+  /// success, error, notImplemented, skipped(エラーで中断したため実行しなかった)のいずれか
+  final String status;
+  final dynamic result;
+  final String errorCode;
+  final String errorMessage;
+
+  SkywayCommandResult._fromMap(Map<dynamic, dynamic> map)
+  : method = map['method'],
+    status = map['status'],
+    result = map['result'],
+    errorCode = map['errorCode'],
+    errorMessage = map['errorMessage'];
+
+  bool get isSuccess => status == 'success';
+
+  @override
+  String toString() => 'SkywayCommandResult{$method,$status,'
+    '${isSuccess ? result : '$errorCode:$errorMessage'}}';
+}
+
+/// 複数のメソッド呼び出しを1回のメソッドチャネル呼び出しでまとめて実行する
+/// プラットフォーム側で各コマンドの結果を待ってから順番に次のコマンドを実行する
+/// @param peerId 引数にpeerIdを含まないコマンドで使うピアid
+/// @param stopOnError trueならエラーになったコマンド以降を実行しない
+/// @return 各コマンドの結果(commandsと同じ順)
+Future<List<SkywayCommandResult>> invokeBatch(List<SkywayCommand> commands,
+  {String peerId, bool stopOnError = true}) async {
+  print("invokeBatch:${commands.length} commands");
+  final List<dynamic> results = await _channel.invokeMethod('batch', {
+    'peerId': peerId,
+    'stopOnError': stopOnError,
+    'commands': commands.map((command) => command._toMap()).toList(),
+  });
+  return results
+    .map((result) => SkywayCommandResult._fromMap(result))
+    .toList();
+}
+
+/// 1つのルームのメンバーと受信中のリモート映像(いずれもリモートピアのid)
+class SkywayRoomEntry {
+  final Set<String> members = {};
+  final Set<String> streams = {};
+}
+
+/// 入室中のSFU/Meshのルームの状態
+/// プラットフォーム側が保持している状態をイベント(args['stateVersion'])とgetRoomStateの結果で同期する
+/// プラットフォーム側で打ち消し合ったりまとめたりして送信しなかったイベントのバージョンは
+/// 後続のイベントのargs['stateVersionFrom']へ引き継がれるのでその範囲の飛びは取りこぼしとして扱わない
+class SkywayRoomState {
+  /// 同期済みのバージョン(接続直後の空の状態は0)
+  int version = 0;
+  /// ルーム名とルームの状態
+  final Map<String, SkywayRoomEntry> rooms = {};
+
+  /// 指定したルームで受信中のリモート映像のリモートピアのid
+  Set<String> streams(String room) => rooms[room]?.streams ?? <String>{};
+
+  /// 指定したルームに入室中のリモートピアのid
+  Set<String> members(String room) => rooms[room]?.members ?? <String>{};
+
+  /// イベントで状態を更新する
+  /// @return 更新した(またはルームの状態に関係しないイベントだった)ときはtrue,
+  ///         バージョンが飛んでいて(イベントを取りこぼしていて)getRoomStateで同期し直す必要があるときはfalse
+  bool applyEvent(SkywayEvent event, Map<dynamic, dynamic> args) {
+    final int stateVersion = args['stateVersion'];
+    if (stateVersion == null) {
+      return true;
+    }
+    if (stateVersion <= version) {
+      // 同期済み
+      return true;
+    }
+    // stateVersionFrom〜stateVersionの間のイベントは送信されずに打ち消されている
+    final int stateVersionFrom = args['stateVersionFrom'] ?? stateVersion;
+    if (stateVersionFrom > version + 1) {
+      return false;
+    }
+    final String op = _EVENT_OPS[event];
+    if (op != null) {
+      _apply(op, args['room'], args['remotePeerId']);
+    }
+    version = stateVersion;
+    return true;
+  }
+
+  /// getRoomStateの結果(全体または変化分)で状態を更新する
+  void applySnapshot(Map<dynamic, dynamic> snapshot) {
+    if (snapshot['full'] == true) {
+      rooms.clear();
+      final Map<dynamic, dynamic> map = snapshot['rooms'];
+      map.forEach((room, value) {
+        final SkywayRoomEntry entry = SkywayRoomEntry();
+        entry.members.addAll((value['members'] as List<dynamic>).cast<String>());
+        entry.streams.addAll((value['streams'] as List<dynamic>).cast<String>());
+        rooms[room] = entry;
+      });
+    } else {
+      for (final dynamic change in snapshot['changes']) {
+        _apply(change['op'], change['room'], change['remotePeerId']);
+      }
+    }
+    version = snapshot['version'];
+  }
+
+  static const Map<SkywayEvent, String> _EVENT_OPS = {
+    SkywayEvent.OnOpenRoom: 'open',
+    SkywayEvent.OnCloseRoom: 'close',
+    SkywayEvent.OnJoin: 'join',
+    SkywayEvent.OnLeave: 'leave',
+    SkywayEvent.OnAddRemoteStream: 'addStream',
+    SkywayEvent.OnRemoveRemoteStream: 'removeStream',
+  };
+
+  void _apply(String op, String room, String remotePeerId) {
+    if (op == 'close') {
+      rooms.remove(room);
+      return;
+    }
+    final SkywayRoomEntry entry = rooms.putIfAbsent(room, () => SkywayRoomEntry());
+    switch (op) {
+      case 'join':
+        entry.members.add(remotePeerId);
+        break;
+      case 'leave':
+        entry.members.remove(remotePeerId);
+        break;
+      case 'addStream':
+        entry.streams.add(remotePeerId);
+        break;
+      case 'removeStream':
+        entry.streams.remove(remotePeerId);
+        break;
+    }
+  }
+
+  @override
+  String toString() => 'SkywayRoomState{version=$version,rooms=${rooms.keys}}';
+}
+
 /// Skyway関係のプラットフォーム側実装へアクセスするためのラッパークラス
 class SkywayPeer {
   /// インスタンス生成のためのヘルパー関数
@@ -85,17 +420,28 @@ class SkywayPeer {
   final String peerId;
   final OnSkywayEventCallback onEvent;
   StreamSubscription<dynamic> _eventSubscription;
+  BasicMessageChannel<ByteData> _binaryChannel;
+  /// プラットフォーム側との間でpeerIdの代わりに使うハンドル(OnConnectイベントで受け取る)
+  int _peerHandle;
+  /// リモートピアのハンドルとリモートピアid
+  final Map<int, String> _remotePeerIds = {};
+  /// リモートピアidとハンドル
+  final Map<String, int> _remoteHandles = {};
 
   /// 内部使用のコンストラクタ
   SkywayPeer._internal({this.peerId, this.onEvent})
   : assert(onEvent != null);
 
+  /// メソッド呼び出しの引数peerIdに使う値(ハンドルを受け取るまではピアid)
+  dynamic get _target => _peerHandle ?? peerId;
+
   /// ピア接続を切断し関係するリソースを開放する
   Future<void> disconnect() async {
     print("destroy:");
     _eventSubscription?.cancel();
+    _binaryChannel?.setMessageHandler(null);
     return await _channel.invokeMethod('disconnect', {
-      'peerId': peerId,
+      'peerId': _target,
     });
   }
 
@@ -104,27 +450,71 @@ class SkywayPeer {
   Future<List<String>> listAllPeers() async {
     print("listAllPeers:");
     List<dynamic> peers = await _channel.invokeMethod('listAllPeers', {
-      'peerId': peerId,
+      'peerId': _target,
     });
     return peers.cast<String>();
   }
 
+  /// ピア一覧のキャッシュ設定
+  /// @param ttlMs キャッシュの有効期限, 0以下ならキャッシュしない(同時に要求したときはまとめる)
+  /// @param refreshIntervalMs バックグラウンドでピア一覧を更新する間隔, 0以下なら更新しない
+  ///        更新するとピア一覧の差分がOnPeersChangedイベントで届く
+  Future<void> setPeerDirectory(int ttlMs, {int refreshIntervalMs = 0}) async {
+    print("setPeerDirectory:ttl=$ttlMs,refresh=$refreshIntervalMs");
+    return await _channel.invokeMethod('setPeerDirectory', {
+      'peerId': _target,
+      'ttlMs': ttlMs,
+      'refreshIntervalMs': refreshIntervalMs,
+    });
+  }
+
+  /// 計測値をOnMetricsイベントで定期的に受け取る
+  /// @param intervalMs 送信間隔, 0以下なら送信しない
+  Future<void> setMetricsPush(int intervalMs) async {
+    print("setMetricsPush:$intervalMs");
+    return await _channel.invokeMethod('setMetricsPush', {
+      'peerId': _target,
+      'intervalMs': intervalMs,
+    });
+  }
+
+  /// このピアの通話開始までの各フェーズの所要時間をChrome trace event形式のJSON文字列で取得する
+  /// @param clear trueなら取得後に記録を破棄する
+  Future<String> getCallTrace({bool clear = false}) async {
+    return await _channel.invokeMethod('getCallTrace', {
+      'peerId': _target,
+      'clear': clear,
+    });
+  }
+
+  /// このピアで複数のメソッド呼び出しをまとめて実行する
+  /// 例えばstartLocalStream, join, startRemoteStreamを1回のメソッドチャネル呼び出しで実行できる
+  /// @param stopOnError trueならエラーになったコマンド以降を実行しない
+  Future<List<SkywayCommandResult>> batch(List<SkywayCommand> commands,
+    {bool stopOnError = true}) async {
+    return await invokeBatch(commands, peerId: peerId, stopOnError: stopOnError);
+  }
+
   /// ローカル映像の取得開始
   Future<void> startLocalStream(int localVideoId) async {
     print("startLocalStream:");
     return await _channel.invokeMethod('startLocalStream', {
-      'peerId': peerId,
+      'peerId': _target,
       'localVideoId': localVideoId,
     });
   }
 
   /// リモート映像の取得開始
-  Future<void> startRemoteStream(int remoteVideoId, String targetPeerId) async {
+  /// @param room 複数のルームに入室しているときにリモート映像を受信したルームを指定する
+  ///        (nullならp2p接続または最初に見つかったルームのリモート映像)
+  /// setRenderSlotsで描画先スロットを設定しているときは割り当てられたスロット以外を指定するとエラーになる
+  Future<void> startRemoteStream(int remoteVideoId, String targetPeerId, {String room}) async {
     print("startLocalStream:");
     return await _channel.invokeMethod('startRemoteStream', {
-      'peerId': peerId,
+      'peerId': _target,
       'remoteVideoId': remoteVideoId,
-      'remotePeerId': targetPeerId,
+      'remotePeerId': _remoteHandles[targetPeerId] ?? targetPeerId,
+      'room': room,
     });
   }
 
@@ -132,7 +522,7 @@ class SkywayPeer {
   Future<void> hangUp() async {
     print("hangUp:");
     return await _channel.invokeMethod('hangUp', {
-      'peerId': peerId,
+      'peerId': _target,
     });
   }
 
@@ -140,27 +530,171 @@ class SkywayPeer {
   Future<void> call(String targetPeerId) async {
     print("call:");
     return await _channel.invokeMethod('call', {
-      'peerId': peerId,
-      'remotePeerId': targetPeerId,
+      'peerId': _target,
+      'remotePeerId': _remoteHandles[targetPeerId] ?? targetPeerId,
     });
   }
 
   /// 接続開始
+  /// 既に入室している他のルームはそのまま(同時に複数のルームに入室できる)
   Future<void> join(String room, SkywayRoomMode mode) async {
     print("join:room=$room,mode=$mode");
     return await _channel.invokeMethod('join', {
-      'peerId': peerId,
+      'peerId': _target,
       'room': room,
       "mode": mode.index,
     });
   }
 
-  /// 接続開始
+  /// 入室中のルームから別のルームへ切り替える
+  /// 切り替え先のルームがOPENしてから切り替え元のルームを閉じるので映像/音声が途切れない
+  /// 切り替え中に続けて呼び出したときは最後の切り替え先だけが適用される
+  /// 切り替えが完了するとOnRoomSwitchedイベントが届く
+  /// (切り替え先のリモート映像を受信する前に切り替え元を閉じたときは映像が途切れた時間を計測するために
+  ///  切り替え先のリモート映像を受信するまで遅れて届く)
+  /// 切り替え先のルームが切り替え完了前に閉じられたときはOnRoomSwitchFailedイベントが届く
+  /// @param from 切り替え元のルーム名, nullなら入室するだけ
+  Future<void> switchRoom(String room, SkywayRoomMode mode, {String from}) async {
+    print("switchRoom:$from→$room,mode=$mode");
+    return await _channel.invokeMethod('switchRoom', {
+      'peerId': _target,
+      'from': from,
+      'room': room,
+      'mode': mode.index,
+    });
+  }
+
+  /// 指定したルームから退室
   Future<void> leave(String room) async {
     print("leave:");
     return await _channel.invokeMethod('leave', {
-      'peerId': peerId,
+      'peerId': _target,
+      'room': room,
+    });
+  }
+
+  /// 入室中のルーム名一覧を取得する
+  Future<List<String>> getRooms() async {
+    List<dynamic> rooms = await _channel.invokeMethod('getRooms', {
+      'peerId': _target,
+    });
+    return rooms.cast<String>();
+  }
+
+  /// 入室中のルームのメンバーと受信中のリモート映像を取得する
+  /// sinceVersion以降の変化分(full=false, changes)だけを返せないときは全体(full=true, rooms)を返す
+  /// @param sinceVersion 負なら全体を取得する
+  Future<Map<dynamic, dynamic>> getRoomState({int sinceVersion = -1}) async {
+    return await _channel.invokeMethod('getRoomState', {
+      'peerId': _target,
+      'sinceVersion': sinceVersion,
+    });
+  }
+
+  /// 1回の呼び出しでルームの状態をプラットフォーム側と同期する
+  Future<void> syncRoomState(SkywayRoomState state) async {
+    final Map<dynamic, dynamic> snapshot
+      = await getRoomState(sinceVersion: state.version);
+    state.applySnapshot(snapshot);
+  }
+
+  /// イベントをまとめて受信するかどうかを設定する(デフォルトは描画フレーム毎)
+  /// @param intervalMs 負数ならまとめない, 0なら描画フレーム毎, 正数ならミリ秒単位の送信間隔
+  Future<void> setEventBatching(int intervalMs) async {
+    print("setEventBatching:$intervalMs");
+    return await _channel.invokeMethod('setEventBatching', {
+      'peerId': _target,
+      'intervalMs': intervalMs,
+    });
+  }
+
+  /// イベントをバイナリ形式で受信するかどうかを設定する
+  /// バイナリ形式のイベントはハンドルで宛先を判別するので
+  /// (OnConnectイベントより前でも)ハンドルを取得してからバイナリ形式へ切り替える
+  Future<void> setBinaryEvent(bool enable) async {
+    print("setBinaryEvent:$enable");
+    if (enable && (_peerHandle == null)) {
+      _peerHandle = await _channel.invokeMethod('getPeerHandle', {
+        'peerId': peerId,
+      });
+    }
+    _peerHandle = await _channel.invokeMethod('setBinaryEvent', {
+      'peerId': _target,
+      'enable': enable,
+    });
+  }
+
+  /// リモート映像の描画先スロットを設定する
+  /// 同時に描画するリモート映像の数をスロットの数までに制限して
+  /// 優先度順に割り当てる(割り当てが変わるとOnPromote/OnDemoteイベントが届く)
+  /// @param viewIds 描画先スロットとして使うSkywayCanvasViewのid, 空ならスケジューラーを無効にする
+  Future<void> setRenderSlots(List<int> viewIds) async {
+    print("setRenderSlots:$viewIds");
+    return await _channel.invokeMethod('setRenderSlots', {
+      'peerId': _target,
+      'viewIds': viewIds,
+    });
+  }
+
+  /// モザイク表示のレイアウトとリモートピアの並び順を設定する
+  /// タイルの位置計算とリモート映像毎の描画先の生成/破棄はプラットフォーム側で行うので
+  /// 新しく並び順に含めたリモートピアに対してstartRemoteStreamを呼ぶ必要はない
+  /// @param mosaicId createMosaicViewで生成したモザイク表示のid
+  /// @param layout 'grid'(格子状)または'speaker'(先頭のリモートピアを大きく表示)
+  /// @param remotePeerIds 表示するリモートピアのid
+  /// @param width/height モザイク表示のサイズ(物理ピクセル), 省略時は変更しない
+  /// @return リモートピアのidとタイルのviewId(SkywayCanvasViewのidと同様に描画方法の設定等に使える)
+  Future<Map<dynamic, dynamic>> setMosaicLayout(int mosaicId, String layout,
+    List<String> remotePeerIds, {String room, int width, int height}) async {
+    print("setMosaicLayout:$layout,$remotePeerIds");
+    return await _channel.invokeMethod('setMosaicLayout', {
+      'peerId': _target,
+      'mosaicId': mosaicId,
+      'layout': layout,
+      'remotePeerIds': remotePeerIds.map((id) => _remoteHandles[id] ?? id).toList(),
       'room': room,
+      'width': width,
+      'height': height,
+    });
+  }
+
+  /// リモート映像の描画優先度を設定する(まだ映像を受信していないリモートピアにも設定できる)
+  /// @param priority 大きいほど優先する
+  /// @param pinned trueなら他の条件に関係なく優先して描画する
+  Future<void> setRemotePriority(String remotePeerId,
+    {int priority = 0, bool pinned = false}) async {
+    print("setRemotePriority:$remotePeerId,priority=$priority,pinned=$pinned");
+    return await _channel.invokeMethod('setRemotePriority', {
+      'peerId': _target,
+      'remotePeerId': _remoteHandles[remotePeerId] ?? remotePeerId,
+      'priority': priority,
+      'pinned': pinned,
+    });
+  }
+
+  /// リモートピアが発話したことを通知する(最近発話したリモートピアほど優先して描画する)
+  Future<void> notifySpeaking(String remotePeerId) async {
+    return await _channel.invokeMethod('notifySpeaking', {
+      'peerId': _target,
+      'remotePeerId': _remoteHandles[remotePeerId] ?? remotePeerId,
+    });
+  }
+
+  /// ローカル映像の取得設定(プリセット)を変更する
+  /// ローカル映像を取得中であればピア接続はそのままでローカル映像だけを取得し直す
+  /// @param profile SkywayCaptureProfileのプリセット名
+  /// @param frontCamera nullなら現在のカメラのまま
+  /// @param adaptive trueなら負荷/温度/ルームの人数に応じてprofileを上限として自動で切り替える
+  ///        (切り替わるとOnCaptureProfileChangedイベントが届く)
+  /// @return 適用した取得設定(profile, width, height, fps, camera)
+  Future<Map<dynamic, dynamic>> setCaptureProfile(String profile,
+    {bool frontCamera, bool adaptive = false}) async {
+    print("setCaptureProfile:$profile,frontCamera=$frontCamera,adaptive=$adaptive");
+    return await _channel.invokeMethod('setCaptureProfile', {
+      'peerId': _target,
+      'profile': profile,
+      'camera': frontCamera == null ? null : (frontCamera ? 'front' : 'back'),
+      'adaptive': adaptive,
     });
   }
 
@@ -168,8 +702,8 @@ class SkywayPeer {
   Future<void> accept(String remotePeerId) async {
     print("accept:");
     return await _channel.invokeMethod('accept', {
-      'peerId': peerId,
-      'remotePeerId': remotePeerId,
+      'peerId': _target,
+      'remotePeerId': _remoteHandles[remotePeerId] ?? remotePeerId,
     });
   }
 
@@ -177,8 +711,8 @@ class SkywayPeer {
   Future<void> reject(String remotePeerId) async {
     print("reject:");
     return await _channel.invokeMethod('reject', {
-      'peerId': peerId,
-      'remotePeerId': remotePeerId,
+      'peerId': _target,
+      'remotePeerId': _remoteHandles[remotePeerId] ?? remotePeerId,
     });
   }
 
@@ -189,55 +723,225 @@ class SkywayPeer {
     _eventSubscription = EventChannel(_PEER_EVENT_CHANNEL_NAME + '_$peerId')
         .receiveBroadcastStream()
         .listen(_eventListener, onError: _errorListener);
+    _binaryChannel = BasicMessageChannel<ByteData>(
+        _PEER_BINARY_CHANNEL_NAME + '_$peerId', BinaryCodec())
+      ..setMessageHandler(_binaryEventListener);
   }
 
   /// イベントチャネルでイベントを受信したときの処理
   void _eventListener(dynamic event) {
     print("_eventListener:$event");
+    if (event is List) {
+      // バッチ送信の場合は複数のイベントがリストで届く
+      event.forEach(_dispatchEvent);
+    } else {
+      _dispatchEvent(event);
+    }
+  }
+
+  /// 受信したイベントを1つずつ処理する
+  void _dispatchEvent(dynamic event) {
     final Map<dynamic, dynamic> args = event;
 
     String _event = args['event'];
-    if (peerId == args['peerId']) {
-      switch (_event) {
-        case 'OnConnect':       // ピア接続した
-          onEvent(SkywayEvent.OnConnect, args);
-          break;
-        case 'OnDisconnect':    // ピア接続が切断された
-          onEvent(SkywayEvent.OnDisconnect, args);
-          break;
-        case 'OnCall':          //  p2pで着呼した
-           onEvent(SkywayEvent.OnCall, args);
-          break;
-        case 'OnAddRemoteStream': // リモート映像のMediaStreamを受信した
-          onEvent(SkywayEvent.OnAddRemoteStream, args);
-          break;
-        case 'OnRemoveRemoteStream':  // リモート映像のMediaStreamが削除された
-          onEvent(SkywayEvent.OnRemoveRemoteStream, args);
-          break;
-        case 'OnOpenRoom':          // SFUまたはMeshルームをオープンした(自分が入室した)
-          onEvent(SkywayEvent.OnOpenRoom, args);
-          break;
-        case 'OnCloseRoom':         // SFUまたはMeshルームをオープンした(自分が退室した)
-          onEvent(SkywayEvent.OnCloseRoom, args);
-          break;
-        case 'OnJoin':              // SFU/Mesh接続で誰かががルームに入室した
-          onEvent(SkywayEvent.OnJoin, args);
-          break;
-        case 'OnLeave':             // SFU/Mesh接続で誰かががルームから退室した
-          onEvent(SkywayEvent.OnLeave, args);
-          break;
-        default:
-          print('unknown event($_event),args=$args');
-          break;
+    // イベントチャネルはピア毎なのでピアidは送信されない
+    args['peerId'] = peerId;
+    _resolveRemote(args);
+    switch (_event) {
+      case 'OnConnect':       // ピア接続した
+        onEvent(SkywayEvent.OnConnect, args);
+        break;
+      case 'OnDisconnect':    // ピア接続が切断された
+        onEvent(SkywayEvent.OnDisconnect, args);
+        break;
+      case 'OnCall':          //  p2pで着呼した
+         onEvent(SkywayEvent.OnCall, args);
+        break;
+      case 'OnAddRemoteStream': // リモート映像のMediaStreamを受信した
+        onEvent(SkywayEvent.OnAddRemoteStream, args);
+        break;
+      case 'OnRemoveRemoteStream':  // リモート映像のMediaStreamが削除された
+        onEvent(SkywayEvent.OnRemoveRemoteStream, args);
+        break;
+      case 'OnOpenRoom':          // SFUまたはMeshルームをオープンした(自分が入室した)
+        onEvent(SkywayEvent.OnOpenRoom, args);
+        break;
+      case 'OnCloseRoom':         // SFUまたはMeshルームをオープンした(自分が退室した)
+        onEvent(SkywayEvent.OnCloseRoom, args);
+        break;
+      case 'OnJoin':              // SFU/Mesh接続で誰かががルームに入室した
+        onEvent(SkywayEvent.OnJoin, args);
+        break;
+      case 'OnLeave':             // SFU/Mesh接続で誰かががルームから退室した
+        onEvent(SkywayEvent.OnLeave, args);
+        break;
+      case 'OnPromote':           // リモート映像が描画先スロットへ割り当てられた
+        onEvent(SkywayEvent.OnPromote, args);
+        break;
+      case 'OnDemote':            // リモート映像が描画先スロットから外された
+        onEvent(SkywayEvent.OnDemote, args);
+        break;
+      case 'OnCaptureProfileChanged': // ローカル映像の取得設定が変更された
+        onEvent(SkywayEvent.OnCaptureProfileChanged, args);
+        break;
+      case 'OnPeersChanged':      // バックグラウンド更新でピア一覧が変化した
+        onEvent(SkywayEvent.OnPeersChanged, args);
+        break;
+      case 'OnRoomSwitched':      // ルームの切り替えが完了した
+        onEvent(SkywayEvent.OnRoomSwitched, args);
+        break;
+      case 'OnMetrics':           // 計測値の定期送信
+        onEvent(SkywayEvent.OnMetrics, _decodeMetrics(args));
+        break;
+      case 'OnRoomSwitchFailed':  // ルームの切り替えを中止した
+        onEvent(SkywayEvent.OnRoomSwitchFailed, args);
+        break;
+      default:
+        print('unknown event($_event),args=$args');
+        break;
+    }
+  }
+
+  /// イベントのハンドル(peerHandle, remoteHandle)を処理する
+  /// リモートピアidは最初のイベントでだけハンドルと一緒に届くので記録しておいて
+  /// 以降のイベントではハンドルからリモートピアidを補う
+  void _resolveRemote(Map<dynamic, dynamic> args) {
+    final int peerHandle = args['peerHandle'];
+    if (peerHandle != null) {
+      _peerHandle = peerHandle;
+    }
+    final int handle = args['remoteHandle'];
+    if (handle != null) {
+      final String remotePeerId = args['remotePeerId'];
+      if (remotePeerId != null) {
+        _remotePeerIds[handle] = remotePeerId;
+        _remoteHandles[remotePeerId] = handle;
+      } else {
+        args['remotePeerId'] = _remotePeerIds[handle];
+      }
+    }
+    // どこからも参照されなくなったリモートピアはネイティブ側でハンドルを破棄済みなので
+    // このイベントのリモートピアidを補った後で対応を破棄する(再び参照されたときは新しいハンドルが届く)
+    final List<dynamic> released = args['releasedPeerIds'];
+    if (released != null) {
+      for (final dynamic id in released) {
+        final int h = _remoteHandles.remove(id);
+        if (h != null) {
+          _remotePeerIds.remove(h);
+        }
       }
-    } else {
-      print('Unexpected peer id');
     }
   }
 
+  /// OnMetricsイベントの計測値をMapへ変換する
+  /// (バイナリ形式でも送信できるようにJSON文字列で届く)
+  Map<dynamic, dynamic> _decodeMetrics(Map<dynamic, dynamic> args) {
+    final Map<dynamic, dynamic> result = Map.from(args);
+    final dynamic metrics = args['metrics'];
+    if (metrics is String) {
+      result['metrics'] = jsonDecode(metrics);
+    }
+    return result;
+  }
+
+  /// バイナリ形式のイベントを受信したときの処理
+  Future<ByteData> _binaryEventListener(ByteData data) async {
+    if (data == null) {
+      return null;
+    }
+    final _BinaryEventReader reader = _BinaryEventReader(data);
+    final int version = reader.readUint8();
+    final int handle = reader.readInt32();
+    final int count = reader.readUint32();
+    if ((version != _BINARY_EVENT_VERSION) || (handle != _peerHandle)) {
+      print('Unexpected binary event,version=$version,handle=$handle');
+      return null;
+    }
+    for (int i = 0; i < count; i++) {
+      final int ordinal = reader.readUint8();
+      final int fields = reader.readUint32();
+      final Map<dynamic, dynamic> args = {'peerId': peerId};
+      for (int j = 0; j < fields; j++) {
+        final int keyId = reader.readUint8();
+        final String key = keyId == _BINARY_KEY_CUSTOM
+          ? reader.readString() : _BINARY_EVENT_KEYS[keyId];
+        args[key] = reader.readValue();
+      }
+      _resolveRemote(args);
+      final SkywayEvent event
+        = ordinal < _NATIVE_EVENTS.length ? _NATIVE_EVENTS[ordinal] : null;
+      if (event == SkywayEvent.OnMetrics) {
+        onEvent(event, _decodeMetrics(args));
+      } else if (event != null) {
+        onEvent(event, args);
+      } else {
+        print('unknown event($ordinal),args=$args');
+      }
+    }
+    return null;
+  }
+
   /// イベントチャネルでエラーが発生したときの処理
   void _errorListener(Object obj) {
     print("_eventListener:$obj");
     print('onError: $obj');
   }
-}
\ No newline at end of file
+}
+
+/// バイナリ形式のイベントを読み込むためのヘルパークラス
+/// (ネイティブ側のEventCodecの書き込みと対応させること)
+class _BinaryEventReader {
+  static const int _TYPE_STRING = 0;
+  static const int _TYPE_LONG = 1;
+  static const int _TYPE_DOUBLE = 2;
+  static const int _TYPE_STRING_LIST = 3;
+
+  final ByteData _data;
+  int _offset = 0;
+
+  _BinaryEventReader(this._data);
+
+  int readUint8() {
+    return _data.getUint8(_offset++);
+  }
+
+  int readUint32() {
+    final int result = _data.getUint32(_offset, Endian.little);
+    _offset += 4;
+    return result;
+  }
+
+  int readInt32() {
+    final int result = _data.getInt32(_offset, Endian.little);
+    _offset += 4;
+    return result;
+  }
+
+  String readString() {
+    final int bytes = readUint32();
+    final String result = utf8.decode(
+      _data.buffer.asUint8List(_data.offsetInBytes + _offset, bytes));
+    _offset += bytes;
+    return result;
+  }
+
+  dynamic readValue() {
+    final int type = readUint8();
+    switch (type) {
+      case _TYPE_LONG:
+        final int result = _data.getInt64(_offset, Endian.little);
+        _offset += 8;
+        return result;
+      case _TYPE_DOUBLE:
+        final double result = _data.getFloat64(_offset, Endian.little);
+        _offset += 8;
+        return result;
+      case _TYPE_STRING_LIST:
+        final int n = readUint32();
+        return List<String>.generate(n, (_) => readString());
+      case _TYPE_STRING:
+      default:
+        return readString();
+    }
+  }
+}
@@ -4,17 +4,122 @@ import 'package:flutter/foundation.dart';
 import 'package:flutter/material.dart';
 import 'package:flutter/services.dart';
 
+import 'skyway.dart';
+
 const String SKYWAY_CANVAS_VIEW = "com.serenegiant.flutter.skyway/SkywayCanvas";
 
 typedef onViewCreatedCallback = void Function(int id);
 
+/// 映像の表示方法
+enum SkywayRenderBackend {
+  /// プラットフォーム側のCanvasをAndroidView(PlatformView)として埋め込む
+  platformView,
+  /// プラットフォーム側でSurfaceTextureへ描画してTextureウイジェットで表示する
+  /// (PlatformViewの合成が不要になる, プラットフォーム側が対応していなければplatformViewで表示する)
+  texture,
+}
+
+/// 映像のスケーリング方法
+enum SkywayScaling {
+  /// 縦横比を保ってビュー内に収まるように拡大縮小する
+  aspectFit,
+  /// 縦横比を保ってビュー全体を覆うように拡大縮小する(はみ出た部分は表示しない)
+  aspectFill,
+  /// 縦横比を無視してビュー全体へ拡大縮小する
+  fill,
+}
+
+const Map<SkywayScaling, String> _SCALING_NAMES = {
+  SkywayScaling.aspectFit: 'ASPECT_FIT',
+  SkywayScaling.aspectFill: 'ASPECT_FILL',
+  SkywayScaling.fill: 'FILL',
+};
+
+/// Canvas毎の描画方法
+/// サムネイル表示等でフル解像度/フルフレームレートで描画する必要がないときに
+/// プラットフォーム側で描画前にフレームを間引いたり縮小して描画負荷を減らすために使う
+/// nullの項目はプラットフォーム側の設定を変更しない
+@immutable
+class SkywayRenderOptions {
+  /// 最大フレームレート, 0なら制限しない
+  final double maxFps;
+  /// 最大解像度(物理ピクセル), 0なら制限しない
+  final int maxWidth;
+  final int maxHeight;
+  /// スケーリング方法
+  final SkywayScaling scaling;
+  /// 左右反転するかどうか
+  final bool mirror;
+
+  const SkywayRenderOptions({
+    this.maxFps,
+    this.maxWidth,
+    this.maxHeight,
+    this.scaling,
+    this.mirror,
+  });
+
+  Map<String, dynamic> toMap() {
+    final Map<String, dynamic> result = {};
+    if (maxFps != null) {
+      result['maxFps'] = maxFps;
+    }
+    if (maxWidth != null) {
+      result['maxWidth'] = maxWidth;
+    }
+    if (maxHeight != null) {
+      result['maxHeight'] = maxHeight;
+    }
+    if (scaling != null) {
+      result['scaling'] = _SCALING_NAMES[scaling];
+    }
+    if (mirror != null) {
+      result['mirror'] = mirror;
+    }
+    return result;
+  }
+
+  @override
+  bool operator ==(Object other) {
+    return (other is SkywayRenderOptions)
+      && (other.maxFps == maxFps)
+      && (other.maxWidth == maxWidth)
+      && (other.maxHeight == maxHeight)
+      && (other.scaling == scaling)
+      && (other.mirror == mirror);
+  }
+
+  @override
+  int get hashCode => hashValues(maxFps, maxWidth, maxHeight, scaling, mirror);
+
+  @override
+  String toString() => 'SkywayRenderOptions${toMap()}';
+}
+
+/// 指定したCanvasの描画方法と描画/間引いたフレーム数を取得する
+/// renderedFrames/droppedFramesはテクスチャで表示しているとき(countsFrames=true)のみ計数する
+Future<Map<dynamic, dynamic>> getCanvasRenderStats(int viewId) async {
+  return await _SkywayCanvasViewController(viewId).getRenderStats();
+}
+
 /// プラットフォーム側のSkywayCanvasViewのラッパー
 class SkywayCanvasView extends StatefulWidget {
   final onViewCreatedCallback onViewCreated;
+  /// 映像を表示するかどうか
+  /// falseにするとプラットフォーム側で描画先から取り除いてデコード/描画の負荷を減らす
+  /// (スクロールで画面外になったときなど)
+  final bool visible;
+  /// 映像の表示方法
+  final SkywayRenderBackend backend;
+  /// 描画方法, nullならプラットフォーム側のデフォルトのまま
+  final SkywayRenderOptions renderOptions;
 
   SkywayCanvasView({
     Key key,
-    this.onViewCreated
+    this.onViewCreated,
+    this.visible = true,
+    this.backend = SkywayRenderBackend.platformView,
+    this.renderOptions,
   }): super(key: key);
 
   @override
@@ -23,15 +128,45 @@ class SkywayCanvasView extends StatefulWidget {
 
 class _SkywayCanvasViewState extends State<SkywayCanvasView> {
   _SkywayCanvasViewController _controller;
+  /// テクスチャで表示するときのTextureウイジェットへ渡すid
+  int _textureId;
+  bool _isCreatingTexture = false;
+  /// テクスチャで表示できなかったのでAndroidViewで表示するかどうか
+  bool _textureFailed = false;
 
   void _onPlatformViewCreated(int id) {
     print('_onPlatformViewCreated:id=$id');
     _controller = _SkywayCanvasViewController(id);
+    if (!widget.visible) {
+      _controller.setVisible(false);
+    }
+    if (widget.renderOptions != null) {
+      _controller.setRenderOptions(widget.renderOptions);
+    }
     if (widget.onViewCreated != null) {
       widget.onViewCreated(id);
     }
   }
 
+  @override
+  void didUpdateWidget(SkywayCanvasView oldWidget) {
+    super.didUpdateWidget(oldWidget);
+    if (oldWidget.visible != widget.visible) {
+      _controller?.setVisible(widget.visible);
+    }
+    if ((oldWidget.renderOptions != widget.renderOptions) && (widget.renderOptions != null)) {
+      _controller?.setRenderOptions(widget.renderOptions);
+    }
+  }
+
+  @override
+  void dispose() {
+    if (_textureId != null) {
+      disposeTextureView(_controller._id);
+    }
+    super.dispose();
+  }
+
   int getId() {
     return _controller != null ? _controller._id : 0;
   }
@@ -39,15 +174,70 @@ class _SkywayCanvasViewState extends State<SkywayCanvasView> {
   @override
   Widget build(BuildContext context) {
     if (Platform.isAndroid) {
-      return AndroidView(
-        viewType: SKYWAY_CANVAS_VIEW,
-        onPlatformViewCreated: _onPlatformViewCreated,
+      return LayoutBuilder(
+        builder: (BuildContext context, BoxConstraints constraints) {
+          // プラットフォーム側でCanvasを再利用するときに同じサイズのものを優先するために
+          // 表示サイズ(物理ピクセル)を渡す
+          final double ratio = MediaQuery.of(context).devicePixelRatio;
+          final Size size = constraints.biggest;
+          final int width = size.isFinite ? (size.width * ratio).round() : 0;
+          final int height = size.isFinite ? (size.height * ratio).round() : 0;
+          if ((widget.backend == SkywayRenderBackend.texture) && !_textureFailed) {
+            return _buildTexture(width, height);
+          }
+          return AndroidView(
+            viewType: SKYWAY_CANVAS_VIEW,
+            onPlatformViewCreated: _onPlatformViewCreated,
+            creationParams: size.isFinite ? {
+              'width': width,
+              'height': height,
+            } : null,
+            creationParamsCodec: const StandardMessageCodec(),
+          );
+        },
       );
     } else {
       return Text(
         '$defaultTargetPlatform. is not yet supported by this project');
     }
   }
+
+  /// テクスチャで表示するときのウイジェットを生成する
+  /// 描画先を生成するまでは何も表示しない
+  Widget _buildTexture(int width, int height) {
+    if (_textureId != null) {
+      return Texture(textureId: _textureId);
+    }
+    if (!_isCreatingTexture) {
+      _isCreatingTexture = true;
+      _createTexture(width, height);
+    }
+    return Container();
+  }
+
+  /// プラットフォーム側でテクスチャで表示する描画先を生成する
+  Future<void> _createTexture(int width, int height) async {
+    try {
+      final Map<dynamic, dynamic> result = await createTextureView(width, height);
+      final int viewId = result['viewId'];
+      if (!mounted) {
+        // 生成中に破棄されたとき
+        disposeTextureView(viewId);
+        return;
+      }
+      _onPlatformViewCreated(viewId);
+      setState(() {
+        _textureId = result['textureId'];
+      });
+    } on PlatformException catch (e) {
+      print(e);
+      if (mounted) {
+        setState(() {
+          _textureFailed = true;
+        });
+      }
+    }
+  }
 }
 
 class _SkywayCanvasViewController {
@@ -58,5 +248,22 @@ class _SkywayCanvasViewController {
     this._id,
   ) : _channel = MethodChannel(SKYWAY_CANVAS_VIEW + '_$_id');
 
-  // FIXME setter/getterを実装する
-}
\ No newline at end of file
+  /// 映像を表示するかどうかをプラットフォーム側へ通知する
+  Future<void> setVisible(bool visible) async {
+    return await _channel.invokeMethod('setVisible', {
+      'visible': visible,
+    });
+  }
+
+  /// 描画方法をプラットフォーム側へ設定する
+  Future<Map<dynamic, dynamic>> setRenderOptions(SkywayRenderOptions options) async {
+    return await _channel.invokeMethod('setRenderOptions', options.toMap());
+  }
+
+  /// 描画方法と描画/間引いたフレーム数を取得する
+  Future<Map<dynamic, dynamic>> getRenderStats() async {
+    return await _channel.invokeMethod('getRenderStats');
+  }
+
+  // FIXME その他のsetter/getterを実装する
+}
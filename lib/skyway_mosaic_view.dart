@@ -0,0 +1,157 @@
+import 'dart:io' show Platform;
+
+import 'package:flutter/foundation.dart';
+import 'package:flutter/material.dart';
+import 'package:flutter/services.dart';
+
+import 'skyway.dart';
+
+/// モザイク表示のレイアウト
+enum SkywayMosaicLayout {
+  /// 全員を同じ大きさで格子状に並べる
+  grid,
+  /// 先頭のリモートピアを上側に大きく表示して残りを下側に帯状に並べる
+  speaker,
+}
+
+const Map<SkywayMosaicLayout, String> _LAYOUT_NAMES = {
+  SkywayMosaicLayout.grid: 'grid',
+  SkywayMosaicLayout.speaker: 'speaker',
+};
+
+typedef onTilesChangedCallback = void Function(Map<dynamic, dynamic> tiles);
+
+/// 複数のリモート映像をプラットフォーム側で1つのテクスチャへ合成して表示するウイジェット
+/// リモート映像毎にSkywayCanvasViewを並べる代わりに使うとリモート映像の数によらず
+/// Surfaceと合成処理が1つで済む(多人数のルーム向け)
+/// レイアウトとリモートピアの並び順を渡すだけでリモート映像の取得開始もプラットフォーム側で行う
+class SkywayMosaicView extends StatefulWidget {
+  final SkywayPeer peer;
+  /// レイアウト
+  final SkywayMosaicLayout layout;
+  /// 表示するリモートピアのid(speakerのときは先頭を大きく表示する)
+  final List<String> remotePeerIds;
+  /// リモート映像を受信しているルーム名
+  final String room;
+  /// タイルが変化したときのコールバック
+  /// リモートピアのidとタイルのviewId(getCanvasRenderStats等で使える)を受け取る
+  final onTilesChangedCallback onTilesChanged;
+
+  SkywayMosaicView({
+    Key key,
+    @required this.peer,
+    @required this.remotePeerIds,
+    this.layout = SkywayMosaicLayout.grid,
+    this.room,
+    this.onTilesChanged,
+  }): super(key: key);
+
+  @override
+  State<StatefulWidget> createState() => _SkywayMosaicViewState();
+}
+
+class _SkywayMosaicViewState extends State<SkywayMosaicView> {
+  int _mosaicId;
+  int _textureId;
+  bool _isCreating = false;
+  /// プラットフォーム側でモザイク表示を生成できなかったかどうか
+  bool _failed = false;
+  /// 表示サイズ(物理ピクセル)
+  int _width = 0;
+  int _height = 0;
+
+  @override
+  void didUpdateWidget(SkywayMosaicView oldWidget) {
+    super.didUpdateWidget(oldWidget);
+    if ((oldWidget.peer != widget.peer)
+      || (oldWidget.layout != widget.layout)
+      || (oldWidget.room != widget.room)
+      || !listEquals(oldWidget.remotePeerIds, widget.remotePeerIds)) {
+      _updateLayout();
+    }
+  }
+
+  @override
+  void dispose() {
+    if (_mosaicId != null) {
+      disposeMosaicView(_mosaicId);
+    }
+    super.dispose();
+  }
+
+  @override
+  Widget build(BuildContext context) {
+    if (Platform.isAndroid) {
+      return LayoutBuilder(
+        builder: (BuildContext context, BoxConstraints constraints) {
+          // 合成するサイズを表示サイズ(物理ピクセル)に合わせる
+          final double ratio = MediaQuery.of(context).devicePixelRatio;
+          final Size size = constraints.biggest;
+          final int width = size.isFinite ? (size.width * ratio).round() : 0;
+          final int height = size.isFinite ? (size.height * ratio).round() : 0;
+          if ((width != _width) || (height != _height)) {
+            _width = width;
+            _height = height;
+            _updateLayout();
+          }
+          if (_failed) {
+            return Text('mosaic view is not supported');
+          }
+          if (_textureId != null) {
+            return Texture(textureId: _textureId);
+          }
+          if (!_isCreating) {
+            _isCreating = true;
+            _create(width, height);
+          }
+          return Container();
+        },
+      );
+    } else {
+      return Text(
+        '$defaultTargetPlatform. is not yet supported by this project');
+    }
+  }
+
+  /// プラットフォーム側でモザイク表示を生成する
+  Future<void> _create(int width, int height) async {
+    try {
+      final Map<dynamic, dynamic> result = await createMosaicView(width, height);
+      final int mosaicId = result['mosaicId'];
+      if (!mounted) {
+        // 生成中に破棄されたとき
+        disposeMosaicView(mosaicId);
+        return;
+      }
+      _mosaicId = mosaicId;
+      setState(() {
+        _textureId = result['textureId'];
+      });
+      await _updateLayout();
+    } on PlatformException catch (e) {
+      print(e);
+      if (mounted) {
+        setState(() {
+          _failed = true;
+        });
+      }
+    }
+  }
+
+  /// レイアウトとリモートピアの並び順をプラットフォーム側へ設定する
+  Future<void> _updateLayout() async {
+    if ((_mosaicId == null) || (widget.peer == null)) {
+      return;
+    }
+    try {
+      final Map<dynamic, dynamic> tiles = await widget.peer.setMosaicLayout(
+        _mosaicId, _LAYOUT_NAMES[widget.layout], widget.remotePeerIds,
+        room: widget.room, width: _width, height: _height);
+      if (mounted && (widget.onTilesChanged != null)) {
+        widget.onTilesChanged(tiles);
+      }
+    } on PlatformException catch (e) {
+      print(e);
+    }
+  }
+}
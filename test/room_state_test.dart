@@ -0,0 +1,47 @@
+import 'package:flutter_test/flutter_test.dart';
+
+import 'package:skyway_flutter_test/skyway.dart';
+
+Map<String, dynamic> _event(String room, String remotePeerId, int stateVersion,
+  [int stateVersionFrom]) {
+  final Map<String, dynamic> args = {
+    'room': room,
+    'remotePeerId': remotePeerId,
+    'stateVersion': stateVersion,
+  };
+  if (stateVersionFrom != null) {
+    args['stateVersionFrom'] = stateVersionFrom;
+  }
+  return args;
+}
+
+void main() {
+  test('applies consecutive versions', () {
+    final SkywayRoomState state = SkywayRoomState();
+    expect(state.applyEvent(SkywayEvent.OnOpenRoom, {'room': 'room', 'stateVersion': 1}), isTrue);
+    expect(state.applyEvent(SkywayEvent.OnJoin, _event('room', 'a', 2)), isTrue);
+    expect(state.members('room'), {'a'});
+    expect(state.version, 2);
+  });
+
+  test('resyncs on a gap without carried versions', () {
+    final SkywayRoomState state = SkywayRoomState();
+    expect(state.applyEvent(SkywayEvent.OnJoin, _event('room', 'a', 3)), isFalse);
+    expect(state.version, 0);
+  });
+
+  test('accepts versions carried over from batcher cancellation', () {
+    // EventBatcherでOnAddRemoteStream(v3)とOnRemoveRemoteStream(v5)が打ち消し合ったときに送信されるイベント
+    final SkywayRoomState state = SkywayRoomState();
+    expect(state.applyEvent(SkywayEvent.OnOpenRoom, {'room': 'room', 'stateVersion': 1}), isTrue);
+    expect(state.applyEvent(SkywayEvent.OnJoin, _event('room', 'a', 2)), isTrue);
+    expect(state.applyEvent(SkywayEvent.OnJoin, _event('room', 'b', 4, 3)), isTrue);
+    expect(state.applyEvent(SkywayEvent.OnAddRemoteStream, _event('room', 'b', 6, 5)), isTrue);
+    expect(state.version, 6);
+    expect(state.members('room'), {'a', 'b'});
+    expect(state.streams('room'), {'b'});
+    // 引き継いだ範囲より前を取りこぼしていれば同期し直す
+    expect(state.applyEvent(SkywayEvent.OnLeave, _event('room', 'a', 9, 8)), isFalse);
+    expect(state.version, 6);
+  });
+}